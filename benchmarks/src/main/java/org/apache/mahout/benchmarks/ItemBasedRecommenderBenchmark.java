@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.TanimotoCoefficientSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link GenericItemBasedRecommender#recommend(long, int)} over a synthetic in-memory data model whose item
+ * popularity follows a skewed distribution, as real usage data does. Each invocation recommends for the next
+ * user in turn, so the timings average over light and heavy users.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class ItemBasedRecommenderBenchmark {
+
+  @Param({"2000"})
+  private int numUsers;
+
+  @Param({"5000"})
+  private int numItems;
+
+  @Param({"40"})
+  private int prefsPerUser;
+
+  @Param({"loglikelihood", "tanimoto", "pearson"})
+  private String similarity;
+
+  @Param({"10"})
+  private int howMany;
+
+  private GenericItemBasedRecommender recommender;
+  private int nextUser;
+
+  @Setup
+  public void setUp() throws TasteException {
+    Random random = RandomUtils.getRandom(1234L);
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>(numUsers);
+    for (int userID = 0; userID < numUsers; userID++) {
+      // between 1 and 2 * prefsPerUser preferences, mostly for the popular items
+      int numPrefs = 1 + random.nextInt(2 * prefsPerUser);
+      FastIDSet itemIDs = new FastIDSet(numPrefs);
+      while (itemIDs.size() < numPrefs && itemIDs.size() < numItems) {
+        double r = random.nextDouble();
+        itemIDs.add((long) (numItems * r * r));
+      }
+      PreferenceArray prefs = new GenericUserPreferenceArray(itemIDs.size());
+      prefs.setUserID(0, userID);
+      int i = 0;
+      for (long itemID : itemIDs) {
+        prefs.setItemID(i, itemID);
+        prefs.setValue(i, 1 + random.nextInt(5));
+        i++;
+      }
+      userData.put(userID, prefs);
+    }
+    DataModel dataModel = new GenericDataModel(userData);
+    recommender = new GenericItemBasedRecommender(dataModel, createSimilarity(dataModel));
+  }
+
+  private ItemSimilarity createSimilarity(DataModel dataModel) throws TasteException {
+    if ("loglikelihood".equals(similarity)) {
+      return new LogLikelihoodSimilarity(dataModel);
+    }
+    if ("tanimoto".equals(similarity)) {
+      return new TanimotoCoefficientSimilarity(dataModel);
+    }
+    if ("pearson".equals(similarity)) {
+      return new PearsonCorrelationSimilarity(dataModel);
+    }
+    throw new IllegalArgumentException("Unknown similarity: " + similarity);
+  }
+
+  @Benchmark
+  public List<RecommendedItem> recommend() throws TasteException {
+    long userID = nextUser;
+    nextUser = (nextUser + 1) % numUsers;
+    return recommender.recommend(userID, howMany);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.classifier.sgd.L1;
+import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link OnlineLogisticRegression#train(int, Vector)} and {@link OnlineLogisticRegression#classify(Vector)}
+ * on sparse, hashed-feature style instances. Each invocation processes the next instance of a fixed pool.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class LogisticRegressionBenchmark {
+
+  private static final int NUM_INSTANCES = 1000;
+
+  @Param({"2", "20"})
+  private int numCategories;
+
+  @Param({"10000"})
+  private int numFeatures;
+
+  @Param({"50"})
+  private int numNonZeros;
+
+  @Param
+  private VectorType vectorType;
+
+  private OnlineLogisticRegression learner;
+  private Vector[] instances;
+  private int[] targets;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    instances = new Vector[NUM_INSTANCES];
+    targets = new int[NUM_INSTANCES];
+    for (int i = 0; i < NUM_INSTANCES; i++) {
+      instances[i] = vectorType.random(random, numFeatures, numNonZeros);
+      targets[i] = random.nextInt(numCategories);
+    }
+    learner = new OnlineLogisticRegression(numCategories, numFeatures, new L1()).lambda(1.0e-4).learningRate(10);
+    // a model that has seen some data, so classify does not only multiply zeros
+    for (int i = 0; i < NUM_INSTANCES; i++) {
+      learner.train(targets[i], instances[i]);
+    }
+  }
+
+  private int nextInstance() {
+    int i = next;
+    next = (next + 1) % NUM_INSTANCES;
+    return i;
+  }
+
+  @Benchmark
+  public OnlineLogisticRegression train() {
+    int i = nextInstance();
+    learner.train(targets[i], instances[i]);
+    return learner;
+  }
+
+  @Benchmark
+  public Vector classify() {
+    return learner.classify(instances[nextInstance()]);
+  }
+
+  @Benchmark
+  public Vector classifyFull() {
+    return learner.classifyFull(instances[nextInstance()]);
+  }
+}
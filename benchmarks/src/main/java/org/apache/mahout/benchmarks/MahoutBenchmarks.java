@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Entry point of the benchmarks jar. Accepts the usual JMH command line, e.g.</p>
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar VectorBenchmark -p cardinality=1000
+ * </pre>
+ *
+ * <p>Unless a result format or file is given with {@code -rf} / {@code -rff}, results are written as JSON
+ * to {@code mahout-benchmarks.json} in the working directory, so that runs against two releases can be
+ * compared with any JSON diff tool.</p>
+ */
+public final class MahoutBenchmarks {
+
+  public static final String DEFAULT_RESULT_FILE = "mahout-benchmarks.json";
+
+  private MahoutBenchmarks() {
+  }
+
+  public static void main(String[] args) throws RunnerException, IOException {
+    CommandLineOptions commandLine;
+    try {
+      commandLine = new CommandLineOptions(args);
+    } catch (CommandLineOptionException e) {
+      System.err.println("Error parsing command line: " + e.getMessage());
+      System.exit(1);
+      return;
+    }
+    if (commandLine.shouldHelp()) {
+      commandLine.showHelp();
+      return;
+    }
+    if (commandLine.shouldList()) {
+      new Runner(commandLine).list();
+      return;
+    }
+
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+    if (!commandLine.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLine.getResult().hasValue()) {
+      options.result(new File(DEFAULT_RESULT_FILE).getAbsolutePath());
+    }
+    if (commandLine.getIncludes().isEmpty()) {
+      options.include(MahoutBenchmarks.class.getPackage().getName() + ".*");
+    }
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.clustering.streaming.cluster.StreamingKMeans;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.neighborhood.BruteSearch;
+import org.apache.mahout.math.neighborhood.FastProjectionSearch;
+import org.apache.mahout.math.neighborhood.ProjectionSearch;
+import org.apache.mahout.math.neighborhood.UpdatableSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One pass of {@link StreamingKMeans} over points drawn from a mixture of gaussians, once per searcher used
+ * to find the closest centroid.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Thread)
+public class StreamingKMeansBenchmark {
+
+  private static final int NUM_PROJECTIONS = 3;
+  private static final int SEARCH_SIZE = 10;
+
+  @Param({"10000"})
+  private int numPoints;
+
+  @Param({"20"})
+  private int numDimensions;
+
+  @Param({"100"})
+  private int numClusters;
+
+  @Param({"brute", "projection", "fastprojection"})
+  private String searcher;
+
+  private Matrix data;
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    double[][] means = new double[numClusters][numDimensions];
+    for (double[] mean : means) {
+      for (int j = 0; j < numDimensions; j++) {
+        mean[j] = 10 * random.nextDouble();
+      }
+    }
+    data = new DenseMatrix(numPoints, numDimensions);
+    for (int i = 0; i < numPoints; i++) {
+      double[] mean = means[random.nextInt(numClusters)];
+      for (int j = 0; j < numDimensions; j++) {
+        data.setQuick(i, j, mean[j] + random.nextGaussian());
+      }
+    }
+  }
+
+  private UpdatableSearcher createSearcher() {
+    DistanceMeasure measure = new SquaredEuclideanDistanceMeasure();
+    if ("brute".equals(searcher)) {
+      return new BruteSearch(measure);
+    }
+    if ("projection".equals(searcher)) {
+      return new ProjectionSearch(measure, NUM_PROJECTIONS, SEARCH_SIZE);
+    }
+    if ("fastprojection".equals(searcher)) {
+      return new FastProjectionSearch(measure, NUM_PROJECTIONS, SEARCH_SIZE);
+    }
+    throw new IllegalArgumentException("Unknown searcher: " + searcher);
+  }
+
+  @Benchmark
+  public UpdatableSearcher cluster() {
+    return new StreamingKMeans(createSearcher(), numClusters).cluster(data);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.common.distance.DistanceMeasure;
+import org.apache.mahout.common.distance.ManhattanDistanceMeasure;
+import org.apache.mahout.common.distance.SquaredEuclideanDistanceMeasure;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.function.Functions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binary and unary {@link Vector} operations for every combination of dense, random access sparse and
+ * sequential access sparse operands. Replaces the hand-rolled timing loops of
+ * {@code org.apache.mahout.benchmark.VectorBenchmarks} in the integration module.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class VectorBenchmark {
+
+  @Param({"1000", "100000"})
+  private int cardinality;
+
+  @Param({"100"})
+  private int numNonZeros;
+
+  @Param
+  private VectorType left;
+
+  @Param
+  private VectorType right;
+
+  private Vector a;
+  private Vector b;
+  private Vector scratch;
+
+  private final DistanceMeasure squaredEuclidean = new SquaredEuclideanDistanceMeasure();
+  private final DistanceMeasure cosine = new CosineDistanceMeasure();
+  private final DistanceMeasure manhattan = new ManhattanDistanceMeasure();
+
+  @Setup
+  public void setUp() {
+    Random random = RandomUtils.getRandom(1234L);
+    int nonZeros = left == VectorType.DENSE ? cardinality : numNonZeros;
+    a = left.random(random, cardinality, nonZeros);
+    b = right.random(random, cardinality, right == VectorType.DENSE ? cardinality : numNonZeros);
+    scratch = a.clone();
+  }
+
+  @Benchmark
+  public double dot() {
+    return a.dot(b);
+  }
+
+  @Benchmark
+  public Vector plus() {
+    return a.plus(b);
+  }
+
+  @Benchmark
+  public Vector minus() {
+    return a.minus(b);
+  }
+
+  @Benchmark
+  public Vector times() {
+    return a.times(b);
+  }
+
+  @Benchmark
+  public Vector assignPlusMult() {
+    return scratch.assign(b, Functions.plusMult(1.0e-9));
+  }
+
+  @Benchmark
+  public double getDistanceSquared() {
+    return a.getDistanceSquared(b);
+  }
+
+  @Benchmark
+  public double squaredEuclideanDistance() {
+    return squaredEuclidean.distance(a, b);
+  }
+
+  @Benchmark
+  public double cosineDistance() {
+    return cosine.distance(a, b);
+  }
+
+  @Benchmark
+  public double manhattanDistance() {
+    return manhattan.distance(a, b);
+  }
+
+  @Benchmark
+  public Vector copy() {
+    return right.copyOf(a);
+  }
+}
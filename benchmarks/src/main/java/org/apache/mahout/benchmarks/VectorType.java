@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.mahout.benchmarks;
+
+import java.util.Random;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+
+/**
+ * The {@link Vector} implementations benchmarked against each other; used as a JMH parameter so that every
+ * combination of operand types gets its own result.
+ */
+public enum VectorType {
+
+  DENSE {
+    @Override
+    public Vector copyOf(Vector source) {
+      return new DenseVector(source);
+    }
+  },
+
+  RANDOM_ACCESS_SPARSE {
+    @Override
+    public Vector copyOf(Vector source) {
+      return new RandomAccessSparseVector(source);
+    }
+  },
+
+  SEQUENTIAL_ACCESS_SPARSE {
+    @Override
+    public Vector copyOf(Vector source) {
+      return new SequentialAccessSparseVector(source);
+    }
+  };
+
+  public abstract Vector copyOf(Vector source);
+
+  /**
+   * Creates a vector of this type with {@code numNonZeros} gaussian entries at random positions.
+   */
+  public Vector random(Random random, int cardinality, int numNonZeros) {
+    Vector v = new RandomAccessSparseVector(cardinality, numNonZeros);
+    if (numNonZeros >= cardinality) {
+      for (int i = 0; i < cardinality; i++) {
+        v.setQuick(i, random.nextGaussian());
+      }
+    } else {
+      while (v.getNumNondefaultElements() < numNonZeros) {
+        v.setQuick(random.nextInt(cardinality), random.nextGaussian());
+      }
+    }
+    return copyOf(v);
+  }
+}
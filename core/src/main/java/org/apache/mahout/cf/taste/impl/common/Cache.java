@@ -1,178 +1,384 @@
-/**
- * Licensed to the Apache Software Foundation (ASF) under one or more
- * contributor license agreements.  See the NOTICE file distributed with
- * this work for additional information regarding copyright ownership.
- * The ASF licenses this file to You under the Apache License, Version 2.0
- * (the "License"); you may not use this file except in compliance with
- * the License.  You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package org.apache.mahout.cf.taste.impl.common;
-
-import com.google.common.base.Preconditions;
-import org.apache.mahout.cf.taste.common.TasteException;
-
-import java.util.Iterator;
-
-/**
- * <p>
- * An efficient Map-like class which caches values for keys. Values are not "put" into a {@link Cache};
- * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
- * value for a given key.
- * </p>
- *
- * <p>
- * The cache does not support {@code null} keys.
- * </p>
- *
- * <p>
- * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
- * Google Summer of Code 2007 project.
- * </p>
- */
-public final class Cache<K,V> implements Retriever<K,V> {
-
-  private static final Object NULL = new Object();
-  
-  private final FastMap<K,V> cache;
-  private final Retriever<? super K,? extends V> retriever;
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever}.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   */
-  public Cache(Retriever<? super K,? extends V> retriever) {
-    this(retriever, FastMap.NO_MAX_SIZE);
-  }
-  
-  /**
-   * <p>
-   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
-   * </p>
-   * 
-   * @param retriever
-   *          object which can retrieve values for keys
-   * @param maxEntries
-   *          maximum number of entries the cache will store before evicting some
-   */
-  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
-    Preconditions.checkArgument(retriever != null, "retriever is null");
-    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
-    cache = new FastMap<K, V>(11, maxEntries);
-    this.retriever = retriever;
-  }
-  
-  /**
-   * <p>
-   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   * @return value for that key
-   * @throws TasteException
-   *           if an exception occurs while retrieving a new cached value
-   */
-  @Override
-  public V get(K key) throws TasteException {
-    V value;
-    synchronized (cache) {
-      value = cache.get(key);
-    }
-    if (value == null) {
-      return getAndCacheValue(key);
-    }
-    return value == NULL ? null : value;
-  }
-  
-  /**
-   * <p>
-   * Uncaches any existing value for a given key.
-   * </p>
-   * 
-   * @param key
-   *          cache key
-   */
-  public void remove(K key) {
-    synchronized (cache) {
-      cache.remove(key);
-    }
-  }
-
-  /**
-   * Clears all cache entries whose key matches the given predicate.
-   */
-  public void removeKeysMatching(MatchPredicate<K> predicate) {
-    synchronized (cache) {
-      Iterator<K> it = cache.keySet().iterator();
-      while (it.hasNext()) {
-        K key = it.next();
-        if (predicate.matches(key)) {
-          it.remove();
-        }
-      }
-    }
-  }
-
-  /**
-   * Clears all cache entries whose value matches the given predicate.
-   */
-  public void removeValueMatching(MatchPredicate<V> predicate) {
-    synchronized (cache) {
-      Iterator<V> it = cache.values().iterator();
-      while (it.hasNext()) {
-        V value = it.next();
-        if (predicate.matches(value)) {
-          it.remove();
-        }
-      }
-    }
-  }
-  
-  /**
-   * <p>
-   * Clears the cache.
-   * </p>
-   */
-  public void clear() {
-    synchronized (cache) {
-      cache.clear();
-    }
-  }
-  
-  private V getAndCacheValue(K key) throws TasteException {
-    V value = retriever.get(key);
-    if (value == null) {
-      value = (V) NULL;
-    }
-    synchronized (cache) {
-      cache.put(key, value);
-    }
-    return value;
-  }
-  
-  @Override
-  public String toString() {
-    return "Cache[retriever:" + retriever + ']';
-  }
-
-  /**
-   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
-   */
-  public interface MatchPredicate<T> {
-    boolean matches(T thing);
-  }
-  
-}
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.TasteException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * An efficient Map-like class which caches values for keys. Values are usually not "put" into a {@link Cache};
+ * instead the caller supplies the instance with an implementation of {@link Retriever} which can load the
+ * value for a given key. Callers which can compute many values more cheaply at once than one by one may
+ * look up what is cached with {@link #getIfPresent(Object)} and {@link #put(Object, Object)} the rest.
+ * </p>
+ *
+ * <p>
+ * The cache does not support {@code null} keys.
+ * </p>
+ *
+ * <p>
+ * Keys are spread over a number of independently locked segments, so threads looking up different keys
+ * rarely contend with each other. Each segment evicts its least recently used entry once it is full. The
+ * {@link Retriever} is never called while a lock is held, and concurrent requests for the same missing key
+ * wait for a single retrieval instead of each calling the {@link Retriever}.
+ * </p>
+ *
+ * <p>
+ * Thanks to Amila Jayasooriya for helping evaluate performance of the rewrite of this class, as part of a
+ * Google Summer of Code 2007 project.
+ * </p>
+ */
+public final class Cache<K,V> implements Retriever<K,V> {
+
+  private static final Object NULL = new Object();
+
+  private static final int MAX_SEGMENTS = 64;
+  
+  private final Segment<K,V>[] segments;
+  private final int segmentMask;
+  private final Retriever<? super K,? extends V> retriever;
+  
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever}.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   */
+  public Cache(Retriever<? super K,? extends V> retriever) {
+    this(retriever, FastMap.NO_MAX_SIZE);
+  }
+  
+  /**
+   * <p>
+   * Creates a new cache based on the given {@link Retriever} and with given maximum size.
+   * </p>
+   * 
+   * @param retriever
+   *          object which can retrieve values for keys
+   * @param maxEntries
+   *          maximum number of entries the cache will store before evicting some
+   */
+  public Cache(Retriever<? super K,? extends V> retriever, int maxEntries) {
+    Preconditions.checkArgument(retriever != null, "retriever is null");
+    Preconditions.checkArgument(maxEntries >= 1, "maxEntries must be at least 1");
+    this.retriever = retriever;
+    // a power of two number of segments, each of which gets to hold at least a few entries
+    int numSegments = 1;
+    while (numSegments < MAX_SEGMENTS && numSegments * 2 <= maxEntries / 4) {
+      numSegments *= 2;
+    }
+    segmentMask = numSegments - 1;
+    int maxEntriesPerSegment = maxEntries == FastMap.NO_MAX_SIZE
+        ? FastMap.NO_MAX_SIZE : (maxEntries + numSegments - 1) / numSegments;
+    segments = newSegmentArray(numSegments);
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment<K,V>(maxEntriesPerSegment);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K,V> Segment<K,V>[] newSegmentArray(int size) {
+    return (Segment<K,V>[]) new Segment<?,?>[size];
+  }
+
+  private Segment<K,V> segmentFor(Object key) {
+    // spread the hash so that keys differing only in high bits end up in different segments
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return segments[h & segmentMask];
+  }
+  
+  /**
+   * <p>
+   * Returns cached value for a key. If it does not exist, it is loaded using a {@link Retriever}.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   * @return value for that key
+   * @throws TasteException
+   *           if an exception occurs while retrieving a new cached value
+   */
+  @Override
+  public V get(K key) throws TasteException {
+    Segment<K,V> segment = segmentFor(key);
+    Loader loader;
+    boolean mustLoad = false;
+    segment.lock.lock();
+    try {
+      Object value = segment.entries.get(key);
+      if (value != null) {
+        return unmask(value);
+      }
+      loader = segment.loading.get(key);
+      if (loader == null) {
+        loader = new Loader(key);
+        segment.loading.put(key, loader);
+        mustLoad = true;
+      }
+    } finally {
+      segment.lock.unlock();
+    }
+    if (mustLoad) {
+      loader.run();
+      segment.lock.lock();
+      try {
+        // only publish the value if nobody removed the key or cleared the cache while it was loading
+        if (segment.loading.get(key) == loader) {
+          segment.loading.remove(key);
+          if (!loader.failed()) {
+            segment.entries.put(key, loader.getValue());
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+    return unmask(loader.getValue());
+  }
+
+  /**
+   * <p>
+   * Returns the cached value for a key without loading it.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   * @return value for that key, or {@code null} if it is not cached (or the cached value is {@code null})
+   */
+  public V getIfPresent(K key) {
+    Segment<K,V> segment = segmentFor(key);
+    segment.lock.lock();
+    try {
+      return unmask(segment.entries.get(key));
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * <p>
+   * Caches a value that was computed outside of the {@link Retriever}, replacing any cached value.
+   * </p>
+   *
+   * @param key
+   *          cache key
+   * @param value
+   *          value for that key
+   */
+  public void put(K key, V value) {
+    Segment<K,V> segment = segmentFor(key);
+    segment.lock.lock();
+    try {
+      segment.entries.put(key, value == null ? NULL : value);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V unmask(Object value) {
+    return value == NULL ? null : (V) value;
+  }
+  
+  /**
+   * <p>
+   * Uncaches any existing value for a given key.
+   * </p>
+   * 
+   * @param key
+   *          cache key
+   */
+  public void remove(K key) {
+    Segment<K,V> segment = segmentFor(key);
+    segment.lock.lock();
+    try {
+      segment.entries.remove(key);
+      segment.loading.remove(key);
+    } finally {
+      segment.lock.unlock();
+    }
+  }
+
+  /**
+   * Clears all cache entries whose key matches the given predicate.
+   */
+  public void removeKeysMatching(MatchPredicate<K> predicate) {
+    for (Segment<K,V> segment : segments) {
+      segment.lock.lock();
+      try {
+        Iterator<K> it = segment.entries.keySet().iterator();
+        while (it.hasNext()) {
+          if (predicate.matches(it.next())) {
+            it.remove();
+          }
+        }
+        it = segment.loading.keySet().iterator();
+        while (it.hasNext()) {
+          if (predicate.matches(it.next())) {
+            it.remove();
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Clears all cache entries whose value matches the given predicate.
+   */
+  public void removeValueMatching(MatchPredicate<V> predicate) {
+    for (Segment<K,V> segment : segments) {
+      segment.lock.lock();
+      try {
+        Iterator<Object> it = segment.entries.values().iterator();
+        while (it.hasNext()) {
+          V value = unmask(it.next());
+          if (predicate.matches(value)) {
+            it.remove();
+          }
+        }
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+  
+  /**
+   * <p>
+   * Clears the cache.
+   * </p>
+   */
+  public void clear() {
+    for (Segment<K,V> segment : segments) {
+      segment.lock.lock();
+      try {
+        segment.entries.clear();
+        segment.loading.clear();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "Cache[retriever:" + retriever + ']';
+  }
+
+  /**
+   * Used by {#link #removeKeysMatching(Object)} to decide things that are matching.
+   */
+  public interface MatchPredicate<T> {
+    boolean matches(T thing);
+  }
+
+  /**
+   * A part of the cache guarded by its own lock. Entries are kept in access order so that the least
+   * recently used one is evicted when the segment is full.
+   */
+  private static final class Segment<K,V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<K,Object> entries;
+    private final Map<K,Cache<K,V>.Loader> loading = new LinkedHashMap<K,Cache<K,V>.Loader>();
+
+    private Segment(final int maxEntries) {
+      entries = new LinkedHashMap<K,Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K,Object> eldest) {
+          return size() > maxEntries;
+        }
+      };
+    }
+  }
+
+  /**
+   * Retrieves the value for one key exactly once, on behalf of all threads asking for it concurrently.
+   */
+  private final class Loader extends FutureTask<Object> {
+
+    private Loader(final K key) {
+      super(new Callable<Object>() {
+        @Override
+        public Object call() throws TasteException {
+          V value = retriever.get(key);
+          return value == null ? NULL : value;
+        }
+      });
+    }
+
+    private boolean failed() {
+      if (!isDone()) {
+        return false;
+      }
+      try {
+        get();
+        return false;
+      } catch (InterruptedException ie) {
+        return true;
+      } catch (ExecutionException ee) {
+        return true;
+      }
+    }
+
+    private Object getValue() throws TasteException {
+      boolean interrupted = false;
+      try {
+        while (true) {
+          try {
+            return get();
+          } catch (InterruptedException ie) {
+            // keep waiting so the value is not lost to other waiters, but restore the interrupt later
+            interrupted = true;
+          }
+        }
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        if (cause instanceof TasteException) {
+          throw (TasteException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new TasteException(cause);
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.common;
+
+import java.nio.LongBuffer;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Iterates over the IDs in a {@link LongBuffer}, such as the sorted IDs of a memory-mapped file, up to its limit
+ * and without copying them. {@link #search(LongBuffer, int, int, long)} finds an ID in such a buffer.
+ */
+public final class LongPrimitiveBufferIterator extends AbstractLongPrimitiveIterator {
+
+  private final LongBuffer ids;
+  private int position;
+
+  public LongPrimitiveBufferIterator(LongBuffer ids) {
+    this.ids = Preconditions.checkNotNull(ids);
+  }
+
+  @Override
+  public boolean hasNext() {
+    return position < ids.limit();
+  }
+
+  @Override
+  public long nextLong() {
+    if (position >= ids.limit()) {
+      throw new NoSuchElementException();
+    }
+    return ids.get(position++);
+  }
+
+  @Override
+  public long peek() {
+    if (position >= ids.limit()) {
+      throw new NoSuchElementException();
+    }
+    return ids.get(position);
+  }
+
+  @Override
+  public void skip(int n) {
+    if (n > 0) {
+      position += n;
+    }
+  }
+
+  /**
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Binary search for {@code key} among the sorted elements {@code from} (inclusive) to {@code to} (exclusive)
+   * of {@code sorted}.
+   *
+   * @return index of {@code key}, or -1 if it is not there
+   */
+  public static int search(LongBuffer sorted, int from, int to, long key) {
+    int low = from;
+    int high = to - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midValue = sorted.get(mid);
+      if (midValue < key) {
+        low = mid + 1;
+      } else if (midValue > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+}
@@ -217,7 +217,7 @@ public final class GenericRecommenderIRStatsEvaluator implements RecommenderIRSt
         (double) numUsersWithRecommendations / (double) numUsersRecommendedFor);
   }
 
-  private static double computeThreshold(PreferenceArray prefs) {
+  static double computeThreshold(PreferenceArray prefs) {
     if (prefs.length() < 2) {
       // Not enough data points -- return a threshold that allows everything
       return Double.NEGATIVE_INFINITY;
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * A histogram of non-negative {@code long} values, such as latencies in nanoseconds, with log-linear buckets in
+ * the manner of an HDR histogram: values below 256 are counted exactly, and larger values in buckets no wider than
+ * 1/128 of their value. Any percentile is therefore reported within 0.8% of the true value over the whole range of
+ * {@code long}, in constant space.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe. Threads should record into their own histograms and {@link #add(LatencyHistogram)}
+ * them afterwards.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+  private static final int MAX_SHIFT = 63 - SUB_BUCKET_BITS;
+
+  private final long[] counts;
+  private long totalCount;
+  private double sum;
+  private long min;
+  private long max;
+
+  public LatencyHistogram() {
+    counts = new long[SUB_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_HALF_COUNT];
+    min = Long.MAX_VALUE;
+    max = 0L;
+  }
+
+  public void recordValue(long value) {
+    Preconditions.checkArgument(value >= 0L, "Negative value: %s", value);
+    counts[index(value)]++;
+    totalCount++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public long getCount() {
+    return totalCount;
+  }
+
+  public double getMean() {
+    return totalCount == 0L ? Double.NaN : sum / totalCount;
+  }
+
+  public long getMin() {
+    return totalCount == 0L ? 0L : min;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile in [0,100]
+   * @return the smallest recorded value, to within the histogram's precision, that is at least as large as
+   *  {@code percentile} percent of all recorded values; 0 if none were recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    Preconditions.checkArgument(percentile >= 0.0 && percentile <= 100.0, "Bad percentile: %s", percentile);
+    if (totalCount == 0L) {
+      return 0L;
+    }
+    long countAtPercentile = Math.max(1L, (long) Math.ceil(percentile / 100.0 * totalCount));
+    long seen = 0L;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= countAtPercentile) {
+        return Math.max(min, Math.min(max, highestEquivalentValue(i)));
+      }
+    }
+    return max;
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    // keep the top SUB_BUCKET_BITS bits of the value
+    int shift = 64 - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT
+        + (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = 1 + (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT;
+    long subBucket = SUB_BUCKET_HALF_COUNT + (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram[count:" + totalCount + ",mean:" + getMean() + ",p50:" + getValueAtPercentile(50.0)
+        + ",p99:" + getValueAtPercentile(99.0) + ",p99.9:" + getValueAtPercentile(99.9) + ",max:" + max + ']';
+  }
+
+}
@@ -18,10 +18,20 @@
 package org.apache.mahout.cf.taste.impl.eval;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
@@ -29,12 +39,32 @@ import org.apache.mahout.cf.taste.impl.common.RunningAverageAndStdDev;
 import org.apache.mahout.cf.taste.impl.common.SamplingLongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.list.LongArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Simple helper class for running load on a Recommender.
+ * <p>
+ * Measures how fast a {@link Recommender} computes recommendations under load.
+ * </p>
+ *
+ * <p>
+ * {@link #runLoad(Recommender, int)} requests recommendations for a sample of users as fast as a thread per core
+ * can, which measures throughput but, as each thread waits for one request to finish before sending the next,
+ * hides the time requests would have spent waiting during a slow one.
+ * {@link #runOpenLoad(Recommender, int, double, int, int)} instead schedules requests to arrive as a Poisson
+ * process at a target rate, independently of how fast they are served, and records the latency of each from the
+ * time it was scheduled into a {@link LatencyHistogram}.
+ * </p>
  */
 public final class LoadEvaluator {
-  
+
+  private static final Logger log = LoggerFactory.getLogger(LoadEvaluator.class);
+
+  private static final double NANOS_PER_SECOND = 1.0e9;
+  private static final int NUM_SAMPLED_USERS = 1000;
+
   private LoadEvaluator() { }
 
   public static LoadStatistics runLoad(Recommender recommender) throws TasteException {
@@ -43,10 +73,7 @@ public final class LoadEvaluator {
   
   public static LoadStatistics runLoad(Recommender recommender, int howMany) throws TasteException {
     DataModel dataModel = recommender.getDataModel();
-    int numUsers = dataModel.getNumUsers();
-    double sampleRate = 1000.0 / numUsers;
-    LongPrimitiveIterator userSampler =
-        SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), sampleRate);
+    LongPrimitiveIterator userSampler = sampleUsers(dataModel);
     recommender.recommend(userSampler.next(), howMany); // Warm up
     Collection<Callable<Void>> callables = Lists.newArrayList();
     while (userSampler.hasNext()) {
@@ -58,4 +85,183 @@ public final class LoadEvaluator {
     return new LoadStatistics(timing);
   }
 
+  /**
+   * Requests recommendations for users sampled from the recommender's {@link DataModel} at a target rate,
+   * whether or not earlier requests have completed.
+   *
+   * @param howMany number of items to recommend per request
+   * @param targetQPS mean number of requests scheduled per second
+   * @param numThreads number of threads serving requests; requests wait in a queue for a free thread
+   * @param numRequests number of requests to schedule
+   * @return service and response time histograms, and the rate actually achieved
+   */
+  public static LoadStatistics runOpenLoad(Recommender recommender,
+                                           int howMany,
+                                           double targetQPS,
+                                           int numThreads,
+                                           int numRequests) throws TasteException {
+    Preconditions.checkArgument(targetQPS > 0.0, "targetQPS must be positive");
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    Preconditions.checkArgument(numRequests >= 1, "numRequests must be at least 1");
+
+    LongArrayList userIDs = new LongArrayList();
+    LongPrimitiveIterator userSampler = sampleUsers(recommender.getDataModel());
+    while (userSampler.hasNext()) {
+      userIDs.add(userSampler.nextLong());
+    }
+    Preconditions.checkArgument(!userIDs.isEmpty(), "No users to recommend to");
+    recommender.recommend(userIDs.get(0), howMany); // Warm up
+
+    // Exponentially distributed gaps between arrivals make a Poisson process
+    Random random = RandomUtils.getRandom();
+    double meanIntervalNanos = NANOS_PER_SECOND / targetQPS;
+    long[] scheduled = new long[numRequests];
+    double arrival = 0.0;
+    for (int i = 0; i < numRequests; i++) {
+      arrival += -Math.log(1.0 - random.nextDouble()) * meanIntervalNanos;
+      scheduled[i] = (long) arrival;
+    }
+
+    long[] starts = new long[numRequests];
+    long[] ends = new long[numRequests];
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    log.info("Scheduling {} requests at {} per second in {} threads", numRequests, targetQPS, numThreads);
+    long runStart = System.nanoTime();
+    try {
+      List<Future<Void>> futures = Lists.newArrayListWithCapacity(numRequests);
+      for (int i = 0; i < numRequests; i++) {
+        scheduled[i] += runStart;
+        long wait;
+        while ((wait = scheduled[i] - System.nanoTime()) > 0L) {
+          LockSupport.parkNanos(wait);
+        }
+        long userID = userIDs.getQuick(random.nextInt(userIDs.size()));
+        futures.add(executor.submit(new TimedLoadCallable(recommender, userID, howMany, i, starts, ends)));
+      }
+      // Go look for exceptions here, really; this also makes the recorded times visible
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    LatencyHistogram serviceTimes = new LatencyHistogram();
+    LatencyHistogram responseTimes = new LatencyHistogram();
+    RunningAverageAndStdDev timing = new FullRunningAverageAndStdDev();
+    int numDelayedRequests = 0;
+    long runEnd = runStart;
+    for (int i = 0; i < numRequests; i++) {
+      long serviceTime = ends[i] - starts[i];
+      serviceTimes.recordValue(serviceTime);
+      responseTimes.recordValue(Math.max(0L, ends[i] - scheduled[i]));
+      timing.addDatum(serviceTime / 1000000.0);
+      if (starts[i] - scheduled[i] > meanIntervalNanos) {
+        numDelayedRequests++;
+      }
+      runEnd = Math.max(runEnd, ends[i]);
+    }
+    double achievedQPS = numRequests * NANOS_PER_SECOND / Math.max(1L, runEnd - runStart);
+    LoadStatistics statistics =
+        new LoadStatistics(timing, serviceTimes, responseTimes, targetQPS, achievedQPS, numDelayedRequests);
+    if (numDelayedRequests > 0) {
+      log.warn("{} of {} requests waited longer than the interval between requests; "
+               + "service times alone understate latency", numDelayedRequests, numRequests);
+    }
+    log.info("{}", statistics);
+    return statistics;
+  }
+
+  /**
+   * Runs {@link #runOpenLoad(Recommender, int, double, int, int)} on each of several recommenders in turn,
+   * for example different implementations or caching configurations, which must all use the same
+   * {@link DataModel} so that the results are comparable.
+   *
+   * @param recommenders recommenders by the name to report them under
+   * @return statistics for each recommender, by name, in the order of {@code recommenders}
+   */
+  public static Map<String,LoadStatistics> compareOpenLoad(Map<String,? extends Recommender> recommenders,
+                                                           int howMany,
+                                                           double targetQPS,
+                                                           int numThreads,
+                                                           int numRequests) throws TasteException {
+    DataModel dataModel = null;
+    for (Recommender recommender : recommenders.values()) {
+      if (dataModel == null) {
+        dataModel = recommender.getDataModel();
+      }
+      Preconditions.checkArgument(recommender.getDataModel() == dataModel,
+                                  "Recommenders must share one DataModel");
+    }
+    Map<String,LoadStatistics> results = Maps.newLinkedHashMap();
+    for (Map.Entry<String,? extends Recommender> entry : recommenders.entrySet()) {
+      log.info("Running load against {}", entry.getKey());
+      results.put(entry.getKey(), runOpenLoad(entry.getValue(), howMany, targetQPS, numThreads, numRequests));
+    }
+    return results;
+  }
+
+  /**
+   * @return a table of achieved rate and response time percentiles in milliseconds, one row per recommender
+   */
+  public static String formatReport(Map<String,LoadStatistics> results) {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-24s %10s %10s %8s %10s %10s %10s %10s %10s%n",
+        "recommender", "targetQPS", "QPS", "delayed", "p50", "p90", "p99", "p99.9", "max"));
+    for (Map.Entry<String,LoadStatistics> entry : results.entrySet()) {
+      LoadStatistics statistics = entry.getValue();
+      LatencyHistogram responseTimes = statistics.getResponseTimes();
+      Preconditions.checkArgument(responseTimes != null, "Not an open-loop result: %s", entry.getKey());
+      report.append(String.format("%-24s %10.1f %10.1f %8d %10s %10s %10s %10s %10s%s%n",
+          entry.getKey(),
+          statistics.getTargetQPS(),
+          statistics.getAchievedQPS(),
+          statistics.getNumDelayedRequests(),
+          LoadStatistics.toMillis(responseTimes.getValueAtPercentile(50.0)),
+          LoadStatistics.toMillis(responseTimes.getValueAtPercentile(90.0)),
+          LoadStatistics.toMillis(responseTimes.getValueAtPercentile(99.0)),
+          LoadStatistics.toMillis(responseTimes.getValueAtPercentile(99.9)),
+          LoadStatistics.toMillis(responseTimes.getMax()),
+          statistics.isSaturated() ? " (saturated)" : ""));
+    }
+    return report.toString();
+  }
+
+  private static LongPrimitiveIterator sampleUsers(DataModel dataModel) throws TasteException {
+    double sampleRate = (double) NUM_SAMPLED_USERS / dataModel.getNumUsers();
+    return SamplingLongPrimitiveIterator.maybeWrapIterator(dataModel.getUserIDs(), sampleRate);
+  }
+
+  private static final class TimedLoadCallable implements Callable<Void> {
+
+    private final Recommender recommender;
+    private final long userID;
+    private final int howMany;
+    private final int request;
+    private final long[] starts;
+    private final long[] ends;
+
+    private TimedLoadCallable(Recommender recommender, long userID, int howMany, int request,
+                              long[] starts, long[] ends) {
+      this.recommender = recommender;
+      this.userID = userID;
+      this.howMany = howMany;
+      this.request = request;
+      this.starts = starts;
+      this.ends = ends;
+    }
+
+    @Override
+    public Void call() throws TasteException {
+      starts[request] = System.nanoTime();
+      recommender.recommend(userID, howMany);
+      ends[request] = System.nanoTime();
+      return null;
+    }
+  }
+
 }
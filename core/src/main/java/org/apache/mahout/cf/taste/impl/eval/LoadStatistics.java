@@ -20,15 +20,113 @@ package org.apache.mahout.cf.taste.impl.eval;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 
 public final class LoadStatistics {
-  
+
+  private static final double NANOS_PER_MILLI = 1000000.0;
+
   private final RunningAverage timing;
+  private final LatencyHistogram serviceTimes;
+  private final LatencyHistogram responseTimes;
+  private final double targetQPS;
+  private final double achievedQPS;
+  private final int numDelayedRequests;
 
   LoadStatistics(RunningAverage timing) {
+    this(timing, null, null, Double.NaN, Double.NaN, 0);
+  }
+
+  LoadStatistics(RunningAverage timing,
+                 LatencyHistogram serviceTimes,
+                 LatencyHistogram responseTimes,
+                 double targetQPS,
+                 double achievedQPS,
+                 int numDelayedRequests) {
     this.timing = timing;
+    this.serviceTimes = serviceTimes;
+    this.responseTimes = responseTimes;
+    this.targetQPS = targetQPS;
+    this.achievedQPS = achievedQPS;
+    this.numDelayedRequests = numDelayedRequests;
   }
 
+  /**
+   * @return average time in milliseconds that a recommendation took to compute
+   */
   public RunningAverage getTiming() {
     return timing;
   }
-  
+
+  /**
+   * @return nanoseconds from the start to the end of computing each recommendation, or {@code null} if this is
+   *  not the result of an open-loop run
+   */
+  public LatencyHistogram getServiceTimes() {
+    return serviceTimes;
+  }
+
+  /**
+   * @return nanoseconds from the time each request was scheduled to arrive to the end of computing its
+   *  recommendations, which includes time spent waiting for a thread, or {@code null} if this is not the result of
+   *  an open-loop run. Unlike service times, these are not subject to coordinated omission: a stall delays every
+   *  request scheduled during it, and all of them are counted.
+   */
+  public LatencyHistogram getResponseTimes() {
+    return responseTimes;
+  }
+
+  /**
+   * @return requests per second at which requests were scheduled, or {@link Double#NaN} if not an open-loop run
+   */
+  public double getTargetQPS() {
+    return targetQPS;
+  }
+
+  /**
+   * @return requests per second actually completed over the run, or {@link Double#NaN} if not an open-loop run
+   */
+  public double getAchievedQPS() {
+    return achievedQPS;
+  }
+
+  /**
+   * @return number of requests that started later than scheduled by more than the interval between requests.
+   *  Measuring only their service times would have hidden this queueing, which is coordinated omission.
+   */
+  public int getNumDelayedRequests() {
+    return numDelayedRequests;
+  }
+
+  /**
+   * @return true if the recommender fell behind the target rate, that is, completed less than 95% of the target
+   *  requests per second, or delayed more than 1% of requests
+   */
+  public boolean isSaturated() {
+    if (responseTimes == null) {
+      return false;
+    }
+    return achievedQPS < 0.95 * targetQPS || numDelayedRequests > 0.01 * responseTimes.getCount();
+  }
+
+  @Override
+  public String toString() {
+    if (responseTimes == null) {
+      return "LoadStatistics[timing:" + timing + ']';
+    }
+    return "LoadStatistics[targetQPS:" + targetQPS + ",achievedQPS:" + achievedQPS
+        + ",delayed:" + numDelayedRequests + ",saturated:" + isSaturated()
+        + ",service(ms):" + percentiles(serviceTimes) + ",response(ms):" + percentiles(responseTimes) + ']';
+  }
+
+  private static String percentiles(LatencyHistogram histogram) {
+    return "{mean:" + toMillis(histogram.getMean())
+        + ",p50:" + toMillis(histogram.getValueAtPercentile(50.0))
+        + ",p90:" + toMillis(histogram.getValueAtPercentile(90.0))
+        + ",p99:" + toMillis(histogram.getValueAtPercentile(99.0))
+        + ",p99.9:" + toMillis(histogram.getValueAtPercentile(99.9))
+        + ",max:" + toMillis(histogram.getMax()) + '}';
+  }
+
+  static String toMillis(double nanos) {
+    return String.format("%.3f", nanos / NANOS_PER_MILLI);
+  }
+
 }
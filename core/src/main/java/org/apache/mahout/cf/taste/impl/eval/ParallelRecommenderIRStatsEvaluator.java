@@ -0,0 +1,434 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.eval.RecommenderIRStatsEvaluator;
+import org.apache.mahout.cf.taste.eval.RelevantItemsDataSplitter;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.list.LongArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Computes the same statistics as {@link GenericRecommenderIRStatsEvaluator}, but builds one training
+ * {@link DataModel} and one {@link Recommender} for all evaluated users and computes their recommendations in
+ * parallel, in batches, rather than building both anew for every user. The training data is the whole data
+ * except the relevant items of every evaluated user, so each user's recommendations are based on slightly less
+ * data from the other evaluated users than with {@link GenericRecommenderIRStatsEvaluator}. The
+ * {@link Recommender} must be thread-safe, as all of Mahout's are.
+ * </p>
+ *
+ * <p>
+ * The evaluated users are a simple random sample of {@code evaluationPercentage} of all users or, optionally, a
+ * sample stratified by the number of preferences of a user (in powers of two), so that light and heavy users are
+ * represented in proportion even in small samples. The result is a {@link SampledIRStatistics} that also gives
+ * the standard error of each estimate.
+ * </p>
+ */
+public final class ParallelRecommenderIRStatsEvaluator implements RecommenderIRStatsEvaluator {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelRecommenderIRStatsEvaluator.class);
+
+  private static final double LOG2 = Math.log(2.0);
+  private static final int DEFAULT_BATCH_SIZE = 1000;
+  /** enough strata for users with up to 2^31 preferences */
+  private static final int NUM_STRATA = 32;
+
+  private final Random random;
+  private final RelevantItemsDataSplitter dataSplitter;
+  private final int numThreads;
+  private final int batchSize;
+  private final boolean stratified;
+
+  public ParallelRecommenderIRStatsEvaluator() {
+    this(new GenericRelevantItemsDataSplitter());
+  }
+
+  public ParallelRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter) {
+    this(dataSplitter, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE, false);
+  }
+
+  /**
+   * @param numThreads number of threads to compute recommendations with
+   * @param batchSize number of users whose recommendations one task computes
+   * @param stratified whether to sample users stratified by their number of preferences
+   */
+  public ParallelRecommenderIRStatsEvaluator(RelevantItemsDataSplitter dataSplitter,
+                                             int numThreads,
+                                             int batchSize,
+                                             boolean stratified) {
+    Preconditions.checkNotNull(dataSplitter);
+    Preconditions.checkArgument(numThreads >= 1, "numThreads must be at least 1");
+    Preconditions.checkArgument(batchSize >= 1, "batchSize must be at least 1");
+    random = RandomUtils.getRandom();
+    this.dataSplitter = dataSplitter;
+    this.numThreads = numThreads;
+    this.batchSize = batchSize;
+    this.stratified = stratified;
+  }
+
+  @Override
+  public SampledIRStatistics evaluate(RecommenderBuilder recommenderBuilder,
+                                      DataModelBuilder dataModelBuilder,
+                                      DataModel dataModel,
+                                      IDRescorer rescorer,
+                                      int at,
+                                      double relevanceThreshold,
+                                      double evaluationPercentage) throws TasteException {
+
+    Preconditions.checkArgument(recommenderBuilder != null, "recommenderBuilder is null");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    Preconditions.checkArgument(at >= 1, "at must be at least 1");
+    Preconditions.checkArgument(evaluationPercentage > 0.0 && evaluationPercentage <= 1.0,
+        "Invalid evaluationPercentage: " + evaluationPercentage + ". Must be: 0.0 < evaluationPercentage <= 1.0");
+
+    long start = System.currentTimeMillis();
+
+    // Sample users from each stratum
+    LongArrayList[] strata = new LongArrayList[NUM_STRATA];
+    int numUsers = 0;
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      int stratum = stratified ? stratum(dataModel.getPreferencesFromUser(userID).length()) : 0;
+      if (strata[stratum] == null) {
+        strata[stratum] = new LongArrayList();
+      }
+      strata[stratum].add(userID);
+      numUsers++;
+    }
+    double[] stratumWeights = new double[NUM_STRATA];
+    double[] samplingFractions = new double[NUM_STRATA];
+    FastByIDMap<Integer> sampledUsers = new FastByIDMap<Integer>();
+    for (int stratum = 0; stratum < NUM_STRATA; stratum++) {
+      LongArrayList userIDs = strata[stratum];
+      if (userIDs == null) {
+        continue;
+      }
+      int size = userIDs.size();
+      int sampleSize = Math.max(1, (int) Math.round(evaluationPercentage * size));
+      stratumWeights[stratum] = (double) size / numUsers;
+      samplingFractions[stratum] = (double) sampleSize / size;
+      // partial Fisher-Yates shuffle; the first sampleSize entries are the sample
+      for (int i = 0; i < sampleSize; i++) {
+        int j = i + random.nextInt(size - i);
+        long swap = userIDs.getQuick(i);
+        userIDs.setQuick(i, userIDs.getQuick(j));
+        userIDs.setQuick(j, swap);
+        sampledUsers.put(userIDs.getQuick(i), stratum);
+      }
+    }
+
+    // List some most-preferred items of each sampled user that would count as (most) "relevant" results
+    FastByIDMap<FastIDSet> relevantItemIDsByUser = new FastByIDMap<FastIDSet>(sampledUsers.size());
+    FastByIDMap<PreferenceArray> trainingUsers = new FastByIDMap<PreferenceArray>(numUsers);
+    it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      FastIDSet relevantItemIDs = null;
+      if (sampledUsers.containsKey(userID)) {
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        double theRelevanceThreshold = Double.isNaN(relevanceThreshold)
+            ? GenericRecommenderIRStatsEvaluator.computeThreshold(prefs)
+            : relevanceThreshold;
+        relevantItemIDs = dataSplitter.getRelevantItemsIDs(userID, at, theRelevanceThreshold, dataModel);
+      }
+      if (relevantItemIDs != null && !relevantItemIDs.isEmpty()) {
+        relevantItemIDsByUser.put(userID, relevantItemIDs);
+        dataSplitter.processOtherUser(userID, relevantItemIDs, trainingUsers, userID, dataModel);
+      } else {
+        trainingUsers.put(userID, dataModel.getPreferencesFromUser(userID));
+      }
+    }
+
+    DataModel trainingModel = dataModelBuilder == null ? new GenericDataModel(trainingUsers)
+        : dataModelBuilder.buildDataModel(trainingUsers);
+    Recommender recommender = recommenderBuilder.buildRecommender(trainingModel);
+    log.info("Built training data and recommender for {} users in {}ms",
+             relevantItemIDsByUser.size(), System.currentTimeMillis() - start);
+
+    // Evaluate users in batches
+    int numItems = dataModel.getNumItems();
+    List<Callable<Accumulator[]>> batches = Lists.newArrayList();
+    LongArrayList batch = new LongArrayList(batchSize);
+    LongPrimitiveIterator users = relevantItemIDsByUser.keySetIterator();
+    while (users.hasNext()) {
+      batch.add(users.nextLong());
+      if (batch.size() == batchSize || !users.hasNext()) {
+        batches.add(new EvaluationCallable(batch, recommender, trainingModel, relevantItemIDsByUser, sampledUsers,
+                                           rescorer, at, numItems));
+        batch = new LongArrayList(batchSize);
+      }
+    }
+
+    Accumulator[] totals = newAccumulators();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (Future<Accumulator[]> future : executor.invokeAll(batches)) {
+        Accumulator[] accumulators = future.get();
+        for (int stratum = 0; stratum < NUM_STRATA; stratum++) {
+          totals[stratum].add(accumulators[stratum]);
+        }
+      }
+    } catch (InterruptedException ie) {
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      throw new TasteException(ee.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    int numUsersEvaluated = 0;
+    for (Accumulator accumulator : totals) {
+      numUsersEvaluated += accumulator.reach.count;
+    }
+    log.info("Evaluated {} users in {}ms", numUsersEvaluated, System.currentTimeMillis() - start);
+
+    double[] precision = estimate(totals, stratumWeights, samplingFractions, Metric.PRECISION);
+    double[] recall = estimate(totals, stratumWeights, samplingFractions, Metric.RECALL);
+    double[] fallOut = estimate(totals, stratumWeights, samplingFractions, Metric.FALL_OUT);
+    double[] nDCG = estimate(totals, stratumWeights, samplingFractions, Metric.NDCG);
+    double[] reach = estimate(totals, stratumWeights, samplingFractions, Metric.REACH);
+    return new SampledIRStatistics(precision[0], precision[1], recall[0], recall[1], fallOut[0], fallOut[1],
+                                   nDCG[0], nDCG[1], reach[0], reach[1], numUsersEvaluated);
+  }
+
+  private static int stratum(int numPreferences) {
+    return 31 - Integer.numberOfLeadingZeros(Math.max(1, numPreferences));
+  }
+
+  /**
+   * @return the stratified estimate of the mean and its standard error. Strata without observations of the metric
+   *  are left out, and the weights of the others renormalized.
+   */
+  private static double[] estimate(Accumulator[] accumulators,
+                                   double[] stratumWeights,
+                                   double[] samplingFractions,
+                                   Metric metric) {
+    double totalWeight = 0.0;
+    for (int stratum = 0; stratum < NUM_STRATA; stratum++) {
+      if (accumulators[stratum].get(metric).count > 0) {
+        totalWeight += stratumWeights[stratum];
+      }
+    }
+    if (totalWeight == 0.0) {
+      return new double[] {Double.NaN, Double.NaN};
+    }
+    double mean = 0.0;
+    double variance = 0.0;
+    for (int stratum = 0; stratum < NUM_STRATA; stratum++) {
+      Moments moments = accumulators[stratum].get(metric);
+      if (moments.count > 0) {
+        double weight = stratumWeights[stratum] / totalWeight;
+        mean += weight * moments.mean();
+        // with the finite population correction, as users are sampled without replacement
+        variance += weight * weight * (1.0 - samplingFractions[stratum]) * moments.sampleVariance() / moments.count;
+      }
+    }
+    // guard against rounding errors slightly out of [0,1]
+    return new double[] {Math.max(0.0, Math.min(1.0, mean)), Math.sqrt(variance)};
+  }
+
+  private static Accumulator[] newAccumulators() {
+    Accumulator[] accumulators = new Accumulator[NUM_STRATA];
+    for (int stratum = 0; stratum < NUM_STRATA; stratum++) {
+      accumulators[stratum] = new Accumulator();
+    }
+    return accumulators;
+  }
+
+  private static double log2(double value) {
+    return Math.log(value) / LOG2;
+  }
+
+  private enum Metric { PRECISION, RECALL, FALL_OUT, NDCG, REACH }
+
+  /** Count, sum and sum of squares of a metric, which can be merged. */
+  private static final class Moments {
+
+    private int count;
+    private double sum;
+    private double sumOfSquares;
+
+    void addDatum(double datum) {
+      count++;
+      sum += datum;
+      sumOfSquares += datum * datum;
+    }
+
+    void add(Moments other) {
+      count += other.count;
+      sum += other.sum;
+      sumOfSquares += other.sumOfSquares;
+    }
+
+    double mean() {
+      return sum / count;
+    }
+
+    double sampleVariance() {
+      if (count < 2) {
+        return 0.0;
+      }
+      double mean = mean();
+      return Math.max(0.0, (sumOfSquares - count * mean * mean) / (count - 1));
+    }
+  }
+
+  /** The metrics of the users of one stratum. */
+  private static final class Accumulator {
+
+    private final Moments precision = new Moments();
+    private final Moments recall = new Moments();
+    private final Moments fallOut = new Moments();
+    private final Moments nDCG = new Moments();
+    private final Moments reach = new Moments();
+
+    Moments get(Metric metric) {
+      switch (metric) {
+        case PRECISION:
+          return precision;
+        case RECALL:
+          return recall;
+        case FALL_OUT:
+          return fallOut;
+        case NDCG:
+          return nDCG;
+        default:
+          return reach;
+      }
+    }
+
+    void add(Accumulator other) {
+      precision.add(other.precision);
+      recall.add(other.recall);
+      fallOut.add(other.fallOut);
+      nDCG.add(other.nDCG);
+      reach.add(other.reach);
+    }
+  }
+
+  private static final class EvaluationCallable implements Callable<Accumulator[]> {
+
+    private final LongArrayList userIDs;
+    private final Recommender recommender;
+    private final DataModel trainingModel;
+    private final FastByIDMap<FastIDSet> relevantItemIDsByUser;
+    private final FastByIDMap<Integer> strata;
+    private final IDRescorer rescorer;
+    private final int at;
+    private final int numItems;
+
+    private EvaluationCallable(LongArrayList userIDs,
+                               Recommender recommender,
+                               DataModel trainingModel,
+                               FastByIDMap<FastIDSet> relevantItemIDsByUser,
+                               FastByIDMap<Integer> strata,
+                               IDRescorer rescorer,
+                               int at,
+                               int numItems) {
+      this.userIDs = userIDs;
+      this.recommender = recommender;
+      this.trainingModel = trainingModel;
+      this.relevantItemIDsByUser = relevantItemIDsByUser;
+      this.strata = strata;
+      this.rescorer = rescorer;
+      this.at = at;
+      this.numItems = numItems;
+    }
+
+    @Override
+    public Accumulator[] call() throws TasteException {
+      Accumulator[] accumulators = newAccumulators();
+      for (int u = 0; u < userIDs.size(); u++) {
+        long userID = userIDs.getQuick(u);
+        FastIDSet relevantItemIDs = relevantItemIDsByUser.get(userID);
+        int numRelevantItems = relevantItemIDs.size();
+
+        int numTrainingItems;
+        try {
+          numTrainingItems = trainingModel.getPreferencesFromUser(userID).length();
+        } catch (NoSuchUserException nsee) {
+          continue; // Oops we excluded all prefs for the user -- just move on
+        }
+        int size = numRelevantItems + numTrainingItems;
+        if (size < 2 * at) {
+          // Really not enough prefs to meaningfully evaluate this user
+          continue;
+        }
+
+        List<RecommendedItem> recommendedItems = recommender.recommend(userID, at, rescorer);
+        int numRecommendedItems = recommendedItems.size();
+        int intersectionSize = 0;
+        // In computing nDCG, assume relevant IDs have relevance 1 and others 0
+        double cumulativeGain = 0.0;
+        double idealizedGain = 0.0;
+        for (int i = 0; i < numRecommendedItems; i++) {
+          double discount = 1.0 / log2(i + 2.0); // Classical formulation says log(i+1), but i is 0-based here
+          if (relevantItemIDs.contains(recommendedItems.get(i).getItemID())) {
+            intersectionSize++;
+            cumulativeGain += discount;
+          }
+          if (i < numRelevantItems) {
+            idealizedGain += discount;
+          }
+        }
+
+        Accumulator accumulator = accumulators[strata.get(userID)];
+        if (numRecommendedItems > 0) {
+          accumulator.precision.addDatum((double) intersectionSize / (double) numRecommendedItems);
+        }
+        accumulator.recall.addDatum((double) intersectionSize / (double) numRelevantItems);
+        if (numRelevantItems < size) {
+          accumulator.fallOut.addDatum((double) (numRecommendedItems - intersectionSize)
+                                       / (double) (numItems - numRelevantItems));
+        }
+        if (idealizedGain > 0.0) {
+          accumulator.nDCG.addDatum(cumulativeGain / idealizedGain);
+        }
+        accumulator.reach.addDatum(numRecommendedItems > 0 ? 1.0 : 0.0);
+      }
+      return accumulators;
+    }
+  }
+
+}
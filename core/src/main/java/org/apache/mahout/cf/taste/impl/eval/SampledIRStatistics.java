@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.io.Serializable;
+
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+
+/**
+ * {@link IRStatistics} estimated from a sample of users, together with the standard error of each estimate. An
+ * approximate 95% confidence interval of, for example, precision is
+ * {@code getPrecision() ± 1.96 * getPrecisionStandardError()}.
+ */
+public final class SampledIRStatistics implements IRStatistics, Serializable {
+
+  private final IRStatistics statistics;
+  private final double precisionStandardError;
+  private final double recallStandardError;
+  private final double fallOutStandardError;
+  private final double ndcgStandardError;
+  private final double reachStandardError;
+  private final int numUsersEvaluated;
+
+  SampledIRStatistics(double precision, double precisionStandardError,
+                      double recall, double recallStandardError,
+                      double fallOut, double fallOutStandardError,
+                      double ndcg, double ndcgStandardError,
+                      double reach, double reachStandardError,
+                      int numUsersEvaluated) {
+    statistics = new IRStatisticsImpl(precision, recall, fallOut, ndcg, reach);
+    this.precisionStandardError = precisionStandardError;
+    this.recallStandardError = recallStandardError;
+    this.fallOutStandardError = fallOutStandardError;
+    this.ndcgStandardError = ndcgStandardError;
+    this.reachStandardError = reachStandardError;
+    this.numUsersEvaluated = numUsersEvaluated;
+  }
+
+  @Override
+  public double getPrecision() {
+    return statistics.getPrecision();
+  }
+
+  public double getPrecisionStandardError() {
+    return precisionStandardError;
+  }
+
+  @Override
+  public double getRecall() {
+    return statistics.getRecall();
+  }
+
+  public double getRecallStandardError() {
+    return recallStandardError;
+  }
+
+  @Override
+  public double getFallOut() {
+    return statistics.getFallOut();
+  }
+
+  public double getFallOutStandardError() {
+    return fallOutStandardError;
+  }
+
+  @Override
+  public double getF1Measure() {
+    return statistics.getF1Measure();
+  }
+
+  @Override
+  public double getFNMeasure(double n) {
+    return statistics.getFNMeasure(n);
+  }
+
+  @Override
+  public double getNormalizedDiscountedCumulativeGain() {
+    return statistics.getNormalizedDiscountedCumulativeGain();
+  }
+
+  public double getNormalizedDiscountedCumulativeGainStandardError() {
+    return ndcgStandardError;
+  }
+
+  @Override
+  public double getReach() {
+    return statistics.getReach();
+  }
+
+  public double getReachStandardError() {
+    return reachStandardError;
+  }
+
+  /**
+   * @return number of users for whom recommendations were evaluated
+   */
+  public int getNumUsersEvaluated() {
+    return numUsersEvaluated;
+  }
+
+  @Override
+  public String toString() {
+    return "SampledIRStatistics[precision:" + getPrecision() + "±" + precisionStandardError
+        + ",recall:" + getRecall() + "±" + recallStandardError
+        + ",fallOut:" + getFallOut() + "±" + fallOutStandardError
+        + ",nDCG:" + getNormalizedDiscountedCumulativeGain() + "±" + ndcgStandardError
+        + ",reach:" + getReach() + "±" + reachStandardError
+        + ",users:" + numUsersEvaluated + ']';
+  }
+
+}
@@ -0,0 +1,553 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An in-memory {@link DataModel} like {@link GenericDataModel} that also supports
+ * {@link #setPreference(long, long, float)} and {@link #removePreference(long, long)}, concurrently with reads.
+ * </p>
+ *
+ * <p>
+ * Each user's preferences are kept as a {@link GenericUserPreferenceArray} sorted by item ID, and each item's as
+ * a {@link GenericItemPreferenceArray} sorted by user ID, that is, as parallel primitive arrays. Rows are never
+ * modified once created. A write copies the affected user and item rows with the change applied into a delta
+ * layer, which is consulted before the base rows. Once the delta layer holds more than a given number of rows it
+ * is compacted into a new base by the writer, and the new state is published at once. Readers therefore never
+ * block and never see a partially applied row, though they may briefly see the new user row of a preference
+ * together with the old item row. Writes are serialized.
+ * </p>
+ *
+ * <p>
+ * {@link #getUserIDs()} and {@link #getItemIDs()} return IDs in ascending order only while no users or items were
+ * added or removed since the last compaction. Like those of {@link GenericDataModel}, the returned
+ * {@link PreferenceArray}s are shared and should not be modified. Preference times are not stored.
+ * </p>
+ */
+public final class ConcurrentDataModel extends AbstractDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(ConcurrentDataModel.class);
+
+  public static final int DEFAULT_MAX_DELTA_ROWS = 10000;
+
+  /** marks a row in the delta layer whose user or item no longer has any preferences */
+  private static final PreferenceArray REMOVED = new GenericUserPreferenceArray(0);
+
+  private final int maxDeltaRows;
+  private volatile State state;
+
+  /**
+   * @param userData users to start with, and their preferences. The arrays are copied.
+   */
+  public ConcurrentDataModel(FastByIDMap<PreferenceArray> userData) {
+    this(userData, DEFAULT_MAX_DELTA_ROWS);
+  }
+
+  /**
+   * @param userData users to start with, and their preferences. The arrays are copied.
+   * @param maxDeltaRows number of changed user and item rows after which the changes are compacted into the base
+   */
+  public ConcurrentDataModel(FastByIDMap<PreferenceArray> userData, int maxDeltaRows) {
+    Preconditions.checkArgument(userData != null, "userData is null");
+    Preconditions.checkArgument(maxDeltaRows >= 1, "maxDeltaRows must be at least 1");
+    this.maxDeltaRows = maxDeltaRows;
+
+    FastByIDMap<PreferenceArray> userRows = new FastByIDMap<PreferenceArray>(userData.size());
+    FastByIDMap<int[]> itemCounts = new FastByIDMap<int[]>();
+    float maxPrefValue = Float.NEGATIVE_INFINITY;
+    float minPrefValue = Float.POSITIVE_INFINITY;
+    for (Map.Entry<Long,PreferenceArray> entry : userData.entrySet()) {
+      PreferenceArray prefs = entry.getValue();
+      if (prefs.length() == 0) {
+        continue;
+      }
+      PreferenceArray row = new GenericUserPreferenceArray(prefs.length());
+      row.setUserID(0, entry.getKey());
+      for (int i = 0; i < prefs.length(); i++) {
+        long itemID = prefs.getItemID(i);
+        float value = prefs.getValue(i);
+        row.setItemID(i, itemID);
+        row.setValue(i, value);
+        maxPrefValue = Math.max(maxPrefValue, value);
+        minPrefValue = Math.min(minPrefValue, value);
+        int[] count = itemCounts.get(itemID);
+        if (count == null) {
+          itemCounts.put(itemID, new int[] {1});
+        } else {
+          count[0]++;
+        }
+      }
+      row.sortByItem();
+      userRows.put(entry.getKey(), row);
+    }
+    setMaxPreference(maxPrefValue);
+    setMinPreference(minPrefValue);
+
+    long[] userIDs = keys(userRows);
+    FastByIDMap<PreferenceArray> itemRows = new FastByIDMap<PreferenceArray>(itemCounts.size());
+    for (Map.Entry<Long,int[]> entry : itemCounts.entrySet()) {
+      PreferenceArray row = new GenericItemPreferenceArray(entry.getValue()[0]);
+      row.setItemID(0, entry.getKey());
+      itemRows.put(entry.getKey(), row);
+      entry.getValue()[0] = 0;
+    }
+    // filling item rows in order of user ID leaves them sorted by user
+    for (long userID : userIDs) {
+      PreferenceArray userRow = userRows.get(userID);
+      for (int i = 0; i < userRow.length(); i++) {
+        long itemID = userRow.getItemID(i);
+        int[] next = itemCounts.get(itemID);
+        PreferenceArray itemRow = itemRows.get(itemID);
+        itemRow.setUserID(next[0], userID);
+        itemRow.setValue(next[0], userRow.getValue(i));
+        next[0]++;
+      }
+    }
+    state = new State(userRows, itemRows, userIDs, keys(itemRows));
+    log.info("Loaded {} users and {} items", userIDs.length, itemRows.size());
+  }
+
+  private static long[] keys(FastByIDMap<?> map) {
+    long[] keys = new long[map.size()];
+    LongPrimitiveIterator it = map.keySetIterator();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = it.nextLong();
+    }
+    Arrays.sort(keys);
+    return keys;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    State current = state;
+    return new LongPrimitiveArrayIterator(State.ids(current.userIDs, current.userRows, current.userDelta));
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws NoSuchUserException {
+    PreferenceArray row = state.userRow(userID);
+    if (row == null) {
+      throw new NoSuchUserException(userID);
+    }
+    return row;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    State current = state;
+    return new LongPrimitiveArrayIterator(State.ids(current.itemIDs, current.itemRows, current.itemDelta));
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws NoSuchItemException {
+    PreferenceArray row = state.itemRow(itemID);
+    if (row == null) {
+      throw new NoSuchItemException(itemID);
+    }
+    return row;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    // a linear scan, as callers may have reordered the row
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if (prefs.getItemID(i) == itemID) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return state.numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return state.numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) {
+    PreferenceArray prefs = state.itemRow(itemID);
+    return prefs == null ? 0 : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) {
+    State current = state;
+    PreferenceArray prefs1 = current.itemRow(itemID1);
+    if (prefs1 == null) {
+      return 0;
+    }
+    PreferenceArray prefs2 = current.itemRow(itemID2);
+    if (prefs2 == null) {
+      return 0;
+    }
+    int size1 = prefs1.length();
+    int size2 = prefs2.length();
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size1 && j < size2) {
+      long userID1 = prefs1.getUserID(i);
+      long userID2 = prefs2.getUserID(j);
+      if (userID1 < userID2) {
+        i++;
+      } else if (userID1 > userID2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized void setPreference(long userID, long itemID, float value) {
+    Preconditions.checkArgument(!Float.isNaN(value), "NaN value");
+    State current = state;
+    PreferenceArray userRow = current.userRow(userID);
+    PreferenceArray itemRow = current.itemRow(itemID);
+    if (userRow == null) {
+      current.numUsers++;
+    }
+    if (itemRow == null) {
+      current.numItems++;
+    }
+    current.userDelta.put(userID, withPreference(userRow, true, userID, itemID, value));
+    current.itemDelta.put(itemID, withPreference(itemRow, false, itemID, userID, value));
+    if (Float.isNaN(getMaxPreference()) || value > getMaxPreference()) {
+      setMaxPreference(value);
+    }
+    if (Float.isNaN(getMinPreference()) || value < getMinPreference()) {
+      setMinPreference(value);
+    }
+    maybeCompact(current);
+  }
+
+  @Override
+  public synchronized void removePreference(long userID, long itemID) {
+    State current = state;
+    PreferenceArray userRow = current.userRow(userID);
+    PreferenceArray itemRow = current.itemRow(itemID);
+    if (userRow == null || itemRow == null) {
+      return;
+    }
+    PreferenceArray newUserRow = withoutPreference(userRow, true, itemID);
+    if (newUserRow == userRow) {
+      return;
+    }
+    PreferenceArray newItemRow = withoutPreference(itemRow, false, userID);
+    if (newUserRow == REMOVED) {
+      current.numUsers--;
+    }
+    if (newItemRow == REMOVED) {
+      current.numItems--;
+    }
+    current.userDelta.put(userID, newUserRow);
+    current.itemDelta.put(itemID, newItemRow);
+    maybeCompact(current);
+  }
+
+  private void maybeCompact(State current) {
+    if (current.userDelta.size() + current.itemDelta.size() > maxDeltaRows) {
+      compact();
+    }
+  }
+
+  /**
+   * Merges all changes into a new base. Happens automatically once enough rows have changed.
+   */
+  public synchronized void compact() {
+    State current = state;
+    FastByIDMap<PreferenceArray> userRows = current.userRows.clone();
+    boolean usersChanged = merge(userRows, current.userDelta);
+    FastByIDMap<PreferenceArray> itemRows = current.itemRows.clone();
+    boolean itemsChanged = merge(itemRows, current.itemDelta);
+    state = new State(userRows,
+                      itemRows,
+                      usersChanged ? keys(userRows) : current.userIDs,
+                      itemsChanged ? keys(itemRows) : current.itemIDs);
+    log.debug("Compacted {} user and {} item rows", current.userDelta.size(), current.itemDelta.size());
+  }
+
+  private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+    // the delta layer marks removed rows by identity, which does not survive serialization
+    compact();
+    out.defaultWriteObject();
+  }
+
+  /**
+   * @return true if IDs were added or removed
+   */
+  private static boolean merge(FastByIDMap<PreferenceArray> rows, Map<Long,PreferenceArray> delta) {
+    boolean idsChanged = false;
+    for (Map.Entry<Long,PreferenceArray> entry : delta.entrySet()) {
+      long id = entry.getKey();
+      if (entry.getValue() == REMOVED) {
+        idsChanged |= rows.remove(id) != null;
+      } else {
+        idsChanged |= rows.put(id, entry.getValue()) == null;
+      }
+    }
+    return idsChanged;
+  }
+
+  private static long otherID(PreferenceArray row, int i, boolean userRow) {
+    return userRow ? row.getItemID(i) : row.getUserID(i);
+  }
+
+  private static PreferenceArray newRow(boolean userRow, long id, int size) {
+    PreferenceArray row;
+    if (userRow) {
+      row = new GenericUserPreferenceArray(size);
+      row.setUserID(0, id);
+    } else {
+      row = new GenericItemPreferenceArray(size);
+      row.setItemID(0, id);
+    }
+    return row;
+  }
+
+  private static void set(PreferenceArray row, int i, boolean userRow, long otherID, float value) {
+    if (userRow) {
+      row.setItemID(i, otherID);
+    } else {
+      row.setUserID(i, otherID);
+    }
+    row.setValue(i, value);
+  }
+
+  /**
+   * @return position of the other ID in the row, or {@code -(insertion point) - 1} if not present
+   */
+  private static int find(PreferenceArray row, boolean userRow, long otherID) {
+    int low = 0;
+    int high = row.length() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midID = otherID(row, mid, userRow);
+      if (midID < otherID) {
+        low = mid + 1;
+      } else if (midID > otherID) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Rows handed out may have been reordered by callers; this restores order in a copy before it is searched.
+   */
+  private static PreferenceArray sorted(PreferenceArray row, boolean userRow) {
+    for (int i = 1; i < row.length(); i++) {
+      if (otherID(row, i - 1, userRow) > otherID(row, i, userRow)) {
+        PreferenceArray copy = row.clone();
+        if (userRow) {
+          copy.sortByItem();
+        } else {
+          copy.sortByUser();
+        }
+        return copy;
+      }
+    }
+    return row;
+  }
+
+  private static PreferenceArray withPreference(PreferenceArray row, boolean userRow, long id, long otherID,
+                                                float value) {
+    if (row == null) {
+      PreferenceArray result = newRow(userRow, id, 1);
+      set(result, 0, userRow, otherID, value);
+      return result;
+    }
+    row = sorted(row, userRow);
+    int position = find(row, userRow, otherID);
+    if (position >= 0) {
+      PreferenceArray result = row.clone();
+      result.setValue(position, value);
+      return result;
+    }
+    int insertAt = -position - 1;
+    int length = row.length();
+    PreferenceArray result = newRow(userRow, id, length + 1);
+    for (int i = 0; i < insertAt; i++) {
+      set(result, i, userRow, otherID(row, i, userRow), row.getValue(i));
+    }
+    set(result, insertAt, userRow, otherID, value);
+    for (int i = insertAt; i < length; i++) {
+      set(result, i + 1, userRow, otherID(row, i, userRow), row.getValue(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the row without the preference, {@link #REMOVED} if that leaves it empty, or the row itself if it
+   *  has no such preference
+   */
+  private static PreferenceArray withoutPreference(PreferenceArray row, boolean userRow, long otherID) {
+    PreferenceArray sortedRow = sorted(row, userRow);
+    int position = find(sortedRow, userRow, otherID);
+    if (position < 0) {
+      return row;
+    }
+    int length = sortedRow.length();
+    if (length == 1) {
+      return REMOVED;
+    }
+    long id = userRow ? sortedRow.getUserID(0) : sortedRow.getItemID(0);
+    PreferenceArray result = newRow(userRow, id, length - 1);
+    for (int i = 0, j = 0; i < length; i++) {
+      if (i != position) {
+        set(result, j++, userRow, otherID(sortedRow, i, userRow), sortedRow.getValue(i));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // Does nothing
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    State current = state;
+    return "ConcurrentDataModel[users:" + current.numUsers + ", items:" + current.numItems + ']';
+  }
+
+  /**
+   * Base rows, which are never modified once published, and the rows changed since.
+   */
+  private static final class State implements Serializable {
+
+    private final FastByIDMap<PreferenceArray> userRows;
+    private final FastByIDMap<PreferenceArray> itemRows;
+    /** sorted IDs of the base */
+    private final long[] userIDs;
+    private final long[] itemIDs;
+    private final ConcurrentMap<Long,PreferenceArray> userDelta = new ConcurrentHashMap<Long,PreferenceArray>();
+    private final ConcurrentMap<Long,PreferenceArray> itemDelta = new ConcurrentHashMap<Long,PreferenceArray>();
+    private volatile int numUsers;
+    private volatile int numItems;
+
+    private State(FastByIDMap<PreferenceArray> userRows, FastByIDMap<PreferenceArray> itemRows,
+                  long[] userIDs, long[] itemIDs) {
+      this.userRows = userRows;
+      this.itemRows = itemRows;
+      this.userIDs = userIDs;
+      this.itemIDs = itemIDs;
+      numUsers = userIDs.length;
+      numItems = itemIDs.length;
+    }
+
+    PreferenceArray userRow(long userID) {
+      return row(userRows, userDelta, userID);
+    }
+
+    PreferenceArray itemRow(long itemID) {
+      return row(itemRows, itemDelta, itemID);
+    }
+
+    private static PreferenceArray row(FastByIDMap<PreferenceArray> rows,
+                                       Map<Long,PreferenceArray> delta,
+                                       long id) {
+      if (!delta.isEmpty()) {
+        PreferenceArray changed = delta.get(id);
+        if (changed != null) {
+          return changed == REMOVED ? null : changed;
+        }
+      }
+      return rows.get(id);
+    }
+
+    /**
+     * @return the base IDs still present, followed by those added since
+     */
+    static long[] ids(long[] baseIDs, FastByIDMap<PreferenceArray> rows, Map<Long,PreferenceArray> delta) {
+      if (delta.isEmpty()) {
+        return baseIDs;
+      }
+      long[] result = new long[baseIDs.length + delta.size()];
+      int size = 0;
+      for (long id : baseIDs) {
+        if (delta.get(id) != REMOVED) {
+          result[size++] = id;
+        }
+      }
+      for (Map.Entry<Long,PreferenceArray> entry : delta.entrySet()) {
+        if (entry.getValue() != REMOVED && !rows.containsKey(entry.getKey()) && size < result.length) {
+          result[size++] = entry.getKey();
+        }
+      }
+      return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+  }
+}
@@ -0,0 +1,412 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveBufferIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A read-only {@link DataModel} served straight from a binary file which is mapped into memory, written by
+ * {@link MappedDataModelWriter}. Opening the model only maps the file, so it starts almost instantly and
+ * keeps almost nothing on the Java heap regardless of the amount of data; preference arrays are built
+ * on demand from the mapped data for each call.
+ * </p>
+ *
+ * <p>
+ * The file holds sorted user and item IDs followed by the preferences twice, grouped by user and grouped by
+ * item, in compressed sparse row form:
+ * </p>
+ *
+ * <ul>
+ *   <li>header: magic number, version, number of users, items and preferences, flags, min and max
+ *   preference</li>
+ *   <li>user IDs, sorted ({@code long}s)</li>
+ *   <li>item IDs, sorted ({@code long}s)</li>
+ *   <li>for each user, the offset of its first preference, plus one final offset ({@code int}s)</li>
+ *   <li>the item index of each preference, sorted within each user ({@code int}s)</li>
+ *   <li>the value of each preference, if the data has values ({@code float}s)</li>
+ *   <li>the same three sections again, grouped by item</li>
+ * </ul>
+ *
+ * <p>
+ * Each section is limited to 2GB, that is, about 500 million preferences. Preference times are not stored.
+ * </p>
+ *
+ * <p>
+ * On {@link #refresh(Collection)} the file is mapped again if it has been modified. Together with the
+ * write-and-rename done by {@link MappedDataModelWriter} this swaps in new data atomically while concurrent
+ * readers keep using the old mapping.
+ * </p>
+ */
+public final class MappedDataModel implements DataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedDataModel.class);
+
+  static final int MAGIC_NUMBER = 0x4d445031;
+  static final int VERSION = 1;
+  static final int FLAG_HAS_PREF_VALUES = 1;
+
+  private static final int HEADER_BYTES = 32;
+
+  private final File dataFile;
+  private volatile Data data;
+
+  public MappedDataModel(File dataFile) throws IOException {
+    this.dataFile = Preconditions.checkNotNull(dataFile).getAbsoluteFile();
+    if (!dataFile.isFile()) {
+      throw new FileNotFoundException(dataFile.toString());
+    }
+    this.data = new Data(this.dataFile);
+  }
+
+  public File getDataFile() {
+    return dataFile;
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() {
+    return new LongPrimitiveBufferIterator(data.userIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    Data current = data;
+    int user = current.userIndex(userID);
+    int from = current.userOffsets.get(user);
+    int to = current.userOffsets.get(user + 1);
+    PreferenceArray prefs = current.hasPrefValues
+        ? new GenericUserPreferenceArray(to - from) : new BooleanUserPreferenceArray(to - from);
+    prefs.setUserID(0, userID);
+    for (int i = from; i < to; i++) {
+      prefs.setItemID(i - from, current.itemIDs.get(current.userPrefItems.get(i)));
+      if (current.hasPrefValues) {
+        prefs.setValue(i - from, current.userPrefValues.get(i));
+      }
+    }
+    return prefs;
+  }
+
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    Data current = data;
+    int user = current.userIndex(userID);
+    int from = current.userOffsets.get(user);
+    int to = current.userOffsets.get(user + 1);
+    FastIDSet result = new FastIDSet(to - from);
+    for (int i = from; i < to; i++) {
+      result.add(current.itemIDs.get(current.userPrefItems.get(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() {
+    return new LongPrimitiveBufferIterator(data.itemIDs);
+  }
+
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    Data current = data;
+    int item = current.itemIndex(itemID);
+    int from = current.itemOffsets.get(item);
+    int to = current.itemOffsets.get(item + 1);
+    PreferenceArray prefs = current.hasPrefValues
+        ? new GenericItemPreferenceArray(to - from) : new BooleanItemPreferenceArray(to - from);
+    prefs.setItemID(0, itemID);
+    for (int i = from; i < to; i++) {
+      prefs.setUserID(i - from, current.userIDs.get(current.itemPrefUsers.get(i)));
+      if (current.hasPrefValues) {
+        prefs.setValue(i - from, current.itemPrefValues.get(i));
+      }
+    }
+    return prefs;
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    Data current = data;
+    int user = current.userIndex(userID);
+    int item = LongPrimitiveBufferIterator.search(current.itemIDs, 0, current.numItems, itemID);
+    if (item < 0) {
+      return null;
+    }
+    int pref = Data.search(current.userPrefItems, current.userOffsets.get(user),
+                           current.userOffsets.get(user + 1), item);
+    if (pref < 0) {
+      return null;
+    }
+    return current.hasPrefValues ? current.userPrefValues.get(pref) : 1.0f;
+  }
+
+  /**
+   * @return {@code null}, as preference times are not stored
+   */
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    data.userIndex(userID);
+    return null;
+  }
+
+  @Override
+  public int getNumItems() {
+    return data.numItems;
+  }
+
+  @Override
+  public int getNumUsers() {
+    return data.numUsers;
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    Data current = data;
+    int item = LongPrimitiveBufferIterator.search(current.itemIDs, 0, current.numItems, itemID);
+    if (item < 0) {
+      return 0;
+    }
+    return current.itemOffsets.get(item + 1) - current.itemOffsets.get(item);
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    Data current = data;
+    int item1 = LongPrimitiveBufferIterator.search(current.itemIDs, 0, current.numItems, itemID1);
+    int item2 = LongPrimitiveBufferIterator.search(current.itemIDs, 0, current.numItems, itemID2);
+    if (item1 < 0 || item2 < 0) {
+      return 0;
+    }
+    // both user lists are sorted, so a merge counts the users they have in common
+    IntBuffer users = current.itemPrefUsers;
+    int i = current.itemOffsets.get(item1);
+    int iEnd = current.itemOffsets.get(item1 + 1);
+    int j = current.itemOffsets.get(item2);
+    int jEnd = current.itemOffsets.get(item2 + 1);
+    int count = 0;
+    while (i < iEnd && j < jEnd) {
+      int user1 = users.get(i);
+      int user2 = users.get(j);
+      if (user1 < user2) {
+        i++;
+      } else if (user1 > user2) {
+        j++;
+      } else {
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return data.hasPrefValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return data.maxPreference;
+  }
+
+  @Override
+  public float getMinPreference() {
+    return data.minPreference;
+  }
+
+  /**
+   * Maps the data file again if it has changed since it was last mapped.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    Data current = data;
+    if (dataFile.lastModified() != current.lastModified || dataFile.length() != current.length) {
+      log.debug("File has changed; mapping it again...");
+      try {
+        data = new Data(dataFile);
+      } catch (IOException ioe) {
+        log.warn("Exception while reloading", ioe);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedDataModel[dataFile:" + dataFile + ']';
+  }
+
+  /**
+   * One mapping of the data file. Refreshing replaces the whole instance, so readers holding on to it see a
+   * consistent view.
+   */
+  private static final class Data {
+
+    private final long lastModified;
+    private final long length;
+    private final int numUsers;
+    private final int numItems;
+    private final boolean hasPrefValues;
+    private final float minPreference;
+    private final float maxPreference;
+    private final LongBuffer userIDs;
+    private final LongBuffer itemIDs;
+    private final IntBuffer userOffsets;
+    private final IntBuffer userPrefItems;
+    private final FloatBuffer userPrefValues;
+    private final IntBuffer itemOffsets;
+    private final IntBuffer itemPrefUsers;
+    private final FloatBuffer itemPrefValues;
+
+    private Data(File dataFile) throws IOException {
+      lastModified = dataFile.lastModified();
+      RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        length = channel.size();
+        if (length < HEADER_BYTES) {
+          throw new IOException("File too short: " + dataFile);
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC_NUMBER) {
+          throw new IOException("Not a preference file written by MappedDataModelWriter: " + dataFile);
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+          throw new IOException("Unsupported version " + version + " of " + dataFile);
+        }
+        numUsers = header.getInt();
+        numItems = header.getInt();
+        int numPrefs = header.getInt();
+        hasPrefValues = (header.getInt() & FLAG_HAS_PREF_VALUES) != 0;
+        minPreference = header.getFloat();
+        maxPreference = header.getFloat();
+
+        long position = HEADER_BYTES;
+        userIDs = map(channel, position, numUsers * 8L).asLongBuffer();
+        position += numUsers * 8L;
+        itemIDs = map(channel, position, numItems * 8L).asLongBuffer();
+        position += numItems * 8L;
+
+        userOffsets = map(channel, position, (numUsers + 1) * 4L).asIntBuffer();
+        position += (numUsers + 1) * 4L;
+        userPrefItems = map(channel, position, numPrefs * 4L).asIntBuffer();
+        position += numPrefs * 4L;
+        if (hasPrefValues) {
+          userPrefValues = map(channel, position, numPrefs * 4L).asFloatBuffer();
+          position += numPrefs * 4L;
+        } else {
+          userPrefValues = null;
+        }
+
+        itemOffsets = map(channel, position, (numItems + 1) * 4L).asIntBuffer();
+        position += (numItems + 1) * 4L;
+        itemPrefUsers = map(channel, position, numPrefs * 4L).asIntBuffer();
+        position += numPrefs * 4L;
+        if (hasPrefValues) {
+          itemPrefValues = map(channel, position, numPrefs * 4L).asFloatBuffer();
+          position += numPrefs * 4L;
+        } else {
+          itemPrefValues = null;
+        }
+        if (position != length) {
+          throw new IOException("Unexpected length " + length + " of " + dataFile + ", expected " + position);
+        }
+      } finally {
+        // mappings remain valid after the file is closed
+        raf.close();
+      }
+      log.info("Mapped {} users, {} items from {}", new Object[] {numUsers, numItems, dataFile});
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Section of " + size + " bytes is too large to be mapped");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    private int userIndex(long userID) throws NoSuchUserException {
+      int index = LongPrimitiveBufferIterator.search(userIDs, 0, numUsers, userID);
+      if (index < 0) {
+        throw new NoSuchUserException(userID);
+      }
+      return index;
+    }
+
+    private int itemIndex(long itemID) throws NoSuchItemException {
+      int index = LongPrimitiveBufferIterator.search(itemIDs, 0, numItems, itemID);
+      if (index < 0) {
+        throw new NoSuchItemException(itemID);
+      }
+      return index;
+    }
+
+    private static int search(IntBuffer sorted, int from, int to, int key) {
+      int low = from;
+      int high = to - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int midValue = sorted.get(mid);
+        if (midValue < key) {
+          low = mid + 1;
+        } else if (midValue > key) {
+          high = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.iterator.FileLineIterator;
+import org.apache.mahout.math.list.FloatArrayList;
+import org.apache.mahout.math.list.LongArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Writes preference data in the binary format read by {@link MappedDataModel}, either converting a delimited
+ * text file of the kind {@link FileDataModel} reads, or dumping any other {@link DataModel}.
+ * </p>
+ *
+ * <p>
+ * The file is first written next to the target under a temporary name and then renamed over it, so a
+ * {@link MappedDataModel} reading the target never sees a partially written file and picks up the new data
+ * on its next refresh.
+ * </p>
+ *
+ * <p>
+ * Text input follows the {@link FileDataModel} conventions: {@code userID,itemID[,preference[,timestamp]]}
+ * with commas or tabs as delimiters, and empty or '#' lines ignored. Timestamps are dropped. If the same
+ * user and item appear more than once, the last line wins.
+ * </p>
+ */
+public final class MappedDataModelWriter {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedDataModelWriter.class);
+
+  private static final char COMMENT_CHAR = '#';
+
+  private MappedDataModelWriter() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Preconditions.checkArgument(args.length == 2, "Usage: MappedDataModelWriter textFile binaryFile");
+    convert(new File(args[0]), new File(args[1]));
+  }
+
+  /**
+   * Converts a delimited text file into the binary format.
+   */
+  public static void convert(File dataFile, File binaryFile) throws IOException {
+    LongArrayList userIDs = new LongArrayList();
+    LongArrayList itemIDs = new LongArrayList();
+    FloatArrayList values = new FloatArrayList();
+    Boolean hasPrefValues = null;
+    Splitter splitter = null;
+
+    FileLineIterator lines = new FileLineIterator(dataFile, false);
+    try {
+      while (lines.hasNext()) {
+        String line = lines.next();
+        if (line.isEmpty() || line.charAt(0) == COMMENT_CHAR) {
+          continue;
+        }
+        if (splitter == null) {
+          splitter = Splitter.on(FileDataModel.determineDelimiter(line));
+        }
+        Iterator<String> tokens = splitter.split(line).iterator();
+        long userID = Long.parseLong(tokens.next());
+        long itemID = Long.parseLong(tokens.next());
+        String value = tokens.hasNext() ? tokens.next() : "";
+        if (hasPrefValues == null) {
+          hasPrefValues = !value.isEmpty();
+        }
+        if (hasPrefValues) {
+          if (value.isEmpty()) {
+            continue;
+          }
+          values.add(Float.parseFloat(value));
+        }
+        userIDs.add(userID);
+        itemIDs.add(itemID);
+      }
+    } finally {
+      Closeables.close(lines, true);
+    }
+
+    int numPrefs = userIDs.size();
+    log.info("Read {} preferences from {}", numPrefs, dataFile);
+    write(Arrays.copyOf(userIDs.elements(), numPrefs),
+          Arrays.copyOf(itemIDs.elements(), numPrefs),
+          hasPrefValues != null && hasPrefValues ? Arrays.copyOf(values.elements(), numPrefs) : null,
+          binaryFile);
+  }
+
+  /**
+   * Writes the contents of the given {@link DataModel} in the binary format.
+   */
+  public static void write(DataModel dataModel, File binaryFile) throws TasteException, IOException {
+    boolean hasPrefValues = dataModel.hasPreferenceValues();
+    LongArrayList userIDs = new LongArrayList();
+    LongArrayList itemIDs = new LongArrayList();
+    FloatArrayList values = new FloatArrayList();
+    LongPrimitiveIterator it = dataModel.getUserIDs();
+    while (it.hasNext()) {
+      long userID = it.nextLong();
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+      for (int i = 0; i < prefs.length(); i++) {
+        userIDs.add(userID);
+        itemIDs.add(prefs.getItemID(i));
+        if (hasPrefValues) {
+          values.add(prefs.getValue(i));
+        }
+      }
+    }
+    int numPrefs = userIDs.size();
+    write(Arrays.copyOf(userIDs.elements(), numPrefs),
+          Arrays.copyOf(itemIDs.elements(), numPrefs),
+          hasPrefValues ? Arrays.copyOf(values.elements(), numPrefs) : null,
+          binaryFile);
+  }
+
+  /**
+   * Writes the given preferences, one per array position, in the binary format.
+   *
+   * @param values preference values, or {@code null} for data without preference values
+   */
+  public static void write(long[] userIDs, long[] itemIDs, float[] values, File binaryFile) throws IOException {
+    Preconditions.checkArgument(userIDs.length == itemIDs.length, "userIDs and itemIDs differ in length");
+    Preconditions.checkArgument(values == null || values.length == userIDs.length,
+        "values and userIDs differ in length");
+
+    long[] sortedUserIDs = distinctSorted(userIDs);
+    long[] sortedItemIDs = distinctSorted(itemIDs);
+    int numPrefs = userIDs.length;
+    int[] userIndexes = new int[numPrefs];
+    int[] itemIndexes = new int[numPrefs];
+    for (int i = 0; i < numPrefs; i++) {
+      userIndexes[i] = Arrays.binarySearch(sortedUserIDs, userIDs[i]);
+      itemIndexes[i] = Arrays.binarySearch(sortedItemIDs, itemIDs[i]);
+    }
+
+    // two stable counting sorts give the order (user, item), in which duplicates end up adjacent
+    int[] order = identity(numPrefs);
+    order = countingSort(order, itemIndexes, sortedItemIDs.length);
+    order = countingSort(order, userIndexes, sortedUserIDs.length);
+    order = removeDuplicates(order, userIndexes, itemIndexes);
+    int[] byItem = countingSort(order, itemIndexes, sortedItemIDs.length);
+
+    float minPreference = Float.NaN;
+    float maxPreference = Float.NaN;
+    if (values != null) {
+      minPreference = Float.POSITIVE_INFINITY;
+      maxPreference = Float.NEGATIVE_INFINITY;
+      for (int pref : order) {
+        minPreference = Math.min(minPreference, values[pref]);
+        maxPreference = Math.max(maxPreference, values[pref]);
+      }
+      if (order.length == 0) {
+        minPreference = Float.NaN;
+        maxPreference = Float.NaN;
+      }
+    }
+
+    File tempFile = new File(binaryFile.getAbsoluteFile().getParentFile(), '.' + binaryFile.getName() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    boolean success = false;
+    try {
+      out.writeInt(MappedDataModel.MAGIC_NUMBER);
+      out.writeInt(MappedDataModel.VERSION);
+      out.writeInt(sortedUserIDs.length);
+      out.writeInt(sortedItemIDs.length);
+      out.writeInt(order.length);
+      out.writeInt(values == null ? 0 : MappedDataModel.FLAG_HAS_PREF_VALUES);
+      out.writeFloat(minPreference);
+      out.writeFloat(maxPreference);
+
+      for (long userID : sortedUserIDs) {
+        out.writeLong(userID);
+      }
+      for (long itemID : sortedItemIDs) {
+        out.writeLong(itemID);
+      }
+      writeBlock(out, order, userIndexes, itemIndexes, values, sortedUserIDs.length);
+      writeBlock(out, byItem, itemIndexes, userIndexes, values, sortedItemIDs.length);
+      success = true;
+    } finally {
+      Closeables.close(out, !success);
+      if (!success && !tempFile.delete()) {
+        log.warn("Could not delete {}", tempFile);
+      }
+    }
+    if (!tempFile.renameTo(binaryFile)) {
+      // some platforms will not rename over an existing file
+      if (!binaryFile.delete() || !tempFile.renameTo(binaryFile)) {
+        throw new IOException("Could not move " + tempFile + " to " + binaryFile);
+      }
+    }
+    log.info("Wrote {} users, {} items and {} preferences to {}",
+             new Object[] {sortedUserIDs.length, sortedItemIDs.length, order.length, binaryFile});
+  }
+
+  /**
+   * Writes one orientation: row offsets, then the index of the other side of each preference, then values.
+   */
+  private static void writeBlock(DataOutputStream out, int[] order, int[] rowIndexes, int[] columnIndexes,
+                                 float[] values, int numRows) throws IOException {
+    int pref = 0;
+    for (int row = 0; row <= numRows; row++) {
+      while (pref < order.length && rowIndexes[order[pref]] < row) {
+        pref++;
+      }
+      out.writeInt(pref);
+    }
+    for (int i : order) {
+      out.writeInt(columnIndexes[i]);
+    }
+    if (values != null) {
+      for (int i : order) {
+        out.writeFloat(values[i]);
+      }
+    }
+  }
+
+  private static long[] distinctSorted(long[] ids) {
+    long[] sorted = ids.clone();
+    Arrays.sort(sorted);
+    int size = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) {
+        sorted[size++] = sorted[i];
+      }
+    }
+    return Arrays.copyOf(sorted, size);
+  }
+
+  private static int[] identity(int size) {
+    int[] result = new int[size];
+    for (int i = 0; i < size; i++) {
+      result[i] = i;
+    }
+    return result;
+  }
+
+  /**
+   * Stable sort of {@code order} by the key of each element.
+   */
+  private static int[] countingSort(int[] order, int[] keys, int numKeys) {
+    int[] starts = new int[numKeys + 1];
+    for (int i : order) {
+      starts[keys[i] + 1]++;
+    }
+    for (int k = 0; k < numKeys; k++) {
+      starts[k + 1] += starts[k];
+    }
+    int[] sorted = new int[order.length];
+    for (int i : order) {
+      sorted[starts[keys[i]]++] = i;
+    }
+    return sorted;
+  }
+
+  /**
+   * Keeps only the last of each run of preferences for the same user and item.
+   */
+  private static int[] removeDuplicates(int[] order, int[] userIndexes, int[] itemIndexes) {
+    int size = 0;
+    for (int i = 0; i < order.length; i++) {
+      int pref = order[i];
+      boolean lastOfRun = i + 1 == order.length
+          || userIndexes[order[i + 1]] != userIndexes[pref]
+          || itemIndexes[order[i + 1]] != itemIndexes[pref];
+      if (lastOfRun) {
+        order[size++] = pref;
+      }
+    }
+    return size == order.length ? order : Arrays.copyOf(order, size);
+  }
+}
@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.neighborhood.UserNeighborhood;
+import org.apache.mahout.common.distance.CosineDistanceMeasure;
+import org.apache.mahout.math.RandomAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.WeightedVector;
+import org.apache.mahout.math.map.OpenLongDoubleHashMap;
+import org.apache.mahout.math.neighborhood.LocalitySensitiveHashSearch;
+import org.apache.mahout.math.random.WeightedThing;
+
+/**
+ * <p>
+ * Computes a neighborhood consisting of the nearest n users to a given user, like
+ * {@link NearestNUserNeighborhood}, but without a {@link org.apache.mahout.cf.taste.similarity.UserSimilarity}.
+ * Each user's preferences are instead centered on the user's mean preference (optionally) and scaled to unit
+ * length once, when built and on {@link #refresh(Collection)}, so that the similarity of two users is the dot
+ * product of their vectors. Similarities to all other users are then computed at once by walking the
+ * preferences for each item the user has a preference for, which takes time proportional to the number of
+ * preferences that co-occur with the user's, rather than to the number of users times their preferences.
+ * </p>
+ *
+ * <p>
+ * The centered similarity is the Pearson correlation of the users' preferences over all items, taking missing
+ * preferences as the user's mean. It differs from
+ * {@link org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity}, which computes the correlation
+ * over co-rated items only. Without centering, it is the cosine of the angle between preference vectors,
+ * as {@link org.apache.mahout.cf.taste.impl.similarity.UncenteredCosineSimilarity} computes over co-rated items.
+ * Users whose vectors have length 0, such as users with one preference when centering, have no neighbors.
+ * </p>
+ *
+ * <p>
+ * Optionally, a {@link LocalitySensitiveHashSearch} over the user vectors picks a fixed number of candidate
+ * neighbors instead, for data where users have so many co-occurring preferences that the exact computation
+ * approaches the number of preferences in the model.
+ * </p>
+ */
+public final class VectorizedNearestNUserNeighborhood implements UserNeighborhood {
+
+  private final int n;
+  private final double minSimilarity;
+  private final boolean centered;
+  private final int numCandidates;
+  private final DataModel dataModel;
+  private final RefreshHelper refreshHelper;
+  private volatile Index index;
+
+  /**
+   * @param n neighborhood size
+   */
+  public VectorizedNearestNUserNeighborhood(int n, DataModel dataModel) throws TasteException {
+    this(n, Double.NEGATIVE_INFINITY, true, dataModel, 0);
+  }
+
+  /**
+   * @param n neighborhood size
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param centered whether to center preferences on each user's mean
+   */
+  public VectorizedNearestNUserNeighborhood(int n,
+                                            double minSimilarity,
+                                            boolean centered,
+                                            DataModel dataModel) throws TasteException {
+    this(n, minSimilarity, centered, dataModel, 0);
+  }
+
+  /**
+   * @param n neighborhood size
+   * @param minSimilarity minimal similarity required for neighbors
+   * @param centered whether to center preferences on each user's mean
+   * @param numCandidates if positive, number of candidate neighbors to choose by locality sensitive hashing;
+   *  if 0, all users with a co-occurring preference are candidates
+   * @throws IllegalArgumentException if {@code n < 1} or {@code numCandidates < 0}, or dataModel is {@code null}
+   */
+  public VectorizedNearestNUserNeighborhood(int n,
+                                            double minSimilarity,
+                                            boolean centered,
+                                            DataModel dataModel,
+                                            int numCandidates) throws TasteException {
+    Preconditions.checkArgument(n >= 1, "n must be at least 1");
+    Preconditions.checkArgument(numCandidates >= 0, "numCandidates must not be negative");
+    Preconditions.checkArgument(dataModel != null, "dataModel is null");
+    this.n = n;
+    this.minSimilarity = minSimilarity;
+    this.centered = centered;
+    this.numCandidates = numCandidates;
+    this.dataModel = dataModel;
+    this.refreshHelper = new RefreshHelper(new Callable<Object>() {
+      @Override
+      public Object call() throws TasteException {
+        buildIndex();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(dataModel);
+    buildIndex();
+  }
+
+  private void buildIndex() throws TasteException {
+    index = new Index(dataModel, centered, numCandidates);
+  }
+
+  @Override
+  public long[] getUserNeighborhood(long userID) throws TasteException {
+    Index theIndex = index;
+    SparseRow row = theIndex.userRows.get(userID);
+    if (row == null) {
+      // throws NoSuchUserException for unknown users; others have a zero vector and no neighbors
+      dataModel.getPreferencesFromUser(userID);
+      return new long[0];
+    }
+
+    OpenLongDoubleHashMap similarities = new OpenLongDoubleHashMap();
+    if (theIndex.searcher == null) {
+      // sparse product of the item-user matrix with the user's vector
+      for (int i = 0; i < row.ids.length; i++) {
+        SparseRow itemColumn = theIndex.itemColumns.get(row.ids[i]);
+        double value = row.values[i];
+        for (int j = 0; j < itemColumn.ids.length; j++) {
+          long otherUserID = itemColumn.ids[j];
+          if (otherUserID != userID) {
+            double product = value * itemColumn.values[j];
+            similarities.adjustOrPutValue(otherUserID, product, product);
+          }
+        }
+      }
+    } else {
+      for (WeightedThing<Vector> candidate : theIndex.searcher.search(theIndex.vectors.get(userID), numCandidates)) {
+        long otherUserID = theIndex.userIDs[((WeightedVector) candidate.getValue()).getIndex()];
+        if (otherUserID != userID) {
+          similarities.put(otherUserID, row.dot(theIndex.userRows.get(otherUserID)));
+        }
+      }
+    }
+
+    long[] candidateUserIDs = Arrays.copyOf(similarities.keys().elements(), similarities.size());
+    return TopItems.getTopUsers(n, new LongPrimitiveArrayIterator(candidateUserIDs), null,
+                                new Estimator(similarities, minSimilarity));
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  @Override
+  public String toString() {
+    return "VectorizedNearestNUserNeighborhood[centered:" + centered + ']';
+  }
+
+  /** IDs with a value for each; user rows are in ascending order of item ID. */
+  private static final class SparseRow {
+
+    private final long[] ids;
+    private final float[] values;
+
+    private SparseRow(long[] ids, float[] values) {
+      this.ids = ids;
+      this.values = values;
+    }
+
+    double dot(SparseRow other) {
+      double dot = 0.0;
+      int i = 0;
+      int j = 0;
+      while (i < ids.length && j < other.ids.length) {
+        if (ids[i] < other.ids[j]) {
+          i++;
+        } else if (ids[i] > other.ids[j]) {
+          j++;
+        } else {
+          dot += values[i++] * other.values[j++];
+        }
+      }
+      return dot;
+    }
+  }
+
+  private static final class Index {
+
+    /** each user's normalized preferences, by item */
+    private final FastByIDMap<SparseRow> userRows;
+    /** each item's normalized preferences, by user */
+    private final FastByIDMap<SparseRow> itemColumns;
+    private final LocalitySensitiveHashSearch searcher;
+    private final FastByIDMap<Vector> vectors;
+    private final long[] userIDs;
+
+    private Index(DataModel dataModel, boolean centered, int numCandidates) throws TasteException {
+      int numUsers = dataModel.getNumUsers();
+      userRows = new FastByIDMap<SparseRow>(numUsers);
+      FastByIDMap<double[]> meansAndNorms = new FastByIDMap<double[]>(numUsers);
+      LongPrimitiveIterator it = dataModel.getUserIDs();
+      while (it.hasNext()) {
+        long userID = it.nextLong();
+        PreferenceArray prefs = dataModel.getPreferencesFromUser(userID);
+        int length = prefs.length();
+        double mean = 0.0;
+        if (centered) {
+          for (int i = 0; i < length; i++) {
+            mean += prefs.getValue(i);
+          }
+          mean /= length;
+        }
+        double sumOfSquares = 0.0;
+        for (int i = 0; i < length; i++) {
+          double centeredValue = prefs.getValue(i) - mean;
+          sumOfSquares += centeredValue * centeredValue;
+        }
+        if (sumOfSquares > 0.0) {
+          double[] meanAndNorm = {mean, Math.sqrt(sumOfSquares)};
+          meansAndNorms.put(userID, meanAndNorm);
+          userRows.put(userID, normalizeUserRow(prefs, meanAndNorm));
+        }
+      }
+
+      int numItems = dataModel.getNumItems();
+      itemColumns = new FastByIDMap<SparseRow>(numItems);
+      FastByIDMap<Integer> itemIndexes = numCandidates > 0 ? new FastByIDMap<Integer>(numItems) : null;
+      it = dataModel.getItemIDs();
+      while (it.hasNext()) {
+        long itemID = it.nextLong();
+        itemColumns.put(itemID, normalizeItemColumn(dataModel.getPreferencesForItem(itemID), meansAndNorms));
+        if (itemIndexes != null) {
+          itemIndexes.put(itemID, itemIndexes.size());
+        }
+      }
+
+      if (numCandidates > 0) {
+        searcher = new LocalitySensitiveHashSearch(new CosineDistanceMeasure(), numCandidates);
+        vectors = new FastByIDMap<Vector>(userRows.size());
+        userIDs = new long[userRows.size()];
+        int userIndex = 0;
+        for (Map.Entry<Long,SparseRow> entry : userRows.entrySet()) {
+          SparseRow row = entry.getValue();
+          Vector vector = new RandomAccessSparseVector(numItems, row.ids.length);
+          for (int i = 0; i < row.ids.length; i++) {
+            vector.setQuick(itemIndexes.get(row.ids[i]), row.values[i]);
+          }
+          WeightedVector weightedVector = new WeightedVector(vector, 1.0, userIndex);
+          searcher.add(weightedVector);
+          vectors.put(entry.getKey(), weightedVector);
+          userIDs[userIndex++] = entry.getKey();
+        }
+      } else {
+        searcher = null;
+        vectors = null;
+        userIDs = null;
+      }
+    }
+
+    private static SparseRow normalizeUserRow(PreferenceArray prefs, double[] meanAndNorm) {
+      // a copy, as callers of a DataModel may have re-sorted the arrays it returns
+      PreferenceArray sortedPrefs = prefs.clone();
+      sortedPrefs.sortByItem();
+      int length = sortedPrefs.length();
+      long[] itemIDs = new long[length];
+      float[] values = new float[length];
+      for (int i = 0; i < length; i++) {
+        itemIDs[i] = sortedPrefs.getItemID(i);
+        values[i] = (float) ((sortedPrefs.getValue(i) - meanAndNorm[0]) / meanAndNorm[1]);
+      }
+      return new SparseRow(itemIDs, values);
+    }
+
+    private static SparseRow normalizeItemColumn(PreferenceArray prefs, FastByIDMap<double[]> meansAndNorms) {
+      int length = prefs.length();
+      long[] userIDs = new long[length];
+      float[] values = new float[length];
+      int size = 0;
+      for (int i = 0; i < length; i++) {
+        long userID = prefs.getUserID(i);
+        double[] meanAndNorm = meansAndNorms.get(userID);
+        if (meanAndNorm != null) {
+          userIDs[size] = userID;
+          values[size] = (float) ((prefs.getValue(i) - meanAndNorm[0]) / meanAndNorm[1]);
+          size++;
+        }
+      }
+      return new SparseRow(Arrays.copyOf(userIDs, size), Arrays.copyOf(values, size));
+    }
+  }
+
+  private static final class Estimator implements TopItems.Estimator<Long> {
+
+    private final OpenLongDoubleHashMap similarities;
+    private final double minSim;
+
+    private Estimator(OpenLongDoubleHashMap similarities, double minSim) {
+      this.similarities = similarities;
+      this.minSim = minSim;
+    }
+
+    @Override
+    public double estimate(Long userID) {
+      // clamp rounding errors
+      double sim = Math.max(-1.0, Math.min(1.0, similarities.get(userID)));
+      return sim >= minSim ? sim : Double.NaN;
+    }
+  }
+
+}
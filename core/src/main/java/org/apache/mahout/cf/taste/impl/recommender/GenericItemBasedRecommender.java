@@ -18,15 +18,19 @@
 package org.apache.mahout.cf.taste.impl.recommender;
 
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.impl.common.RunningAverage;
 import org.apache.mahout.cf.taste.model.DataModel;
@@ -65,6 +69,16 @@ import com.google.common.base.Preconditions;
  * {@link org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity} too, which computes
  * similarities in real-time, but will probably find this painfully slow for large amounts of data.
  * </p>
+ *
+ * <p>
+ * Users with many candidate items can be scored in parallel by passing an {@link ExecutorService} to the
+ * constructor: {@link #recommend(long, int, IDRescorer)} then splits the candidates of any user with at least
+ * {@code parallelScoringThreshold} of them across the executor, so heavy users no longer take a single core
+ * for the whole request while light users are still scored on the calling thread. Each task scores at least
+ * {@code candidatesPerTask} items, and there are no more tasks than processors, or two on a single processor. The
+ * executor is not owned by this class; the {@link ItemSimilarity} and any {@link IDRescorer} must be
+ * thread-safe.
+ * </p>
  */
 public class GenericItemBasedRecommender extends AbstractRecommender implements ItemBasedRecommender {
   
@@ -75,18 +89,66 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   private final RefreshHelper refreshHelper;
   private EstimatedPreferenceCapper capper;
 
+  private final ExecutorService scoringExecutor;
+  private final int parallelScoringThreshold;
+  private final int candidatesPerTask;
+
   private static final boolean EXCLUDE_ITEM_IF_NOT_SIMILAR_TO_ALL_BY_DEFAULT = true;
 
+  /** Candidates scored by one task, at least, when scoring in parallel. */
+  private static final int DEFAULT_CANDIDATES_PER_TASK = 64;
+  /** the calling thread scores one of the tasks, so there is no point in fewer than two */
+  private static final int MAX_TASKS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
   public GenericItemBasedRecommender(DataModel dataModel,
                                      ItemSimilarity similarity,
                                      CandidateItemsStrategy candidateItemsStrategy,
                                      MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy) {
+    this(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy, null, 0);
+  }
+
+  /**
+   * @param scoringExecutor executor to score the candidate items of heavy users on, or {@code null} to always
+   *  score on the calling thread
+   * @param parallelScoringThreshold minimum number of candidate items for which scoring is split across
+   *  {@code scoringExecutor}
+   */
+  public GenericItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     CandidateItemsStrategy candidateItemsStrategy,
+                                     MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy,
+                                     ExecutorService scoringExecutor,
+                                     int parallelScoringThreshold) {
+    this(dataModel, similarity, candidateItemsStrategy, mostSimilarItemsCandidateItemsStrategy, scoringExecutor,
+         parallelScoringThreshold, DEFAULT_CANDIDATES_PER_TASK);
+  }
+
+  /**
+   * @param scoringExecutor executor to score the candidate items of heavy users on, or {@code null} to always
+   *  score on the calling thread
+   * @param parallelScoringThreshold minimum number of candidate items for which scoring is split across
+   *  {@code scoringExecutor}
+   * @param candidatesPerTask minimum number of candidate items scored by each task when scoring is split
+   */
+  public GenericItemBasedRecommender(DataModel dataModel,
+                                     ItemSimilarity similarity,
+                                     CandidateItemsStrategy candidateItemsStrategy,
+                                     MostSimilarItemsCandidateItemsStrategy mostSimilarItemsCandidateItemsStrategy,
+                                     ExecutorService scoringExecutor,
+                                     int parallelScoringThreshold,
+                                     int candidatesPerTask) {
     super(dataModel, candidateItemsStrategy);
     Preconditions.checkArgument(similarity != null, "similarity is null");
     this.similarity = similarity;
     Preconditions.checkArgument(mostSimilarItemsCandidateItemsStrategy != null,
         "mostSimilarItemsCandidateItemsStrategy is null");
     this.mostSimilarItemsCandidateItemsStrategy = mostSimilarItemsCandidateItemsStrategy;
+    Preconditions.checkArgument(scoringExecutor == null || parallelScoringThreshold >= 1,
+        "parallelScoringThreshold must be at least 1");
+    this.scoringExecutor = scoringExecutor;
+    this.parallelScoringThreshold = parallelScoringThreshold;
+    Preconditions.checkArgument(candidatesPerTask >= 1, "candidatesPerTask must be at least 1");
+    this.candidatesPerTask = candidatesPerTask;
     this.refreshHelper = new RefreshHelper(new Callable<Void>() {
       @Override
       public Void call() {
@@ -130,8 +192,15 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
 
     TopItems.Estimator<Long> estimator = new Estimator(userID, preferencesFromUser);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-      estimator);
+    List<RecommendedItem> topItems;
+    int numCandidates = possibleItemIDs.size();
+    if (scoringExecutor != null && numCandidates >= parallelScoringThreshold) {
+      int numTasks = Math.min(MAX_TASKS, (numCandidates + candidatesPerTask - 1) / candidatesPerTask);
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.toArray(), rescorer, estimator, scoringExecutor,
+        numTasks);
+    } else {
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer, estimator);
+    }
 
     log.debug("Recommendations are: {}", topItems);
     return topItems;
@@ -165,8 +234,24 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
   @Override
   public List<RecommendedItem> mostSimilarItems(long itemID, int howMany,
                                                 Rescorer<LongPair> rescorer) throws TasteException {
-    TopItems.Estimator<Long> estimator = new MostSimilarEstimator(itemID, similarity, rescorer);
-    return doMostSimilarItems(new long[] {itemID}, howMany, estimator);
+    FastIDSet candidates =
+        mostSimilarItemsCandidateItemsStrategy.getCandidateItems(new long[] {itemID}, getDataModel());
+    long[] possibleItemIDs = new long[candidates.size()];
+    int numPossibleItems = 0;
+    LongPrimitiveIterator it = candidates.iterator();
+    while (it.hasNext()) {
+      long possibleItemID = it.nextLong();
+      if (rescorer == null || !rescorer.isFiltered(new LongPair(itemID, possibleItemID))) {
+        possibleItemIDs[numPossibleItems++] = possibleItemID;
+      }
+    }
+    possibleItemIDs = Arrays.copyOf(possibleItemIDs, numPossibleItems);
+    Arrays.sort(possibleItemIDs);
+    // compare the item to all candidates in one batch rather than pair by pair
+    double[] similarities = similarity.itemSimilarities(itemID, possibleItemIDs);
+    TopItems.Estimator<Long> estimator =
+        new BatchMostSimilarEstimator(itemID, possibleItemIDs, similarities, rescorer);
+    return TopItems.getTopItems(howMany, new LongPrimitiveArrayIterator(possibleItemIDs), null, estimator);
   }
   
   @Override
@@ -299,6 +384,31 @@ public class GenericItemBasedRecommender extends AbstractRecommender implements
     }
   }
   
+  /**
+   * Looks up similarities computed beforehand for a sorted array of item IDs.
+   */
+  private static final class BatchMostSimilarEstimator implements TopItems.Estimator<Long> {
+
+    private final long toItemID;
+    private final long[] itemIDs;
+    private final double[] similarities;
+    private final Rescorer<LongPair> rescorer;
+
+    private BatchMostSimilarEstimator(long toItemID, long[] itemIDs, double[] similarities,
+                                      Rescorer<LongPair> rescorer) {
+      this.toItemID = toItemID;
+      this.itemIDs = itemIDs;
+      this.similarities = similarities;
+      this.rescorer = rescorer;
+    }
+
+    @Override
+    public double estimate(Long itemID) {
+      double originalEstimate = similarities[Arrays.binarySearch(itemIDs, itemID)];
+      return rescorer == null ? originalEstimate : rescorer.rescore(new LongPair(toItemID, itemID), originalEstimate);
+    }
+  }
+
   private final class Estimator implements TopItems.Estimator<Long> {
     
     private final long userID;
@@ -17,16 +17,22 @@
 
 package org.apache.mahout.cf.taste.impl.recommender;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.Lists;
 import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.NoSuchUserException;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
@@ -89,6 +95,89 @@ public final class TopItems {
     return result;
   }
   
+  /**
+   * <p>
+   * Like {@link #getTopItems(int, LongPrimitiveIterator, IDRescorer, Estimator)}, but splits the candidates
+   * into {@code numTasks} contiguous chunks that are scored concurrently. All but one chunk are submitted to
+   * {@code executor}, the last is scored on the calling thread. Each chunk keeps its own bounded heap of the
+   * best {@code howMany} items; the chunks' results are merged at the end.
+   * </p>
+   *
+   * <p>
+   * {@code rescorer} and {@code estimator} are called from several threads at once and must be thread-safe.
+   * </p>
+   */
+  public static List<RecommendedItem> getTopItems(final int howMany,
+                                                  long[] possibleItemIDs,
+                                                  final IDRescorer rescorer,
+                                                  final Estimator<Long> estimator,
+                                                  ExecutorService executor,
+                                                  int numTasks) throws TasteException {
+    Preconditions.checkArgument(possibleItemIDs != null, "possibleItemIDs is null");
+    Preconditions.checkArgument(estimator != null, "estimator is null");
+    Preconditions.checkArgument(executor != null, "executor is null");
+    Preconditions.checkArgument(numTasks >= 1, "numTasks must be at least 1");
+
+    int numCandidates = possibleItemIDs.length;
+    numTasks = Math.min(numTasks, numCandidates);
+    if (numTasks <= 1) {
+      return getTopItems(howMany, new LongPrimitiveArrayIterator(possibleItemIDs), rescorer, estimator);
+    }
+
+    List<Future<List<RecommendedItem>>> futures = Lists.newArrayListWithCapacity(numTasks - 1);
+    List<RecommendedItem> merged;
+    boolean done = false;
+    try {
+      for (int task = 0; task < numTasks - 1; task++) {
+        final long[] chunk = Arrays.copyOfRange(possibleItemIDs,
+                                                (int) ((long) task * numCandidates / numTasks),
+                                                (int) ((long) (task + 1) * numCandidates / numTasks));
+        futures.add(executor.submit(new Callable<List<RecommendedItem>>() {
+          @Override
+          public List<RecommendedItem> call() throws TasteException {
+            return getTopItems(howMany, new LongPrimitiveArrayIterator(chunk), rescorer, estimator);
+          }
+        }));
+      }
+      long[] lastChunk = Arrays.copyOfRange(possibleItemIDs,
+                                            (int) ((long) (numTasks - 1) * numCandidates / numTasks),
+                                            numCandidates);
+      merged = Lists.newArrayList(getTopItems(howMany, new LongPrimitiveArrayIterator(lastChunk), rescorer,
+                                              estimator));
+      for (Future<List<RecommendedItem>> future : futures) {
+        merged.addAll(future.get());
+      }
+      done = true;
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new TasteException(ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof TasteException) {
+        throw (TasteException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new TasteException(cause);
+    } finally {
+      if (!done) {
+        for (Future<?> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+
+    if (merged.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Collections.sort(merged, ByValueRecommendedItemComparator.getInstance());
+    return merged.size() > howMany ? Lists.newArrayList(merged.subList(0, howMany)) : merged;
+  }
+
   public static long[] getTopUsers(int howMany,
                                    LongPrimitiveIterator allUserIDs,
                                    IDRescorer rescorer,
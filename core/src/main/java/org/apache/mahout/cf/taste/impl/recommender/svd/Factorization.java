@@ -31,6 +31,8 @@ import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
  */
 public class Factorization {
 
+  private static final FastByIDMap<double[]> NO_ROWS = new FastByIDMap<double[]>(0);
+
   /** used to find the rows in the user features matrix by userID */
   private final FastByIDMap<Integer> userIDMapping;
   /** used to find the rows in the item features matrix by itemID */
@@ -105,6 +107,44 @@ public class Factorization {
     return itemIDMapping.keySetIterator();
   }
 
+  /**
+   * Returns a factorization that differs from this one only in the features of the given user, who is added if
+   * not yet present. This factorization is left unchanged. The new features are kept in an overlay over the
+   * factorization computed last, so that the cost does not grow with its size, only with the number of rows
+   * folded in since.
+   */
+  public Factorization withUserFeatures(long userID, double[] features) {
+    return new FoldedInFactorization(this, FoldedInFactorization.EMPTY, FoldedInFactorization.EMPTY)
+        .withUserFeatures(userID, features);
+  }
+
+  /**
+   * Returns a factorization that differs from this one only in the features of the given item, which is added if
+   * not yet present, the same way as {@link #withUserFeatures(long, double[])}.
+   */
+  public Factorization withItemFeatures(long itemID, double[] features) {
+    return new FoldedInFactorization(this, FoldedInFactorization.EMPTY, FoldedInFactorization.EMPTY)
+        .withItemFeatures(itemID, features);
+  }
+
+  /**
+   * @return the factorization rows were folded into, which is this one unless it was returned by
+   *  {@link #withUserFeatures(long, double[])} or {@link #withItemFeatures(long, double[])}
+   */
+  Factorization base() {
+    return this;
+  }
+
+  /** @return user features that replace or add to those of {@link #base()}, by user ID; must not be modified */
+  FastByIDMap<double[]> foldedInUserFeatures() {
+    return NO_ROWS;
+  }
+
+  /** @return item features that replace or add to those of {@link #base()}, by item ID; must not be modified */
+  FastByIDMap<double[]> foldedInItemFeatures() {
+    return NO_ROWS;
+  }
+
   public int numFeatures() {
     return userFeatures.length > 0 ? userFeatures[0].length : 0;
   }
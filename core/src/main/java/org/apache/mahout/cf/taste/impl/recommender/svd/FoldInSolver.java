@@ -0,0 +1,270 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.SequentialAccessSparseVector;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.als.AlternatingLeastSquaresSolver;
+import org.apache.mahout.math.als.ImplicitFeedbackAlternatingLeastSquaresSolver;
+import org.apache.mahout.math.map.OpenIntObjectHashMap;
+
+/**
+ * <p>
+ * Computes the features of a single user or item from its preferences while keeping the features of the other
+ * side of a {@link Factorization} fixed, which is one half-step of alternating least squares. This "folds in" new
+ * users and items, or users and items whose preferences have changed, without computing a new factorization. See
+ * {@link SVDRecommender#foldInUser(long, FoldInSolver)}.
+ * </p>
+ *
+ * <p>
+ * The regularization and, for implicit feedback, confidence parameters should match those of the
+ * {@link ALSWRFactorizer} that computed the factorization. Factorizations from the SGD factorizers, which keep
+ * biases in fixed positions of the feature vectors, are only approximately continued.
+ * </p>
+ *
+ * <p>
+ * For implicit feedback the solver needs the Gram matrix of all features of the other side. It is computed once
+ * per factorization as computed by a {@link Factorizer}, and only corrected for the rows folded in since, so
+ * that folding in does not take time in the size of the factorization.
+ * </p>
+ */
+public final class FoldInSolver {
+
+  private final double lambda;
+  private final boolean usesImplicitFeedback;
+  private final double alpha;
+
+  /** Gram matrix of the item features, used to solve for users */
+  private volatile Gram itemGram;
+  /** Gram matrix of the user features, used to solve for items */
+  private volatile Gram userGram;
+
+  /**
+   * Solves for explicit feedback.
+   *
+   * @param lambda regularization parameter
+   */
+  public FoldInSolver(double lambda) {
+    this(lambda, false, 0.0);
+  }
+
+  /**
+   * Solves for implicit feedback.
+   *
+   * @param lambda regularization parameter
+   * @param alpha confidence weighting parameter
+   */
+  public FoldInSolver(double lambda, double alpha) {
+    this(lambda, true, alpha);
+  }
+
+  private FoldInSolver(double lambda, boolean usesImplicitFeedback, double alpha) {
+    Preconditions.checkArgument(lambda >= 0.0, "lambda must not be negative");
+    this.lambda = lambda;
+    this.usesImplicitFeedback = usesImplicitFeedback;
+    this.alpha = alpha;
+  }
+
+  /**
+   * @return features of the user that fit its preferences against the fixed item features of the factorization,
+   *  or {@code null} if none of the preferences is for an item of the factorization
+   */
+  public double[] solveUser(Factorization factorization, PreferenceArray preferencesFromUser) {
+    int numFeatures = factorization.numFeatures();
+    List<double[]> features = Lists.newArrayListWithCapacity(preferencesFromUser.length());
+    List<Float> values = Lists.newArrayListWithCapacity(preferencesFromUser.length());
+    for (int i = 0; i < preferencesFromUser.length(); i++) {
+      try {
+        features.add(factorization.getItemFeatures(preferencesFromUser.getItemID(i)));
+        values.add(preferencesFromUser.getValue(i));
+      } catch (NoSuchItemException nsie) {
+        // an item that is not yet part of the factorization tells nothing about the user
+      }
+    }
+    if (features.isEmpty()) {
+      return null;
+    }
+    Matrix gram = null;
+    if (usesImplicitFeedback) {
+      Factorization base = factorization.base();
+      Gram cached = itemGram;
+      if (cached == null || cached.base != base) {
+        cached = new Gram(base, base.allItemFeatures(), numFeatures);
+        itemGram = cached;
+      }
+      FastByIDMap<double[]> foldedIn = factorization.foldedInItemFeatures();
+      List<double[]> replaced = Lists.newArrayList();
+      for (Map.Entry<Long,double[]> entry : foldedIn.entrySet()) {
+        try {
+          replaced.add(base.getItemFeatures(entry.getKey()));
+        } catch (NoSuchItemException nsie) {
+          // a new item, which only adds to the Gram matrix
+        }
+      }
+      gram = cached.with(foldedIn.values(), replaced);
+    }
+    return solve(features, values, gram, numFeatures);
+  }
+
+  /**
+   * @return features of the item that fit its preferences against the fixed user features of the factorization,
+   *  or {@code null} if none of the preferences is from a user of the factorization
+   */
+  public double[] solveItem(Factorization factorization, PreferenceArray preferencesForItem) {
+    int numFeatures = factorization.numFeatures();
+    List<double[]> features = Lists.newArrayListWithCapacity(preferencesForItem.length());
+    List<Float> values = Lists.newArrayListWithCapacity(preferencesForItem.length());
+    for (int i = 0; i < preferencesForItem.length(); i++) {
+      try {
+        features.add(factorization.getUserFeatures(preferencesForItem.getUserID(i)));
+        values.add(preferencesForItem.getValue(i));
+      } catch (NoSuchUserException nsue) {
+        // a user who is not yet part of the factorization tells nothing about the item
+      }
+    }
+    if (features.isEmpty()) {
+      return null;
+    }
+    Matrix gram = null;
+    if (usesImplicitFeedback) {
+      Factorization base = factorization.base();
+      Gram cached = userGram;
+      if (cached == null || cached.base != base) {
+        cached = new Gram(base, base.allUserFeatures(), numFeatures);
+        userGram = cached;
+      }
+      FastByIDMap<double[]> foldedIn = factorization.foldedInUserFeatures();
+      List<double[]> replaced = Lists.newArrayList();
+      for (Map.Entry<Long,double[]> entry : foldedIn.entrySet()) {
+        try {
+          replaced.add(base.getUserFeatures(entry.getKey()));
+        } catch (NoSuchUserException nsue) {
+          // a new user, who only adds to the Gram matrix
+        }
+      }
+      gram = cached.with(foldedIn.values(), replaced);
+    }
+    return solve(features, values, gram, numFeatures);
+  }
+
+  private double[] solve(List<double[]> features, List<Float> values, Matrix gram, int numFeatures) {
+    Vector solution;
+    if (usesImplicitFeedback) {
+      // the rated rows are numbered by their position, which is all the solver needs besides the Gram matrix
+      OpenIntObjectHashMap<Vector> Y = new OpenIntObjectHashMap<Vector>(features.size());
+      Vector ratings = new SequentialAccessSparseVector(features.size(), features.size());
+      for (int i = 0; i < features.size(); i++) {
+        Y.put(i, new DenseVector(features.get(i), true));
+        ratings.setQuick(i, values.get(i));
+      }
+      solution = new ImplicitFeedbackAlternatingLeastSquaresSolver(numFeatures, lambda, alpha, Y, gram)
+          .solve(ratings);
+    } else {
+      List<Vector> featureVectors = Lists.newArrayListWithCapacity(features.size());
+      double[] ratings = new double[features.size()];
+      for (int i = 0; i < features.size(); i++) {
+        featureVectors.add(new DenseVector(features.get(i), true));
+        ratings[i] = values.get(i);
+      }
+      solution = AlternatingLeastSquaresSolver.solve(featureVectors, new DenseVector(ratings, true), lambda,
+          numFeatures);
+    }
+    double[] result = new double[numFeatures];
+    for (int feature = 0; feature < numFeatures; feature++) {
+      result[feature] = solution.getQuick(feature);
+    }
+    return result;
+  }
+
+  /**
+   * The Gram matrix {@code Y' Y} of the feature matrix {@code Y} of a factorization, remembering which
+   * factorization it was computed from.
+   */
+  private static final class Gram {
+
+    private final Factorization base;
+    private final double[][] values;
+    private final Matrix gram;
+
+    private Gram(Factorization base, double[][] features, int numFeatures) {
+      this.base = base;
+      values = new double[numFeatures][numFeatures];
+      for (double[] row : features) {
+        addOuterProduct(values, row, 1.0);
+      }
+      for (int i = 0; i < numFeatures; i++) {
+        for (int j = 0; j < i; j++) {
+          values[i][j] = values[j][i];
+        }
+      }
+      gram = new DenseMatrix(values, true);
+    }
+
+    /**
+     * @return the Gram matrix after adding rows to and removing rows from the feature matrix, which takes time
+     *  in the number of those rows only
+     */
+    private Matrix with(Collection<double[]> added, Collection<double[]> removed) {
+      if (added.isEmpty() && removed.isEmpty()) {
+        return gram;
+      }
+      int numFeatures = values.length;
+      double[][] result = new double[numFeatures][];
+      for (int i = 0; i < numFeatures; i++) {
+        result[i] = values[i].clone();
+      }
+      for (double[] row : added) {
+        addOuterProduct(result, row, 1.0);
+      }
+      for (double[] row : removed) {
+        addOuterProduct(result, row, -1.0);
+      }
+      for (int i = 0; i < numFeatures; i++) {
+        for (int j = 0; j < i; j++) {
+          result[i][j] = result[j][i];
+        }
+      }
+      return new DenseMatrix(result, true);
+    }
+
+    /** Adds {@code weight * row * row'} to the upper triangle of {@code matrix} */
+    private static void addOuterProduct(double[][] matrix, double[] row, double weight) {
+      int numFeatures = matrix.length;
+      for (int i = 0; i < numFeatures; i++) {
+        double rowI = weight * row[i];
+        double[] matrixI = matrix[i];
+        for (int j = i; j < numFeatures; j++) {
+          matrixI[j] += rowI * row[j];
+        }
+      }
+    }
+  }
+}
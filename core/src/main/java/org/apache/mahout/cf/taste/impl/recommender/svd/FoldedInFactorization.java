@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.AbstractLongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+
+/**
+ * A {@link Factorization} with rows folded in over another one, the base, which is neither copied nor changed.
+ * Folded-in rows are looked up first; users and items new to the base are numbered on from its last row. Each
+ * further fold-in copies only the folded-in rows, so it works the same over a {@link MappedFactorization}.
+ */
+final class FoldedInFactorization extends Factorization {
+
+  static final Overlay EMPTY = new Overlay(new FastByIDMap<double[]>(0), new FastByIDMap<Integer>(0), new long[0]);
+
+  private final Factorization base;
+  private final Overlay users;
+  private final Overlay items;
+
+  FoldedInFactorization(Factorization base, Overlay users, Overlay items) {
+    super(new FastByIDMap<Integer>(0), new FastByIDMap<Integer>(0), new double[0][], new double[0][]);
+    this.base = base;
+    this.users = users;
+    this.items = items;
+  }
+
+  @Override
+  public double[][] allUserFeatures() {
+    return users.allFeatures(base.allUserFeatures());
+  }
+
+  @Override
+  public double[] getUserFeatures(long userID) throws NoSuchUserException {
+    double[] features = users.rows.get(userID);
+    return features == null ? base.getUserFeatures(userID) : features;
+  }
+
+  @Override
+  public double[][] allItemFeatures() {
+    return items.allFeatures(base.allItemFeatures());
+  }
+
+  @Override
+  public double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    double[] features = items.rows.get(itemID);
+    return features == null ? base.getItemFeatures(itemID) : features;
+  }
+
+  @Override
+  public int userIndex(long userID) throws NoSuchUserException {
+    Integer index = users.indices.get(userID);
+    return index == null ? base.userIndex(userID) : index;
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
+    return Iterables.concat(base.getUserIDMappings(), users.addedMappings(base.numUsers()));
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDMappingKeys() {
+    return new ConcatenatedIterator(base.getUserIDMappingKeys(), new LongPrimitiveArrayIterator(users.added));
+  }
+
+  @Override
+  public int itemIndex(long itemID) throws NoSuchItemException {
+    Integer index = items.indices.get(itemID);
+    return index == null ? base.itemIndex(itemID) : index;
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
+    return Iterables.concat(base.getItemIDMappings(), items.addedMappings(base.numItems()));
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDMappingKeys() {
+    return new ConcatenatedIterator(base.getItemIDMappingKeys(), new LongPrimitiveArrayIterator(items.added));
+  }
+
+  @Override
+  public Factorization withUserFeatures(long userID, double[] features) {
+    int baseIndex;
+    try {
+      baseIndex = base.userIndex(userID);
+    } catch (NoSuchUserException nsue) {
+      baseIndex = -1;
+    }
+    return new FoldedInFactorization(base, users.with(userID, features, baseIndex, base.numUsers()), items);
+  }
+
+  @Override
+  public Factorization withItemFeatures(long itemID, double[] features) {
+    int baseIndex;
+    try {
+      baseIndex = base.itemIndex(itemID);
+    } catch (NoSuchItemException nsie) {
+      baseIndex = -1;
+    }
+    return new FoldedInFactorization(base, users, items.with(itemID, features, baseIndex, base.numItems()));
+  }
+
+  @Override
+  Factorization base() {
+    return base;
+  }
+
+  @Override
+  FastByIDMap<double[]> foldedInUserFeatures() {
+    return users.rows;
+  }
+
+  @Override
+  FastByIDMap<double[]> foldedInItemFeatures() {
+    return items.rows;
+  }
+
+  @Override
+  public int numFeatures() {
+    return base.numFeatures();
+  }
+
+  @Override
+  public int numUsers() {
+    return base.numUsers() + users.added.length;
+  }
+
+  @Override
+  public int numItems() {
+    return base.numItems() + items.added.length;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof FoldedInFactorization)) {
+      return false;
+    }
+    FoldedInFactorization other = (FoldedInFactorization) o;
+    return base.equals(other.base) && users.equals(other.users) && items.equals(other.items);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * base.hashCode() + users.hashCode()) + items.hashCode();
+  }
+
+  /**
+   * The rows folded in on one side. It is never modified; {@link #with(long, double[], int, int)} copies it.
+   */
+  static final class Overlay {
+
+    /** folded-in rows by ID */
+    private final FastByIDMap<double[]> rows;
+    /** index of each folded-in ID, its index in the base if it has one */
+    private final FastByIDMap<Integer> indices;
+    /** IDs new to the base, in the order of their indices */
+    private final long[] added;
+
+    private Overlay(FastByIDMap<double[]> rows, FastByIDMap<Integer> indices, long[] added) {
+      this.rows = rows;
+      this.indices = indices;
+      this.added = added;
+    }
+
+    /**
+     * @param baseIndex index of the ID in the base, or -1 if the base does not have it
+     * @param baseSize number of rows of the base
+     */
+    Overlay with(long id, double[] row, int baseIndex, int baseSize) {
+      FastByIDMap<double[]> newRows = rows.clone();
+      newRows.put(id, row);
+      if (indices.containsKey(id)) {
+        return new Overlay(newRows, indices, added);
+      }
+      FastByIDMap<Integer> newIndices = indices.clone();
+      if (baseIndex >= 0) {
+        newIndices.put(id, baseIndex);
+        return new Overlay(newRows, newIndices, added);
+      }
+      newIndices.put(id, baseSize + added.length);
+      long[] newAdded = Arrays.copyOf(added, added.length + 1);
+      newAdded[added.length] = id;
+      return new Overlay(newRows, newIndices, newAdded);
+    }
+
+    private double[][] allFeatures(double[][] baseFeatures) {
+      if (rows.isEmpty()) {
+        return baseFeatures;
+      }
+      double[][] result = Arrays.copyOf(baseFeatures, baseFeatures.length + added.length);
+      for (Map.Entry<Long,Integer> entry : indices.entrySet()) {
+        result[entry.getValue()] = rows.get(entry.getKey());
+      }
+      return result;
+    }
+
+    private Iterable<Map.Entry<Long,Integer>> addedMappings(final int baseSize) {
+      return new Iterable<Map.Entry<Long,Integer>>() {
+        @Override
+        public Iterator<Map.Entry<Long,Integer>> iterator() {
+          return new AbstractIterator<Map.Entry<Long,Integer>>() {
+            private int index;
+
+            @Override
+            protected Map.Entry<Long,Integer> computeNext() {
+              if (index == added.length) {
+                return endOfData();
+              }
+              Map.Entry<Long,Integer> entry =
+                  new AbstractMap.SimpleImmutableEntry<Long,Integer>(added[index], baseSize + index);
+              index++;
+              return entry;
+            }
+          };
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Overlay)) {
+        return false;
+      }
+      Overlay other = (Overlay) o;
+      if (!Arrays.equals(added, other.added) || rows.size() != other.rows.size()) {
+        return false;
+      }
+      for (Map.Entry<Long,double[]> entry : rows.entrySet()) {
+        if (!Arrays.equals(entry.getValue(), other.rows.get(entry.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      int hashCode = Arrays.hashCode(added);
+      for (Map.Entry<Long,double[]> entry : rows.entrySet()) {
+        // summed, as the order of the entries depends on how the map was built
+        hashCode += entry.getKey().hashCode() ^ Arrays.hashCode(entry.getValue());
+      }
+      return hashCode;
+    }
+  }
+
+  /** Iterates over the keys of the base, then over the added IDs. */
+  private static final class ConcatenatedIterator extends AbstractLongPrimitiveIterator {
+
+    private final LongPrimitiveIterator first;
+    private final LongPrimitiveIterator second;
+
+    private ConcatenatedIterator(LongPrimitiveIterator first, LongPrimitiveIterator second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return first.hasNext() || second.hasNext();
+    }
+
+    @Override
+    public long nextLong() {
+      return first.hasNext() ? first.nextLong() : second.nextLong();
+    }
+
+    @Override
+    public long peek() {
+      return first.hasNext() ? first.peek() : second.peek();
+    }
+
+    @Override
+    public void skip(int n) {
+      for (int i = 0; i < n && hasNext(); i++) {
+        nextLong();
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
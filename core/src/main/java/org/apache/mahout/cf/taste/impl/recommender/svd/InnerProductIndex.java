@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.ByValueRecommendedItemComparator;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.Sorting;
+import org.apache.mahout.math.function.IntComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * An index over the item feature vectors of a {@link Factorization} that finds the items with the largest
+ * inner product with a given user feature vector without scoring every item.
+ * </p>
+ *
+ * <p>
+ * Items are partitioned into clusters by k-means. For each cluster the index keeps its centroid {@code c} and
+ * radius {@code r}, the largest distance of one of its items from the centroid, so that no item in it can score
+ * more than {@code q·c + |q| r} against a query {@code q}. A search visits clusters in decreasing order of this
+ * bound and stops as soon as the bound of the next cluster cannot beat the current top items, which makes
+ * results exact. On top of that, at most {@code maxProbes} clusters are visited, trading recall for
+ * latency.
+ * </p>
+ *
+ * <p>
+ * Item features are read through {@link Factorization#getItemFeatures(long)}, one item at a time, so that an
+ * index over a {@link MappedFactorization} does not copy its item matrix onto the heap; only the sample used to
+ * train the centroids is held in memory while building. The index refers to the factorization it was built from
+ * and is immutable once built.
+ * </p>
+ */
+public final class InnerProductIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(InnerProductIndex.class);
+
+  /** Items per cluster used to train the centroids; the full item set is only used for the final assignment. */
+  private static final int SAMPLE_PER_CLUSTER = 64;
+
+  private final Factorization factorization;
+  private final double[][] centroids;
+  private final double[] radii;
+  /** Items of cluster {@code c} are at positions {@code clusterStarts[c]} until {@code clusterStarts[c + 1]}. */
+  private final int[] clusterStarts;
+  /** Item IDs, grouped by cluster. */
+  private final long[] itemIDs;
+
+  /**
+   * Builds an index with about {@code sqrt(numItems)} clusters.
+   */
+  public InnerProductIndex(Factorization factorization) throws TasteException {
+    this(factorization, defaultNumClusters(factorization.numItems()), 10);
+  }
+
+  /**
+   * @param numClusters number of partitions of the items
+   * @param numIterations number of k-means iterations used to place the centroids
+   */
+  public InnerProductIndex(Factorization factorization, int numClusters, int numIterations) throws TasteException {
+    Preconditions.checkArgument(numClusters >= 1, "numClusters must be at least 1");
+    Preconditions.checkArgument(numIterations >= 0, "numIterations must not be negative");
+    this.factorization = factorization;
+    int numItems = factorization.numItems();
+    long[] unsortedItemIDs = new long[numItems];
+    int n = 0;
+    for (Map.Entry<Long,Integer> mapping : factorization.getItemIDMappings()) {
+      unsortedItemIDs[n++] = mapping.getKey();
+    }
+
+    int k = Math.max(1, Math.min(numClusters, numItems));
+    int numFeatures = factorization.numFeatures();
+    centroids = trainCentroids(unsortedItemIDs, k, numFeatures, numIterations, RandomUtils.getRandom());
+
+    // assign every item, summing each cluster's items to move its centroid to their mean afterwards
+    int[] assignments = new int[numItems];
+    double[][] sums = new double[k][numFeatures];
+    clusterStarts = new int[k + 1];
+    for (int i = 0; i < numItems; i++) {
+      double[] features = factorization.getItemFeatures(unsortedItemIDs[i]);
+      int c = nearestCentroid(features, centroids);
+      assignments[i] = c;
+      clusterStarts[c + 1]++;
+      for (int f = 0; f < numFeatures; f++) {
+        sums[c][f] += features[f];
+      }
+    }
+    for (int c = 0; c < k; c++) {
+      int size = clusterStarts[c + 1];
+      if (size > 0) {
+        for (int f = 0; f < numFeatures; f++) {
+          centroids[c][f] = sums[c][f] / size;
+        }
+      }
+      clusterStarts[c + 1] += clusterStarts[c];
+    }
+    itemIDs = new long[numItems];
+    int[] next = clusterStarts.clone();
+    for (int i = 0; i < numItems; i++) {
+      itemIDs[next[assignments[i]]++] = unsortedItemIDs[i];
+    }
+
+    // measure how far the items of each cluster spread around its centroid
+    radii = new double[k];
+    for (int c = 0; c < k; c++) {
+      double radius = 0.0;
+      for (int i = clusterStarts[c]; i < clusterStarts[c + 1]; i++) {
+        radius = Math.max(radius, distanceSquared(factorization.getItemFeatures(itemIDs[i]), centroids[c]));
+      }
+      radii[c] = Math.sqrt(radius);
+    }
+    log.info("Indexed {} items in {} clusters", numItems, k);
+  }
+
+  static int defaultNumClusters(int numItems) {
+    return Math.max(1, (int) Math.sqrt(numItems));
+  }
+
+  public int numClusters() {
+    return centroids.length;
+  }
+
+  /**
+   * Finds the {@code howMany} items with the largest estimates, which are inner products with
+   * {@code userFeatures}, possibly rescored.
+   *
+   * @param maxProbes largest number of clusters to visit. Results are exact if this is at least
+   *  {@link #numClusters()} and there is no rescorer.
+   * @param candidateItemIDs only items in this set are considered
+   * @param rescorer rescorer to apply to estimates, or {@code null}. As a rescorer may raise scores above the
+   *  bound a cluster was ranked by, clusters are then visited until {@code maxProbes} is reached.
+   */
+  public List<RecommendedItem> search(double[] userFeatures,
+                                      int howMany,
+                                      int maxProbes,
+                                      FastIDSet candidateItemIDs,
+                                      IDRescorer rescorer) throws TasteException {
+    Preconditions.checkArgument(howMany >= 1, "howMany must be at least 1");
+    Preconditions.checkArgument(maxProbes >= 1, "maxProbes must be at least 1");
+
+    double queryNorm = Math.sqrt(dot(userFeatures, userFeatures));
+    int k = centroids.length;
+    final double[] bounds = new double[k];
+    int[] order = new int[k];
+    for (int c = 0; c < k; c++) {
+      boolean empty = clusterStarts[c] == clusterStarts[c + 1];
+      bounds[c] = empty ? Double.NEGATIVE_INFINITY : dot(userFeatures, centroids[c]) + queryNorm * radii[c];
+      order[c] = c;
+    }
+    Sorting.quickSort(order, 0, k, new IntComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return Double.compare(bounds[b], bounds[a]);
+      }
+    });
+
+    Queue<RecommendedItem> topItems = new PriorityQueue<RecommendedItem>(howMany + 1,
+        Collections.reverseOrder(ByValueRecommendedItemComparator.getInstance()));
+    double lowestTopValue = Double.NEGATIVE_INFINITY;
+    int probes = Math.min(maxProbes, k);
+    for (int p = 0; p < probes; p++) {
+      int c = order[p];
+      double bound = bounds[c];
+      if (bound == Double.NEGATIVE_INFINITY) {
+        break; // only empty clusters are left
+      }
+      if (rescorer == null && topItems.size() == howMany && bound <= lowestTopValue) {
+        break; // no item in this or any later cluster can make it into the top items
+      }
+      for (int i = clusterStarts[c]; i < clusterStarts[c + 1]; i++) {
+        long itemID = itemIDs[i];
+        if (!candidateItemIDs.contains(itemID) || rescorer != null && rescorer.isFiltered(itemID)) {
+          continue;
+        }
+        double estimate = dot(userFeatures, factorization.getItemFeatures(itemID));
+        if (rescorer != null) {
+          estimate = rescorer.rescore(itemID, estimate);
+        }
+        if (!Double.isNaN(estimate) && (topItems.size() < howMany || estimate > lowestTopValue)) {
+          topItems.add(new GenericRecommendedItem(itemID, (float) estimate));
+          if (topItems.size() > howMany) {
+            topItems.poll();
+          }
+          if (topItems.size() == howMany) {
+            lowestTopValue = topItems.peek().getValue();
+          }
+        }
+      }
+    }
+
+    List<RecommendedItem> result = Lists.newArrayList(topItems);
+    Collections.sort(result, ByValueRecommendedItemComparator.getInstance());
+    return result;
+  }
+
+  /**
+   * Runs Lloyd's algorithm on a random sample of the items, starting from randomly chosen items.
+   */
+  private double[][] trainCentroids(long[] allItemIDs, int k, int numFeatures, int numIterations, Random random)
+    throws TasteException {
+    int numItems = allItemIDs.length;
+    int sampleSize = (int) Math.min(numItems, (long) k * SAMPLE_PER_CLUSTER);
+    int[] sample = new int[numItems];
+    for (int i = 0; i < numItems; i++) {
+      sample[i] = i;
+    }
+    // partial Fisher-Yates shuffle; the first sampleSize entries are the sample
+    double[][] sampleFeatures = new double[sampleSize][];
+    for (int i = 0; i < sampleSize; i++) {
+      int j = i + random.nextInt(numItems - i);
+      int swap = sample[i];
+      sample[i] = sample[j];
+      sample[j] = swap;
+      sampleFeatures[i] = factorization.getItemFeatures(allItemIDs[sample[i]]);
+    }
+
+    double[][] result = new double[k][];
+    for (int c = 0; c < k; c++) {
+      result[c] = c < sampleSize ? sampleFeatures[c].clone() : new double[numFeatures];
+    }
+
+    double[][] sums = new double[k][numFeatures];
+    int[] counts = new int[k];
+    for (int iteration = 0; iteration < numIterations; iteration++) {
+      for (int c = 0; c < k; c++) {
+        Arrays.fill(sums[c], 0.0);
+      }
+      Arrays.fill(counts, 0);
+      for (double[] features : sampleFeatures) {
+        int c = nearestCentroid(features, result);
+        counts[c]++;
+        for (int f = 0; f < numFeatures; f++) {
+          sums[c][f] += features[f];
+        }
+      }
+      for (int c = 0; c < k; c++) {
+        // an empty cluster keeps its centroid
+        if (counts[c] > 0) {
+          for (int f = 0; f < numFeatures; f++) {
+            result[c][f] = sums[c][f] / counts[c];
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int nearestCentroid(double[] features, double[][] centroids) {
+    int nearest = 0;
+    double nearestDistance = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < centroids.length; c++) {
+      double distance = distanceSquared(features, centroids[c]);
+      if (distance < nearestDistance) {
+        nearestDistance = distance;
+        nearest = c;
+      }
+    }
+    return nearest;
+  }
+
+  private static double distanceSquared(double[] a, double[] b) {
+    double result = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      double delta = a[i] - b[i];
+      result += delta * delta;
+    }
+    return result;
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double result = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      result += a[i] * b[i];
+    }
+    return result;
+  }
+}
@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveBufferIterator;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link Factorization} served from a file written by {@link MappedPersistenceStrategy}, which is mapped into
+ * memory rather than read. Loading it takes no parsing and almost no heap, however large the factorization.
+ * </p>
+ *
+ * <p>
+ * IDs are found by binary search over the sorted ID arrays, and the index of a user or item is its position
+ * in them. {@link #getUserFeatures(long)} and {@link #getItemFeatures(long)} return a new array decoded from
+ * the mapping on each call; {@link #allUserFeatures()} and {@link #allItemFeatures()} copy the whole matrix
+ * onto the heap and should be avoided on large factorizations. Folded-in users and items are kept on the heap
+ * over the mapping, which is never copied for them.
+ * </p>
+ */
+public final class MappedFactorization extends Factorization {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedFactorization.class);
+
+  private final File file;
+  /** length and modification time of the file when it was mapped */
+  private final long length;
+  private final long lastModified;
+  private final int numFeatures;
+  private final int numUsers;
+  private final int numItems;
+  private final boolean floats;
+  private final LongBuffer userIDs;
+  private final LongBuffer itemIDs;
+  private final ByteBuffer userFeatures;
+  private final ByteBuffer itemFeatures;
+
+  MappedFactorization(File file) throws IOException {
+    super(new FastByIDMap<Integer>(0), new FastByIDMap<Integer>(0), new double[0][], new double[0][]);
+    this.file = file.getAbsoluteFile();
+    lastModified = file.lastModified();
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      length = channel.size();
+      if (length < MappedPersistenceStrategy.HEADER_BYTES) {
+        throw new IOException("File too short: " + file);
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, MappedPersistenceStrategy.HEADER_BYTES);
+      if (header.getInt() != MappedPersistenceStrategy.MAGIC_NUMBER) {
+        throw new IOException("Not a factorization written by MappedPersistenceStrategy: " + file);
+      }
+      int version = header.getInt();
+      if (version != MappedPersistenceStrategy.VERSION) {
+        throw new IOException("Unsupported version " + version + " of " + file);
+      }
+      floats = (header.getInt() & MappedPersistenceStrategy.FLAG_FLOATS) != 0;
+      numFeatures = header.getInt();
+      numUsers = header.getInt();
+      numItems = header.getInt();
+
+      int featureBytes = floats ? 4 : 8;
+      long position = MappedPersistenceStrategy.HEADER_BYTES;
+      userIDs = map(channel, position, numUsers * 8L).asLongBuffer();
+      position += numUsers * 8L;
+      itemIDs = map(channel, position, numItems * 8L).asLongBuffer();
+      position += numItems * 8L;
+      userFeatures = map(channel, position, (long) numUsers * numFeatures * featureBytes);
+      position += (long) numUsers * numFeatures * featureBytes;
+      itemFeatures = map(channel, position, (long) numItems * numFeatures * featureBytes);
+      position += (long) numItems * numFeatures * featureBytes;
+      if (position != length) {
+        throw new IOException("Unexpected length " + length + " of " + file + ", expected " + position);
+      }
+    } finally {
+      // mappings remain valid after the file is closed
+      raf.close();
+    }
+    log.info("Mapped {} users and {} items with {} features from {}",
+             new Object[] {numUsers, numItems, numFeatures, file});
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Section of " + size + " bytes is too large to be mapped");
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+  }
+
+  public boolean isFloatPrecision() {
+    return floats;
+  }
+
+  @Override
+  public double[][] allUserFeatures() {
+    return allFeatures(userFeatures, numUsers);
+  }
+
+  @Override
+  public double[] getUserFeatures(long userID) throws NoSuchUserException {
+    return features(userFeatures, userIndex(userID));
+  }
+
+  @Override
+  public double[][] allItemFeatures() {
+    return allFeatures(itemFeatures, numItems);
+  }
+
+  @Override
+  public double[] getItemFeatures(long itemID) throws NoSuchItemException {
+    return features(itemFeatures, itemIndex(itemID));
+  }
+
+  @Override
+  public int userIndex(long userID) throws NoSuchUserException {
+    int index = LongPrimitiveBufferIterator.search(userIDs, 0, numUsers, userID);
+    if (index < 0) {
+      throw new NoSuchUserException(userID);
+    }
+    return index;
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getUserIDMappings() {
+    return mappings(userIDs, numUsers);
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDMappingKeys() {
+    return new LongPrimitiveBufferIterator(userIDs);
+  }
+
+  @Override
+  public int itemIndex(long itemID) throws NoSuchItemException {
+    int index = LongPrimitiveBufferIterator.search(itemIDs, 0, numItems, itemID);
+    if (index < 0) {
+      throw new NoSuchItemException(itemID);
+    }
+    return index;
+  }
+
+  @Override
+  public Iterable<Map.Entry<Long,Integer>> getItemIDMappings() {
+    return mappings(itemIDs, numItems);
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDMappingKeys() {
+    return new LongPrimitiveBufferIterator(itemIDs);
+  }
+
+  @Override
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  @Override
+  public int numUsers() {
+    return numUsers;
+  }
+
+  @Override
+  public int numItems() {
+    return numItems;
+  }
+
+  private double[] features(ByteBuffer block, int index) {
+    double[] result = new double[numFeatures];
+    int offset = index * numFeatures;
+    if (floats) {
+      for (int feature = 0; feature < numFeatures; feature++) {
+        result[feature] = block.getFloat((offset + feature) << 2);
+      }
+    } else {
+      for (int feature = 0; feature < numFeatures; feature++) {
+        result[feature] = block.getDouble((offset + feature) << 3);
+      }
+    }
+    return result;
+  }
+
+  private double[][] allFeatures(ByteBuffer block, int count) {
+    double[][] result = new double[count][];
+    for (int index = 0; index < count; index++) {
+      result[index] = features(block, index);
+    }
+    return result;
+  }
+
+  private static Iterable<Map.Entry<Long,Integer>> mappings(final LongBuffer ids, final int count) {
+    return new Iterable<Map.Entry<Long,Integer>>() {
+      @Override
+      public Iterator<Map.Entry<Long,Integer>> iterator() {
+        return new AbstractIterator<Map.Entry<Long,Integer>>() {
+          private int index;
+
+          @Override
+          protected Map.Entry<Long,Integer> computeNext() {
+            if (index == count) {
+              return endOfData();
+            }
+            Map.Entry<Long,Integer> entry = new AbstractMap.SimpleImmutableEntry<Long,Integer>(ids.get(index), index);
+            index++;
+            return entry;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Mapped factorizations are equal if they map the same file, unchanged since, which is the same as comparing
+   * their contents but does not read them.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof MappedFactorization)) {
+      return false;
+    }
+    MappedFactorization other = (MappedFactorization) o;
+    return file.equals(other.file) && length == other.length && lastModified == other.lastModified
+        && floats == other.floats && numFeatures == other.numFeatures && numUsers == other.numUsers
+        && numItems == other.numItems;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 31 * file.hashCode() + (int) (lastModified ^ (lastModified >>> 32));
+    return 31 * hashCode + (int) (length ^ (length >>> 32));
+  }
+}
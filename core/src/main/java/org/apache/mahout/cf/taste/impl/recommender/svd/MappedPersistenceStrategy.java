@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Closeables;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A file-based persistent store whose {@link #load()} maps the file into memory and returns a
+ * {@link MappedFactorization} that serves features straight from the mapping, instead of parsing the whole
+ * factorization onto the heap as {@link FilePersistenceStrategy} does.
+ * </p>
+ *
+ * <p>
+ * The file consists of a header (magic number, version, flags, number of features, users and items), the sorted
+ * user IDs, the sorted item IDs ({@code long}s), and the user and item feature matrices, one row per ID in the
+ * same order, as {@code float}s or {@code double}s. Each feature matrix is limited to 2GB.
+ * </p>
+ *
+ * <p>
+ * {@link #maybePersist(Factorization)} writes to a temporary file next to the target and renames it over the
+ * target, so a factorization still mapped from the old file stays valid and readers never see a partial file.
+ * </p>
+ */
+public class MappedPersistenceStrategy implements PersistenceStrategy {
+
+  private static final Logger log = LoggerFactory.getLogger(MappedPersistenceStrategy.class);
+
+  static final int MAGIC_NUMBER = 0x4d465a31;
+  static final int VERSION = 1;
+  static final int FLAG_FLOATS = 1;
+  static final int HEADER_BYTES = 24;
+
+  private final File file;
+  private final boolean floatPrecision;
+
+  /**
+   * Stores features as {@code double}s.
+   *
+   * @param file the file to use for storage. If the file does not exist it will be created when required.
+   */
+  public MappedPersistenceStrategy(File file) {
+    this(file, false);
+  }
+
+  /**
+   * @param file the file to use for storage. If the file does not exist it will be created when required.
+   * @param floatPrecision store features as {@code float}s, halving the size of the file at some loss of
+   *  precision
+   */
+  public MappedPersistenceStrategy(File file, boolean floatPrecision) {
+    this.file = Preconditions.checkNotNull(file).getAbsoluteFile();
+    this.floatPrecision = floatPrecision;
+  }
+
+  @Override
+  public Factorization load() throws IOException {
+    if (!file.exists()) {
+      log.info("{} does not yet exist, no factorization found", file);
+      return null;
+    }
+    return new MappedFactorization(file);
+  }
+
+  @Override
+  public void maybePersist(Factorization factorization) throws IOException {
+    File tempFile = new File(file.getParentFile(), '.' + file.getName() + ".tmp");
+    log.info("Writing factorization to {}...", file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    boolean success = false;
+    try {
+      write(factorization, out);
+      success = true;
+    } catch (TasteException te) {
+      throw new IOException("Unable to persist factorization", te);
+    } finally {
+      Closeables.close(out, !success);
+      if (!success && !tempFile.delete()) {
+        log.warn("Could not delete {}", tempFile);
+      }
+    }
+    if (!tempFile.renameTo(file)) {
+      // some platforms will not rename over an existing file
+      if (!file.delete() || !tempFile.renameTo(file)) {
+        throw new IOException("Could not move " + tempFile + " to " + file);
+      }
+    }
+  }
+
+  private void write(Factorization factorization, DataOutputStream out) throws IOException, TasteException {
+    int numFeatures = factorization.numFeatures();
+    long[] userIDs = sortedIDs(factorization.getUserIDMappingKeys(), factorization.numUsers());
+    long[] itemIDs = sortedIDs(factorization.getItemIDMappingKeys(), factorization.numItems());
+
+    out.writeInt(MAGIC_NUMBER);
+    out.writeInt(VERSION);
+    out.writeInt(floatPrecision ? FLAG_FLOATS : 0);
+    out.writeInt(numFeatures);
+    out.writeInt(userIDs.length);
+    out.writeInt(itemIDs.length);
+    for (long userID : userIDs) {
+      out.writeLong(userID);
+    }
+    for (long itemID : itemIDs) {
+      out.writeLong(itemID);
+    }
+    for (long userID : userIDs) {
+      writeFeatures(factorization.getUserFeatures(userID), numFeatures, out);
+    }
+    for (long itemID : itemIDs) {
+      writeFeatures(factorization.getItemFeatures(itemID), numFeatures, out);
+    }
+  }
+
+  private void writeFeatures(double[] features, int numFeatures, DataOutputStream out) throws IOException {
+    for (int feature = 0; feature < numFeatures; feature++) {
+      if (floatPrecision) {
+        out.writeFloat((float) features[feature]);
+      } else {
+        out.writeDouble(features[feature]);
+      }
+    }
+  }
+
+  private static long[] sortedIDs(LongPrimitiveIterator ids, int count) {
+    long[] result = new long[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = ids.nextLong();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+}
@@ -17,9 +17,16 @@
 
 package org.apache.mahout.cf.taste.impl.recommender.svd;
 
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
@@ -38,7 +45,17 @@ import org.slf4j.LoggerFactory;
  * "Scalable Collaborative Filtering Approaches for Large Recommender Systems"</a>
  * and
  * <a href="hwww.cs.wisc.edu/~brecht/papers/hogwildTR.pdf">
- * "Hogwild!: A Lock-Free Approach to Parallelizing Stochastic Gradient Descent"</a> */
+ * "Hogwild!: A Lock-Free Approach to Parallelizing Stochastic Gradient Descent"</a>.
+ *
+ * <p>Preferences are held as primitive arrays of user index, item index and value. Following
+ * "Large-Scale Matrix Factorization with Distributed Stochastic Gradient Descent" (Gemulla et al.), users and
+ * items are split into as many blocks as there are threads, which divides the preferences into strata. In each
+ * of the sub-epochs of an epoch every thread works through a different stratum, none of which share a user or an
+ * item, so threads never write to the same feature vectors and need no locks. The same worker threads run all
+ * epochs, meeting at a barrier between sub-epochs, and each shuffles its own stratum before working through it.
+ * The training error is accumulated as a side effect of the updates and logged after each epoch, without a
+ * separate pass over the data. When it increases by more than {@link #DIVERGENCE_TOLERANCE} from one epoch to the
+ * next, the learning rate is halved for the remaining epochs.</p> */
 public class ParallelSGDFactorizer extends AbstractFactorizer {
 
   private final DataModel dataModel;
@@ -63,16 +80,11 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
   private double biasMuRatio = 0.5;
   private double biasLambdaRatio = 0.1;
 
-  /** TODO: this is not safe as += is not atomic on many processors, can be replaced with AtomicDoubleArray
-   * but it works just fine right now  */
   /** user features */
   protected volatile double[][] userVectors;
   /** item features */
   protected volatile double[][] itemVectors;
 
-  private final PreferenceShuffler shuffler;
-
-  private int epoch = 1;
   /** place in user vector where the bias is stored */
   private static final int USER_BIAS_INDEX = 1;
   /** place in item vector where the bias is stored */
@@ -80,9 +92,17 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
   private static final int FEATURE_OFFSET = 3;
   /** Standard deviation for random initialization of features */
   private static final double NOISE = 0.02;
+  /** Relative increase of the training error from one epoch to the next that halves the learning rate */
+  private static final double DIVERGENCE_TOLERANCE = 0.01;
 
   private static final Logger logger = LoggerFactory.getLogger(ParallelSGDFactorizer.class);
 
+  /**
+   * Shuffles boxed {@link Preference}s.
+   *
+   * @deprecated without direct replacement; the factorizer shuffles preferences held in primitive arrays.
+   */
+  @Deprecated
   protected static class PreferenceShuffler {
 
     private Preference[] preferences;
@@ -160,10 +180,9 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
     this.lambda = lambda;
     this.numEpochs = numEpochs;
 
-    shuffler = new PreferenceShuffler(dataModel);
-
     //max thread num set to n^0.25 as suggested by hogwild! paper
-    numThreads = Math.min(Runtime.getRuntime().availableProcessors(), (int) Math.pow((double) shuffler.size(), 0.25));
+    numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+        (int) Math.pow((double) countPreferences(dataModel), 0.25)));
   }
 
   public ParallelSGDFactorizer(DataModel dataModel, int numFeatures, double lambda, int numIterations,
@@ -238,47 +257,204 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
       logger.info("starting to compute the factorization...");
     }
 
-    for (epoch = 1; epoch <= numEpochs; epoch++) {
-      shuffler.stage();
-
-      final double mu = getMu(epoch);
-      int subSize = shuffler.size() / numThreads + 1;
-
-      ExecutorService executor=Executors.newFixedThreadPool(numThreads);
-
-      try {
-        for (int t = 0; t < numThreads; t++) {
-          final int iStart = t * subSize;
-          final int iEnd = Math.min((t + 1) * subSize, shuffler.size());
-
-          executor.execute(new Runnable() {
-            @Override
-            public void run() {
-              for (int i = iStart; i < iEnd; i++) {
-                update(shuffler.get(i), mu);
+    final Strata strata = new Strata(numThreads);
+    final int numBlocks = strata.numBlocks;
+    final double[] squaredErrors = new double[numBlocks];
+    // scales the annealed learning rate; written only by the barrier action, which the barrier orders before
+    // the sub-epochs that read it
+    final double[] learningRateScale = {1.0};
+    final CyclicBarrier barrier = new CyclicBarrier(numBlocks, new Runnable() {
+      private int subEpoch;
+      private double lastRmse = Double.NaN;
+
+      @Override
+      public void run() {
+        // all workers are waiting here, so their errors are visible and none is being written
+        subEpoch++;
+        if (subEpoch % numBlocks == 0) {
+          double sum = 0.0;
+          for (int t = 0; t < numBlocks; t++) {
+            sum += squaredErrors[t];
+            squaredErrors[t] = 0.0;
+          }
+          double rmse = Math.sqrt(sum / Math.max(1, strata.size()));
+          logger.info("epoch {}: training RMSE {}", subEpoch / numBlocks, rmse);
+          if (rmse > lastRmse * (1 + DIVERGENCE_TOLERANCE)) {
+            learningRateScale[0] /= 2;
+            logger.warn("training error increased from {} to {}, halving the learning rate", lastRmse, rmse);
+          }
+          lastRmse = rmse;
+        }
+      }
+    });
+
+    // set by the first worker to fail, so that the others stop instead of waiting for it at the barrier
+    final AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(numBlocks);
+    try {
+      CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+      for (int t = 0; t < numBlocks; t++) {
+        final int thread = t;
+        completion.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws InterruptedException, BrokenBarrierException {
+            Random random = RandomUtils.getRandom();
+            boolean done = false;
+            try {
+              for (int epoch = 1; epoch <= numEpochs; epoch++) {
+                double mu = getMu(epoch) * learningRateScale[0];
+                for (int subEpoch = 0; subEpoch < numBlocks; subEpoch++) {
+                  int stratum = thread * numBlocks + (thread + subEpoch) % numBlocks;
+                  squaredErrors[thread] += strata.train(stratum, mu, random);
+                  if (failed.get()) {
+                    throw new BrokenBarrierException();
+                  }
+                  barrier.await();
+                }
+              }
+              done = true;
+            } finally {
+              if (!done) {
+                // release the workers waiting at the barrier; any that arrive later see the flag, and the
+                // executor is shut down to interrupt those that checked it just before
+                failed.set(true);
+                barrier.reset();
               }
             }
-          });
-        }
-      } finally {
-        executor.shutdown();
-        shuffler.shuffle();
-
+            return null;
+          }
+        });
+      }
+      Throwable failure = null;
+      for (int t = 0; t < numBlocks; t++) {
         try {
-          boolean terminated = executor.awaitTermination(numEpochs * shuffler.size(), TimeUnit.MICROSECONDS);
-          if (!terminated) {
-            logger.error("subtasks takes forever, return anyway");
+          completion.take().get();
+        } catch (ExecutionException e) {
+          executor.shutdownNow();
+          // the workers stopped because of a failed one only report a broken barrier or an interruption
+          Throwable cause = e.getCause();
+          boolean secondary = cause instanceof BrokenBarrierException || cause instanceof InterruptedException;
+          if (failure == null || (!secondary && (failure instanceof BrokenBarrierException
+              || failure instanceof InterruptedException))) {
+            failure = cause;
           }
-        } catch (InterruptedException e) {
-          throw new TasteException("waiting fof termination interrupted", e);
         }
       }
-
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      if (failure != null) {
+        throw new TasteException(failure);
+      }
+    } catch (InterruptedException e) {
+      throw new TasteException("interrupted while computing the factorization", e);
+    } finally {
+      executor.shutdownNow();
     }
 
     return createFactorization(userVectors, itemVectors);
   }
 
+  /**
+   * The preferences as primitive arrays, grouped by stratum. Stratum {@code u * numBlocks + i} holds the
+   * preferences of the users in block {@code u} for the items in block {@code i}.
+   */
+  private final class Strata {
+
+    private final int numBlocks;
+    private final int[] userIndexes;
+    private final int[] itemIndexes;
+    private final float[] values;
+    /** Stratum {@code s} is at positions {@code starts[s]} until {@code starts[s + 1]}. */
+    private final int[] starts;
+
+    private Strata(int numBlocks) throws TasteException {
+      this.numBlocks = numBlocks;
+      int numPreferences = countPreferences(dataModel);
+      int[] users = new int[numPreferences];
+      int[] items = new int[numPreferences];
+      float[] prefValues = new float[numPreferences];
+      int[] strata = new int[numPreferences];
+      starts = new int[numBlocks * numBlocks + 1];
+
+      int n = 0;
+      LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+      while (userIDs.hasNext()) {
+        long userID = userIDs.nextLong();
+        int userIndex = userIndex(userID);
+        PreferenceArray preferencesFromUser = dataModel.getPreferencesFromUser(userID);
+        for (int i = 0; i < preferencesFromUser.length(); i++) {
+          int itemIndex = itemIndex(preferencesFromUser.getItemID(i));
+          users[n] = userIndex;
+          items[n] = itemIndex;
+          prefValues[n] = preferencesFromUser.getValue(i);
+          strata[n] = (userIndex % numBlocks) * numBlocks + itemIndex % numBlocks;
+          starts[strata[n] + 1]++;
+          n++;
+        }
+      }
+      for (int s = 0; s < numBlocks * numBlocks; s++) {
+        starts[s + 1] += starts[s];
+      }
+
+      userIndexes = new int[numPreferences];
+      itemIndexes = new int[numPreferences];
+      values = new float[numPreferences];
+      int[] next = starts.clone();
+      for (int i = 0; i < numPreferences; i++) {
+        int position = next[strata[i]]++;
+        userIndexes[position] = users[i];
+        itemIndexes[position] = items[i];
+        values[position] = prefValues[i];
+      }
+    }
+
+    int size() {
+      return values.length;
+    }
+
+    /**
+     * Shuffles the preferences of the stratum and runs one SGD step on each.
+     *
+     * @return sum of the squared errors of the predictions made before each step
+     */
+    double train(int stratum, double mu, Random random) {
+      int start = starts[stratum];
+      int end = starts[stratum + 1];
+      /* Durstenfeld shuffle */
+      for (int i = end - 1; i > start; i--) {
+        int j = start + random.nextInt(i - start + 1);
+        int user = userIndexes[i];
+        userIndexes[i] = userIndexes[j];
+        userIndexes[j] = user;
+        int item = itemIndexes[i];
+        itemIndexes[i] = itemIndexes[j];
+        itemIndexes[j] = item;
+        float value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+      }
+      double squaredError = 0.0;
+      for (int i = start; i < end; i++) {
+        double err = update(userIndexes[i], itemIndexes[i], values[i], mu);
+        squaredError += err * err;
+      }
+      return squaredError;
+    }
+  }
+
+  private static int countPreferences(DataModel dataModel) throws TasteException {
+    int numPreferences = 0;
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      numPreferences += dataModel.getPreferencesFromUser(userIDs.nextLong()).length();
+    }
+    return numPreferences;
+  }
+
   double getAveragePreference() throws TasteException {
     RunningAverage average = new FullRunningAverage();
     LongPrimitiveIterator it = dataModel.getUserIDs();
@@ -307,14 +483,18 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
    * BAD SIDE3: don't know how to make it work for L1-regularization or
    *            "pseudorank?" (sum of singular values)-regularization */
   protected void update(Preference preference, double mu) {
-    int userIndex = userIndex(preference.getUserID());
-    int itemIndex = itemIndex(preference.getItemID());
+    update(userIndex(preference.getUserID()), itemIndex(preference.getItemID()), preference.getValue(), mu);
+  }
 
+  /**
+   * @return the error of the prediction made before the update
+   */
+  private double update(int userIndex, int itemIndex, float value, double mu) {
     double[] userVector = userVectors[userIndex];
     double[] itemVector = itemVectors[itemIndex];
 
     double prediction = dot(userVector, itemVector);
-    double err = preference.getValue() - prediction;
+    double err = value - prediction;
 
     // adjust features
     for (int k = FEATURE_OFFSET; k < rank; k++) {
@@ -328,6 +508,7 @@ public class ParallelSGDFactorizer extends AbstractFactorizer {
     // adjust user and item bias
     userVector[USER_BIAS_INDEX] += biasMuRatio * mu * (err - biasLambdaRatio * lambda * userVector[USER_BIAS_INDEX]);
     itemVector[ITEM_BIAS_INDEX] += biasMuRatio * mu * (err - biasLambdaRatio * lambda * itemVector[ITEM_BIAS_INDEX]);
+    return err;
   }
 
   private double dot(double[] userVector, double[] itemVector) {
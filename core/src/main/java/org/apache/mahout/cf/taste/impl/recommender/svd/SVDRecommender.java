@@ -44,9 +44,15 @@ import org.slf4j.LoggerFactory;
  */
 public final class SVDRecommender extends AbstractRecommender {
 
-  private Factorization factorization;
+  private static final int NO_INDEX = Integer.MAX_VALUE;
+
+  private volatile Model model;
+  /** serializes changes to the model */
+  private final Object modelLock = new Object();
   private final Factorizer factorizer;
   private final PersistenceStrategy persistenceStrategy;
+  private final int minItemsToIndex;
+  private final double probeFraction;
   private final RefreshHelper refreshHelper;
 
   private static final Logger log = LoggerFactory.getLogger(SVDRecommender.class);
@@ -92,17 +98,41 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
       PersistenceStrategy persistenceStrategy) throws TasteException {
+    this(dataModel, factorizer, candidateItemsStrategy, persistenceStrategy, NO_INDEX, 1.0);
+  }
+
+  /**
+   * Create an SVDRecommender that, for catalogs of at least {@code minItemsToIndex} items, builds an
+   * {@link InnerProductIndex} over the item features whenever the factorization is loaded or recomputed, and
+   * answers {@link #recommend(long, int, IDRescorer)} from it instead of estimating every candidate item.
+   * Smaller catalogs are scored exhaustively.
+   *
+   * @param minItemsToIndex smallest number of items for which to build an index
+   * @param probeFraction largest fraction of the index's clusters a request may visit, in (0,1]. At 1.0
+   *  recommendations are exact unless a rescorer is given; lower values bound latency at some loss of recall.
+   *
+   * @throws TasteException
+   */
+  public SVDRecommender(DataModel dataModel, Factorizer factorizer, CandidateItemsStrategy candidateItemsStrategy,
+      PersistenceStrategy persistenceStrategy, int minItemsToIndex, double probeFraction) throws TasteException {
     super(dataModel, candidateItemsStrategy);
+    Preconditions.checkArgument(minItemsToIndex >= 0, "minItemsToIndex must not be negative");
+    Preconditions.checkArgument(probeFraction > 0.0 && probeFraction <= 1.0, "probeFraction must be in (0,1]");
     this.factorizer = Preconditions.checkNotNull(factorizer);
     this.persistenceStrategy = Preconditions.checkNotNull(persistenceStrategy);
+    this.minItemsToIndex = minItemsToIndex;
+    this.probeFraction = probeFraction;
+    Factorization loaded;
     try {
-      factorization = persistenceStrategy.load();
+      loaded = persistenceStrategy.load();
     } catch (IOException e) {
       throw new TasteException("Error loading factorization", e);
     }
     
-    if (factorization == null) {
+    if (loaded == null) {
       train();
+    } else {
+      setFactorization(loaded);
     }
     
     refreshHelper = new RefreshHelper(new Callable<Object>() {
@@ -122,13 +152,87 @@ public final class SVDRecommender extends AbstractRecommender {
   }
 
   private void train() throws TasteException {
-    factorization = factorizer.factorize();
+    Factorization factorization = factorizer.factorize();
+    setFactorization(factorization);
     try {
       persistenceStrategy.maybePersist(factorization);
     } catch (IOException e) {
       throw new TasteException("Error persisting factorization", e);
     }
   }
+
+  private void setFactorization(Factorization factorization) throws TasteException {
+    InnerProductIndex index = null;
+    if (minItemsToIndex != NO_INDEX && factorization.numItems() >= minItemsToIndex) {
+      index = new InnerProductIndex(factorization);
+    }
+    synchronized (modelLock) {
+      model = new Model(factorization, index);
+    }
+  }
+
+  /**
+   * Recomputes the features of a user from the user's current preferences in the {@link DataModel}, keeping all
+   * item features fixed, and makes them available to subsequent requests without computing a new factorization.
+   * This gives new users personalized recommendations as soon as they have expressed some preferences. The
+   * factorization is replaced rather than modified, so concurrent requests are unaffected. The features are
+   * solved without holding a lock, so concurrent fold-ins only wait for each other to swap in the result.
+   *
+   * Folded-in features are lost when the factorization is recomputed on {@link #refresh(java.util.Collection)},
+   * which accounts for the same preferences anyway. They are not persisted.
+   *
+   * @return false if none of the user's preferences is for an item of the factorization, in which case nothing
+   *  changed
+   */
+  public boolean foldInUser(long userID, FoldInSolver solver) throws TasteException {
+    PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
+    while (true) {
+      Factorization current = model.factorization;
+      double[] features = solver.solveUser(current, preferencesFromUser);
+      if (features == null) {
+        return false;
+      }
+      synchronized (modelLock) {
+        // features solved against a factorization that was recomputed meanwhile do not fit the new one
+        Model theModel = model;
+        if (theModel.factorization.base() == current.base()) {
+          model = theModel.withUserFeatures(userID, features);
+          break;
+        }
+      }
+    }
+    log.debug("Folded in user ID '{}'", userID);
+    return true;
+  }
+
+  /**
+   * Recomputes the features of an item from its current preferences in the {@link DataModel}, keeping all user
+   * features fixed, the same way as {@link #foldInUser(long, FoldInSolver)}. When recommendations are answered
+   * from an {@link InnerProductIndex}, new items are only recommended once the factorization is recomputed.
+   *
+   * @return false if none of the item's preferences is from a user of the factorization, in which case nothing
+   *  changed
+   */
+  public boolean foldInItem(long itemID, FoldInSolver solver) throws TasteException {
+    PreferenceArray preferencesForItem = getDataModel().getPreferencesForItem(itemID);
+    while (true) {
+      Factorization current = model.factorization;
+      double[] features = solver.solveItem(current, preferencesForItem);
+      if (features == null) {
+        return false;
+      }
+      synchronized (modelLock) {
+        // features solved against a factorization that was recomputed meanwhile do not fit the new one
+        Model theModel = model;
+        if (theModel.factorization.base() == current.base()) {
+          model = theModel.withItemFeatures(itemID, features);
+          break;
+        }
+      }
+    }
+    log.debug("Folded in item ID '{}'", itemID);
+    return true;
+  }
   
   @Override
   public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer) throws TasteException {
@@ -138,8 +242,17 @@ public final class SVDRecommender extends AbstractRecommender {
     PreferenceArray preferencesFromUser = getDataModel().getPreferencesFromUser(userID);
     FastIDSet possibleItemIDs = getAllOtherItems(userID, preferencesFromUser);
 
-    List<RecommendedItem> topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
-        new Estimator(userID));
+    // the index and the user features must come from the same model
+    Model theModel = model;
+    List<RecommendedItem> topItems;
+    if (theModel.index == null) {
+      topItems = TopItems.getTopItems(howMany, possibleItemIDs.iterator(), rescorer,
+          new Estimator(theModel.factorization, userID));
+    } else {
+      int maxProbes = Math.max(1, (int) Math.ceil(probeFraction * theModel.index.numClusters()));
+      topItems = theModel.index.search(theModel.factorization.getUserFeatures(userID), howMany, maxProbes,
+          possibleItemIDs, rescorer);
+    }
     log.debug("Recommendations are: {}", topItems);
 
     return topItems;
@@ -150,8 +263,13 @@ public final class SVDRecommender extends AbstractRecommender {
    */
   @Override
   public float estimatePreference(long userID, long itemID) throws TasteException {
-    double[] userFeatures = factorization.getUserFeatures(userID);
-    double[] itemFeatures = factorization.getItemFeatures(itemID);
+    return estimatePreference(model.factorization, userID, itemID);
+  }
+
+  private static float estimatePreference(Factorization theFactorization, long userID, long itemID)
+    throws TasteException {
+    double[] userFeatures = theFactorization.getUserFeatures(userID);
+    double[] itemFeatures = theFactorization.getItemFeatures(itemID);
     double estimate = 0;
     for (int feature = 0; feature < userFeatures.length; feature++) {
       estimate += userFeatures[feature] * itemFeatures[feature];
@@ -159,17 +277,43 @@ public final class SVDRecommender extends AbstractRecommender {
     return (float) estimate;
   }
 
-  private final class Estimator implements TopItems.Estimator<Long> {
+  private static final class Estimator implements TopItems.Estimator<Long> {
 
+    private final Factorization theFactorization;
     private final long theUserID;
 
-    private Estimator(long theUserID) {
+    private Estimator(Factorization theFactorization, long theUserID) {
+      this.theFactorization = theFactorization;
       this.theUserID = theUserID;
     }
 
     @Override
     public double estimate(Long itemID) throws TasteException {
-      return estimatePreference(theUserID, itemID);
+      return estimatePreference(theFactorization, theUserID, itemID);
+    }
+  }
+
+  /**
+   * A factorization and the index built from its base, published together so that a request never pairs the
+   * user features of one factorization with the index of another. Fold-ins keep the index.
+   */
+  private static final class Model {
+
+    private final Factorization factorization;
+    /** null if recommendations are scored exhaustively */
+    private final InnerProductIndex index;
+
+    private Model(Factorization factorization, InnerProductIndex index) {
+      this.factorization = factorization;
+      this.index = index;
+    }
+
+    private Model withUserFeatures(long userID, double[] features) {
+      return new Model(factorization.withUserFeatures(userID, features), index);
+    }
+
+    private Model withItemFeatures(long itemID, double[] features) {
+      return new Model(factorization.withItemFeatures(itemID, features), index);
     }
   }
 
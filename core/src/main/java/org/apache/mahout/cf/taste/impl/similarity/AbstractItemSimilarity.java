@@ -18,14 +18,19 @@
 package org.apache.mahout.cf.taste.impl.similarity;
 
 import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
 import org.apache.mahout.cf.taste.common.Refreshable;
 import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.math.list.LongArrayList;
 
+import java.util.Arrays;
 import java.util.Collection;
 
 public abstract class AbstractItemSimilarity implements ItemSimilarity {
@@ -46,17 +51,103 @@ public abstract class AbstractItemSimilarity implements ItemSimilarity {
 
   @Override
   public long[] allSimilarItemIDs(long itemID) throws TasteException {
+    LongArrayList itemIDs = new LongArrayList(dataModel.getNumItems());
+    LongPrimitiveIterator it = dataModel.getItemIDs();
+    while (it.hasNext()) {
+      itemIDs.add(it.nextLong());
+    }
+    itemIDs.trimToSize();
+    long[] allItemIDs = itemIDs.elements();
+    // one batch, so implementations which can compare one item to many at once get to do so
+    double[] similarities = itemSimilarities(itemID, allItemIDs);
     FastIDSet allSimilarItemIDs = new FastIDSet();
-    LongPrimitiveIterator allItemIDs = dataModel.getItemIDs();
-    while (allItemIDs.hasNext()) {
-      long possiblySimilarItemID = allItemIDs.nextLong();
-      if (!Double.isNaN(itemSimilarity(itemID, possiblySimilarItemID))) {
-        allSimilarItemIDs.add(possiblySimilarItemID);
+    for (int i = 0; i < allItemIDs.length; i++) {
+      if (!Double.isNaN(similarities[i])) {
+        allSimilarItemIDs.add(allItemIDs[i]);
       }
     }
     return allSimilarItemIDs.toArray();
   }
 
+  /**
+   * <p>
+   * Counts the users who prefer each of {@code itemID2s}, and the users who prefer both {@code itemID1} and each
+   * of {@code itemID2s}, for similarities based on co-occurrence counts. The users of {@code itemID1} are read
+   * once, and the co-occurrences of all of {@code itemID2s} are counted in a single pass over them, instead of
+   * a fresh intersection of both items' users per pair.
+   * </p>
+   *
+   * <p>
+   * Unknown items count as having no users. If nobody prefers {@code itemID1}, the counts for the other items
+   * are left at zero, as no similarity can be computed anyway.
+   * </p>
+   *
+   * @param preferring2 receives, at index i, the number of users preferring {@code itemID2s[i]}
+   * @param preferring1and2 receives, at index i, the number of users preferring {@code itemID1} and
+   *  {@code itemID2s[i]}
+   * @return the number of users preferring {@code itemID1}
+   */
+  protected int countCooccurrences(long itemID1, long[] itemID2s, int[] preferring2, int[] preferring1and2)
+    throws TasteException {
+    PreferenceArray prefs1;
+    try {
+      prefs1 = dataModel.getPreferencesForItem(itemID1);
+    } catch (NoSuchItemException nsie) {
+      prefs1 = null;
+    }
+    int preferring1 = prefs1 == null ? 0 : prefs1.length();
+    Arrays.fill(preferring1and2, 0, itemID2s.length, 0);
+    if (preferring1 == 0) {
+      Arrays.fill(preferring2, 0, itemID2s.length, 0);
+      return 0;
+    }
+
+    // slot of each distinct candidate, and the candidates in slot order
+    FastByIDMap<Integer> slots = new FastByIDMap<Integer>(itemID2s.length);
+    int[] slotOf = new int[itemID2s.length];
+    long[] candidates = new long[itemID2s.length];
+    for (int i = 0; i < itemID2s.length; i++) {
+      Integer slot = slots.get(itemID2s[i]);
+      if (slot == null) {
+        slot = slots.size();
+        slots.put(itemID2s[i], slot);
+        candidates[slot] = itemID2s[i];
+      }
+      slotOf[i] = slot;
+    }
+    int numCandidates = slots.size();
+
+    int[] counts = new int[numCandidates];
+    for (int j = 0; j < preferring1; j++) {
+      FastIDSet itemIDs = dataModel.getItemIDsFromUser(prefs1.getUserID(j));
+      if (itemIDs.size() < numCandidates) {
+        LongPrimitiveIterator it = itemIDs.iterator();
+        while (it.hasNext()) {
+          Integer slot = slots.get(it.nextLong());
+          if (slot != null) {
+            counts[slot]++;
+          }
+        }
+      } else {
+        for (int slot = 0; slot < numCandidates; slot++) {
+          if (itemIDs.contains(candidates[slot])) {
+            counts[slot]++;
+          }
+        }
+      }
+    }
+
+    for (int i = 0; i < itemID2s.length; i++) {
+      preferring1and2[i] = counts[slotOf[i]];
+      try {
+        preferring2[i] = dataModel.getNumUsersWithPreferenceFor(itemID2s[i]);
+      } catch (NoSuchItemException nsie) {
+        preferring2[i] = 0;
+      }
+    }
+    return preferring1;
+  }
+
   @Override
   public void refresh(Collection<Refreshable> alreadyRefreshed) {
     refreshHelper.refresh(alreadyRefreshed);
@@ -67,20 +67,51 @@ public final class CachingItemSimilarity implements ItemSimilarity {
   
   @Override
   public double itemSimilarity(long itemID1, long itemID2) throws TasteException {
-    LongPair key = itemID1 < itemID2 ? new LongPair(itemID1, itemID2) : new LongPair(itemID2, itemID1);
-    return similarityCache.get(key);
+    return similarityCache.get(key(itemID1, itemID2));
   }
 
+  /**
+   * Looks up what is cached, then computes all similarities which are not in one call to the underlying
+   * {@link ItemSimilarity#itemSimilarities(long, long[])}, and caches them.
+   */
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
     int length = itemID2s.length;
     double[] result = new double[length];
+    int[] missing = null;
+    int numMissing = 0;
     for (int i = 0; i < length; i++) {
+      Double cached = similarityCache.getIfPresent(key(itemID1, itemID2s[i]));
+      if (cached == null) {
+        if (missing == null) {
+          missing = new int[length - i];
+        }
+        missing[numMissing++] = i;
+      } else {
+        result[i] = cached;
+      }
+    }
+    if (numMissing == 1) {
+      int i = missing[0];
       result[i] = itemSimilarity(itemID1, itemID2s[i]);
+    } else if (numMissing > 1) {
+      long[] missingItemIDs = new long[numMissing];
+      for (int j = 0; j < numMissing; j++) {
+        missingItemIDs[j] = itemID2s[missing[j]];
+      }
+      double[] computed = similarity.itemSimilarities(itemID1, missingItemIDs);
+      for (int j = 0; j < numMissing; j++) {
+        result[missing[j]] = computed[j];
+        similarityCache.put(key(itemID1, missingItemIDs[j]), computed[j]);
+      }
     }
     return result;
   }
 
+  private static LongPair key(long itemID1, long itemID2) {
+    return itemID1 < itemID2 ? new LongPair(itemID1, itemID2) : new LongPair(itemID2, itemID1);
+  }
+
   @Override
   public long[] allSimilarItemIDs(long itemID) throws TasteException {
     return similarity.allSimilarItemIDs(itemID);
@@ -81,13 +81,14 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    DataModel dataModel = getDataModel();
-    long preferring1 = dataModel.getNumUsersWithPreferenceFor(itemID1);
-    long numUsers = dataModel.getNumUsers();
+    long numUsers = getDataModel().getNumUsers();
     int length = itemID2s.length;
+    int[] preferring2 = new int[length];
+    int[] preferring1and2 = new int[length];
+    long preferring1 = countCooccurrences(itemID1, itemID2s, preferring2, preferring1and2);
     double[] result = new double[length];
     for (int i = 0; i < length; i++) {
-      result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1, numUsers);
+      result[i] = similarity(preferring1, preferring2[i], preferring1and2[i], numUsers);
     }
     return result;
   }
@@ -99,6 +100,13 @@ public final class LogLikelihoodSimilarity extends AbstractItemSimilarity implem
       return Double.NaN;
     }
     long preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
+    return similarity(preferring1, preferring2, preferring1and2, numUsers);
+  }
+
+  private static double similarity(long preferring1, long preferring2, long preferring1and2, long numUsers) {
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
     double logLikelihood =
         LogLikelihood.logLikelihoodRatio(preferring1and2,
                                          preferring2 - preferring1and2,
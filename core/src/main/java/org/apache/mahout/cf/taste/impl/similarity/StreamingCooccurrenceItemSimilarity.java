@@ -0,0 +1,433 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.map.OpenLongIntHashMap;
+import org.apache.mahout.math.stats.LogLikelihood;
+
+/**
+ * <p>
+ * An {@link ItemSimilarity} that is built from a stream of (user, item) interactions, given to
+ * {@link #addInteraction(long, long)}, rather than from a {@link DataModel}. It keeps the number of users who
+ * interacted with each item and with each pair of items, from which it computes the same log-likelihood ratio
+ * based similarity as {@link LogLikelihoodSimilarity}, and for each item maintains its most similar items for
+ * {@link #allSimilarItemIDs(long)}. Similarities therefore reflect an interaction as soon as it was added,
+ * without recomputation in batch.
+ * </p>
+ *
+ * <p>
+ * Like {@code maxObservationsPerRow} of
+ * {@link org.apache.mahout.math.hadoop.similarity.cooccurrence.RowSimilarityJob}, the number of items
+ * counted per user is bounded, which bounds the work per interaction and the influence of very active users.
+ * Once a user has reached the bound, a uniform sample of the user's items is kept by reservoir sampling, and the
+ * counts of an item that drops out of the sample are taken back. All items a user interacted with are
+ * remembered, though, so that an item does not re-enter the sample when the interaction is repeated.
+ * </p>
+ *
+ * <p>
+ * The similarities of the most similar items of an item are updated whenever the counts of that pair change.
+ * As the number of users and items changes with every interaction, the stored similarities of pairs that were
+ * not seen recently are only approximately current; {@link #itemSimilarity(long, long)} is always exact.
+ * Items that have not yet been seen have unknown similarity, {@link Double#NaN}.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe. Users and items are spread over a number of independently locked segments. An
+ * interaction holds the lock of its user's segment, and the lock of one item's segment at a time, only while
+ * that item's counts and most similar items are updated, so reads wait at most for such an update of an item in
+ * their segment, and interactions of different users proceed concurrently. The two counts of a pair are updated
+ * one after the other, so a read may briefly see them differ. A recommender using this similarity still takes
+ * the user's own preferences from its {@link DataModel}, which must reflect the interactions too.
+ * </p>
+ */
+public final class StreamingCooccurrenceItemSimilarity implements ItemSimilarity {
+
+  public static final int DEFAULT_MAX_ITEMS_PER_USER = 500;
+  public static final int DEFAULT_MAX_SIMILAR_ITEMS_PER_ITEM = 100;
+
+  private static final long[] NO_IDS = new long[0];
+  /** a power of two */
+  private static final int NUM_SEGMENTS = 64;
+
+  private final int maxItemsPerUser;
+  private final int maxSimilarItemsPerItem;
+  private final Random random;
+
+  private final UserSegment[] userSegments;
+  private final ItemSegment[] itemSegments;
+  private final AtomicInteger numUsers = new AtomicInteger();
+
+  public StreamingCooccurrenceItemSimilarity() {
+    this(DEFAULT_MAX_ITEMS_PER_USER, DEFAULT_MAX_SIMILAR_ITEMS_PER_ITEM);
+  }
+
+  /**
+   * @param maxItemsPerUser number of items sampled per user
+   * @param maxSimilarItemsPerItem number of most similar items kept per item
+   */
+  public StreamingCooccurrenceItemSimilarity(int maxItemsPerUser, int maxSimilarItemsPerItem) {
+    Preconditions.checkArgument(maxItemsPerUser >= 1, "maxItemsPerUser must be at least 1");
+    Preconditions.checkArgument(maxSimilarItemsPerItem >= 1, "maxSimilarItemsPerItem must be at least 1");
+    this.maxItemsPerUser = maxItemsPerUser;
+    this.maxSimilarItemsPerItem = maxSimilarItemsPerItem;
+    random = RandomUtils.getRandom();
+    userSegments = new UserSegment[NUM_SEGMENTS];
+    itemSegments = new ItemSegment[NUM_SEGMENTS];
+    for (int i = 0; i < NUM_SEGMENTS; i++) {
+      userSegments[i] = new UserSegment();
+      itemSegments[i] = new ItemSegment();
+    }
+  }
+
+  private static int segmentIndex(long id) {
+    // spread the hash so that IDs differing only in high bits end up in different segments
+    int h = (int) (id ^ (id >>> 32));
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return h & (NUM_SEGMENTS - 1);
+  }
+
+  private ItemSegment itemSegmentFor(long itemID) {
+    return itemSegments[segmentIndex(itemID)];
+  }
+
+  /**
+   * Adds the interactions of all users in a {@link DataModel}, to start from existing data.
+   */
+  public void addInteractions(DataModel dataModel) throws TasteException {
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      LongPrimitiveIterator itemIDs = dataModel.getItemIDsFromUser(userID).iterator();
+      while (itemIDs.hasNext()) {
+        addInteraction(userID, itemIDs.nextLong());
+      }
+    }
+  }
+
+  /**
+   * Records that a user interacted with an item. Repeated interactions of a user with an item count once.
+   */
+  public void addInteraction(long userID, long itemID) {
+    UserSegment userSegment = userSegments[segmentIndex(userID)];
+    userSegment.lock.lock();
+    try {
+      UserHistory history = userSegment.histories.get(userID);
+      if (history == null) {
+        history = new UserHistory();
+        userSegment.histories.put(userID, history);
+        numUsers.incrementAndGet();
+      }
+      if (!history.seen.add(itemID)) {
+        return;
+      }
+      history.numInteractions++;
+      if (history.size == maxItemsPerUser) {
+        // reservoir sampling: the new item replaces a random one with probability maxItemsPerUser / interactions
+        long slot = (long) (random.nextDouble() * history.numInteractions);
+        if (slot >= maxItemsPerUser) {
+          return;
+        }
+        long evictedItemID = history.itemIDs[(int) slot];
+        history.itemIDs[(int) slot] = history.itemIDs[history.size - 1];
+        history.size--;
+        adjustItemCount(evictedItemID, -1);
+        for (int i = 0; i < history.size; i++) {
+          adjustCooccurrences(evictedItemID, history.itemIDs[i], -1);
+        }
+      }
+      adjustItemCount(itemID, 1);
+      for (int i = 0; i < history.size; i++) {
+        adjustCooccurrences(itemID, history.itemIDs[i], 1);
+      }
+      history.add(itemID);
+    } finally {
+      userSegment.lock.unlock();
+    }
+  }
+
+  private void adjustItemCount(long itemID, int delta) {
+    ItemSegment segment = itemSegmentFor(itemID);
+    segment.lock.writeLock().lock();
+    try {
+      if (segment.itemCounts.adjustOrPutValue(itemID, delta, delta) == 0) {
+        segment.itemCounts.removeKey(itemID);
+      }
+    } finally {
+      segment.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adjusts the count of a pair under each item, and the pair's place among each item's most similar items. Only
+   * one segment is locked at a time.
+   */
+  private void adjustCooccurrences(long itemID1, long itemID2, int delta) {
+    int preferring2 = itemCount(itemID2);
+    double similarity;
+    ItemSegment segment1 = itemSegmentFor(itemID1);
+    segment1.lock.writeLock().lock();
+    try {
+      int count = segment1.adjustCooccurrence(itemID1, itemID2, delta);
+      similarity = similarity(segment1.itemCounts.get(itemID1), preferring2, count);
+      segment1.updateNeighbor(itemID1, itemID2, similarity, maxSimilarItemsPerItem);
+    } finally {
+      segment1.lock.writeLock().unlock();
+    }
+    ItemSegment segment2 = itemSegmentFor(itemID2);
+    segment2.lock.writeLock().lock();
+    try {
+      segment2.adjustCooccurrence(itemID2, itemID1, delta);
+      segment2.updateNeighbor(itemID2, itemID1, similarity, maxSimilarItemsPerItem);
+    } finally {
+      segment2.lock.writeLock().unlock();
+    }
+  }
+
+  private int itemCount(long itemID) {
+    ItemSegment segment = itemSegmentFor(itemID);
+    segment.lock.readLock().lock();
+    try {
+      return segment.itemCounts.get(itemID);
+    } finally {
+      segment.lock.readLock().unlock();
+    }
+  }
+
+  private double similarity(long preferring1, long preferring2, int preferring1and2) {
+    if (preferring1and2 <= 0) {
+      return Double.NaN;
+    }
+    long numUsers = this.numUsers.get();
+    double logLikelihood =
+        LogLikelihood.logLikelihoodRatio(preferring1and2,
+                                         preferring2 - preferring1and2,
+                                         preferring1 - preferring1and2,
+                                         numUsers - preferring1 - preferring2 + preferring1and2);
+    return 1.0 - 1.0 / (1.0 + logLikelihood);
+  }
+
+  @Override
+  public double itemSimilarity(long itemID1, long itemID2) {
+    ItemSegment segment1 = itemSegmentFor(itemID1);
+    int preferring1;
+    int preferring1and2;
+    segment1.lock.readLock().lock();
+    try {
+      OpenLongIntHashMap counts = segment1.cooccurrences.get(itemID1);
+      if (counts == null) {
+        return Double.NaN;
+      }
+      preferring1 = segment1.itemCounts.get(itemID1);
+      preferring1and2 = counts.get(itemID2);
+    } finally {
+      segment1.lock.readLock().unlock();
+    }
+    return similarity(preferring1, itemCount(itemID2), preferring1and2);
+  }
+
+  @Override
+  public double[] itemSimilarities(long itemID1, long[] itemID2s) {
+    double[] result = new double[itemID2s.length];
+    int[] preferring1and2 = new int[itemID2s.length];
+    ItemSegment segment1 = itemSegmentFor(itemID1);
+    int preferring1;
+    segment1.lock.readLock().lock();
+    try {
+      OpenLongIntHashMap counts = segment1.cooccurrences.get(itemID1);
+      if (counts == null) {
+        Arrays.fill(result, Double.NaN);
+        return result;
+      }
+      preferring1 = segment1.itemCounts.get(itemID1);
+      for (int i = 0; i < itemID2s.length; i++) {
+        preferring1and2[i] = counts.get(itemID2s[i]);
+      }
+    } finally {
+      segment1.lock.readLock().unlock();
+    }
+    for (int i = 0; i < itemID2s.length; i++) {
+      result[i] = preferring1and2[i] == 0
+          ? Double.NaN : similarity(preferring1, itemCount(itemID2s[i]), preferring1and2[i]);
+    }
+    return result;
+  }
+
+  /**
+   * @return the items found most similar to the item, at most {@code maxSimilarItemsPerItem}
+   */
+  @Override
+  public long[] allSimilarItemIDs(long itemID) {
+    ItemSegment segment = itemSegmentFor(itemID);
+    segment.lock.readLock().lock();
+    try {
+      Neighbors similarItems = segment.neighbors.get(itemID);
+      return similarItems == null ? NO_IDS : Arrays.copyOf(similarItems.itemIDs, similarItems.size);
+    } finally {
+      segment.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Does nothing, as the similarities are only updated by {@link #addInteraction(long, long)}.
+   */
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    // nothing to do
+  }
+
+  @Override
+  public String toString() {
+    return "StreamingCooccurrenceItemSimilarity[maxItemsPerUser:" + maxItemsPerUser
+        + ", maxSimilarItemsPerItem:" + maxSimilarItemsPerItem + ']';
+  }
+
+  /** The users whose IDs fall into one segment, and the lock serializing their interactions. */
+  private static final class UserSegment {
+
+    private final Lock lock = new ReentrantLock();
+    private final FastByIDMap<UserHistory> histories = new FastByIDMap<UserHistory>();
+  }
+
+  /** The counts and most similar items of the items whose IDs fall into one segment. */
+  private static final class ItemSegment {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** number of users who interacted with each item */
+    private final OpenLongIntHashMap itemCounts = new OpenLongIntHashMap();
+    /** number of users who interacted with both an item of this segment and another item */
+    private final FastByIDMap<OpenLongIntHashMap> cooccurrences = new FastByIDMap<OpenLongIntHashMap>();
+    private final FastByIDMap<Neighbors> neighbors = new FastByIDMap<Neighbors>();
+
+    int adjustCooccurrence(long itemID1, long itemID2, int delta) {
+      OpenLongIntHashMap counts = cooccurrences.get(itemID1);
+      if (counts == null) {
+        counts = new OpenLongIntHashMap();
+        cooccurrences.put(itemID1, counts);
+      }
+      int count = counts.adjustOrPutValue(itemID2, delta, delta);
+      if (count == 0) {
+        counts.removeKey(itemID2);
+      }
+      return count;
+    }
+
+    /**
+     * @param similarity similarity of the items, or {@link Double#NaN} if they no longer co-occur
+     */
+    void updateNeighbor(long itemID, long otherItemID, double similarity, int maxSimilarItems) {
+      Neighbors itemNeighbors = neighbors.get(itemID);
+      if (Double.isNaN(similarity)) {
+        if (itemNeighbors != null) {
+          itemNeighbors.remove(otherItemID);
+        }
+        return;
+      }
+      if (itemNeighbors == null) {
+        itemNeighbors = new Neighbors(maxSimilarItems);
+        neighbors.put(itemID, itemNeighbors);
+      }
+      itemNeighbors.offer(otherItemID, similarity);
+    }
+  }
+
+  /** The sampled items of a user. */
+  private static final class UserHistory {
+
+    /** every item the user interacted with, sampled or not */
+    private final FastIDSet seen = new FastIDSet();
+    private long[] itemIDs = new long[4];
+    private int size;
+    /** number of distinct interactions offered to the sample */
+    private long numInteractions;
+
+    void add(long itemID) {
+      if (size == itemIDs.length) {
+        itemIDs = Arrays.copyOf(itemIDs, 2 * size);
+      }
+      itemIDs[size++] = itemID;
+    }
+  }
+
+  /** The most similar items of an item, in no particular order. */
+  private static final class Neighbors {
+
+    private final long[] itemIDs;
+    private final double[] similarities;
+    private int size;
+
+    Neighbors(int capacity) {
+      itemIDs = new long[capacity];
+      similarities = new double[capacity];
+    }
+
+    /**
+     * Updates the similarity of an item already present, or adds it if there is room or it is more similar than
+     * the least similar one.
+     */
+    void offer(long itemID, double similarity) {
+      int leastSimilar = -1;
+      for (int i = 0; i < size; i++) {
+        if (itemIDs[i] == itemID) {
+          similarities[i] = similarity;
+          return;
+        }
+        if (leastSimilar < 0 || similarities[i] < similarities[leastSimilar]) {
+          leastSimilar = i;
+        }
+      }
+      if (size < itemIDs.length) {
+        itemIDs[size] = itemID;
+        similarities[size] = similarity;
+        size++;
+      } else if (similarity > similarities[leastSimilar]) {
+        itemIDs[leastSimilar] = itemID;
+        similarities[leastSimilar] = similarity;
+      }
+    }
+
+    void remove(long itemID) {
+      for (int i = 0; i < size; i++) {
+        if (itemIDs[i] == itemID) {
+          size--;
+          itemIDs[i] = itemIDs[size];
+          similarities[i] = similarities[size];
+          return;
+        }
+      }
+    }
+  }
+}
@@ -93,11 +93,13 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
 
   @Override
   public double[] itemSimilarities(long itemID1, long[] itemID2s) throws TasteException {
-    int preferring1 = getDataModel().getNumUsersWithPreferenceFor(itemID1);
     int length = itemID2s.length;
+    int[] preferring2 = new int[length];
+    int[] preferring1and2 = new int[length];
+    int preferring1 = countCooccurrences(itemID1, itemID2s, preferring2, preferring1and2);
     double[] result = new double[length];
     for (int i = 0; i < length; i++) {
-      result[i] = doItemSimilarity(itemID1, itemID2s[i], preferring1);
+      result[i] = similarity(preferring1, preferring2[i], preferring1and2[i]);
     }
     return result;
   }
@@ -109,6 +111,13 @@ public final class TanimotoCoefficientSimilarity extends AbstractItemSimilarity
       return Double.NaN;
     }
     int preferring2 = dataModel.getNumUsersWithPreferenceFor(itemID2);
+    return similarity(preferring1, preferring2, preferring1and2);
+  }
+
+  private static double similarity(int preferring1, int preferring2, int preferring1and2) {
+    if (preferring1and2 == 0) {
+      return Double.NaN;
+    }
     return (double) preferring1and2 / (double) (preferring1 + preferring2 - preferring1and2);
   }
   
@@ -16,6 +16,8 @@
  */
 package org.apache.mahout.math;
 
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -87,6 +89,33 @@ public final class MatrixUtils {
     return matrix;
   }
 
+  /**
+   * Reads the {@link IntWritable}/{@link VectorWritable} rows of a matrix straight into compressed sparse row
+   * form, in a single pass that holds no more than one deserialized row at a time. Rows that are missing from
+   * the files are empty.
+   */
+  public static CompressedSparseRowMatrix readCompressedSparseRows(final Configuration conf, final Path... paths)
+    throws IOException {
+    Iterable<MatrixSlice> rows = Iterables.concat(Iterables.transform(Lists.newArrayList(paths),
+        new Function<Path, Iterable<MatrixSlice>>() {
+          @Override
+          public Iterable<MatrixSlice> apply(Path path) {
+            return Iterables.transform(new SequenceFileIterable<IntWritable, VectorWritable>(path, true, conf),
+                new Function<Pair<IntWritable, VectorWritable>, MatrixSlice>() {
+                  @Override
+                  public MatrixSlice apply(Pair<IntWritable, VectorWritable> row) {
+                    return new MatrixSlice(row.getSecond().get(), row.getFirst().get());
+                  }
+                });
+          }
+        }));
+    CompressedSparseRowMatrix matrix = CompressedSparseRowMatrix.fromRows(rows, -1, -1);
+    if (matrix.rowSize() == 0) {
+      throw new IOException(Arrays.toString(paths) + " have no vectors in it");
+    }
+    return matrix;
+  }
+
   public static OpenObjectIntHashMap<String> readDictionary(Configuration conf, Path... dictPath) {
     OpenObjectIntHashMap<String> dictionary = new OpenObjectIntHashMap<String>();
     for (Path dictionaryFile : dictPath) {
@@ -0,0 +1,492 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.collect.AbstractIterator;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.IntComparator;
+
+/**
+ * <p>
+ * A {@link Vector} that reads its entries straight out of the packed encoding written by
+ * {@link VectorWritable#writePackedVector(java.io.DataOutput, Vector, boolean, boolean)}, instead of copying
+ * them into a {@link DenseVector} or sparse vector first. Iterating, computing norms and reading single
+ * entries do not allocate per entry; random access to a sparse vector decodes its indices once.
+ * </p>
+ *
+ * <p>
+ * The encoding holds the delta and varint coded indices of the non-zero entries, in ascending order, followed
+ * by their values as fixed width floats or doubles, so that the i-th value can be read without decoding those
+ * before it. Dense vectors have no indices.
+ * </p>
+ *
+ * <p>
+ * The vector can be modified: the first write decodes it into a regular vector, which then serves all
+ * further calls.
+ * </p>
+ */
+public final class PackedVector extends AbstractVector {
+
+  private final boolean dense;
+  private final boolean sequential;
+  private final boolean laxPrecision;
+  private final int numNonZeros;
+  private final byte[] bytes;
+  private final int indexBytes;
+  /** Indices of the non-zero entries, decoded on first random access to a sparse vector. */
+  private int[] indices;
+  /** The decoded vector, once this has been modified. */
+  private Vector decoded;
+
+  PackedVector(int size, boolean dense, boolean sequential, boolean laxPrecision, int numNonZeros,
+               byte[] bytes, int indexBytes) {
+    super(size);
+    this.dense = dense;
+    this.sequential = sequential;
+    this.laxPrecision = laxPrecision;
+    this.numNonZeros = numNonZeros;
+    this.bytes = bytes;
+    this.indexBytes = indexBytes;
+  }
+
+  /**
+   * Encodes the given vector.
+   */
+  static PackedVector pack(Vector vector, boolean laxPrecision) {
+    int size = vector.size();
+    if (vector.isDense()) {
+      byte[] bytes = new byte[size * valueWidth(laxPrecision)];
+      for (int i = 0; i < size; i++) {
+        writeValue(bytes, i, laxPrecision, vector.getQuick(i));
+      }
+      return new PackedVector(size, true, true, laxPrecision, size, bytes, 0);
+    }
+
+    int numNonZeros = vector.getNumNondefaultElements();
+    int[] indices = new int[numNonZeros];
+    double[] values = new double[numNonZeros];
+    int n = 0;
+    for (Element e : vector.nonZeroes()) {
+      double value = e.get();
+      if (value != 0.0) {
+        indices[n] = e.index();
+        values[n] = value;
+        n++;
+      }
+    }
+    if (!vector.isSequentialAccess()) {
+      sortByIndex(indices, values, n);
+    }
+
+    int indexBytes = 0;
+    int lastIndex = 0;
+    for (int i = 0; i < n; i++) {
+      indexBytes += varIntLength(indices[i] - lastIndex);
+      lastIndex = indices[i];
+    }
+    byte[] bytes = new byte[indexBytes + n * valueWidth(laxPrecision)];
+    int offset = 0;
+    lastIndex = 0;
+    for (int i = 0; i < n; i++) {
+      offset = writeVarInt(bytes, offset, indices[i] - lastIndex);
+      lastIndex = indices[i];
+    }
+    for (int i = 0; i < n; i++) {
+      writeValue(bytes, indexBytes, i, laxPrecision, values[i]);
+    }
+    PackedVector packed =
+        new PackedVector(size, false, vector.isSequentialAccess(), laxPrecision, n, bytes, indexBytes);
+    packed.indices = n == indices.length ? indices : Arrays.copyOf(indices, n);
+    return packed;
+  }
+
+  private static void sortByIndex(final int[] indices, final double[] values, int n) {
+    Sorting.quickSort(0, n, new IntComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return indices[a] < indices[b] ? -1 : indices[a] == indices[b] ? 0 : 1;
+      }
+    }, new Swapper() {
+      @Override
+      public void swap(int a, int b) {
+        int index = indices[a];
+        indices[a] = indices[b];
+        indices[b] = index;
+        double value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+      }
+    });
+  }
+
+  boolean isDecoded() {
+    return decoded != null;
+  }
+
+  boolean isLaxPrecision() {
+    return laxPrecision;
+  }
+
+  boolean isSequential() {
+    return sequential;
+  }
+
+  int getNumPackedElements() {
+    return numNonZeros;
+  }
+
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  int getIndexBytes() {
+    return indexBytes;
+  }
+
+  /**
+   * @return a regular vector with the same entries: a {@link DenseVector}, {@link SequentialAccessSparseVector}
+   *  or {@link RandomAccessSparseVector}, depending on the kind of vector that was written
+   */
+  public Vector decode() {
+    if (decoded != null) {
+      return decoded.clone();
+    }
+    Vector v;
+    if (dense) {
+      double[] values = new double[size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = readValue(i);
+      }
+      v = new DenseVector(values, true);
+    } else {
+      v = sequential
+          ? new SequentialAccessSparseVector(size(), numNonZeros)
+          : new RandomAccessSparseVector(size(), numNonZeros);
+      int offset = 0;
+      int index = 0;
+      for (int i = 0; i < numNonZeros; i++) {
+        int delta = readVarInt(bytes, offset);
+        offset += varIntLength(delta);
+        index += delta;
+        v.setQuick(index, readValue(i));
+      }
+    }
+    return v;
+  }
+
+  private Vector decoded() {
+    if (decoded == null) {
+      decoded = decode();
+    }
+    return decoded;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    if (decoded != null) {
+      return decoded.getQuick(index);
+    }
+    if (dense) {
+      return readValue(index);
+    }
+    if (indices == null) {
+      indices = decodeIndices();
+    }
+    int i = Arrays.binarySearch(indices, index);
+    return i >= 0 ? readValue(i) : 0.0;
+  }
+
+  private int[] decodeIndices() {
+    int[] result = new int[numNonZeros];
+    int offset = 0;
+    int index = 0;
+    for (int i = 0; i < numNonZeros; i++) {
+      int delta = readVarInt(bytes, offset);
+      offset += varIntLength(delta);
+      index += delta;
+      result[i] = index;
+    }
+    return result;
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    decoded().setQuick(index, value);
+    invalidateCachedLength();
+  }
+
+  @Override
+  public void incrementQuick(int index, double increment) {
+    decoded().incrementQuick(index, increment);
+    invalidateCachedLength();
+  }
+
+  @Override
+  public void mergeUpdates(OrderedIntDoubleMapping updates) {
+    decoded().mergeUpdates(updates);
+    invalidateCachedLength();
+  }
+
+  @Override
+  protected double dotSelf() {
+    if (decoded != null) {
+      return decoded.getLengthSquared();
+    }
+    // only the values are needed, the indices can be skipped
+    double result = 0.0;
+    for (int i = 0; i < numNonZeros; i++) {
+      double value = readValue(i);
+      result += value * value;
+    }
+    return result;
+  }
+
+  @Override
+  public double zSum() {
+    if (decoded != null) {
+      return decoded.zSum();
+    }
+    double result = 0.0;
+    for (int i = 0; i < numNonZeros; i++) {
+      result += readValue(i);
+    }
+    return result;
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return decoded == null ? numNonZeros : decoded.getNumNondefaultElements();
+  }
+
+  @Override
+  public boolean isDense() {
+    return dense;
+  }
+
+  /**
+   * @return true until modified, as entries are stored in index order
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return decoded == null || decoded.isSequentialAccess();
+  }
+
+  @Override
+  public double getLookupCost() {
+    if (decoded != null) {
+      return decoded.getLookupCost();
+    }
+    return dense ? 1 : Math.max(1, Math.round(Functions.LOG2.apply(numNonZeros)));
+  }
+
+  @Override
+  public double getIteratorAdvanceCost() {
+    return decoded == null ? 1 : decoded.getIteratorAdvanceCost();
+  }
+
+  @Override
+  public boolean isAddConstantTime() {
+    return decoded == null ? dense : decoded.isAddConstantTime();
+  }
+
+  @Override
+  public Vector like() {
+    if (dense) {
+      return new DenseVector(size());
+    }
+    return sequential ? new SequentialAccessSparseVector(size()) : new RandomAccessSparseVector(size());
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return dense ? new DenseMatrix(rows, columns) : new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public PackedVector clone() {
+    PackedVector clone = (PackedVector) super.clone();
+    if (decoded != null) {
+      clone.decoded = decoded.clone();
+    }
+    return clone;
+  }
+
+  @Override
+  protected Iterator<Element> iterateNonZero() {
+    return decoded == null ? new PackedIterator(true) : decoded.nonZeroes().iterator();
+  }
+
+  @Override
+  protected Iterator<Element> iterator() {
+    if (decoded != null) {
+      return decoded.all().iterator();
+    }
+    if (dense) {
+      return new PackedIterator(false);
+    }
+    return new AbstractIterator<Element>() {
+      private int index = 0;
+
+      @Override
+      protected Element computeNext() {
+        if (index == size()) {
+          return endOfData();
+        }
+        return new LocalElement(index++);
+      }
+    };
+  }
+
+  /**
+   * Walks the packed entries in order, decoding indices as it goes. Elements written to through this iterator
+   * are written to the decoded vector, while the iteration carries on over the packed entries.
+   */
+  private final class PackedIterator extends AbstractIterator<Element> {
+    private final boolean skipZeros;
+    private final PackedElement element = new PackedElement();
+    private int offset = 0;
+    private int position = 0;
+    private int index = 0;
+
+    PackedIterator(boolean skipZeros) {
+      this.skipZeros = skipZeros;
+    }
+
+    @Override
+    protected Element computeNext() {
+      while (position < numNonZeros) {
+        if (dense) {
+          index = position;
+        } else {
+          int delta = readVarInt(bytes, offset);
+          offset += varIntLength(delta);
+          index += delta;
+        }
+        double value = readValue(position++);
+        if (value != 0.0 || !skipZeros) {
+          element.index = index;
+          element.value = value;
+          return element;
+        }
+      }
+      return endOfData();
+    }
+  }
+
+  private final class PackedElement implements Element {
+    private int index;
+    private double value;
+
+    @Override
+    public double get() {
+      return value;
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      this.value = value;
+      setQuick(index, value);
+    }
+  }
+
+  // Encoding helpers. Values are stored big-endian, like DataOutput does.
+
+  private static int valueWidth(boolean laxPrecision) {
+    return laxPrecision ? 4 : 8;
+  }
+
+  private double readValue(int i) {
+    int offset = indexBytes + i * valueWidth(laxPrecision);
+    if (laxPrecision) {
+      return Float.intBitsToFloat(readInt(bytes, offset));
+    }
+    return Double.longBitsToDouble(((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL));
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] << 24)
+        | ((bytes[offset + 1] & 0xFF) << 16)
+        | ((bytes[offset + 2] & 0xFF) << 8)
+        | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static void writeValue(byte[] bytes, int i, boolean laxPrecision, double value) {
+    writeValue(bytes, 0, i, laxPrecision, value);
+  }
+
+  private static void writeValue(byte[] bytes, int valuesOffset, int i, boolean laxPrecision, double value) {
+    int offset = valuesOffset + i * valueWidth(laxPrecision);
+    if (laxPrecision) {
+      writeInt(bytes, offset, Float.floatToIntBits((float) value));
+    } else {
+      long bits = Double.doubleToLongBits(value);
+      writeInt(bytes, offset, (int) (bits >>> 32));
+      writeInt(bytes, offset + 4, (int) bits);
+    }
+  }
+
+  private static void writeInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  /** Same encoding as {@link Varint#writeUnsignedVarInt(int, java.io.DataOutput)}. */
+  private static int writeVarInt(byte[] bytes, int offset, int value) {
+    while ((value & 0xFFFFFF80) != 0) {
+      bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[offset++] = (byte) value;
+    return offset;
+  }
+
+  /**
+   * Reads what {@link #writeVarInt(byte[], int, int)} wrote at {@code offset}, which it wrote in
+   * {@link #varIntLength(int)} bytes.
+   */
+  private static int readVarInt(byte[] bytes, int offset) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[offset++];
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  private static int varIntLength(int value) {
+    int length = 1;
+    while ((value & 0xFFFFFF80) != 0) {
+      length++;
+      value >>>= 7;
+    }
+    return length;
+  }
+}
@@ -18,8 +18,13 @@ package org.apache.mahout.math;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Writable;
 import org.apache.mahout.math.Vector.Element;
@@ -32,10 +37,24 @@ public final class VectorWritable extends Configured implements Writable {
   public static final int FLAG_SEQUENTIAL = 0x02;
   public static final int FLAG_NAMED = 0x04;
   public static final int FLAG_LAX_PRECISION = 0x08;
-  public static final int NUM_FLAGS = 4;
+  public static final int FLAG_PACKED = 0x10;
+  public static final int FLAG_COMPRESSED = 0x20;
+  public static final int NUM_FLAGS = 6;
+
+  /** Configuration key: write vectors in the packed format, see {@link #setWritesPacked(boolean)} */
+  public static final String WRITES_PACKED = "mahout.vectorwritable.writes.packed";
+  /** Configuration key: compress packed vectors, see {@link #setWritesCompressed(boolean)} */
+  public static final String WRITES_COMPRESSED = "mahout.vectorwritable.writes.compressed";
+  /** Configuration key: write values as floats, see {@link #setWritesLaxPrecision(boolean)} */
+  public static final String WRITES_LAX_PRECISION = "mahout.vectorwritable.writes.laxprecision";
+  /** Configuration key: read packed vectors as {@link PackedVector}s, see {@link #setReadsLazily(boolean)} */
+  public static final String READS_LAZILY = "mahout.vectorwritable.reads.lazily";
 
   private Vector vector;
   private boolean writesLaxPrecision;
+  private boolean writesPacked;
+  private boolean writesCompressed;
+  private boolean readsLazily;
 
   public VectorWritable() {}
 
@@ -77,9 +96,66 @@ public final class VectorWritable extends Configured implements Writable {
     this.writesLaxPrecision = writesLaxPrecision;
   }
 
+  /**
+   * @return true if this writes vectors in the packed format of
+   *  {@link #writePackedVector(DataOutput, Vector, boolean, boolean)}, which can be read back lazily
+   */
+  public boolean isWritesPacked() {
+    return writesPacked;
+  }
+
+  public void setWritesPacked(boolean writesPacked) {
+    this.writesPacked = writesPacked;
+  }
+
+  /**
+   * @return true if packed vectors are written deflate compressed. Has no effect unless
+   *  {@link #isWritesPacked()}
+   */
+  public boolean isWritesCompressed() {
+    return writesCompressed;
+  }
+
+  public void setWritesCompressed(boolean writesCompressed) {
+    this.writesCompressed = writesCompressed;
+  }
+
+  /**
+   * @return true if vectors read in the packed format are returned as a {@link PackedVector}, which decodes
+   *  entries from the bytes read as they are needed, rather than copied into a new {@link DenseVector} or
+   *  sparse vector. Vectors written in the original format are always fully decoded.
+   */
+  public boolean isReadsLazily() {
+    return readsLazily;
+  }
+
+  public void setReadsLazily(boolean readsLazily) {
+    this.readsLazily = readsLazily;
+  }
+
+  /**
+   * Also picks up the {@link #WRITES_PACKED}, {@link #WRITES_COMPRESSED}, {@link #WRITES_LAX_PRECISION} and
+   * {@link #READS_LAZILY} settings, so that jobs can switch formats without touching the code creating
+   * {@link VectorWritable}s.
+   */
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    if (conf != null) {
+      writesPacked = conf.getBoolean(WRITES_PACKED, writesPacked);
+      writesCompressed = conf.getBoolean(WRITES_COMPRESSED, writesCompressed);
+      writesLaxPrecision = conf.getBoolean(WRITES_LAX_PRECISION, writesLaxPrecision);
+      readsLazily = conf.getBoolean(READS_LAZILY, readsLazily);
+    }
+  }
+
   @Override
   public void write(DataOutput out) throws IOException {
-    writeVector(out, this.vector, this.writesLaxPrecision);
+    if (writesPacked) {
+      writePackedVector(out, this.vector, this.writesLaxPrecision, this.writesCompressed);
+    } else {
+      writeVector(out, this.vector, this.writesLaxPrecision);
+    }
   }
 
   @Override
@@ -90,10 +166,15 @@ public final class VectorWritable extends Configured implements Writable {
     boolean sequential = (flags & FLAG_SEQUENTIAL) != 0;
     boolean named = (flags & FLAG_NAMED) != 0;
     boolean laxPrecision = (flags & FLAG_LAX_PRECISION) != 0;
+    boolean packed = (flags & FLAG_PACKED) != 0;
+    boolean compressed = (flags & FLAG_COMPRESSED) != 0;
 
     int size = Varint.readUnsignedVarInt(in);
     Vector v;
-    if (dense) {
+    if (packed) {
+      PackedVector packedVector = readPackedVector(in, size, dense, sequential, laxPrecision, compressed);
+      v = readsLazily ? packedVector : packedVector.decode();
+    } else if (dense) {
       double[] values = new double[size];
       for (int i = 0; i < size; i++) {
         values[i] = laxPrecision ? in.readFloat() : in.readDouble();
@@ -194,6 +275,103 @@ public final class VectorWritable extends Configured implements Writable {
     }
   }
 
+  /**
+   * <p>Writes the vector in the packed format. After the flags and the size come, for sparse vectors only, the
+   * number of non-zero entries and the length of the index section; then the length of the payload, and, if
+   * compressed, the length of the deflated payload, followed by the payload bytes. The payload holds the
+   * delta coded varint indices of the non-zero entries in ascending order, then their values as fixed width
+   * floats or doubles. As a {@link PackedVector} reads this payload in place, the entries of a vector that was
+   * read lazily and not modified are written back without being decoded.</p>
+   *
+   * @param laxPrecision write values as floats instead of doubles
+   * @param compress deflate the payload
+   */
+  public static void writePackedVector(DataOutput out, Vector vector, boolean laxPrecision, boolean compress)
+    throws IOException {
+    boolean named = vector instanceof NamedVector;
+    Vector unwrapped = named ? ((NamedVector) vector).getDelegate() : vector;
+    PackedVector packed;
+    if (unwrapped instanceof PackedVector
+        && !((PackedVector) unwrapped).isDecoded()
+        && ((PackedVector) unwrapped).isLaxPrecision() == laxPrecision) {
+      packed = (PackedVector) unwrapped;
+    } else {
+      packed = PackedVector.pack(unwrapped, laxPrecision);
+    }
+    boolean dense = packed.isDense();
+
+    out.writeByte((dense ? FLAG_DENSE : 0)
+        | (packed.isSequential() ? FLAG_SEQUENTIAL : 0)
+        | (named ? FLAG_NAMED : 0)
+        | (laxPrecision ? FLAG_LAX_PRECISION : 0)
+        | FLAG_PACKED
+        | (compress ? FLAG_COMPRESSED : 0));
+
+    Varint.writeUnsignedVarInt(packed.size(), out);
+    if (!dense) {
+      Varint.writeUnsignedVarInt(packed.getNumPackedElements(), out);
+      Varint.writeUnsignedVarInt(packed.getIndexBytes(), out);
+    }
+    byte[] bytes = packed.getBytes();
+    Varint.writeUnsignedVarInt(bytes.length, out);
+    if (compress) {
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      try {
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[bytes.length + (bytes.length >> 3) + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+          if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length << 1);
+          }
+          length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        Varint.writeUnsignedVarInt(length, out);
+        out.write(buffer, 0, length);
+      } finally {
+        deflater.end();
+      }
+    } else {
+      out.write(bytes);
+    }
+
+    if (named) {
+      String name = ((NamedVector) vector).getName();
+      out.writeUTF(name == null ? "" : name);
+    }
+  }
+
+  private static PackedVector readPackedVector(DataInput in, int size, boolean dense, boolean sequential,
+                                               boolean laxPrecision, boolean compressed) throws IOException {
+    int numPackedElements = dense ? size : Varint.readUnsignedVarInt(in);
+    int indexBytes = dense ? 0 : Varint.readUnsignedVarInt(in);
+    int length = Varint.readUnsignedVarInt(in);
+    int expectedLength = indexBytes + numPackedElements * (laxPrecision ? 4 : 8);
+    if (length != expectedLength) {
+      throw new IOException("Corrupt packed vector: expected " + expectedLength + " bytes but found " + length);
+    }
+    byte[] bytes = new byte[length];
+    if (compressed) {
+      byte[] deflated = new byte[Varint.readUnsignedVarInt(in)];
+      in.readFully(deflated);
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(deflated);
+        if (inflater.inflate(bytes) != length) {
+          throw new IOException("Corrupt packed vector: payload does not inflate to " + length + " bytes");
+        }
+      } catch (DataFormatException dfe) {
+        throw new IOException(dfe);
+      } finally {
+        inflater.end();
+      }
+    } else {
+      in.readFully(bytes);
+    }
+    return new PackedVector(size, dense, sequential, laxPrecision, numPackedElements, bytes, indexBytes);
+  }
+
   public static Vector readVector(DataInput in) throws IOException {
     VectorWritable v = new VectorWritable();
     v.readFields(in);
@@ -29,8 +29,8 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.mahout.math.DenseSymmetricMatrix;
 import org.apache.mahout.math.DenseVector;
-import org.apache.mahout.math.UpperTriangular;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.VectorWritable;
 
@@ -56,7 +56,7 @@ public final class YtYJob {
 
     private int kp;
     private Omega omega;
-    private UpperTriangular mYtY;
+    private DenseSymmetricMatrix mYtY;
 
     /*
      * we keep yRow in a dense form here but keep an eye not to dense up while
@@ -82,7 +82,7 @@ public final class YtYJob {
 
       omega = new Omega(omegaSeed, k + p);
 
-      mYtY = new UpperTriangular(kp);
+      mYtY = new DenseSymmetricMatrix(kp);
 
       // see which one works better!
       // yRow = new RandomAccessSparseVector(kp);
@@ -93,38 +93,9 @@ public final class YtYJob {
     protected void map(Writable key, VectorWritable value, Context context)
       throws IOException, InterruptedException {
       omega.computeYRow(value.get(), yRow);
-      // compute outer product update for YtY
-
-      if (yRow.isDense()) {
-        for (int i = 0; i < kp; i++) {
-          double yi;
-          if ((yi = yRow.getQuick(i)) == 0.0) {
-            continue; // avoid densing up here unnecessarily
-          }
-          for (int j = i; j < kp; j++) {
-            double yj;
-            if ((yj = yRow.getQuick(j)) != 0.0) {
-              mYtY.setQuick(i, j, mYtY.getQuick(i, j) + yi * yj);
-            }
-          }
-        }
-      } else {
-        /*
-         * the disadvantage of using sparse vector (aside from the fact that we
-         * are creating some short-lived references) here is that we obviously
-         * do two times more iterations then necessary if y row is pretty dense.
-         */
-        for (Vector.Element eli : yRow.nonZeroes()) {
-          int i = eli.index();
-          for (Vector.Element elj : yRow.nonZeroes()) {
-            int j = elj.index();
-            if (j < i) {
-              continue;
-            }
-            mYtY.setQuick(i, j, mYtY.getQuick(i, j) + eli.get() * elj.get());
-          }
-        }
-      }
+      // compute outer product update for YtY; only the upper triangle is kept, and a sparse
+      // y row only touches the pairs of its non-zero elements
+      mYtY.rankOneUpdate(1, yRow);
     }
 
     @Override
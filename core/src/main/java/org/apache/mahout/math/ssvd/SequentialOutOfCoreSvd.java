@@ -17,8 +17,11 @@
 
 package org.apache.mahout.math.ssvd;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import org.apache.mahout.math.CholeskyDecomposition;
-import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseSymmetricMatrix;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.MatrixWritable;
@@ -33,9 +36,20 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Sequential block-oriented out of core SVD algorithm.
+ * Block-oriented out of core SVD algorithm.
  * <p/>
  * The basic algorithm (in-core version) is that we do a random projects, get a basis of that and
  * then re-project the original matrix using that basis.  This re-projected matrix allows us to get
@@ -101,6 +115,12 @@ import java.io.IOException;
  * U = A \Omega R^{-1} U_0
  * <p/>
  * V = B' L'^{-1} V_0
+ * <p/>
+ * Each pass over the blocks of A or B is pipelined: one thread reads the next blocks ahead into a
+ * bounded queue while a pool of workers processes the blocks already read.  Y' Y and B B' are summed
+ * into one accumulator per worker and the accumulators are added up at the end of the pass.  Updates
+ * to the same slice of B are serialized by a lock per slice, and workers start at different slices
+ * so that they rarely wait on each other.
  */
 public class SequentialOutOfCoreSvd {
 
@@ -110,143 +130,244 @@ public class SequentialOutOfCoreSvd {
   private final int columnsPerSlice;
   private final int seed;
   private final int dim;
+  private final int numThreads;
 
   public SequentialOutOfCoreSvd(Iterable<File> partsOfA, File tmpDir, int internalDimension, int columnsPerSlice)
     throws IOException {
+    this(partsOfA, tmpDir, internalDimension, columnsPerSlice, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param numThreads number of worker threads that process blocks; one more thread reads ahead
+   */
+  public SequentialOutOfCoreSvd(Iterable<File> partsOfA, final File tmpDir, final int internalDimension,
+                                final int columnsPerSlice, final int numThreads) throws IOException {
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be at least 1");
     this.columnsPerSlice = columnsPerSlice;
     this.dim = internalDimension;
+    this.numThreads = numThreads;
 
     seed = 1;
-    Matrix y2 = null;
 
     // step 1, compute R as in R'R = Y'Y where Y = A \Omega
-    for (File file : partsOfA) {
-      MatrixWritable m = new MatrixWritable();
-      DataInputStream in = new DataInputStream(new FileInputStream(file));
-      try {
-        m.readFields(in);
-      } finally {
-        in.close();
-      }
-
-      Matrix aI = m.get();
-      Matrix omega = new RandomTrinaryMatrix(seed, aI.columnSize(), internalDimension, false);
-      Matrix y = aI.times(omega);
+    final DenseSymmetricMatrix[] y2 = new DenseSymmetricMatrix[numThreads];
+    final AtomicInteger maxColumns = new AtomicInteger();
+    forEachBlock(partsOfA, new BlockTask() {
+      @Override
+      public void process(int worker, File file, Matrix aI) {
+        int columns = aI.columnSize();
+        int current;
+        while ((current = maxColumns.get()) < columns && !maxColumns.compareAndSet(current, columns)) {
+          // retry
+        }
 
-      if (y2 == null) {
-        y2 = y.transpose().times(y);
-      } else {
-        y2.assign(y.transpose().times(y), Functions.PLUS);
+        Matrix omega = new RandomTrinaryMatrix(seed, columns, internalDimension, false);
+        if (y2[worker] == null) {
+          y2[worker] = new DenseSymmetricMatrix(internalDimension);
+        }
+        y2[worker].rankKUpdate(aI.times(omega));
       }
-    }
-    r2 = new CholeskyDecomposition(y2);
+    });
+    r2 = new CholeskyDecomposition(sum(y2, internalDimension));
 
     // step 2, compute B
-    int ncols = 0;
-    for (File file : partsOfA) {
-      MatrixWritable m = new MatrixWritable();
-      DataInputStream in = new DataInputStream(new FileInputStream(file));
-      try {
-        m.readFields(in);
-      } finally {
-        in.close();
-      }
-      Matrix aI = m.get();
-      ncols = Math.max(ncols, aI.columnSize());
+    int ncols = maxColumns.get();
+    final int numSlices = (ncols + columnsPerSlice - 1) / columnsPerSlice;
+    final Object[] sliceLocks = new Object[numSlices];
+    for (int slice = 0; slice < numSlices; slice++) {
+      sliceLocks[slice] = new Object();
+    }
+    forEachBlock(partsOfA, new BlockTask() {
+      @Override
+      public void process(int worker, File file, Matrix aI) throws IOException {
+        Matrix omega = new RandomTrinaryMatrix(seed, aI.numCols(), internalDimension, false);
+        Matrix qIt = r2.solveRight(aI.times(omega)).transpose();
 
-      Matrix omega = new RandomTrinaryMatrix(seed, aI.numCols(), internalDimension, false);
-      for (int j = 0; j < aI.numCols(); j += columnsPerSlice) {
-        Matrix yI = aI.times(omega);
-        Matrix aIJ = aI.viewPart(0, aI.rowSize(), j, Math.min(columnsPerSlice, aI.columnSize() - j));
-        Matrix bIJ = r2.solveRight(yI).transpose().times(aIJ);
-        addToSavedCopy(bFile(tmpDir, j), bIJ);
+        // start each worker at a different slice so that concurrent blocks rarely contend for a file
+        int slicesOfBlock = (aI.numCols() + columnsPerSlice - 1) / columnsPerSlice;
+        int offset = (int) ((long) worker * slicesOfBlock / numThreads);
+        for (int s = 0; s < slicesOfBlock; s++) {
+          int slice = (offset + s) % slicesOfBlock;
+          int j = slice * columnsPerSlice;
+          Matrix aIJ = aI.viewPart(0, aI.rowSize(), j, Math.min(columnsPerSlice, aI.columnSize() - j));
+          Matrix bIJ = qIt.times(aIJ);
+          synchronized (sliceLocks[slice]) {
+            addToSavedCopy(bFile(tmpDir, j), bIJ);
+          }
+        }
       }
-    }
+    });
 
     // step 3, compute BB', L and SVD(L)
-    Matrix b2 = new DenseMatrix(internalDimension, internalDimension);
-    MatrixWritable bTmp = new MatrixWritable();
-    for (int j = 0; j < ncols; j += columnsPerSlice) {
-      if (bFile(tmpDir, j).exists()) {
-        DataInputStream in = new DataInputStream(new FileInputStream(bFile(tmpDir, j)));
-        try {
-          bTmp.readFields(in);
-        } finally {
-          in.close();
+    final DenseSymmetricMatrix[] b2 = new DenseSymmetricMatrix[numThreads];
+    forEachBlock(bFiles(tmpDir, ncols), new BlockTask() {
+      @Override
+      public void process(int worker, File file, Matrix bJ) {
+        if (b2[worker] == null) {
+          b2[worker] = new DenseSymmetricMatrix(internalDimension);
         }
-
-        b2.assign(bTmp.get().times(bTmp.get().transpose()), Functions.PLUS);
+        b2[worker].rankKUpdate(bJ.transpose());
       }
-    }
-    l2 = new CholeskyDecomposition(b2);
+    });
+    l2 = new CholeskyDecomposition(sum(b2, internalDimension));
     svd = new SingularValueDecomposition(l2.getL());
   }
 
-  public void computeV(File tmpDir, int ncols) throws IOException {
+  public void computeV(final File tmpDir, int ncols) throws IOException {
     // step 5, compute pieces of V
-    for (int j = 0; j < ncols; j += columnsPerSlice) {
-      File bPath = bFile(tmpDir, j);
-      if (bPath.exists()) {
-        MatrixWritable m = new MatrixWritable();
-        DataInputStream in = new DataInputStream(new FileInputStream(bPath));
-        try {
-          m.readFields(in);
-        } finally {
-          in.close();
-        }
-        m.set(l2.solveRight(m.get().transpose()).times(svd.getV()));
-        DataOutputStream out = new DataOutputStream(new FileOutputStream(
-            new File(tmpDir, String.format("V-%s", bPath.getName().replaceAll(".*-", "")))));
-        try {
-          m.write(out);
-        } finally {
-          out.close();
-        }
+    forEachBlock(bFiles(tmpDir, ncols), new BlockTask() {
+      @Override
+      public void process(int worker, File bPath, Matrix bJ) throws IOException {
+        Matrix vJ = l2.solveRight(bJ.transpose()).times(svd.getV());
+        write(new File(tmpDir, String.format("V-%s", bPath.getName().replaceAll(".*-", ""))), vJ);
       }
-    }
+    });
   }
 
-  public void computeU(Iterable<File> partsOfA, File tmpDir) throws IOException {
+  public void computeU(Iterable<File> partsOfA, final File tmpDir) throws IOException {
     // step 4, compute pieces of U
-    for (File file : partsOfA) {
-      MatrixWritable m = new MatrixWritable();
-      m.readFields(new DataInputStream(new FileInputStream(file)));
-      Matrix aI = m.get();
+    forEachBlock(partsOfA, new BlockTask() {
+      @Override
+      public void process(int worker, File file, Matrix aI) throws IOException {
+        Matrix y = aI.times(new RandomTrinaryMatrix(seed, aI.numCols(), dim, false));
+        Matrix uI = r2.solveRight(y).times(svd.getU());
+        write(new File(tmpDir, String.format("U-%s", file.getName().replaceAll(".*-", ""))), uI);
+      }
+    });
+  }
+
+  /**
+   * Work done on one block read from disk. Called concurrently; {@code worker} numbers the calling thread
+   * from 0 so that tasks can keep per-thread accumulators.
+   */
+  private interface BlockTask {
+    void process(int worker, File file, Matrix block) throws IOException;
+  }
+
+  private static final class Block {
+    private final File file;
+    private final Matrix matrix;
+
+    Block(File file, Matrix matrix) {
+      this.file = file;
+      this.matrix = matrix;
+    }
+  }
+
+  private static final Block END_OF_BLOCKS = new Block(null, null);
 
-      Matrix y = aI.times(new RandomTrinaryMatrix(seed, aI.numCols(), dim, false));
-      Matrix uI = r2.solveRight(y).times(svd.getU());
-      m.set(uI);
-      DataOutputStream out = new DataOutputStream(new FileOutputStream(
-          new File(tmpDir, String.format("U-%s", file.getName().replaceAll(".*-", "")))));
+  /**
+   * Reads the files in order on one thread, keeping at most {@link #numThreads} blocks queued ahead, and
+   * hands each block to {@code task} on one of {@link #numThreads} workers. Returns when every block has
+   * been processed, or rethrows the first failure once all threads have stopped.
+   */
+  private void forEachBlock(final Iterable<File> files, final BlockTask task) throws IOException {
+    final BlockingQueue<Block> queue = new ArrayBlockingQueue<Block>(numThreads);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+    CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+    try {
+      completion.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          try {
+            for (File file : files) {
+              queue.put(new Block(file, read(file)));
+            }
+          } finally {
+            for (int worker = 0; worker < numThreads; worker++) {
+              queue.put(END_OF_BLOCKS);
+            }
+          }
+          return null;
+        }
+      });
+      for (int worker = 0; worker < numThreads; worker++) {
+        final int id = worker;
+        completion.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (Block block = queue.take(); block != END_OF_BLOCKS; block = queue.take()) {
+              task.process(id, block.file, block.matrix);
+            }
+            return null;
+          }
+        });
+      }
+      for (int done = 0; done <= numThreads; done++) {
+        completion.take().get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    } finally {
+      // interrupts the reader and any workers still running after a failure, and waits for the workers to finish
+      // the block at hand, so that no thread outlives the call
+      executor.shutdownNow();
       try {
-        m.write(out);
-      } finally {
-        out.close();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
     }
   }
 
-  private static void addToSavedCopy(File file, Matrix matrix) throws IOException {
-    MatrixWritable mw = new MatrixWritable();
-    if (file.exists()) {
-      DataInputStream in = new DataInputStream(new FileInputStream(file));
-      try {
-        mw.readFields(in);
-      } finally {
-        in.close();
+  private static Matrix sum(DenseSymmetricMatrix[] partials, int size) {
+    DenseSymmetricMatrix result = new DenseSymmetricMatrix(size);
+    double[] values = result.getData();
+    for (DenseSymmetricMatrix partial : partials) {
+      if (partial != null) {
+        double[] packed = partial.getData();
+        for (int k = 0; k < values.length; k++) {
+          values[k] += packed[k];
+        }
       }
-      mw.get().assign(matrix, Functions.PLUS);
-    } else {
-      mw.set(matrix);
     }
+    return result;
+  }
+
+  private static Matrix read(File file) throws IOException {
+    MatrixWritable m = new MatrixWritable();
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      m.readFields(in);
+    } finally {
+      in.close();
+    }
+    return m.get();
+  }
+
+  private static void write(File file, Matrix matrix) throws IOException {
     DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
     try {
-      mw.write(out);
+      new MatrixWritable(matrix).write(out);
     } finally {
       out.close();
     }
   }
 
+  private static void addToSavedCopy(File file, Matrix matrix) throws IOException {
+    Matrix sum = matrix;
+    if (file.exists()) {
+      sum = read(file);
+      sum.assign(matrix, Functions.PLUS);
+    }
+    write(file, sum);
+  }
+
+  private List<File> bFiles(File tmpDir, int ncols) {
+    List<File> files = Lists.newArrayList();
+    for (int j = 0; j < ncols; j += columnsPerSlice) {
+      File bPath = bFile(tmpDir, j);
+      if (bPath.exists()) {
+        files.add(bPath);
+      }
+    }
+    return files;
+  }
+
   private static File bFile(File tmpDir, int j) {
     return new File(tmpDir, String.format("B-%09d", j));
   }
@@ -22,7 +22,16 @@ import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
 
 public final class CacheTest extends TasteTestCase {
 
@@ -52,6 +61,109 @@ public final class CacheTest extends TasteTestCase {
     }
   }
   
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws TasteException {
+    CountingRetriever retriever = new CountingRetriever();
+    Cache<Object,Object> cache = new Cache<Object,Object>(retriever, 3);
+    cache.get(1);
+    cache.get(2);
+    cache.get(3);
+    // touch 1 so that 2 becomes the eldest entry
+    cache.get(1);
+    cache.get(4);
+    assertEquals(4, retriever.count.get());
+    cache.get(1);
+    cache.get(3);
+    assertEquals(4, retriever.count.get());
+    cache.get(2);
+    assertEquals(5, retriever.count.get());
+  }
+
+  @Test
+  public void testNullValues() throws TasteException {
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) {
+        return null;
+      }
+    });
+    assertNull(cache.get(1));
+    assertNull(cache.get(1));
+  }
+
+  @Test
+  public void testConcurrentRetrievalsAreMerged() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger retrievals = new AtomicInteger();
+    final Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) throws TasteException {
+        retrievals.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          throw new TasteException(ie);
+        }
+        return key;
+      }
+    }, 1000);
+
+    int numThreads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Object>> results = Lists.newArrayList();
+      for (int i = 0; i < numThreads; i++) {
+        results.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws TasteException {
+            return cache.get("key");
+          }
+        }));
+      }
+      // give every thread the chance to ask for the key before the retrieval completes
+      Thread.sleep(200);
+      release.countDown();
+      for (Future<Object> result : results) {
+        assertEquals("key", result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, retrievals.get());
+  }
+
+  @Test
+  public void testFailedRetrievalIsNotCached() throws TasteException {
+    final AtomicInteger attempts = new AtomicInteger();
+    Cache<Object,Object> cache = new Cache<Object,Object>(new Retriever<Object,Object>() {
+      @Override
+      public Object get(Object key) throws TasteException {
+        if (attempts.incrementAndGet() == 1) {
+          throw new TasteException("first attempt fails");
+        }
+        return key;
+      }
+    });
+    try {
+      cache.get(1);
+      fail();
+    } catch (TasteException te) {
+      // expected
+    }
+    assertEquals(1, cache.get(1));
+    assertEquals(2, attempts.get());
+  }
+
+  private static class CountingRetriever implements Retriever<Object,Object> {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Object get(Object key) {
+      count.incrementAndGet();
+      return key;
+    }
+  }
+
   private static class IdentityRetriever implements Retriever<Object,Object> {
     @Override
     public Object get(Object key) throws TasteException {
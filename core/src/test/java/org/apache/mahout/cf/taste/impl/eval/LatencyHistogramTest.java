@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class LatencyHistogramTest extends TasteTestCase {
+
+  @Test
+  public void testIndexRoundTrip() {
+    int lastIndex = -1;
+    for (long value = 0; value < 1000000; value += 1 + value / 300) {
+      int index = LatencyHistogram.index(value);
+      assertTrue(index >= lastIndex);
+      lastIndex = index;
+      long highest = LatencyHistogram.highestEquivalentValue(index);
+      assertTrue(highest >= value);
+      assertTrue(highest - value <= value / 128);
+      assertEquals(index, LatencyHistogram.index(highest));
+    }
+    assertEquals(Long.MAX_VALUE,
+                 LatencyHistogram.highestEquivalentValue(LatencyHistogram.index(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles() {
+    Random random = RandomUtils.getRandom();
+    long[] values = new long[10000];
+    LatencyHistogram histogram = new LatencyHistogram();
+    LatencyHistogram other = new LatencyHistogram();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) (-Math.log(1.0 - random.nextDouble()) * 1000000.0);
+      (i % 2 == 0 ? histogram : other).recordValue(values[i]);
+    }
+    histogram.add(other);
+    Arrays.sort(values);
+
+    assertEquals(values.length, histogram.getCount());
+    assertEquals(values[0], histogram.getMin());
+    assertEquals(values[values.length - 1], histogram.getMax());
+    assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100.0));
+    for (double percentile : new double[] {1.0, 50.0, 90.0, 99.0, 99.9}) {
+      long expected = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+      long actual = histogram.getValueAtPercentile(percentile);
+      assertTrue(actual >= expected);
+      assertTrue(actual - expected <= expected / 128);
+    }
+  }
+
+}
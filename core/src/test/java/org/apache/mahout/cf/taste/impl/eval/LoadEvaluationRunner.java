@@ -17,8 +17,10 @@
 
 package org.apache.mahout.cf.taste.impl.eval;
 
+import com.google.common.collect.Maps;
 import org.apache.mahout.cf.taste.impl.model.file.FileDataModel;
 import org.apache.mahout.cf.taste.impl.neighborhood.NearestNUserNeighborhood;
+import org.apache.mahout.cf.taste.impl.recommender.CachingRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
 import org.apache.mahout.cf.taste.impl.recommender.GenericUserBasedRecommender;
 import org.apache.mahout.cf.taste.impl.similarity.EuclideanDistanceSimilarity;
@@ -29,6 +31,7 @@ import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
 import org.apache.mahout.cf.taste.similarity.UserSimilarity;
 
 import java.io.File;
+import java.util.Map;
 
 public final class LoadEvaluationRunner {
 
@@ -63,6 +66,20 @@ public final class LoadEvaluationRunner {
       System.out.println(loadStats);
     }
 
+    if (args.length > 2) {
+      double targetQPS = Double.parseDouble(args[2]);
+      System.out.println("Run open-loop at " + targetQPS + " requests per second");
+      Map<String,Recommender> recommenders = Maps.newLinkedHashMap();
+      recommenders.put("item-based", new GenericItemBasedRecommender(model, similarity));
+      recommenders.put("item-based, cached",
+                       new CachingRecommender(new GenericItemBasedRecommender(model, similarity)));
+      recommenders.put("user-based", recommender);
+      int numThreads = Runtime.getRuntime().availableProcessors();
+      Map<String,LoadStatistics> results =
+          LoadEvaluator.compareOpenLoad(recommenders, howMany, targetQPS, numThreads, (int) (targetQPS * 30));
+      System.out.println(LoadEvaluator.formatReport(results));
+    }
+
   }
 
 }
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collections;
+
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.junit.Test;
+
+public final class LoadEvaluatorTest extends TasteTestCase {
+
+  @Test
+  public void testOpenLoad() throws Exception {
+    DataModel dataModel = getDataModel();
+    GenericItemBasedRecommender recommender =
+        new GenericItemBasedRecommender(dataModel, new PearsonCorrelationSimilarity(dataModel));
+    LoadStatistics statistics = LoadEvaluator.runOpenLoad(recommender, 2, 1000.0, 2, 200);
+    assertEquals(200, statistics.getServiceTimes().getCount());
+    assertEquals(200, statistics.getResponseTimes().getCount());
+    assertEquals(200, statistics.getTiming().getCount());
+    assertTrue(statistics.getAchievedQPS() > 0.0);
+    // a request can't be served faster than it's computed
+    assertTrue(statistics.getResponseTimes().getValueAtPercentile(50.0)
+               >= statistics.getServiceTimes().getMin());
+    assertNotNull(LoadEvaluator.formatReport(Collections.singletonMap("item-based", statistics)));
+  }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.eval;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.eval.DataModelBuilder;
+import org.apache.mahout.cf.taste.eval.IRStatistics;
+import org.apache.mahout.cf.taste.eval.RecommenderBuilder;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.model.GenericBooleanPrefDataModel;
+import org.apache.mahout.cf.taste.impl.recommender.AbstractRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericBooleanPrefItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.recommender.GenericRecommendedItem;
+import org.apache.mahout.cf.taste.impl.similarity.LogLikelihoodSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.Preference;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.junit.Test;
+
+public final class ParallelRecommenderIRStatsEvaluatorTest extends TasteTestCase {
+
+  private static final int NUM_LIGHT_USERS = 60;
+  private static final int NUM_HEAVY_USERS = 40;
+  private static final int NUM_ITEMS = 20;
+  private static final long UNKNOWN_ITEM_ID = 9999L;
+
+  private static final RecommenderBuilder BUILDER = new RecommenderBuilder() {
+    @Override
+    public Recommender buildRecommender(DataModel dataModel) {
+      return new GenericBooleanPrefItemBasedRecommender(dataModel, new LogLikelihoodSimilarity(dataModel));
+    }
+  };
+
+  private static final DataModelBuilder DATA_MODEL_BUILDER = new DataModelBuilder() {
+    @Override
+    public DataModel buildDataModel(FastByIDMap<PreferenceArray> trainingData) {
+      return new GenericBooleanPrefDataModel(GenericBooleanPrefDataModel.toDataMap(trainingData));
+    }
+  };
+
+  @Test
+  public void testBoolean() throws Exception {
+    SampledIRStatistics stats = new ParallelRecommenderIRStatsEvaluator().evaluate(
+        BUILDER, DATA_MODEL_BUILDER, getBooleanDataModel(), null, 1,
+        GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+
+    assertNotNull(stats);
+    assertTrue(stats.getNumUsersEvaluated() > 0);
+    assertInRange(stats.getPrecision());
+    assertInRange(stats.getRecall());
+    assertInRange(stats.getNormalizedDiscountedCumulativeGain());
+    assertInRange(stats.getReach());
+    // every user is evaluated, so there is no sampling error
+    assertEquals(0.0, stats.getPrecisionStandardError(), EPSILON);
+    assertEquals(0.0, stats.getRecallStandardError(), EPSILON);
+    assertEquals(0.0, stats.getReachStandardError(), EPSILON);
+  }
+
+  @Test
+  public void testStratifiedBatches() throws Exception {
+    ParallelRecommenderIRStatsEvaluator evaluator =
+        new ParallelRecommenderIRStatsEvaluator(new GenericRelevantItemsDataSplitter(), 3, 1, true);
+    SampledIRStatistics stats = evaluator.evaluate(
+        BUILDER, DATA_MODEL_BUILDER, getBooleanDataModel(), null, 1,
+        GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    SampledIRStatistics unstratified = new ParallelRecommenderIRStatsEvaluator().evaluate(
+        BUILDER, DATA_MODEL_BUILDER, getBooleanDataModel(), null, 1,
+        GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    // with all users in the sample, stratification only reweights strata which all users are in
+    assertEquals(unstratified.getNumUsersEvaluated(), stats.getNumUsersEvaluated());
+    assertInRange(stats.getPrecision());
+    assertInRange(stats.getRecall());
+    assertEquals(0.0, stats.getRecallStandardError(), EPSILON);
+  }
+
+  @Test
+  public void testAgreesWithGenericEvaluator() throws Exception {
+    DataModel model = lightAndHeavyUsers();
+    RecommenderBuilder builder = fixedRecommendations(model);
+    SampledIRStatistics parallel = new ParallelRecommenderIRStatsEvaluator().evaluate(
+        builder, null, model, null, 1, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+    IRStatistics generic = new GenericRecommenderIRStatsEvaluator().evaluate(
+        builder, null, model, null, 1, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD, 1.0);
+
+    assertEquals(NUM_LIGHT_USERS + NUM_HEAVY_USERS, parallel.getNumUsersEvaluated());
+    assertEquals(0.3, parallel.getPrecision(), EPSILON);
+    assertEquals(0.6, parallel.getRecall(), EPSILON);
+    assertEquals(generic.getPrecision(), parallel.getPrecision(), EPSILON);
+    assertEquals(generic.getRecall(), parallel.getRecall(), EPSILON);
+    assertEquals(generic.getFallOut(), parallel.getFallOut(), EPSILON);
+    assertEquals(generic.getNormalizedDiscountedCumulativeGain(),
+                 parallel.getNormalizedDiscountedCumulativeGain(), EPSILON);
+    assertEquals(generic.getReach(), parallel.getReach(), EPSILON);
+  }
+
+  @Test
+  public void testSampledStandardErrors() throws Exception {
+    DataModel model = lightAndHeavyUsers();
+    SampledIRStatistics stats =
+        new ParallelRecommenderIRStatsEvaluator(new GenericRelevantItemsDataSplitter(), 2, 7, false).evaluate(
+            fixedRecommendations(model), null, model, null, 1, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD,
+            0.3);
+
+    int n = stats.getNumUsersEvaluated();
+    assertEquals(30, n);
+    // recall is 1 for light and 0 for heavy users, so its sample variance follows from its mean; the finite
+    // population correction scales the variance of the mean by 1 - 30 / 100
+    double recall = stats.getRecall();
+    double recallStandardError = Math.sqrt((1.0 - 0.3) * recall * (1.0 - recall) / (n - 1));
+    assertTrue(stats.getRecallStandardError() > 0.0);
+    assertEquals(recallStandardError, stats.getRecallStandardError(), EPSILON);
+    // precision is half of recall for every user
+    assertEquals(recall / 2.0, stats.getPrecision(), EPSILON);
+    assertEquals(recallStandardError / 2.0, stats.getPrecisionStandardError(), EPSILON);
+    // everyone gets recommendations
+    assertEquals(1.0, stats.getReach(), EPSILON);
+    assertEquals(0.0, stats.getReachStandardError(), EPSILON);
+    // the population's recall lies well within the confidence interval
+    assertTrue(Math.abs(recall - 0.6) <= 3.0 * stats.getRecallStandardError());
+  }
+
+  @Test
+  public void testStratifiedSampleOfUniformStrata() throws Exception {
+    DataModel model = lightAndHeavyUsers();
+    SampledIRStatistics stats =
+        new ParallelRecommenderIRStatsEvaluator(new GenericRelevantItemsDataSplitter(), 2, 7, true).evaluate(
+            fixedRecommendations(model), null, model, null, 1, GenericRecommenderIRStatsEvaluator.CHOOSE_THRESHOLD,
+            0.3);
+
+    // 18 light and 12 heavy users; as all users of a stratum score the same, the stratified estimates are exact
+    assertEquals(30, stats.getNumUsersEvaluated());
+    assertEquals(0.6, stats.getRecall(), EPSILON);
+    assertEquals(0.0, stats.getRecallStandardError(), EPSILON);
+    assertEquals(0.3, stats.getPrecision(), EPSILON);
+    assertEquals(0.0, stats.getPrecisionStandardError(), EPSILON);
+  }
+
+  /**
+   * Users with two preferences, and users with eight, for items all preferred equally.
+   */
+  private static DataModel lightAndHeavyUsers() {
+    int numUsers = NUM_LIGHT_USERS + NUM_HEAVY_USERS;
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][NUM_ITEMS];
+    for (int user = 0; user < numUsers; user++) {
+      userIDs[user] = user;
+      int numPrefs = user < NUM_LIGHT_USERS ? 2 : 8;
+      for (int k = 0; k < numPrefs; k++) {
+        prefs[user][(user + k) % NUM_ITEMS] = 1.0;
+      }
+    }
+    return getDataModel(userIDs, prefs);
+  }
+
+  /**
+   * Recommends all their items to users with few preferences in {@code fullModel}, and an item nobody has to the
+   * others, whatever the training data, so that recall is 1 for the former and 0 for the latter under any
+   * protocol.
+   */
+  private static RecommenderBuilder fixedRecommendations(final DataModel fullModel) {
+    return new RecommenderBuilder() {
+      @Override
+      public Recommender buildRecommender(DataModel dataModel) throws TasteException {
+        return new AbstractRecommender(dataModel) {
+          @Override
+          public List<RecommendedItem> recommend(long userID, int howMany, IDRescorer rescorer)
+            throws TasteException {
+            PreferenceArray prefs = fullModel.getPreferencesFromUser(userID);
+            List<RecommendedItem> result = Lists.newArrayList();
+            if (prefs.length() < 4) {
+              for (Preference pref : prefs) {
+                result.add(new GenericRecommendedItem(pref.getItemID(), 1.0f));
+              }
+            } else {
+              result.add(new GenericRecommendedItem(UNKNOWN_ITEM_ID, 1.0f));
+            }
+            return result;
+          }
+
+          @Override
+          public float estimatePreference(long userID, long itemID) {
+            return Float.NaN;
+          }
+
+          @Override
+          public void refresh(Collection<Refreshable> alreadyRefreshed) {
+          }
+        };
+      }
+    };
+  }
+
+  private static void assertInRange(double value) {
+    assertTrue(value >= 0.0 && value <= 1.0);
+  }
+
+}
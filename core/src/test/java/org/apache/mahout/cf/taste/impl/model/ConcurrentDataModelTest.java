@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link ConcurrentDataModel}.
+ */
+public final class ConcurrentDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testMatchesGenericDataModel() throws Exception {
+    GenericDataModel expected = (GenericDataModel) getDataModel();
+    ConcurrentDataModel model = new ConcurrentDataModel(expected.getRawUserData());
+    assertSameData(expected, model);
+  }
+
+  @Test
+  public void testSetAndRemovePreferences() throws Exception {
+    ConcurrentDataModel model = new ConcurrentDataModel(new FastByIDMap<PreferenceArray>(), 5);
+    assertEquals(0, model.getNumUsers());
+
+    model.setPreference(2, 20, 1.0f);
+    model.setPreference(1, 20, 2.0f);
+    model.setPreference(1, 10, 3.0f);
+    assertEquals(2, model.getNumUsers());
+    assertEquals(2, model.getNumItems());
+    assertEquals(3.0f, model.getPreferenceValue(1, 10), EPSILON);
+    assertEquals(2, model.getNumUsersWithPreferenceFor(20));
+    assertEquals(1, model.getNumUsersWithPreferenceFor(10, 20));
+    PreferenceArray fromUser = model.getPreferencesFromUser(1);
+    assertEquals(10, fromUser.getItemID(0));
+    assertEquals(20, fromUser.getItemID(1));
+    PreferenceArray forItem = model.getPreferencesForItem(20);
+    assertEquals(1, forItem.getUserID(0));
+    assertEquals(2, forItem.getUserID(1));
+
+    model.setPreference(1, 10, 4.0f);
+    assertEquals(4.0f, model.getPreferenceValue(1, 10), EPSILON);
+    assertEquals(1.0f, model.getMinPreference(), EPSILON);
+    assertEquals(4.0f, model.getMaxPreference(), EPSILON);
+    // an earlier row is not changed by later writes
+    assertEquals(3.0f, fromUser.getValue(0), EPSILON);
+
+    model.removePreference(1, 10);
+    assertEquals(1, model.getNumItems());
+    try {
+      model.getPreferencesForItem(10);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // expected
+    }
+    model.removePreference(2, 20);
+    assertEquals(1, model.getNumUsers());
+    try {
+      model.getPreferencesFromUser(2);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    assertArrayEquals(new long[] {1}, ids(model.getUserIDs()));
+    assertArrayEquals(new long[] {20}, ids(model.getItemIDs()));
+  }
+
+  @Test
+  public void testRandomUpdatesWithCompaction() throws Exception {
+    Random random = RandomUtils.getRandom();
+    ConcurrentDataModel model = new ConcurrentDataModel(new FastByIDMap<PreferenceArray>(), 7);
+    FastByIDMap<FastByIDMap<Float>> expected = new FastByIDMap<FastByIDMap<Float>>();
+    for (int i = 0; i < 2000; i++) {
+      long userID = random.nextInt(20);
+      long itemID = random.nextInt(30);
+      FastByIDMap<Float> prefs = expected.get(userID);
+      if (random.nextInt(3) == 0) {
+        model.removePreference(userID, itemID);
+        if (prefs != null) {
+          prefs.remove(itemID);
+          if (prefs.isEmpty()) {
+            expected.remove(userID);
+          }
+        }
+      } else {
+        float value = random.nextFloat();
+        model.setPreference(userID, itemID, value);
+        if (prefs == null) {
+          prefs = new FastByIDMap<Float>();
+          expected.put(userID, prefs);
+        }
+        prefs.put(itemID, value);
+      }
+    }
+
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < 20; userID++) {
+      FastByIDMap<Float> prefs = expected.get(userID);
+      if (prefs != null) {
+        PreferenceArray array = new GenericUserPreferenceArray(prefs.size());
+        array.setUserID(0, userID);
+        int i = 0;
+        for (long itemID = 0; itemID < 30; itemID++) {
+          Float value = prefs.get(itemID);
+          if (value != null) {
+            array.setItemID(i, itemID);
+            array.setValue(i, value);
+            i++;
+          }
+        }
+        userData.put(userID, array);
+      }
+    }
+    assertSameData(new GenericDataModel(userData), model);
+    model.compact();
+    assertSameData(new GenericDataModel(userData), model);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ConcurrentDataModel model = new ConcurrentDataModel(((GenericDataModel) getDataModel()).getRawUserData());
+    model.setPreference(7, 1, 0.5f);
+    model.removePreference(1, 1);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(baos);
+    out.writeObject(model);
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    ConcurrentDataModel newModel = (ConcurrentDataModel) in.readObject();
+    assertSameData(model, newModel);
+    newModel.removePreference(7, 1);
+    assertEquals(model.getNumUsers() - 1, newModel.getNumUsers());
+  }
+
+  private static void assertSameData(DataModel expected, DataModel actual) throws Exception {
+    long[] userIDs = ids(expected.getUserIDs());
+    long[] itemIDs = ids(expected.getItemIDs());
+    assertArrayEquals(userIDs, ids(actual.getUserIDs()));
+    assertArrayEquals(itemIDs, ids(actual.getItemIDs()));
+    assertEquals(expected.getNumUsers(), actual.getNumUsers());
+    assertEquals(expected.getNumItems(), actual.getNumItems());
+    for (long userID : userIDs) {
+      assertEquals(expected.getPreferencesFromUser(userID), actual.getPreferencesFromUser(userID));
+    }
+    for (long itemID : itemIDs) {
+      assertEquals(expected.getPreferencesForItem(itemID), actual.getPreferencesForItem(itemID));
+      for (long otherItemID : itemIDs) {
+        assertEquals(expected.getNumUsersWithPreferenceFor(itemID, otherItemID),
+                     actual.getNumUsersWithPreferenceFor(itemID, otherItemID));
+      }
+    }
+  }
+
+  private static long[] ids(LongPrimitiveIterator it) {
+    long[] ids = new long[0];
+    while (it.hasNext()) {
+      ids = Arrays.copyOf(ids, ids.length + 1);
+      ids[ids.length - 1] = it.nextLong();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.file;
+
+import java.io.File;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/** <p>Tests {@link MappedDataModel} and {@link MappedDataModelWriter}.</p> */
+public final class MappedDataModelTest extends TasteTestCase {
+
+  private static final String[] DATA = {
+      "# a comment",
+      "123,456,0.1",
+      "123,789,0.6",
+      "123,654,0.7",
+      "234,123,0.5",
+      "234,234,1.0",
+      "234,999,0.9",
+      "345,789,0.6",
+      "345,654,0.7",
+      "345,123,1.0",
+      "345,234,0.5",
+      "345,999,0.5",
+      "456,456,0.1",
+      "456,789,0.5",
+      "456,654,0.0",
+      "456,999,0.2",
+      "123,456,0.3",};
+
+  private File textFile;
+  private File binaryFile;
+  private MappedDataModel model;
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    textFile = getTestTempFile("test.txt");
+    binaryFile = getTestTempFile("prefs.bin");
+    writeLines(textFile, DATA);
+    MappedDataModelWriter.convert(textFile, binaryFile);
+    model = new MappedDataModel(binaryFile);
+  }
+
+  @Test
+  public void testMatchesFileDataModel() throws Exception {
+    DataModel expected = new FileDataModel(textFile);
+    assertEquals(expected.getNumUsers(), model.getNumUsers());
+    assertEquals(expected.getNumItems(), model.getNumItems());
+    assertTrue(model.hasPreferenceValues());
+    assertEquals(0.0f, model.getMinPreference(), EPSILON);
+    assertEquals(1.0f, model.getMaxPreference(), EPSILON);
+
+    LongPrimitiveIterator userIDs = expected.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      assertPrefsEqual(expected.getPreferencesFromUser(userID), model.getPreferencesFromUser(userID));
+      assertEquals(expected.getItemIDsFromUser(userID), model.getItemIDsFromUser(userID));
+    }
+    LongPrimitiveIterator itemIDs = expected.getItemIDs();
+    while (itemIDs.hasNext()) {
+      long itemID = itemIDs.nextLong();
+      assertPrefsEqual(expected.getPreferencesForItem(itemID), model.getPreferencesForItem(itemID));
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID), model.getNumUsersWithPreferenceFor(itemID));
+      assertEquals(expected.getNumUsersWithPreferenceFor(itemID, 999),
+                   model.getNumUsersWithPreferenceFor(itemID, 999));
+    }
+  }
+
+  @Test
+  public void testLookups() throws Exception {
+    // the later duplicate line wins
+    assertEquals(0.3f, model.getPreferenceValue(123, 456), EPSILON);
+    assertEquals(0.9f, model.getPreferenceValue(234, 999), EPSILON);
+    assertNull(model.getPreferenceValue(123, 999));
+    assertNull(model.getPreferenceValue(123, 1000));
+    assertEquals(0, model.getNumUsersWithPreferenceFor(1000));
+
+    LongPrimitiveIterator it = model.getUserIDs();
+    assertEquals(123, it.peek());
+    it.skip(2);
+    assertEquals(345, it.nextLong());
+    assertEquals(456, it.nextLong());
+    assertFalse(it.hasNext());
+  }
+
+  @Test(expected = NoSuchUserException.class)
+  public void testNoSuchUser() throws Exception {
+    model.getPreferencesFromUser(1000);
+  }
+
+  @Test
+  public void testBooleanData() throws Exception {
+    File booleanText = getTestTempFile("boolean.txt");
+    File booleanBinary = getTestTempFile("boolean.bin");
+    writeLines(booleanText, "1,10", "1,11", "2,10");
+    MappedDataModelWriter.convert(booleanText, booleanBinary);
+    DataModel booleanModel = new MappedDataModel(booleanBinary);
+    assertFalse(booleanModel.hasPreferenceValues());
+    assertEquals(2, booleanModel.getPreferencesFromUser(1).length());
+    assertEquals(1.0f, booleanModel.getPreferenceValue(2, 10), EPSILON);
+    assertEquals(2, booleanModel.getNumUsersWithPreferenceFor(10));
+    assertEquals(1, booleanModel.getNumUsersWithPreferenceFor(10, 11));
+  }
+
+  @Test
+  public void testRefreshPicksUpRewrittenFile() throws Exception {
+    writeLines(textFile, "1,2,3.0");
+    MappedDataModelWriter.convert(textFile, binaryFile);
+    // make sure the modification is visible even on file systems with coarse timestamps
+    assertTrue(binaryFile.setLastModified(binaryFile.lastModified() + 2000));
+    model.refresh(null);
+    assertEquals(1, model.getNumUsers());
+    assertEquals(3.0f, model.getPreferenceValue(1, 2), EPSILON);
+  }
+
+  @Test
+  public void testWriteDataModel() throws Exception {
+    File copy = getTestTempFile("copy.bin");
+    MappedDataModelWriter.write(model, copy);
+    DataModel copied = new MappedDataModel(copy);
+    assertEquals(model.getNumUsers(), copied.getNumUsers());
+    assertPrefsEqual(model.getPreferencesFromUser(345), copied.getPreferencesFromUser(345));
+  }
+
+  private static void assertPrefsEqual(PreferenceArray expected, PreferenceArray actual) {
+    assertEquals(expected.length(), actual.length());
+    expected.sortByItem();
+    actual.sortByItem();
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.getUserID(i), actual.getUserID(i));
+      assertEquals(expected.getItemID(i), actual.getItemID(i));
+      assertEquals(expected.getValue(i), actual.getValue(i), EPSILON);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.neighborhood;
+
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link VectorizedNearestNUserNeighborhood}.</p> */
+public final class VectorizedNearestNUserNeighborhoodTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 60;
+  private static final int NUM_ITEMS = 40;
+
+  @Test
+  public void testNeighborhood() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {1.0, 2.0, 3.0},
+            {1.0, 2.0, 4.0},
+            {3.0, 2.0, 1.0},
+            {2.0, null, null, 5.0},
+        });
+    VectorizedNearestNUserNeighborhood neighborhood = new VectorizedNearestNUserNeighborhood(2, dataModel);
+    assertArrayEquals(new long[] {2, 4}, neighborhood.getUserNeighborhood(1));
+    assertArrayEquals(new long[] {1, 4}, neighborhood.getUserNeighborhood(2));
+    neighborhood = new VectorizedNearestNUserNeighborhood(3, 0.0, true, dataModel);
+    assertArrayEquals(new long[] {2, 4}, neighborhood.getUserNeighborhood(1));
+    try {
+      neighborhood.getUserNeighborhood(5);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMatchesBruteForce() throws Exception {
+    DataModel dataModel = randomDataModel();
+    for (boolean centered : new boolean[] {true, false}) {
+      VectorizedNearestNUserNeighborhood exact =
+          new VectorizedNearestNUserNeighborhood(5, Double.NEGATIVE_INFINITY, centered, dataModel);
+      // with as many candidates as users, hashing filters out none
+      VectorizedNearestNUserNeighborhood hashed =
+          new VectorizedNearestNUserNeighborhood(5, Double.NEGATIVE_INFINITY, centered, dataModel, NUM_USERS);
+      for (long userID = 0; userID < NUM_USERS; userID++) {
+        long[] expected = bruteForce(dataModel, userID, 5, centered);
+        assertArrayEquals(expected, exact.getUserNeighborhood(userID));
+        assertArrayEquals(expected, hashed.getUserNeighborhood(userID));
+      }
+    }
+  }
+
+  private static DataModel randomDataModel() {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<PreferenceArray> userData = new FastByIDMap<PreferenceArray>();
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      PreferenceArray prefs = new GenericUserPreferenceArray(NUM_ITEMS / 3);
+      prefs.setUserID(0, userID);
+      int i = 0;
+      for (long itemID = 0; itemID < NUM_ITEMS && i < prefs.length(); itemID++) {
+        if (random.nextInt(NUM_ITEMS - (int) itemID) < prefs.length() - i) {
+          prefs.setItemID(i, itemID);
+          prefs.setValue(i, 1.0f + 4.0f * random.nextFloat());
+          i++;
+        }
+      }
+      userData.put(userID, prefs);
+    }
+    return new GenericDataModel(userData);
+  }
+
+  private static long[] bruteForce(DataModel dataModel, final long userID, int n, boolean centered)
+    throws Exception {
+    final double[][] vectors = new double[NUM_USERS][NUM_ITEMS];
+    for (int user = 0; user < NUM_USERS; user++) {
+      PreferenceArray prefs = dataModel.getPreferencesFromUser(user);
+      double mean = 0.0;
+      if (centered) {
+        for (int i = 0; i < prefs.length(); i++) {
+          mean += prefs.getValue(i);
+        }
+        mean /= prefs.length();
+      }
+      double norm = 0.0;
+      for (int i = 0; i < prefs.length(); i++) {
+        double value = prefs.getValue(i) - mean;
+        vectors[user][(int) prefs.getItemID(i)] = value;
+        norm += value * value;
+      }
+      for (int item = 0; item < NUM_ITEMS; item++) {
+        vectors[user][item] /= Math.sqrt(norm);
+      }
+    }
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    return TopItems.getTopUsers(n, userIDs, null, new TopItems.Estimator<Long>() {
+      @Override
+      public double estimate(Long otherUserID) {
+        if (otherUserID == userID) {
+          return Double.NaN;
+        }
+        double dot = 0.0;
+        for (int item = 0; item < NUM_ITEMS; item++) {
+          dot += vectors[(int) userID][item] * vectors[otherUserID.intValue()][item];
+        }
+        return dot;
+      }
+    });
+  }
+
+}
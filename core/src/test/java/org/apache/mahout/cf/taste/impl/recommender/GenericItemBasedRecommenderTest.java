@@ -23,6 +23,7 @@ import org.apache.mahout.cf.taste.impl.common.FastIDSet;
 import org.apache.mahout.cf.taste.impl.model.GenericPreference;
 import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
 import org.apache.mahout.cf.taste.model.DataModel;
 import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.apache.mahout.cf.taste.recommender.CandidateItemsStrategy;
@@ -37,6 +38,9 @@ import org.junit.Test;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /** <p>Tests {@link GenericItemBasedRecommender}.</p> */
 public final class GenericItemBasedRecommenderTest extends TasteTestCase {
@@ -215,6 +219,34 @@ public final class GenericItemBasedRecommenderTest extends TasteTestCase {
     assertEquals(0.2f, third.getValue(), EPSILON);
   }
 
+  @Test
+  public void testParallelScoring() throws Exception {
+    DataModel dataModel = getDataModel(
+        new long[] {1, 2, 3, 4},
+        new Double[][] {
+            {0.1, 0.3, null, null, 0.5, 0.9},
+            {0.2, 0.3, 0.4, 0.5, null, 0.6},
+            {0.4, null, 0.5, 0.9, 0.1, 0.2},
+            {0.7, 0.8, 0.3, null, 0.6, null},
+        });
+    ItemSimilarity similarity = new PearsonCorrelationSimilarity(dataModel);
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+    try {
+      Recommender serial = new GenericItemBasedRecommender(dataModel, similarity);
+      // one candidate per task, so that the two candidates of users 1 and 4 are split across the executor
+      Recommender parallel = new GenericItemBasedRecommender(dataModel, similarity,
+          AbstractRecommender.getDefaultCandidateItemsStrategy(),
+          GenericItemBasedRecommender.getDefaultMostSimilarItemsCandidateItemsStrategy(), executor, 1, 1);
+      for (long userID = 1; userID <= 4; userID++) {
+        assertEquals(serial.recommend(userID, 3), parallel.recommend(userID, 3));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(2, executor.getCompletedTaskCount());
+  }
+
   private static ItemBasedRecommender buildRecommender() {
     DataModel dataModel = getDataModel();
     Collection<GenericItemSimilarity.ItemItemSimilarity> similarities = Lists.newArrayList();
@@ -23,12 +23,15 @@ import org.apache.mahout.cf.taste.impl.common.LongPrimitiveArrayIterator;
 import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.impl.similarity.GenericItemSimilarity;
 import org.apache.mahout.cf.taste.impl.similarity.GenericUserSimilarity;
+import org.apache.mahout.cf.taste.recommender.IDRescorer;
 import org.apache.mahout.cf.taste.recommender.RecommendedItem;
 import org.apache.mahout.common.RandomUtils;
 import org.junit.Test;
 
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Tests for {@link TopItems}.
@@ -56,6 +59,46 @@ public final class TopItemsTest extends TasteTestCase {
     }
   }
 
+  @Test
+  public void testTopItemsParallel() throws Exception {
+    long[] ids = new long[1000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i;
+    }
+    // the best items are spread over all chunks, and even items are filtered
+    TopItems.Estimator<Long> estimator = new TopItems.Estimator<Long>() {
+      @Override
+      public double estimate(Long thing) {
+        return (thing * 7919) % 1000;
+      }
+    };
+    IDRescorerStub rescorer = new IDRescorerStub();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<RecommendedItem> expected =
+          TopItems.getTopItems(15, new LongPrimitiveArrayIterator(ids), rescorer, estimator);
+      for (int numTasks = 1; numTasks <= 8; numTasks++) {
+        List<RecommendedItem> topItems = TopItems.getTopItems(15, ids, rescorer, estimator, executor, numTasks);
+        assertEquals(expected, topItems);
+      }
+      assertTrue(TopItems.getTopItems(5, new long[0], null, estimator, executor, 4).isEmpty());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static final class IDRescorerStub implements IDRescorer {
+    @Override
+    public double rescore(long id, double originalScore) {
+      return originalScore;
+    }
+
+    @Override
+    public boolean isFiltered(long id) {
+      return id % 2 == 0;
+    }
+  }
+
   @Test
   public void testTopItemsRandom() throws Exception {
     long[] ids = new long[100];
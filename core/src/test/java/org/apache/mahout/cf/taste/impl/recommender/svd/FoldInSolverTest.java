@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.junit.Test;
+
+public final class FoldInSolverTest extends TasteTestCase {
+
+  /**
+   * Users 1 and 2 and items 0 to 2 are in the factorization, whose item features are orthonormal. User 3 and
+   * item 3 are only in the data model.
+   */
+  private static DataModel dataModel() {
+    return getDataModel(new long[] {1, 2, 3},
+                        new Double[][] {{1.0, null, null, 4.0}, {null, 2.0, null, 3.0}, {5.0, 1.0, 2.0}});
+  }
+
+  private static Factorization factorization() {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1L, 0);
+    userIDMapping.put(2L, 1);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    itemIDMapping.put(0L, 0);
+    itemIDMapping.put(1L, 1);
+    itemIDMapping.put(2L, 2);
+    double[][] userFeatures = {{1.0, 0.0, 0.0}, {0.0, 1.0, 0.0}};
+    double[][] itemFeatures = {{1.0, 0.0, 0.0}, {0.0, 1.0, 0.0}, {0.0, 0.0, 1.0}};
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+
+  @Test
+  public void testSolveUser() throws Exception {
+    // without regularization the user features are the ratings, as the item features are orthonormal
+    double[] features = new FoldInSolver(0.0).solveUser(factorization(), dataModel().getPreferencesFromUser(3));
+    assertEquals(5.0, features[0], EPSILON);
+    assertEquals(1.0, features[1], EPSILON);
+    assertEquals(2.0, features[2], EPSILON);
+
+    // lambda * nui on the diagonal shrinks them
+    features = new FoldInSolver(0.1).solveUser(factorization(), dataModel().getPreferencesFromUser(3));
+    assertEquals(5.0 / 1.3, features[0], EPSILON);
+  }
+
+  @Test
+  public void testSolveUserImplicit() throws Exception {
+    // with orthonormal item features Y'Y = I, so each feature solves (1 + c - 1 + lambda) x = c
+    double alpha = 2.0;
+    double lambda = 0.5;
+    double[] features = new FoldInSolver(lambda, alpha).solveUser(factorization(),
+        dataModel().getPreferencesFromUser(3));
+    double confidence = 1.0 + alpha * 5.0;
+    assertEquals(confidence / (confidence + lambda), features[0], EPSILON);
+  }
+
+  @Test
+  public void testNothingToSolveFrom() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {1}, new Double[][] {{null, null, null, 4.0}});
+    assertNull(new FoldInSolver(0.1).solveUser(factorization(), dataModel.getPreferencesFromUser(1)));
+  }
+
+  @Test
+  public void testFoldedInRowsOverlayFactorization() throws Exception {
+    Factorization base = factorization();
+    Factorization folded = base.withUserFeatures(3, new double[] {1.0, 2.0, 3.0})
+        .withItemFeatures(0, new double[] {0.5, 0.5, 0.0})
+        .withItemFeatures(3, new double[] {0.0, 1.0, 1.0});
+    assertSame(base, folded.base());
+    assertEquals(3, folded.numUsers());
+    assertEquals(4, folded.numItems());
+    assertEquals(2, folded.userIndex(3));
+    assertEquals(0, folded.itemIndex(0));
+    assertEquals(3, folded.itemIndex(3));
+    assertEquals(0.5, folded.allItemFeatures()[0][1], 0.0);
+    assertEquals(1.0, folded.allItemFeatures()[3][2], 0.0);
+    assertEquals(1.0, base.getItemFeatures(0)[0], 0.0);
+
+    // the same factorization on the heap
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    for (Map.Entry<Long,Integer> entry : folded.getUserIDMappings()) {
+      userIDMapping.put(entry.getKey(), entry.getValue());
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    for (Map.Entry<Long,Integer> entry : folded.getItemIDMappings()) {
+      itemIDMapping.put(entry.getKey(), entry.getValue());
+    }
+    assertEquals(4, itemIDMapping.size());
+    Factorization onHeap = new Factorization(userIDMapping, itemIDMapping, folded.allUserFeatures(),
+        folded.allItemFeatures());
+
+    // the Gram matrix of the base is corrected for the replaced and the added item
+    FoldInSolver solver = new FoldInSolver(0.5, 2.0);
+    PreferenceArray preferences = dataModel().getPreferencesFromUser(1);
+    double[] fromOverlay = solver.solveUser(folded, preferences);
+    double[] fromHeap = solver.solveUser(onHeap, preferences);
+    for (int feature = 0; feature < 3; feature++) {
+      assertEquals(fromHeap[feature], fromOverlay[feature], EPSILON);
+    }
+  }
+
+  @Test
+  public void testFoldIntoRecommender() throws Exception {
+    final Factorization factorization = factorization();
+    SVDRecommender recommender = new SVDRecommender(dataModel(), new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    });
+    try {
+      recommender.estimatePreference(3, 0);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+    assertTrue(recommender.foldInUser(3, new FoldInSolver(0.0)));
+    assertEquals(5.0, recommender.estimatePreference(3, 0), EPSILON);
+    assertEquals(2.0, recommender.estimatePreference(3, 2), EPSILON);
+
+    try {
+      recommender.estimatePreference(1, 3);
+      fail();
+    } catch (NoSuchItemException nsie) {
+      // expected
+    }
+    // two ratings do not determine three features without some regularization
+    assertTrue(recommender.foldInItem(3, new FoldInSolver(0.01)));
+    assertEquals(4.0 / 1.02, recommender.estimatePreference(1, 3), EPSILON);
+    assertEquals(3.0 / 1.02, recommender.estimatePreference(2, 3), EPSILON);
+    assertEquals(3L, recommender.recommend(3, 1).get(0).getItemID());
+
+    // the factorization the recommender started from is unchanged
+    assertEquals(2, factorization.numUsers());
+    assertEquals(3, factorization.numItems());
+  }
+}
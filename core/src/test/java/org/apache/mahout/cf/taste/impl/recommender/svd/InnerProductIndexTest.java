@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.recommender.AllUnknownItemsCandidateItemsStrategy;
+import org.apache.mahout.cf.taste.impl.recommender.TopItems;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+public final class InnerProductIndexTest extends TasteTestCase {
+
+  private static final int NUM_USERS = 5;
+  private static final int NUM_ITEMS = 2000;
+  private static final int NUM_FEATURES = 8;
+
+  @Test
+  public void testExactWithAllProbes() throws Exception {
+    final Factorization factorization = randomFactorization();
+    InnerProductIndex index = new InnerProductIndex(factorization);
+    assertEquals(44, index.numClusters());
+
+    FastIDSet candidates = new FastIDSet();
+    for (long itemID = 0; itemID < NUM_ITEMS; itemID += 3) {
+      candidates.add(itemID);
+    }
+    for (long userID = 0; userID < NUM_USERS; userID++) {
+      final double[] userFeatures = factorization.getUserFeatures(userID);
+      List<RecommendedItem> expected = TopItems.getTopItems(10, candidates.iterator(), null,
+          new TopItems.Estimator<Long>() {
+            @Override
+            public double estimate(Long itemID) throws TasteException {
+              return dot(userFeatures, factorization.getItemFeatures(itemID));
+            }
+          });
+      List<RecommendedItem> actual = index.search(userFeatures, 10, index.numClusters(), candidates, null);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+        assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), EPSILON);
+      }
+    }
+  }
+
+  @Test
+  public void testLimitedProbes() throws Exception {
+    Factorization factorization = randomFactorization();
+    InnerProductIndex index = new InnerProductIndex(factorization, 20, 5);
+    FastIDSet candidates = new FastIDSet();
+    for (long itemID = 0; itemID < NUM_ITEMS; itemID++) {
+      candidates.add(itemID);
+    }
+    List<RecommendedItem> result = index.search(factorization.getUserFeatures(0), 5, 1, candidates, null);
+    // clusters average 100 items, so a single probe usually fills the top 5
+    assertFalse(result.isEmpty());
+    assertTrue(result.size() <= 5);
+    for (int i = 1; i < result.size(); i++) {
+      assertTrue(result.get(i - 1).getValue() >= result.get(i).getValue());
+    }
+  }
+
+  @Test
+  public void testReadsItemFeaturesOneAtATime() throws Exception {
+    Factorization factorization = randomFactorization(false);
+    InnerProductIndex index = new InnerProductIndex(factorization, 20, 5);
+    FastIDSet candidates = new FastIDSet();
+    for (long itemID = 0; itemID < NUM_ITEMS; itemID++) {
+      candidates.add(itemID);
+    }
+    List<RecommendedItem> result =
+        index.search(factorization.getUserFeatures(0), 5, index.numClusters(), candidates, null);
+    assertEquals(5, result.size());
+  }
+
+  @Test
+  public void testRecommenderUsesIndex() throws Exception {
+    DataModel dataModel = getDataModel(new long[] {0, 1}, new Double[][] {{1.0, 2.0}, {3.0}});
+    final Factorization factorization = randomFactorization();
+    Factorizer factorizer = new Factorizer() {
+      @Override
+      public Factorization factorize() {
+        return factorization;
+      }
+      @Override
+      public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      }
+    };
+    SVDRecommender exhaustive = new SVDRecommender(dataModel, factorizer);
+    SVDRecommender indexed = new SVDRecommender(dataModel, factorizer,
+        new AllUnknownItemsCandidateItemsStrategy(),
+        new NoPersistenceStrategy(), 100, 1.0);
+
+    List<RecommendedItem> expected = exhaustive.recommend(1, 3);
+    List<RecommendedItem> actual = indexed.recommend(1, 3);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getItemID(), actual.get(i).getItemID());
+    }
+  }
+
+  private static Factorization randomFactorization() {
+    return randomFactorization(true);
+  }
+
+  /**
+   * @param allowCopies if false, {@link Factorization#allItemFeatures()} fails, as copying all items onto the
+   *  heap would for a large {@link MappedFactorization}
+   */
+  private static Factorization randomFactorization(boolean allowCopies) {
+    Random random = RandomUtils.getRandom();
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    double[][] userFeatures = new double[NUM_USERS][NUM_FEATURES];
+    for (int user = 0; user < NUM_USERS; user++) {
+      userIDMapping.put(user, user);
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        userFeatures[user][feature] = random.nextGaussian();
+      }
+    }
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    double[][] itemFeatures = new double[NUM_ITEMS][NUM_FEATURES];
+    for (int item = 0; item < NUM_ITEMS; item++) {
+      // rows in reverse ID order, to make sure rows and IDs are not mixed up
+      itemIDMapping.put(item, NUM_ITEMS - 1 - item);
+      double scale = random.nextDouble() * 2.0;
+      for (int feature = 0; feature < NUM_FEATURES; feature++) {
+        itemFeatures[NUM_ITEMS - 1 - item][feature] = scale * random.nextGaussian();
+      }
+    }
+    if (allowCopies) {
+      return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+    }
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures) {
+      @Override
+      public double[][] allItemFeatures() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double result = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      result += a[i] * b[i];
+    }
+    return result;
+  }
+}
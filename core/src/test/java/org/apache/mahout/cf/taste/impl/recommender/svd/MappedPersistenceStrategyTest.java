@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.recommender.svd;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.junit.Test;
+
+public class MappedPersistenceStrategyTest extends TasteTestCase {
+
+  @Test
+  public void persistAndLoad() throws Exception {
+    Factorization original = factorization();
+    File storage = getTestTempFile("storage.bin");
+    PersistenceStrategy persistenceStrategy = new MappedPersistenceStrategy(storage);
+
+    assertNull(persistenceStrategy.load());
+
+    persistenceStrategy.maybePersist(original);
+    Factorization mapped = persistenceStrategy.load();
+
+    assertTrue(mapped instanceof MappedFactorization);
+    assertEquals(3, mapped.numFeatures());
+    assertEquals(2, mapped.numUsers());
+    assertEquals(2, mapped.numItems());
+    assertArrayEquals(original.getUserFeatures(456), mapped.getUserFeatures(456), 0.0);
+    assertArrayEquals(original.getItemFeatures(12), mapped.getItemFeatures(12), 0.0);
+    for (Map.Entry<Long,Integer> entry : mapped.getItemIDMappings()) {
+      assertArrayEquals(mapped.allItemFeatures()[entry.getValue()], mapped.getItemFeatures(entry.getKey()), 0.0);
+    }
+    assertEquals(mapped, persistenceStrategy.load());
+  }
+
+  @Test
+  public void floatPrecision() throws Exception {
+    File storage = getTestTempFile("storage.bin");
+    PersistenceStrategy persistenceStrategy = new MappedPersistenceStrategy(storage, true);
+    persistenceStrategy.maybePersist(factorization());
+    Factorization mapped = persistenceStrategy.load();
+    assertEquals(0.1f, mapped.getUserFeatures(123)[0], 0.0);
+    assertEquals(0.9f, mapped.getItemFeatures(34)[2], 0.0);
+  }
+
+  @Test
+  public void overwriteWhileMapped() throws Exception {
+    File storage = getTestTempFile("storage.bin");
+    PersistenceStrategy persistenceStrategy = new MappedPersistenceStrategy(storage);
+    persistenceStrategy.maybePersist(factorization());
+    Factorization mapped = persistenceStrategy.load();
+
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    userIDMapping.put(1, 0);
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+    itemIDMapping.put(2, 0);
+    persistenceStrategy.maybePersist(
+        new Factorization(userIDMapping, itemIDMapping, new double[][] {{5.0}}, new double[][] {{6.0}}));
+
+    // the old mapping is unaffected by the replaced file
+    assertEquals(0.4, mapped.getUserFeatures(456)[0], 0.0);
+    Factorization reloaded = persistenceStrategy.load();
+    assertEquals(6.0, reloaded.getItemFeatures(2)[0], 0.0);
+  }
+
+  @Test
+  public void foldInOverMapping() throws Exception {
+    File storage = getTestTempFile("storage.bin");
+    PersistenceStrategy persistenceStrategy = new MappedPersistenceStrategy(storage);
+    persistenceStrategy.maybePersist(factorization());
+    Factorization mapped = persistenceStrategy.load();
+
+    Factorization folded = mapped.withUserFeatures(789, new double[] {1.0, 2.0, 3.0})
+        .withItemFeatures(12, new double[] {4.0, 5.0, 6.0});
+    assertFalse(folded instanceof MappedFactorization);
+    assertSame(mapped, folded.base());
+    assertEquals(3, folded.numUsers());
+    assertEquals(2, folded.userIndex(789));
+    assertEquals(0.4, folded.getUserFeatures(456)[0], 0.0);
+    assertEquals(2.0, folded.getUserFeatures(789)[1], 0.0);
+    assertEquals(4.0, folded.getItemFeatures(12)[0], 0.0);
+    assertEquals(1.0, mapped.getItemFeatures(12)[0], 0.0);
+    assertEquals(4.0, folded.allItemFeatures()[folded.itemIndex(12)][0], 0.0);
+  }
+
+  @Test(expected = NoSuchItemException.class)
+  public void noSuchItem() throws Exception {
+    File storage = getTestTempFile("storage.bin");
+    PersistenceStrategy persistenceStrategy = new MappedPersistenceStrategy(storage);
+    persistenceStrategy.maybePersist(factorization());
+    persistenceStrategy.load().getItemFeatures(13);
+  }
+
+  private static Factorization factorization() {
+    FastByIDMap<Integer> userIDMapping = new FastByIDMap<Integer>();
+    FastByIDMap<Integer> itemIDMapping = new FastByIDMap<Integer>();
+
+    userIDMapping.put(123, 0);
+    userIDMapping.put(456, 1);
+
+    itemIDMapping.put(34, 0);
+    itemIDMapping.put(12, 1);
+
+    double[][] userFeatures = { { 0.1, 0.2, 0.3 }, { 0.4, 0.5, 0.6 } };
+    double[][] itemFeatures = { { 0.7, 0.8, 0.9 }, { 1.0, 1.1, 1.2 } };
+    return new Factorization(userIDMapping, itemIDMapping, userFeatures, itemFeatures);
+  }
+}
@@ -21,7 +21,9 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import com.carrotsearch.randomizedtesting.annotations.Timeout;
 import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.common.TasteException;
 import org.apache.mahout.cf.taste.impl.TasteTestCase;
 import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
 import org.apache.mahout.cf.taste.impl.common.FullRunningAverage;
@@ -96,9 +98,11 @@ public class ParallelSGDFactorizerTest extends TasteTestCase {
   }
 
   public void setUpSyntheticData() throws Exception {
+    setUpSyntheticData(2000, 1000);
+  }
+
+  public void setUpSyntheticData(int numUsers, int numItems) throws Exception {
 
-    int numUsers = 2000;
-    int numItems = 1000;
     double sparsity = 0.5;
 
     this.rank = 20;
@@ -352,4 +356,52 @@ public class ParallelSGDFactorizerTest extends TasteTestCase {
     logger.info("rmse: " + rmse);
     assertTrue(rmse < 0.2);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testParallelTrainingMatchesSequentialQuality() throws Exception {
+    setUpSyntheticData(300, 150);
+
+    Factorizer parallel = new ParallelSGDFactorizer(dataModel, rank, lambda, numIterations, 0.01, 1, 0, 0, 4);
+    Factorizer sequential = new RatingSGDFactorizer(dataModel, rank, numIterations);
+
+    double parallelRmse = trainingRmse(new SVDRecommender(dataModel, parallel));
+    double sequentialRmse = trainingRmse(new SVDRecommender(dataModel, sequential));
+    logger.info("RMSE parallel: " + parallelRmse + ", sequential: " + sequentialRmse);
+    assertTrue(parallelRmse < 0.2);
+    assertTrue(parallelRmse <= 1.1 * sequentialRmse + 0.02);
+  }
+
+  @Test
+  @Timeout(millis = 60000)
+  public void testWorkerFailureIsPropagated() throws Exception {
+    setUpSyntheticData(300, 150);
+
+    factorizer = new ParallelSGDFactorizer(dataModel, rank, lambda, numIterations, 0.01, 1, 0, 0, 4) {
+      @Override
+      protected void initialize() throws TasteException {
+        super.initialize();
+        // only the worker whose strata hold this user fails; the others go on to the barrier
+        userVectors[0] = null;
+      }
+    };
+    try {
+      factorizer.factorize();
+      fail("the failure of a worker should surface");
+    } catch (NullPointerException e) {
+      // expected
+    }
+  }
+
+  private double trainingRmse(SVDRecommender recommender) throws TasteException {
+    RunningAverage avg = new FullRunningAverage();
+    LongPrimitiveIterator userIDs = dataModel.getUserIDs();
+    while (userIDs.hasNext()) {
+      long userID = userIDs.nextLong();
+      for (Preference pref : dataModel.getPreferencesFromUser(userID)) {
+        double err = pref.getValue() - recommender.estimatePreference(userID, pref.getItemID());
+        avg.addDatum(err * err);
+      }
+    }
+    return Math.sqrt(avg.getAverage());
+  }
+}
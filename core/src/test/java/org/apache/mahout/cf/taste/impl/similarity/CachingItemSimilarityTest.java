@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import org.apache.mahout.cf.taste.similarity.ItemSimilarity;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+/** <p>Tests {@link CachingItemSimilarity}.</p> */
+public final class CachingItemSimilarityTest extends SimilarityTestCase {
+
+  @Test
+  public void testItemSimilaritiesComputesMissesInOneBatch() throws Exception {
+    ItemSimilarity delegate = EasyMock.createMock(ItemSimilarity.class);
+    EasyMock.expect(delegate.itemSimilarity(1L, 2L)).andReturn(0.5);
+    EasyMock.expect(delegate.itemSimilarities(EasyMock.eq(1L), EasyMock.aryEq(new long[] {3L, 4L})))
+        .andReturn(new double[] {0.3, Double.NaN});
+    EasyMock.replay(delegate);
+
+    CachingItemSimilarity similarity = new CachingItemSimilarity(delegate, 100);
+    assertCorrelationEquals(0.5, similarity.itemSimilarity(2L, 1L));
+    double[] similarities = similarity.itemSimilarities(1L, new long[] {2L, 3L, 4L});
+    assertCorrelationEquals(0.5, similarities[0]);
+    assertCorrelationEquals(0.3, similarities[1]);
+    assertCorrelationEquals(Double.NaN, similarities[2]);
+
+    // all cached now, in both directions
+    assertCorrelationEquals(0.3, similarity.itemSimilarity(3L, 1L));
+    similarities = similarity.itemSimilarities(4L, new long[] {1L});
+    assertCorrelationEquals(Double.NaN, similarities[0]);
+
+    EasyMock.verify(delegate);
+  }
+
+}
@@ -17,7 +17,14 @@
 
 package org.apache.mahout.cf.taste.impl.similarity;
 
+import java.util.Collection;
+
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
 import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
 import org.junit.Test;
 
 /** <p>Tests {@link LogLikelihoodSimilarity}.</p> */
@@ -71,10 +78,158 @@ public final class LogLikelihoodSimilarityTest extends SimilarityTestCase {
     assertCorrelationEquals(0.0, similarity.itemSimilarity(3, 2));
   }
 
+  @Test
+  public void testItemSimilarities() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {1.0, 1.0},
+                    {1.0, null, 1.0},
+                    {null, null, 1.0, 1.0, 1.0},
+                    {1.0, 1.0, 1.0, 1.0, 1.0},
+                    {null, 1.0, 1.0, 1.0, 1.0},
+            });
+
+    LogLikelihoodSimilarity similarity = new LogLikelihoodSimilarity(dataModel);
+
+    long[] itemIDs = {0, 1, 2, 3, 4, 99};
+    for (long itemID1 : itemIDs) {
+      double[] similarities = similarity.itemSimilarities(itemID1, itemIDs);
+      for (int i = 0; i < itemIDs.length; i++) {
+        assertCorrelationEquals(similarity.itemSimilarity(itemID1, itemIDs[i]), similarities[i]);
+      }
+    }
+    assertEquals(5, similarity.allSimilarItemIDs(3).length);
+    assertEquals(0, similarity.allSimilarItemIDs(99).length);
+  }
+
+  @Test
+  public void testItemSimilaritiesWithoutPairwiseIntersections() throws Exception {
+    DataModel dataModel = getDataModel(
+            new long[] {1, 2, 3, 4, 5},
+            new Double[][] {
+                    {1.0, 1.0},
+                    {1.0, null, 1.0},
+                    {null, null, 1.0, 1.0, 1.0},
+                    {1.0, 1.0, 1.0, 1.0, 1.0},
+                    {null, 1.0, 1.0, 1.0, 1.0},
+            });
+    PairCountingDataModel countingModel = new PairCountingDataModel(dataModel);
+    LogLikelihoodSimilarity batched = new LogLikelihoodSimilarity(countingModel);
+    LogLikelihoodSimilarity pairwise = new LogLikelihoodSimilarity(dataModel);
+
+    long[] itemIDs = {0, 1, 2, 3, 4, 3, 99};
+    for (long itemID1 : itemIDs) {
+      double[] similarities = batched.itemSimilarities(itemID1, itemIDs);
+      for (int i = 0; i < itemIDs.length; i++) {
+        assertCorrelationEquals(pairwise.itemSimilarity(itemID1, itemIDs[i]), similarities[i]);
+      }
+    }
+    batched.allSimilarItemIDs(3);
+    assertEquals(0, countingModel.pairCalls);
+  }
+
   @Test
   public void testRefresh() {
     // Make sure this doesn't throw an exception
     new LogLikelihoodSimilarity(getDataModel()).refresh(null);
   }
 
-}
\ No newline at end of file
+  /** Delegates to another {@link DataModel}, counting calls for the number of users preferring two items. */
+  private static final class PairCountingDataModel implements DataModel {
+
+    private final DataModel delegate;
+    private int pairCalls;
+
+    private PairCountingDataModel(DataModel delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public LongPrimitiveIterator getUserIDs() throws TasteException {
+      return delegate.getUserIDs();
+    }
+
+    @Override
+    public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+      return delegate.getPreferencesFromUser(userID);
+    }
+
+    @Override
+    public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+      return delegate.getItemIDsFromUser(userID);
+    }
+
+    @Override
+    public LongPrimitiveIterator getItemIDs() throws TasteException {
+      return delegate.getItemIDs();
+    }
+
+    @Override
+    public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+      return delegate.getPreferencesForItem(itemID);
+    }
+
+    @Override
+    public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+      return delegate.getPreferenceValue(userID, itemID);
+    }
+
+    @Override
+    public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+      return delegate.getPreferenceTime(userID, itemID);
+    }
+
+    @Override
+    public int getNumItems() throws TasteException {
+      return delegate.getNumItems();
+    }
+
+    @Override
+    public int getNumUsers() throws TasteException {
+      return delegate.getNumUsers();
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+      return delegate.getNumUsersWithPreferenceFor(itemID);
+    }
+
+    @Override
+    public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+      pairCalls++;
+      return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+
+    @Override
+    public void setPreference(long userID, long itemID, float value) throws TasteException {
+      delegate.setPreference(userID, itemID, value);
+    }
+
+    @Override
+    public void removePreference(long userID, long itemID) throws TasteException {
+      delegate.removePreference(userID, itemID);
+    }
+
+    @Override
+    public boolean hasPreferenceValues() {
+      return delegate.hasPreferenceValues();
+    }
+
+    @Override
+    public float getMaxPreference() {
+      return delegate.getMaxPreference();
+    }
+
+    @Override
+    public float getMinPreference() {
+      return delegate.getMinPreference();
+    }
+
+    @Override
+    public void refresh(Collection<Refreshable> alreadyRefreshed) {
+      delegate.refresh(alreadyRefreshed);
+    }
+  }
+
+}
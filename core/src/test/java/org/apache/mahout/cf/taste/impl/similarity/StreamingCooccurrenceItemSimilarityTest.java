@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.common.RandomUtils;
+import org.junit.Test;
+
+/** <p>Tests {@link StreamingCooccurrenceItemSimilarity}.</p> */
+public final class StreamingCooccurrenceItemSimilarityTest extends SimilarityTestCase {
+
+  private static DataModel dataModel() {
+    return getDataModel(
+        new long[] {1, 2, 3, 4, 5},
+        new Double[][] {
+            {1.0, 1.0},
+            {1.0, null, 1.0},
+            {null, null, 1.0, 1.0, 1.0},
+            {1.0, 1.0, 1.0, 1.0, 1.0},
+            {null, 1.0, 1.0, 1.0, 1.0},
+        });
+  }
+
+  @Test
+  public void testMatchesLogLikelihoodSimilarity() throws Exception {
+    DataModel dataModel = dataModel();
+    LogLikelihoodSimilarity expected = new LogLikelihoodSimilarity(dataModel);
+    StreamingCooccurrenceItemSimilarity similarity = new StreamingCooccurrenceItemSimilarity();
+    similarity.addInteractions(dataModel);
+    // repeated interactions count once
+    similarity.addInteraction(1, 0);
+
+    for (long itemID1 = 0; itemID1 < 5; itemID1++) {
+      for (long itemID2 = 0; itemID2 < 5; itemID2++) {
+        if (itemID1 != itemID2) {
+          assertCorrelationEquals(expected.itemSimilarity(itemID1, itemID2),
+                                  similarity.itemSimilarity(itemID1, itemID2));
+        }
+      }
+    }
+    double[] similarities = similarity.itemSimilarities(3, new long[] {2, 4, 7});
+    assertCorrelationEquals(0.6905400104897509, similarities[0]);
+    assertCorrelationEquals(0.8706358464330881, similarities[1]);
+    assertCorrelationEquals(Double.NaN, similarities[2]);
+  }
+
+  @Test
+  public void testIncrementalUpdates() throws Exception {
+    StreamingCooccurrenceItemSimilarity similarity = new StreamingCooccurrenceItemSimilarity();
+    assertCorrelationEquals(Double.NaN, similarity.itemSimilarity(1, 2));
+    assertEquals(0, similarity.allSimilarItemIDs(1).length);
+
+    similarity.addInteraction(1, 1);
+    similarity.addInteraction(1, 2);
+    similarity.addInteraction(2, 3);
+    assertFalse(Double.isNaN(similarity.itemSimilarity(1, 2)));
+    assertCorrelationEquals(Double.NaN, similarity.itemSimilarity(1, 3));
+    assertArrayEquals(new long[] {2}, similarity.allSimilarItemIDs(1));
+
+    similarity.addInteraction(2, 1);
+    long[] similarItemIDs = similarity.allSimilarItemIDs(1);
+    Arrays.sort(similarItemIDs);
+    assertArrayEquals(new long[] {2, 3}, similarItemIDs);
+  }
+
+  @Test
+  public void testBounds() throws Exception {
+    StreamingCooccurrenceItemSimilarity similarity = new StreamingCooccurrenceItemSimilarity(3, 2);
+    for (long itemID = 0; itemID < 100; itemID++) {
+      similarity.addInteraction(1, itemID);
+    }
+    // only three items are sampled, so each co-occurs with at most two others
+    int numWithSimilarItems = 0;
+    for (long itemID = 0; itemID < 100; itemID++) {
+      long[] similarItemIDs = similarity.allSimilarItemIDs(itemID);
+      if (similarItemIDs.length > 0) {
+        assertEquals(2, similarItemIDs.length);
+        numWithSimilarItems++;
+      }
+    }
+    assertEquals(3, numWithSimilarItems);
+
+    for (long userID = 2; userID < 10; userID++) {
+      similarity.addInteraction(userID, 0);
+      similarity.addInteraction(userID, userID + 100);
+    }
+    assertTrue(similarity.allSimilarItemIDs(0).length <= 2);
+  }
+
+  @Test
+  public void testRepeatedInteractionsCountOnceAfterEviction() throws Exception {
+    StreamingCooccurrenceItemSimilarity similarity = new StreamingCooccurrenceItemSimilarity(2, 1);
+    for (long itemID = 0; itemID < 100; itemID++) {
+      similarity.addInteraction(1, itemID);
+    }
+    long[] sampled = sampledItemIDs(similarity);
+    // items evicted from the sample must not get back in when the user interacts with them again
+    for (int round = 0; round < 10; round++) {
+      for (long itemID = 0; itemID < 100; itemID++) {
+        similarity.addInteraction(1, itemID);
+      }
+    }
+    assertArrayEquals(sampled, sampledItemIDs(similarity));
+  }
+
+  private static long[] sampledItemIDs(StreamingCooccurrenceItemSimilarity similarity) {
+    List<Long> result = Lists.newArrayList();
+    for (long itemID = 0; itemID < 100; itemID++) {
+      if (similarity.allSimilarItemIDs(itemID).length > 0) {
+        result.add(itemID);
+      }
+    }
+    assertEquals(2, result.size());
+    return new long[] {result.get(0), result.get(1)};
+  }
+
+  @Test
+  public void testConcurrentInteractions() throws Exception {
+    int numUsers = 40;
+    int numItems = 30;
+    Random random = RandomUtils.getRandom();
+    long[] userIDs = new long[numUsers];
+    Double[][] prefs = new Double[numUsers][numItems];
+    for (int user = 0; user < numUsers; user++) {
+      userIDs[user] = user;
+      for (int item = 0; item < numItems; item++) {
+        if (random.nextDouble() < 0.3) {
+          prefs[user][item] = 1.0;
+        }
+      }
+    }
+    DataModel dataModel = getDataModel(userIDs, prefs);
+    LogLikelihoodSimilarity expected = new LogLikelihoodSimilarity(dataModel);
+
+    final StreamingCooccurrenceItemSimilarity similarity = new StreamingCooccurrenceItemSimilarity();
+    final Double[][] interactions = prefs;
+    int numThreads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Void>> futures = Lists.newArrayList();
+      for (int thread = 0; thread < numThreads; thread++) {
+        final int firstUser = thread;
+        final int step = numThreads;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int user = firstUser; user < interactions.length; user += step) {
+              for (int item = 0; item < interactions[user].length; item++) {
+                if (interactions[user][item] != null) {
+                  similarity.addInteraction(user, item);
+                  // reads interleaved with updates of other threads
+                  similarity.allSimilarItemIDs(item);
+                  similarity.itemSimilarity(item, (item + 1) % interactions[user].length);
+                }
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    for (long itemID1 = 0; itemID1 < numItems; itemID1++) {
+      for (long itemID2 = 0; itemID2 < numItems; itemID2++) {
+        if (itemID1 != itemID2) {
+          assertCorrelationEquals(expected.itemSimilarity(itemID1, itemID2),
+                                  similarity.itemSimilarity(itemID1, itemID2));
+        }
+      }
+    }
+  }
+}
@@ -88,6 +88,90 @@ public final class VectorWritableTest extends RandomizedTest {
     doTestVectorWritableEquals(v);
   }
 
+  @Test
+  @Repeat(iterations = 20)
+  public void testPackedVectorWritable() throws Exception {
+    Vector[] vectors = {
+        new SequentialAccessSparseVector(MAX_VECTOR_SIZE),
+        new RandomAccessSparseVector(MAX_VECTOR_SIZE),
+        new DenseVector(MAX_VECTOR_SIZE),
+    };
+    for (Vector v : vectors) {
+      createRandom(v);
+      for (boolean compressed : new boolean[] {false, true}) {
+        for (boolean lazy : new boolean[] {false, true}) {
+          VectorWritable toWrite = new VectorWritable(v);
+          toWrite.setWritesPacked(true);
+          toWrite.setWritesCompressed(compressed);
+          VectorWritable toRead = new VectorWritable();
+          toRead.setReadsLazily(lazy);
+          writeAndRead(toWrite, toRead);
+          Vector v2 = toRead.get();
+          assertEquals(lazy, v2 instanceof PackedVector);
+          assertEquals(v.isDense(), v2.isDense());
+          assertEquals(v, v2);
+          assertEquals(v.getLengthSquared(), v2.getLengthSquared(), 1.0e-12);
+          assertEquals(v.zSum(), v2.zSum(), 1.0e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPackedNamedLaxPrecision() throws Exception {
+    Vector v = new NamedVector(new SequentialAccessSparseVector(MAX_VECTOR_SIZE), "Victor");
+    v.setQuick(3, 0.1);
+    v.setQuick(70, -2.5);
+    VectorWritable toWrite = new VectorWritable(v, true);
+    toWrite.setWritesPacked(true);
+    VectorWritable toRead = new VectorWritable();
+    toRead.setReadsLazily(true);
+    writeAndRead(toWrite, toRead);
+    NamedVector v2 = (NamedVector) toRead.get();
+    assertEquals("Victor", v2.getName());
+    assertEquals((float) 0.1, v2.getQuick(3), 0.0);
+    assertEquals(-2.5, v2.getQuick(70), 0.0);
+    assertEquals(0.0, v2.getQuick(4), 0.0);
+  }
+
+  @Test
+  public void testPackedVectorCopyOnWrite() throws Exception {
+    Vector v = new RandomAccessSparseVector(MAX_VECTOR_SIZE);
+    v.setQuick(90, 9.0);
+    v.setQuick(5, 0.5);
+    v.setQuick(40, 4.0);
+    PackedVector packed = PackedVector.pack(v, false);
+
+    int count = 0;
+    int lastIndex = -1;
+    for (Element e : packed.nonZeroes()) {
+      assertTrue(e.index() > lastIndex);
+      assertEquals(v.getQuick(e.index()), e.get(), 0.0);
+      lastIndex = e.index();
+      count++;
+    }
+    assertEquals(3, count);
+    assertFalse(packed.isDecoded());
+
+    // an unmodified vector is written back as is
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    VectorWritable.writePackedVector(dos, packed, false, false);
+    dos.flush();
+    Vector roundTripped = VectorWritable.readVector(new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+    assertEquals(v, roundTripped);
+
+    PackedVector copy = packed.clone();
+    copy.setQuick(5, 1.5);
+    copy.setQuick(6, 6.0);
+    assertTrue(copy.isDecoded());
+    assertFalse(packed.isDecoded());
+    assertEquals(0.5, packed.getQuick(5), 0.0);
+    assertEquals(1.5, copy.getQuick(5), 0.0);
+    assertEquals(4, copy.getNumNondefaultElements());
+    assertEquals(1.5 * 1.5 + 36.0 + 16.0 + 81.0, copy.getLengthSquared(), 0.0);
+  }
+
   private static void doTestVectorWritableEquals(Vector v) throws IOException {
     Writable vectorWritable = new VectorWritable(v);
     VectorWritable vectorWritable2 = new VectorWritable();
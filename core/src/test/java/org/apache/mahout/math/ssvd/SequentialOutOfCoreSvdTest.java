@@ -18,6 +18,7 @@
 package org.apache.mahout.math.ssvd;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.apache.mahout.common.MahoutTestCase;
 import org.apache.mahout.math.DenseMatrix;
 import org.apache.mahout.math.DenseVector;
@@ -35,12 +36,14 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public final class SequentialOutOfCoreSvdTest extends MahoutTestCase {
 
@@ -93,6 +96,51 @@ public final class SequentialOutOfCoreSvdTest extends MahoutTestCase {
     assertEquals(0, A.minus(u.times(new DiagonalMatrix(s.getSingularValues())).times(v.transpose())).aggregate(Functions.PLUS, Functions.ABS), 1.0e-7);
   }
 
+  @Test
+  public void testThreadCountsAgree() throws IOException {
+    lowRankMatrix(tmpDir, "A", 50, 400, 300);
+    List<File> partsOfA = partsOf(tmpDir, "A-.*");
+
+    // each run accumulates its own B blocks
+    SequentialOutOfCoreSvd one = new SequentialOutOfCoreSvd(partsOfA, getTestTempDir("one"), 20, 100, 1);
+    SequentialOutOfCoreSvd four = new SequentialOutOfCoreSvd(partsOfA, getTestTempDir("four"), 20, 100, 4);
+    Vector expected = one.getSingularValues().viewPart(0, 6);
+    Vector actual = four.getSingularValues().viewPart(0, 6);
+    assertEquals(0, expected.minus(actual).norm(Double.POSITIVE_INFINITY), 1.0e-9 * expected.maxValue());
+  }
+
+  @Test
+  public void testReadFailureStopsAllThreads() throws IOException {
+    lowRankMatrix(tmpDir, "A", 500, 1000, 1000);
+    List<File> partsOfA = partsOf(tmpDir, "A-.*");
+    Collections.sort(partsOfA);
+    // the first block is still being processed when reading the second one fails
+    partsOfA.add(1, new File(tmpDir, "A-missing"));
+
+    Set<Thread> before = Thread.getAllStackTraces().keySet();
+    try {
+      new SequentialOutOfCoreSvd(partsOfA, tmpDir, 20, 100, 4);
+      fail();
+    } catch (FileNotFoundException fnfe) {
+      // expected
+    }
+    Set<Thread> started = Sets.newHashSet(Thread.getAllStackTraces().keySet());
+    started.removeAll(before);
+    for (Thread thread : started) {
+      // the shared pool of the matrix products may have started meanwhile, and is made of daemon threads
+      assertTrue(thread.getName(), thread.isDaemon() || !thread.isAlive());
+    }
+  }
+
+  private static List<File> partsOf(File dir, final String pattern) {
+    return Lists.newArrayList(dir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File file, String fileName) {
+        return fileName.matches(pattern);
+      }
+    }));
+  }
+
   /**
    * Reads a list of files that contain a column of blocks.  It is assumed that the files
    * can be sorted lexicographically to determine the order they should be stacked.  It
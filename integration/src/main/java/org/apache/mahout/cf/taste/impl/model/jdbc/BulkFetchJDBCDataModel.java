@@ -0,0 +1,422 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+import org.apache.mahout.cf.taste.common.NoSuchItemException;
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.common.Refreshable;
+import org.apache.mahout.cf.taste.common.TasteException;
+import org.apache.mahout.cf.taste.impl.common.Cache;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.FastIDSet;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.common.RefreshHelper;
+import org.apache.mahout.cf.taste.impl.common.Retriever;
+import org.apache.mahout.cf.taste.impl.common.jdbc.AbstractJDBCComponent;
+import org.apache.mahout.cf.taste.impl.model.BooleanItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.BooleanUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericItemPreferenceArray;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.model.JDBCDataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.common.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * A {@link JDBCDataModel} in between an {@link AbstractJDBCDataModel}, which queries the database on every call,
+ * and a {@link ReloadFromJDBCDataModel}, which holds all data in memory. It keeps a bounded cache of users' and
+ * items' preferences, which it loads from the database with one query per batch of IDs
+ * ({@code WHERE user_id IN (?, ?, ...)}), reading each row straight into the arrays of a
+ * {@link PreferenceArray}. Everything else is delegated to the underlying {@link AbstractJDBCDataModel}.
+ * </p>
+ *
+ * <p>
+ * A caller that knows which preferences a request will need, such as a recommender about to recommend to a
+ * user, can load them all ahead with {@link #prefetchUsers(long...)}, {@link #prefetchItems(long...)} or
+ * {@link #prefetchForUser(long)}, instead of letting each miss issue its own query.
+ * </p>
+ *
+ * <p>
+ * Cached preferences are dropped on {@link #refresh(Collection)}, and a user's and item's cached preferences
+ * when a preference between them is set or removed through this class.
+ * </p>
+ */
+public final class BulkFetchJDBCDataModel extends AbstractJDBCComponent implements JDBCDataModel {
+
+  private static final Logger log = LoggerFactory.getLogger(BulkFetchJDBCDataModel.class);
+
+  public static final int DEFAULT_MAX_CACHED_ROWS = 100000;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  private final AbstractJDBCDataModel delegate;
+  private final int batchSize;
+  private final boolean hasPreferenceValues;
+  private final String selectColumns;
+  private final Cache<Long,PreferenceArray> userRows;
+  private final Cache<Long,PreferenceArray> itemRows;
+  private final RefreshHelper refreshHelper;
+
+  public BulkFetchJDBCDataModel(AbstractJDBCDataModel delegate) {
+    this(delegate, DEFAULT_MAX_CACHED_ROWS, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param maxCachedRows maximum number of users', and of items', preferences to cache
+   * @param batchSize maximum number of IDs to query for at once
+   */
+  public BulkFetchJDBCDataModel(AbstractJDBCDataModel delegate, int maxCachedRows, int batchSize) {
+    Preconditions.checkArgument(delegate != null, "delegate is null");
+    Preconditions.checkArgument(maxCachedRows >= 1, "maxCachedRows must be at least 1");
+    Preconditions.checkArgument(batchSize >= 1, "batchSize must be at least 1");
+    this.delegate = delegate;
+    this.batchSize = batchSize;
+    this.hasPreferenceValues = delegate.hasPreferenceValues();
+    this.selectColumns = "SELECT " + delegate.getUserIDColumn() + ", " + delegate.getItemIDColumn()
+        + (hasPreferenceValues ? ", " + delegate.getPreferenceColumn() : "") + " FROM " + delegate.getPreferenceTable();
+    this.userRows = new Cache<Long,PreferenceArray>(new RowRetriever(true), maxCachedRows);
+    this.itemRows = new Cache<Long,PreferenceArray>(new RowRetriever(false), maxCachedRows);
+    this.refreshHelper = new RefreshHelper(new Callable<Void>() {
+      @Override
+      public Void call() {
+        userRows.clear();
+        itemRows.clear();
+        return null;
+      }
+    });
+    refreshHelper.addDependency(delegate);
+  }
+
+  public AbstractJDBCDataModel getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * Loads the preferences of any of the given users which are not cached, in as few queries as possible.
+   */
+  public void prefetchUsers(long... userIDs) throws TasteException {
+    fetch(true, userIDs);
+  }
+
+  /**
+   * Loads the preferences for any of the given items which are not cached, in as few queries as possible.
+   */
+  public void prefetchItems(long... itemIDs) throws TasteException {
+    fetch(false, itemIDs);
+  }
+
+  /**
+   * Loads the preferences of a user and then the preferences for all items the user has a preference for,
+   * which is what item-based recommenders and most similarity metrics read when recommending to the user.
+   */
+  public void prefetchForUser(long userID) throws TasteException {
+    prefetchItems(getPreferencesFromUser(userID).getIDs());
+  }
+
+  private void fetch(boolean byUser, long[] ids) throws TasteException {
+    Cache<Long,PreferenceArray> rows = byUser ? userRows : itemRows;
+    long[] missing = new long[ids.length];
+    int numMissing = 0;
+    for (long id : ids) {
+      if (rows.getIfPresent(id) == null) {
+        missing[numMissing++] = id;
+      }
+    }
+    FastByIDMap<PreferenceArray> fetched = new FastByIDMap<PreferenceArray>(numMissing);
+    for (int from = 0; from < numMissing; from += batchSize) {
+      fetchBatch(byUser, Arrays.copyOfRange(missing, from, Math.min(numMissing, from + batchSize)), fetched);
+    }
+    for (Map.Entry<Long,PreferenceArray> entry : fetched.entrySet()) {
+      rows.put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  private void fetchBatch(boolean byUser, long[] ids, FastByIDMap<PreferenceArray> fetched) throws TasteException {
+    String keyColumn = byUser ? delegate.getUserIDColumn() : delegate.getItemIDColumn();
+    String otherColumn = byUser ? delegate.getItemIDColumn() : delegate.getUserIDColumn();
+    StringBuilder sql = new StringBuilder(selectColumns.length() + 3 * ids.length + 64);
+    sql.append(selectColumns).append(" WHERE ").append(keyColumn).append(" IN (");
+    for (int i = 0; i < ids.length; i++) {
+      sql.append(i == 0 ? "?" : ",?");
+    }
+    sql.append(") ORDER BY ").append(keyColumn).append(", ").append(otherColumn);
+    int keyPosition = byUser ? 1 : 2;
+    int otherPosition = byUser ? 2 : 1;
+
+    Connection conn = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = getDataSource().getConnection();
+      stmt = conn.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      stmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+      stmt.setFetchSize(getFetchSize());
+      for (int i = 0; i < ids.length; i++) {
+        delegate.setLongParameter(stmt, i + 1, ids[i]);
+      }
+
+      log.debug("Executing SQL query for {} IDs: {}", ids.length, sql);
+      rs = stmt.executeQuery();
+
+      // rows arrive grouped by key; collect each group's IDs and values, then copy them into one array
+      long currentID = 0L;
+      int size = 0;
+      long[] otherIDs = new long[16];
+      float[] values = hasPreferenceValues ? new float[16] : null;
+      while (rs.next()) {
+        long id = delegate.getLongColumn(rs, keyPosition);
+        if (size > 0 && id != currentID) {
+          fetched.put(currentID, buildRow(byUser, currentID, otherIDs, values, size));
+          size = 0;
+        }
+        currentID = id;
+        if (size == otherIDs.length) {
+          otherIDs = Arrays.copyOf(otherIDs, size << 1);
+          if (values != null) {
+            values = Arrays.copyOf(values, size << 1);
+          }
+        }
+        otherIDs[size] = delegate.getLongColumn(rs, otherPosition);
+        if (values != null) {
+          values[size] = rs.getFloat(3);
+        }
+        size++;
+      }
+      if (size > 0) {
+        fetched.put(currentID, buildRow(byUser, currentID, otherIDs, values, size));
+      }
+
+    } catch (SQLException sqle) {
+      log.warn("Exception while retrieving preferences", sqle);
+      throw new TasteException(sqle);
+    } finally {
+      IOUtils.quietClose(rs, stmt, conn);
+    }
+  }
+
+  private static PreferenceArray buildRow(boolean byUser, long id, long[] otherIDs, float[] values, int size) {
+    PreferenceArray row;
+    if (values == null) {
+      row = byUser ? new BooleanUserPreferenceArray(size) : new BooleanItemPreferenceArray(size);
+    } else {
+      row = byUser ? new GenericUserPreferenceArray(size) : new GenericItemPreferenceArray(size);
+    }
+    for (int i = 0; i < size; i++) {
+      if (byUser) {
+        row.setUserID(i, id);
+        row.setItemID(i, otherIDs[i]);
+      } else {
+        row.setItemID(i, id);
+        row.setUserID(i, otherIDs[i]);
+      }
+      if (values != null) {
+        row.setValue(i, values[i]);
+      }
+    }
+    return row;
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return delegate.getDataSource();
+  }
+
+  @Override
+  public FastByIDMap<PreferenceArray> exportWithPrefs() throws TasteException {
+    return delegate.exportWithPrefs();
+  }
+
+  @Override
+  public FastByIDMap<FastIDSet> exportWithIDsOnly() throws TasteException {
+    return delegate.exportWithIDsOnly();
+  }
+
+  @Override
+  public LongPrimitiveIterator getUserIDs() throws TasteException {
+    return delegate.getUserIDs();
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public PreferenceArray getPreferencesFromUser(long userID) throws TasteException {
+    return userRows.get(userID);
+  }
+
+  /**
+   * @throws NoSuchUserException
+   *           if there is no such user
+   */
+  @Override
+  public FastIDSet getItemIDsFromUser(long userID) throws TasteException {
+    PreferenceArray prefs = getPreferencesFromUser(userID);
+    int size = prefs.length();
+    FastIDSet result = new FastIDSet(size);
+    for (int i = 0; i < size; i++) {
+      result.add(prefs.getItemID(i));
+    }
+    return result;
+  }
+
+  @Override
+  public LongPrimitiveIterator getItemIDs() throws TasteException {
+    return delegate.getItemIDs();
+  }
+
+  /**
+   * @throws NoSuchItemException
+   *           if there is no such item
+   */
+  @Override
+  public PreferenceArray getPreferencesForItem(long itemID) throws TasteException {
+    return itemRows.get(itemID);
+  }
+
+  @Override
+  public Float getPreferenceValue(long userID, long itemID) throws TasteException {
+    // Don't query for, or cache, a whole row to answer one value
+    PreferenceArray prefs = userRows.getIfPresent(userID);
+    if (prefs != null) {
+      return findValue(prefs, itemID, true);
+    }
+    prefs = itemRows.getIfPresent(itemID);
+    if (prefs != null) {
+      return findValue(prefs, userID, false);
+    }
+    return delegate.getPreferenceValue(userID, itemID);
+  }
+
+  private static Float findValue(PreferenceArray prefs, long id, boolean byItem) {
+    // Callers may have re-sorted the array, so don't rely on its order
+    int size = prefs.length();
+    for (int i = 0; i < size; i++) {
+      if ((byItem ? prefs.getItemID(i) : prefs.getUserID(i)) == id) {
+        return prefs.getValue(i);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Long getPreferenceTime(long userID, long itemID) throws TasteException {
+    return delegate.getPreferenceTime(userID, itemID);
+  }
+
+  @Override
+  public int getNumItems() throws TasteException {
+    return delegate.getNumItems();
+  }
+
+  @Override
+  public int getNumUsers() throws TasteException {
+    return delegate.getNumUsers();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID) throws TasteException {
+    PreferenceArray prefs = itemRows.getIfPresent(itemID);
+    return prefs == null ? delegate.getNumUsersWithPreferenceFor(itemID) : prefs.length();
+  }
+
+  @Override
+  public int getNumUsersWithPreferenceFor(long itemID1, long itemID2) throws TasteException {
+    PreferenceArray prefs1 = itemRows.getIfPresent(itemID1);
+    PreferenceArray prefs2 = prefs1 == null ? null : itemRows.getIfPresent(itemID2);
+    if (prefs2 == null) {
+      return delegate.getNumUsersWithPreferenceFor(itemID1, itemID2);
+    }
+    FastIDSet userIDs = new FastIDSet(prefs1.getIDs());
+    int count = 0;
+    for (long userID : prefs2.getIDs()) {
+      if (userIDs.contains(userID)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void setPreference(long userID, long itemID, float value) throws TasteException {
+    delegate.setPreference(userID, itemID, value);
+    userRows.remove(userID);
+    itemRows.remove(itemID);
+  }
+
+  @Override
+  public void removePreference(long userID, long itemID) throws TasteException {
+    delegate.removePreference(userID, itemID);
+    userRows.remove(userID);
+    itemRows.remove(itemID);
+  }
+
+  @Override
+  public boolean hasPreferenceValues() {
+    return hasPreferenceValues;
+  }
+
+  @Override
+  public float getMaxPreference() {
+    return delegate.getMaxPreference();
+  }
+
+  @Override
+  public float getMinPreference() {
+    return delegate.getMinPreference();
+  }
+
+  @Override
+  public void refresh(Collection<Refreshable> alreadyRefreshed) {
+    refreshHelper.refresh(alreadyRefreshed);
+  }
+
+  private final class RowRetriever implements Retriever<Long,PreferenceArray> {
+
+    private final boolean byUser;
+
+    private RowRetriever(boolean byUser) {
+      this.byUser = byUser;
+    }
+
+    @Override
+    public PreferenceArray get(Long id) throws TasteException {
+      FastByIDMap<PreferenceArray> fetched = new FastByIDMap<PreferenceArray>(1);
+      fetchBatch(byUser, new long[] {id}, fetched);
+      PreferenceArray row = fetched.get(id);
+      if (row == null) {
+        throw byUser ? new NoSuchUserException(id) : new NoSuchItemException(id);
+      }
+      return row;
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.cf.taste.impl.model.jdbc;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.apache.mahout.cf.taste.common.NoSuchUserException;
+import org.apache.mahout.cf.taste.impl.TasteTestCase;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+public final class BulkFetchJDBCDataModelTest extends TasteTestCase {
+
+  @Test
+  public void testPrefetchUsers() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createNiceMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createNiceMock(ResultSet.class);
+
+    // one query for both users
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection).once();
+    Capture<String> sql = new Capture<String>();
+    EasyMock.expect(connection.prepareStatement(EasyMock.capture(sql), EasyMock.eq(ResultSet.TYPE_FORWARD_ONLY),
+        EasyMock.eq(ResultSet.CONCUR_READ_ONLY))).andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    statement.setLong(1, 1L);
+    statement.setLong(2, 2L);
+    EasyMock.expect(resultSet.next()).andReturn(true).times(3).andReturn(false);
+    EasyMock.expect(resultSet.getLong(1)).andReturn(1L).times(2).andReturn(2L);
+    EasyMock.expect(resultSet.getLong(2)).andReturn(10L).andReturn(20L).andReturn(10L);
+    EasyMock.expect(resultSet.getFloat(3)).andReturn(1.0f).andReturn(2.0f).andReturn(3.0f);
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    BulkFetchJDBCDataModel model = new BulkFetchJDBCDataModel(new SQL92JDBCDataModel(dataSource));
+    model.prefetchUsers(1L, 2L);
+    // already cached; no more queries
+    model.prefetchUsers(2L);
+
+    assertEquals("SELECT user_id, item_id, preference FROM taste_preferences WHERE user_id IN (?,?) "
+                 + "ORDER BY user_id, item_id", sql.getValue());
+    PreferenceArray prefs = model.getPreferencesFromUser(1L);
+    assertEquals(2, prefs.length());
+    assertEquals(1L, prefs.getUserID(1));
+    assertEquals(20L, prefs.getItemID(1));
+    assertEquals(2.0f, prefs.getValue(1), EPSILON);
+    assertEquals(1, model.getItemIDsFromUser(2L).size());
+    assertEquals(3.0f, model.getPreferenceValue(2L, 10L), EPSILON);
+    assertNull(model.getPreferenceValue(2L, 20L));
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+  @Test
+  public void testMissingUser() throws Exception {
+    DataSource dataSource = EasyMock.createMock(DataSource.class);
+    Connection connection = EasyMock.createNiceMock(Connection.class);
+    PreparedStatement statement = EasyMock.createNiceMock(PreparedStatement.class);
+    ResultSet resultSet = EasyMock.createNiceMock(ResultSet.class);
+
+    EasyMock.expect(dataSource.getConnection()).andReturn(connection).once();
+    EasyMock.expect(connection.prepareStatement(EasyMock.<String>anyObject(), EasyMock.anyInt(), EasyMock.anyInt()))
+        .andReturn(statement);
+    EasyMock.expect(statement.executeQuery()).andReturn(resultSet);
+    EasyMock.expect(resultSet.next()).andReturn(false);
+
+    EasyMock.replay(dataSource, connection, statement, resultSet);
+
+    BulkFetchJDBCDataModel model = new BulkFetchJDBCDataModel(new SQL92JDBCDataModel(dataSource));
+    try {
+      model.getPreferencesFromUser(3L);
+      fail();
+    } catch (NoSuchUserException nsue) {
+      // expected
+    }
+
+    EasyMock.verify(dataSource, connection, statement, resultSet);
+  }
+
+}
@@ -0,0 +1,650 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.mahout.math.map;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.mahout.math.DirectMemory;
+import org.apache.mahout.math.function.${keyTypeCap}${valueTypeCap}Procedure;
+import org.apache.mahout.math.function.${keyTypeCap}Procedure;
+import org.apache.mahout.math.list.${keyTypeCap}ArrayList;
+
+#if (${keyType} != ${valueType})
+import org.apache.mahout.math.list.${valueTypeCap}ArrayList;
+#end
+#if (${keyType} == 'byte')
+#set ($keyGet = "get")
+#set ($keyPut = "put")
+#else
+#set ($keyGet = "get${keyTypeCap}")
+#set ($keyPut = "put${keyTypeCap}")
+#end
+#if (${valueType} == 'byte')
+#set ($valueGet = "get")
+#set ($valuePut = "put")
+#else
+#set ($valueGet = "get${valueTypeCap}")
+#set ($valuePut = "put${valueTypeCap}")
+#end
+
+/**
+ * Open hash map from ${keyType} keys to ${valueType} values, with the same API and hashing scheme as
+ * {@link Open${keyTypeCap}${valueTypeCap}HashMap}, but whose keys, values and slot states live in a single
+ * direct {@link ByteBuffer} outside the Java heap. Very large maps therefore neither count against the heap
+ * nor cost the garbage collector anything to scan or copy.
+ * <p/>
+ * The table is freed eagerly whenever it is rehashed, and by {@link #close()}, after which the map must not
+ * be used. A map that is never closed is freed once it is garbage collected, as with any direct buffer. As the
+ * table is a single buffer, the capacity is limited to about 2GB worth of slots.
+ **/
+public class OffHeap${keyTypeCap}${valueTypeCap}HashMap extends Abstract${keyTypeCap}${valueTypeCap}Map
+    implements Closeable {
+  protected static final byte FREE = 0;
+  protected static final byte FULL = 1;
+  protected static final byte REMOVED = 2;
+
+  private static final int KEY_BYTES = ${keyObjectType}.SIZE / Byte.SIZE;
+  private static final int VALUE_BYTES = ${valueObjectType}.SIZE / Byte.SIZE;
+  /** Bytes taken by each slot: its key, its value and its state. */
+  private static final int SLOT_BYTES = KEY_BYTES + VALUE_BYTES + 1;
+
+  /** The hash table, laid out as all keys, then all values, then all slot states. */
+  private ByteBuffer memory;
+
+  /** The number of slots in the table. */
+  private int capacity;
+
+  /** Where the values start in {@link #memory}. */
+  private int valuesOffset;
+
+  /** Where the slot states start in {@link #memory}. */
+  private int stateOffset;
+
+  /** The number of table entries in state==FREE. */
+  protected int freeEntries;
+
+
+  /** Constructs an empty map with default capacity and default load factors. */
+  public OffHeap${keyTypeCap}${valueTypeCap}HashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs an empty map with the specified initial capacity and default load factors.
+   *
+   * @param initialCapacity the initial capacity of the map.
+   * @throws IllegalArgumentException if the initial capacity is less than zero.
+   */
+  public OffHeap${keyTypeCap}${valueTypeCap}HashMap(int initialCapacity) {
+    this(initialCapacity, DEFAULT_MIN_LOAD_FACTOR, DEFAULT_MAX_LOAD_FACTOR);
+  }
+
+  /**
+   * Constructs an empty map with the specified initial capacity and the specified minimum and maximum load factor.
+   *
+   * @param initialCapacity the initial capacity.
+   * @param minLoadFactor   the minimum load factor.
+   * @param maxLoadFactor   the maximum load factor.
+   * @throws IllegalArgumentException if <tt>initialCapacity < 0 || (minLoadFactor < 0.0 || minLoadFactor >= 1.0) ||
+   *                                  (maxLoadFactor <= 0.0 || maxLoadFactor >= 1.0) || (minLoadFactor >=
+   *                                  maxLoadFactor)</tt>.
+   */
+  public OffHeap${keyTypeCap}${valueTypeCap}HashMap(int initialCapacity, double minLoadFactor, double maxLoadFactor) {
+    setUp(initialCapacity, minLoadFactor, maxLoadFactor);
+  }
+
+  /**
+   * Allocates a zeroed table, in which every slot is FREE, with the given number of slots.
+   */
+  private void allocate(int newCapacity) {
+    long bytes = (long) newCapacity * SLOT_BYTES;
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IllegalStateException("A table of " + newCapacity + " slots does not fit into a direct buffer");
+    }
+    memory = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    capacity = newCapacity;
+    valuesOffset = newCapacity * KEY_BYTES;
+    stateOffset = valuesOffset + newCapacity * VALUE_BYTES;
+  }
+
+  private ${keyType} keyAt(int i) {
+    return memory.${keyGet}(i * KEY_BYTES);
+  }
+
+  private ${valueType} valueAt(int i) {
+    return memory.${valueGet}(valuesOffset + i * VALUE_BYTES);
+  }
+
+  private void setValueAt(int i, ${valueType} value) {
+    memory.${valuePut}(valuesOffset + i * VALUE_BYTES, value);
+  }
+
+  private byte stateAt(int i) {
+    return memory.get(stateOffset + i);
+  }
+
+  private void setEntry(int i, ${keyType} key, ${valueType} value) {
+    memory.${keyPut}(i * KEY_BYTES, key);
+    memory.${valuePut}(valuesOffset + i * VALUE_BYTES, value);
+    memory.put(stateOffset + i, FULL);
+  }
+
+  /**
+   * Releases the memory of the table. The map must not be used afterwards.
+   */
+  @Override
+  public void close() {
+    DirectMemory.release(memory);
+    memory = null;
+    distinct = 0;
+  }
+
+  /** Removes all (key,value) associations from the receiver. Implicitly calls <tt>trimToSize()</tt>. */
+  @Override
+  public void clear() {
+    for (int i = 0; i < capacity; i++) {
+      memory.put(stateOffset + i, FREE);
+    }
+    distinct = 0;
+    freeEntries = capacity; // delta
+    trimToSize();
+  }
+
+  /**
+   * Returns a deep copy of the receiver, in newly allocated direct memory.
+   *
+   * @return a deep copy of the receiver.
+   */
+  @Override
+  public Object clone() {
+    OffHeap${keyTypeCap}${valueTypeCap}HashMap copy = (OffHeap${keyTypeCap}${valueTypeCap}HashMap) super.clone();
+    ByteBuffer source = memory.duplicate();
+    source.clear();
+    copy.memory = ByteBuffer.allocateDirect(source.capacity()).order(ByteOrder.nativeOrder());
+    copy.memory.put(source);
+    copy.memory.clear();
+    return copy;
+  }
+
+  /**
+   * Returns <tt>true</tt> if the receiver contains the specified key.
+   *
+   * @return <tt>true</tt> if the receiver contains the specified key.
+   */
+  @Override
+  public boolean containsKey(${keyType} key) {
+    return indexOfKey(key) >= 0;
+  }
+
+  /**
+   * Returns <tt>true</tt> if the receiver contains the specified value.
+   *
+   * @return <tt>true</tt> if the receiver contains the specified value.
+   */
+  @Override
+  public boolean containsValue(${valueType} value) {
+    return indexOfValue(value) >= 0;
+  }
+
+  /**
+   * Ensures that the receiver can hold at least the specified number of associations without needing to allocate new
+   * internal memory. If necessary, allocates new internal memory and increases the capacity of the receiver.
+   *
+   * @param minCapacity the desired minimum capacity.
+   */
+  @Override
+  public void ensureCapacity(int minCapacity) {
+    if (capacity < minCapacity) {
+      int newCapacity = nextPrime(minCapacity);
+      rehash(newCapacity);
+    }
+  }
+
+  /**
+   * Applies a procedure to each key of the receiver, if any. Iterates over the keys in no particular order.
+   *
+   * @param procedure the procedure to be applied. Stops iteration if the procedure returns <tt>false</tt>, otherwise
+   *                  continues.
+   * @return <tt>false</tt> if the procedure stopped before all keys where iterated over, <tt>true</tt> otherwise.
+   */
+  @Override
+  public boolean forEachKey(${keyTypeCap}Procedure procedure) {
+    for (int i = capacity; i-- > 0;) {
+      if (stateAt(i) == FULL && !procedure.apply(keyAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Applies a procedure to each (key,value) pair of the receiver, if any. Iteration order is guaranteed to be
+   * <i>identical</i> to the order used by method {@link #forEachKey(${keyTypeCap}Procedure)}.
+   *
+   * @param procedure the procedure to be applied. Stops iteration if the procedure returns <tt>false</tt>, otherwise
+   *                  continues.
+   * @return <tt>false</tt> if the procedure stopped before all keys where iterated over, <tt>true</tt> otherwise.
+   */
+  @Override
+  public boolean forEachPair(${keyTypeCap}${valueTypeCap}Procedure procedure) {
+    for (int i = capacity; i-- > 0;) {
+      if (stateAt(i) == FULL && !procedure.apply(keyAt(i), valueAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the value associated with the specified key.
+   *
+   * @param key the key to be searched for.
+   * @return the value associated with the specified key; <tt>0</tt> if no such key is present.
+   */
+  @Override
+  public ${valueType} get(${keyType} key) {
+    final int i = indexOfKey(key);
+    if (i < 0) {
+      return 0;
+    } //not contained
+    return valueAt(i);
+  }
+
+  /**
+   * @param key the key to be added to the receiver.
+   * @return the index where the key would need to be inserted, if it is not already contained. Returns -index-1 if the
+   *         key is already contained at slot index.
+   */
+  protected int indexOfInsertion(${keyType} key) {
+    final int length = capacity;
+
+    final int hash = HashFunctions.hash(key) & 0x7FFFFFFF;
+    int i = hash % length;
+    int decrement = hash % (length - 2); // double hashing, see http://www.eece.unm.edu/faculty/heileman/hash/node4.html
+    if (decrement == 0) {
+      decrement = 1;
+    }
+
+    // stop if we find a removed or free slot, or if we find the key itself
+    // do NOT skip over removed slots (yes, open addressing is like that...)
+    while (stateAt(i) == FULL && keyAt(i) != key) {
+      i -= decrement;
+      if (i < 0) {
+        i += length;
+      }
+    }
+
+    if (stateAt(i) == REMOVED) {
+      // stop if we find a free slot, or if we find the key itself.
+      // do skip over removed slots (yes, open addressing is like that...)
+      // assertion: there is at least one FREE slot.
+      final int j = i;
+      while (stateAt(i) != FREE && (stateAt(i) == REMOVED || keyAt(i) != key)) {
+        i -= decrement;
+        if (i < 0) {
+          i += length;
+        }
+      }
+      if (stateAt(i) == FREE) {
+        i = j;
+      }
+    }
+
+    if (stateAt(i) == FULL) {
+      // key already contained at slot i.
+      return -i - 1;
+    }
+    // not already contained, should be inserted at slot i.
+    return i;
+  }
+
+  /**
+   * @param key the key to be searched in the receiver.
+   * @return the index where the key is contained in the receiver, returns -1 if the key was not found.
+   */
+  protected int indexOfKey(${keyType} key) {
+    final int length = capacity;
+
+    final int hash = HashFunctions.hash(key) & 0x7FFFFFFF;
+    int i = hash % length;
+    int decrement = hash % (length - 2); // double hashing, see http://www.eece.unm.edu/faculty/heileman/hash/node4.html
+    if (decrement == 0) {
+      decrement = 1;
+    }
+
+    // stop if we find a free slot, or if we find the key itself.
+    // do skip over removed slots (yes, open addressing is like that...)
+    while (stateAt(i) != FREE && (stateAt(i) == REMOVED || keyAt(i) != key)) {
+      i -= decrement;
+      if (i < 0) {
+        i += length;
+      }
+    }
+
+    if (stateAt(i) == FREE) {
+      return -1;
+    } // not found
+    return i; //found, return index where key is contained
+  }
+
+  /**
+   * @param value the value to be searched in the receiver.
+   * @return the index where the value is contained in the receiver, returns -1 if the value was not found.
+   */
+  protected int indexOfValue(${valueType} value) {
+    for (int i = capacity; --i >= 0;) {
+      if (stateAt(i) == FULL && valueAt(i) == value) {
+        return i;
+      }
+    }
+    return -1; // not found
+  }
+
+  /**
+   * Fills all keys contained in the receiver into the specified list. Fills the list, starting at index 0. After this
+   * call returns the specified list has a new size that equals <tt>this.size()</tt>. Iteration order is guaranteed to
+   * be <i>identical</i> to the order used by method {@link #forEachKey(${keyTypeCap}Procedure)}.
+   *
+   * @param list the list to be filled, can have any size.
+   */
+  @Override
+  public void keys(${keyTypeCap}ArrayList list) {
+    list.setSize(distinct);
+    ${keyType}[] elements = list.elements();
+
+    int j = 0;
+    for (int i = capacity; i-- > 0;) {
+      if (stateAt(i) == FULL) {
+        elements[j++] = keyAt(i);
+      }
+    }
+  }
+
+  public Iterator<MapElement> iterator() {
+    return new MapIterator();
+  }
+
+  public final class MapElement {
+    private int offset = -1;
+    int seen = 0;
+
+    boolean advanceOffset() {
+      offset++;
+      while (offset < capacity && stateAt(offset) != FULL) {
+        offset++;
+      }
+      if (offset < capacity) {
+        seen++;
+      }
+      return offset < capacity;
+    }
+
+    public ${valueType} get() {
+      return valueAt(offset);
+    }
+
+    public ${keyType} index() {
+      return keyAt(offset);
+    }
+
+    public void set(${valueType} value) {
+      setValueAt(offset, value);
+    }
+  }
+
+  public final class MapIterator implements Iterator<MapElement> {
+    private final MapElement element = new MapElement();
+
+    private MapIterator() { }
+
+    @Override
+    public boolean hasNext() {
+      return element.seen < distinct;
+    }
+
+    @Override
+    public MapElement next() {
+      if (element.advanceOffset()) {
+        return element;
+      }
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Fills all pairs satisfying a given condition into the specified lists. Fills into the lists, starting at index 0.
+   * After this call returns the specified lists both have a new size, the number of pairs satisfying the condition.
+   * Iteration order is guaranteed to be <i>identical</i> to the order used by method {@link
+   * #forEachKey(${keyTypeCap}Procedure)}.
+   *
+   * @param condition the condition to be matched. Takes the current key as first and the current value as second
+   *                  argument.
+   * @param keyList   the list to be filled with keys, can have any size.
+   * @param valueList the list to be filled with values, can have any size.
+   */
+  @Override
+  public void pairsMatching(${keyTypeCap}${valueTypeCap}Procedure condition,
+                            ${keyTypeCap}ArrayList keyList,
+                            ${valueTypeCap}ArrayList valueList) {
+    keyList.clear();
+    valueList.clear();
+
+    for (int i = capacity; i-- > 0;) {
+      if (stateAt(i) == FULL && condition.apply(keyAt(i), valueAt(i))) {
+        keyList.add(keyAt(i));
+        valueList.add(valueAt(i));
+      }
+    }
+  }
+
+  /**
+   * Associates the given key with the given value. Replaces any old <tt>(key,someOtherValue)</tt> association, if
+   * existing.
+   *
+   * @param key   the key the value shall be associated with.
+   * @param value the value to be associated.
+   * @return <tt>true</tt> if the receiver did not already contain such a key; <tt>false</tt> if the receiver did
+   *         already contain such a key - the new value has now replaced the formerly associated value.
+   */
+  @Override
+  public boolean put(${keyType} key, ${valueType} value) {
+    int i = indexOfInsertion(key);
+    if (i < 0) { // already contained
+      setValueAt(-i - 1, value);
+      return false;
+    }
+
+    if (this.distinct > this.highWaterMark) {
+      int newCapacity = chooseGrowCapacity(this.distinct + 1, this.minLoadFactor, this.maxLoadFactor);
+      rehash(newCapacity);
+      return put(key, value);
+    }
+
+    if (stateAt(i) == FREE) {
+      this.freeEntries--;
+    }
+    setEntry(i, key, value);
+    this.distinct++;
+
+    if (this.freeEntries < 1) { //delta
+      int newCapacity = chooseGrowCapacity(this.distinct + 1, this.minLoadFactor, this.maxLoadFactor);
+      rehash(newCapacity);
+    }
+
+    return true;
+  }
+
+  @Override
+  public ${valueType} adjustOrPutValue(${keyType} key, ${valueType} newValue, ${valueType} incrValue) {
+    int i = indexOfInsertion(key);
+    if (i < 0) { //already contained
+      i = -i - 1;
+      ${valueType} value = (${valueType}) (valueAt(i) + incrValue);
+      setValueAt(i, value);
+      return value;
+    } else {
+      put(key, newValue);
+      return newValue;
+    }
+  }
+
+  /**
+   * Rehashes the contents of the receiver into a new table with a smaller or larger capacity, and releases the
+   * memory of the old table.
+   */
+  protected void rehash(int newCapacity) {
+    ByteBuffer oldMemory = memory;
+    int oldCapacity = capacity;
+    int oldValuesOffset = valuesOffset;
+    int oldStateOffset = stateOffset;
+
+    allocate(newCapacity);
+
+    this.lowWaterMark = chooseLowWaterMark(newCapacity, this.minLoadFactor);
+    this.highWaterMark = chooseHighWaterMark(newCapacity, this.maxLoadFactor);
+
+    this.freeEntries = newCapacity - this.distinct; // delta
+
+    for (int i = oldCapacity; i-- > 0;) {
+      if (oldMemory.get(oldStateOffset + i) == FULL) {
+        ${keyType} element = oldMemory.${keyGet}(i * KEY_BYTES);
+        int index = indexOfInsertion(element);
+        setEntry(index, element, oldMemory.${valueGet}(oldValuesOffset + i * VALUE_BYTES));
+      }
+    }
+    DirectMemory.release(oldMemory);
+  }
+
+  /**
+   * Removes the given key with its associated element from the receiver, if present.
+   *
+   * @param key the key to be removed from the receiver.
+   * @return <tt>true</tt> if the receiver contained the specified key, <tt>false</tt> otherwise.
+   */
+  @Override
+  public boolean removeKey(${keyType} key) {
+    int i = indexOfKey(key);
+    if (i < 0) {
+      return false;
+    } // key not contained
+
+    memory.put(stateOffset + i, REMOVED);
+    this.distinct--;
+
+    if (this.distinct < this.lowWaterMark) {
+      int newCapacity = chooseShrinkCapacity(this.distinct, this.minLoadFactor, this.maxLoadFactor);
+      rehash(newCapacity);
+    }
+
+    return true;
+  }
+
+  /**
+   * Initializes the receiver.
+   *
+   * @param initialCapacity the initial capacity of the receiver.
+   * @param minLoadFactor   the minLoadFactor of the receiver.
+   * @param maxLoadFactor   the maxLoadFactor of the receiver.
+   * @throws IllegalArgumentException if <tt>initialCapacity < 0 || (minLoadFactor < 0.0 || minLoadFactor >= 1.0) ||
+   *                                  (maxLoadFactor <= 0.0 || maxLoadFactor >= 1.0) || (minLoadFactor >=
+   *                                  maxLoadFactor)</tt>.
+   */
+  @Override
+  final protected void setUp(int initialCapacity, double minLoadFactor, double maxLoadFactor) {
+    int capacity = initialCapacity;
+    super.setUp(capacity, minLoadFactor, maxLoadFactor);
+    capacity = nextPrime(capacity);
+    if (capacity == 0) {
+      capacity = 1;
+    } // open addressing needs at least one FREE slot at any time.
+
+    allocate(capacity);
+
+    this.minLoadFactor = minLoadFactor;
+    if (capacity == PrimeFinder.LARGEST_PRIME) {
+      this.maxLoadFactor = 1.0;
+    } else {
+      this.maxLoadFactor = maxLoadFactor;
+    }
+
+    this.distinct = 0;
+    this.freeEntries = capacity; // delta
+
+    // lowWaterMark will be established upon first expansion, see OpenHashMap
+    this.lowWaterMark = 0;
+    this.highWaterMark = chooseHighWaterMark(capacity, this.maxLoadFactor);
+  }
+
+  /**
+   * Trims the capacity of the receiver to be the receiver's current size. Releases any superfluous memory.
+   */
+  @Override
+  public void trimToSize() {
+    // * 1.2 because open addressing's performance exponentially degrades beyond that point
+    // so that even rehashing the table can take very long
+    int newCapacity = nextPrime((int) (1 + 1.2 * size()));
+    if (capacity > newCapacity) {
+      rehash(newCapacity);
+    }
+  }
+
+  /**
+   * Fills all values contained in the receiver into the specified list. Fills the list, starting at index 0. After this
+   * call returns the specified list has a new size that equals <tt>this.size()</tt>. Iteration order is guaranteed to
+   * be <i>identical</i> to the order used by method {@link #forEachKey(${keyTypeCap}Procedure)}.
+   *
+   * @param list the list to be filled, can have any size.
+   */
+  @Override
+  public void values(${valueTypeCap}ArrayList list) {
+    list.setSize(distinct);
+    ${valueType}[] elements = list.elements();
+
+    int j = 0;
+    for (int i = capacity; i-- > 0;) {
+      if (stateAt(i) == FULL) {
+        elements[j++] = valueAt(i);
+      }
+    }
+  }
+
+  /**
+   * Access for unit tests.
+   * @param capacity
+   * @param minLoadFactor
+   * @param maxLoadFactor
+   */
+  protected void getInternalFactors(int[] capacity,
+      double[] minLoadFactor,
+      double[] maxLoadFactor) {
+    capacity[0] = this.capacity;
+    minLoadFactor[0] = this.minLoadFactor;
+    maxLoadFactor[0] = this.maxLoadFactor;
+  }
+}
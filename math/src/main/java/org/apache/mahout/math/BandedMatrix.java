@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Matrix whose non-zero elements all lie within a band around the diagonal: element {@code (i, j)} may be
+ * non-zero only if {@code i - lowerBandwidth <= j <= i + upperBandwidth}.
+ * <p/>
+ * The band is stored row by row in a single array, {@code lowerBandwidth + upperBandwidth + 1} values per
+ * row, so that products touch only the band and linear systems are solved by a banded LU decomposition in
+ * time linear in the number of rows.
+ */
+public class BandedMatrix extends AbstractMatrix {
+
+  private final int lowerBandwidth;
+  private final int upperBandwidth;
+  /** Stored values per row */
+  private final int width;
+  /** Element {@code (i, j)} is at {@code i * width + j - i + lowerBandwidth} */
+  private final double[] values;
+
+  /**
+   * @param lowerBandwidth number of diagonals below the main diagonal that may be non-zero
+   * @param upperBandwidth number of diagonals above the main diagonal that may be non-zero
+   */
+  public BandedMatrix(int rows, int columns, int lowerBandwidth, int upperBandwidth) {
+    super(rows, columns);
+    Preconditions.checkArgument(lowerBandwidth >= 0 && upperBandwidth >= 0, "Bandwidths must be non-negative");
+    this.lowerBandwidth = lowerBandwidth;
+    this.upperBandwidth = upperBandwidth;
+    width = lowerBandwidth + upperBandwidth + 1;
+    values = new double[rows * width];
+  }
+
+  public int getLowerBandwidth() {
+    return lowerBandwidth;
+  }
+
+  public int getUpperBandwidth() {
+    return upperBandwidth;
+  }
+
+  private boolean inBand(int row, int column) {
+    return column >= row - lowerBandwidth && column <= row + upperBandwidth;
+  }
+
+  /** First column of the band in the row */
+  private int firstColumn(int row) {
+    return Math.max(0, row - lowerBandwidth);
+  }
+
+  /** One past the last column of the band in the row */
+  private int endColumn(int row) {
+    return Math.min(columns, row + upperBandwidth + 1);
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return inBand(row, column) ? values[row * width + column - row + lowerBandwidth] : 0;
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    if (inBand(row, column)) {
+      values[row * width + column - row + lowerBandwidth] = value;
+    } else if (value != 0) {
+      throw new IllegalArgumentException("Cannot set element outside of the band to non-zero");
+    }
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (rowSize() != other.size()) {
+      throw new CardinalityException(rowSize(), other.size());
+    }
+    for (int row = 0; row < rows; row++) {
+      setQuick(row, column, other.getQuick(row));
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    if (columnSize() != other.size()) {
+      throw new CardinalityException(columnSize(), other.size());
+    }
+    for (int column = 0; column < columns; column++) {
+      setQuick(row, column, other.getQuick(column));
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new DenseMatrix(rows, columns);
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Matrix viewPart(int[] offset, int[] size) {
+    return new MatrixView(this, offset, size);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    double[] x = UpperTriangular.toArray(v);
+    double[] y = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      int offset = i * width - i + lowerBandwidth;
+      double sum = 0;
+      for (int j = firstColumn(i); j < endColumn(i); j++) {
+        sum += values[offset + j] * x[j];
+      }
+      y[i] = sum;
+    }
+    return new DenseVector(y, true);
+  }
+
+  @Override
+  public Matrix times(Matrix other) {
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    final double[][] b = DenseMatrixMultiply.toArray(other);
+    final double[][] c = new double[rows][other.columnSize()];
+    DenseMatrixMultiply.forEachBand(DenseMatrixMultiply.rowBands(rows, (long) rows * width * other.columnSize()),
+        new DenseMatrixMultiply.RowBandTask() {
+          @Override
+          public void run(int band, int from, int to) {
+            for (int i = from; i < to; i++) {
+              int offset = i * width - i + lowerBandwidth;
+              double[] ci = c[i];
+              for (int j = firstColumn(i); j < endColumn(i); j++) {
+                DenseMatrixMultiply.axpy(values[offset + j], b[j], ci);
+              }
+            }
+          }
+        });
+    return new DenseMatrix(c, true);
+  }
+
+  /**
+   * Solves {@code this * x = b} by LU decomposition with partial pivoting, which keeps to the band apart from
+   * a fill-in of {@code lowerBandwidth} extra diagonals above it.
+   *
+   * @throws IllegalArgumentException if the matrix is not square or is singular
+   */
+  public Vector solve(Vector b) {
+    if (rows != b.size()) {
+      throw new CardinalityException(rows, b.size());
+    }
+    double[][] x = new double[rows][1];
+    for (Vector.Element element : b.nonZeroes()) {
+      x[element.index()][0] = element.get();
+    }
+    solveInPlace(x);
+    double[] result = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      result[i] = x[i][0];
+    }
+    return new DenseVector(result, true);
+  }
+
+  /**
+   * Solves {@code this * X = B} for all columns of {@code B} at once.
+   *
+   * @throws IllegalArgumentException if the matrix is not square or is singular
+   * @see #solve(Vector)
+   */
+  public Matrix solve(Matrix b) {
+    if (rows != b.rowSize()) {
+      throw new CardinalityException(rows, b.rowSize());
+    }
+    double[][] x = DenseMatrixMultiply.toArray(b);
+    solveInPlace(x);
+    return new DenseMatrix(x, true);
+  }
+
+  private void solveInPlace(double[][] x) {
+    Preconditions.checkArgument(rows == columns, "Must be a Square Matrix");
+    int n = rows;
+    int kl = lowerBandwidth;
+    // row i of the factors covers columns [i - kl, i + kl + ku]: row exchanges move up to kl more diagonals
+    // of U into the upper part of a row
+    int upper = kl + upperBandwidth;
+    int lu = kl + upper + 1;
+    double[][] a = new double[n][lu];
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(values, i * width, a[i], 0, width);
+    }
+
+    // column c of row i is at a[i][c - i + kl]
+    for (int k = 0; k < n; k++) {
+      int last = Math.min(n - 1, k + kl);
+      int p = k;
+      double max = Math.abs(a[k][kl]);
+      for (int i = k + 1; i <= last; i++) {
+        double candidate = Math.abs(a[i][k - i + kl]);
+        if (candidate > max) {
+          max = candidate;
+          p = i;
+        }
+      }
+      if (max == 0) {
+        throw new IllegalArgumentException("Matrix is singular");
+      }
+
+      int end = Math.min(n, k + upper + 1);
+      if (p != k) {
+        double[] ak = a[k];
+        double[] ap = a[p];
+        for (int c = k; c < end; c++) {
+          double tmp = ak[c - k + kl];
+          ak[c - k + kl] = ap[c - p + kl];
+          ap[c - p + kl] = tmp;
+        }
+        double[] tmp = x[k];
+        x[k] = x[p];
+        x[p] = tmp;
+      }
+
+      double[] ak = a[k];
+      double akk = ak[kl];
+      for (int i = k + 1; i <= last; i++) {
+        double[] ai = a[i];
+        double multiplier = ai[k - i + kl] / akk;
+        if (multiplier != 0) {
+          for (int c = k + 1; c < end; c++) {
+            ai[c - i + kl] -= multiplier * ak[c - k + kl];
+          }
+          DenseMatrixMultiply.axpy(-multiplier, x[k], x[i]);
+        }
+      }
+    }
+
+    // U has upper bandwidth kl + ku
+    for (int k = n - 1; k >= 0; k--) {
+      double[] ak = a[k];
+      double[] xk = x[k];
+      int end = Math.min(n, k + upper + 1);
+      for (int c = k + 1; c < end; c++) {
+        DenseMatrixMultiply.axpy(-ak[c - k + kl], x[c], xk);
+      }
+      DenseMatrixMultiply.scale(1 / ak[kl], xk);
+    }
+  }
+}
@@ -17,8 +17,9 @@
 
 package org.apache.mahout.math;
 
+import java.util.Arrays;
+
 import com.google.common.base.Preconditions;
-import org.apache.mahout.math.function.Functions;
 
 /**
  * Cholesky decomposition shamelessly ported from JAMA.
@@ -26,9 +27,21 @@ import org.apache.mahout.math.function.Functions;
  * A Cholesky decomposition of a semi-positive definite matrix A is a lower triangular matrix L such
  * that L L^* = A.  If A is full rank, L is unique.  If A is real, then it must be symmetric and R
  * will also be real.
+ * <p/>
+ * The factor is computed in place on a dense copy of the lower triangle of A, a panel of columns at a
+ * time. Within a panel each column is brought up to date only when it is reached, which lets the
+ * pivoted variant pick its pivot from the running Schur complement diagonal. The rest of the matrix
+ * is then updated once per panel, in bands of rows that run on the {@link DenseMatrixMultiply} pool
+ * when they are large enough.
  */
 public class CholeskyDecomposition {
+
+  /** Number of columns factored together before the trailing submatrix is updated */
+  private static final int PANEL_WIDTH = 48;
+
   private final PivotedMatrix L;
+  /** The rows of {@code L.getBase()} */
+  private final double[][] l;
   private boolean isPositiveDefinite = true;
 
   public CholeskyDecomposition(Matrix a) {
@@ -37,101 +50,179 @@ public class CholeskyDecomposition {
 
   public CholeskyDecomposition(Matrix a, boolean pivot) {
     int rows = a.rowSize();
-    L = new PivotedMatrix(new DenseMatrix(rows, rows));
 
     // must be square
     Preconditions.checkArgument(rows == a.columnSize(), "Must be a Square Matrix");
 
+    double[][] work = lowerTriangle(a);
+    int[] permutation = new int[rows];
+    for (int i = 0; i < rows; i++) {
+      permutation[i] = i;
+    }
+    decompose(work, permutation, pivot);
+
     if (pivot) {
-      decomposeWithPivoting(a);
+      // L.get(i, j) reads the base at (permutation[i], permutation[j])
+      l = new double[rows][rows];
+      for (int i = 0; i < rows; i++) {
+        double[] source = work[i];
+        double[] target = l[permutation[i]];
+        for (int j = 0; j <= i; j++) {
+          target[permutation[j]] = source[j];
+        }
+      }
     } else {
-      decompose(a);
+      l = work;
     }
+    L = new PivotedMatrix(new DenseMatrix(l, true), permutation);
   }
 
-  private void decomposeWithPivoting(Matrix a) {
-    int n = a.rowSize();
-    L.assign(a);
-
-    // pivoted column-wise submatrix cholesky with simple pivoting
-    double uberMax = L.viewDiagonal().aggregate(Functions.MAX, Functions.ABS);
-    for (int k = 0; k < n; k++) {
-      double max = 0;
-      int pivot = k;
-      for (int j = k; j < n; j++) {
-        if (L.get(j, j) > max) {
-          max = L.get(j, j);
-          pivot = j;
-          if (uberMax < Math.abs(max)) {
-            uberMax = Math.abs(max);
+  /**
+   * Right-looking blocked factorization. On return the lower triangle of {@code a} holds L in pivoted order
+   * and the upper triangle is zero.
+   */
+  private void decompose(double[][] a, int[] permutation, boolean pivot) {
+    int n = a.length;
+
+    // the diagonal of the Schur complement, kept current while a panel is factored
+    double[] diagonal = new double[n];
+    double uberMax = 0;
+    for (int i = 0; i < n; i++) {
+      diagonal[i] = a[i][i];
+      uberMax = Math.max(uberMax, Math.abs(diagonal[i]));
+    }
+
+    for (int k0 = 0; k0 < n; k0 += PANEL_WIDTH) {
+      int end = Math.min(n, k0 + PANEL_WIDTH);
+      for (int k = k0; k < end; k++) {
+        if (pivot) {
+          double max = 0;
+          int p = k;
+          for (int j = k; j < n; j++) {
+            if (diagonal[j] > max) {
+              max = diagonal[j];
+              p = j;
+              uberMax = Math.max(uberMax, Math.abs(max));
+            }
           }
+          swap(a, permutation, diagonal, k, p);
         }
-      }
-      L.swap(k, pivot);
-
-      double akk = L.get(k, k);
-      double epsilon = 1.0e-10 * Math.max(uberMax, L.viewColumn(k).aggregate(Functions.MAX, Functions.ABS));
-
-      if (akk < -epsilon) {
-        // can't have decidedly negative element on diagonal
-        throw new IllegalArgumentException("Matrix is not positive semi-definite");
-      } else if (akk <= epsilon) {
-        // degenerate column case.  Set all to zero
-        L.viewColumn(k).assign(0);
-        isPositiveDefinite = false;
-
-        // no need to subtract from remaining sub-matrix
-      } else {
-        // normalize column by diagonal element
-        akk = Math.sqrt(Math.max(0, akk));
-        L.viewColumn(k).viewPart(k, n - k).assign(Functions.div(akk));
-        L.viewColumn(k).viewPart(0, k).assign(0);
-
-        // subtract off scaled version of this column to the right
-        for (int j = k + 1; j < n; j++) {
-          Vector columnJ = L.viewColumn(j).viewPart(k, n - k);
-          Vector columnK = L.viewColumn(k).viewPart(k, n - k);
-          columnJ.assign(columnK, Functions.minusMult(columnK.get(j - k)));
+
+        // bring column k up to date with the columns already factored in this panel
+        double akk = diagonal[k];
+        double columnMax = Math.abs(akk);
+        double[] ak = a[k];
+        for (int i = k + 1; i < n; i++) {
+          double[] ai = a[i];
+          double sum = ai[k];
+          for (int j = k0; j < k; j++) {
+            sum -= ai[j] * ak[j];
+          }
+          ai[k] = sum;
+          columnMax = Math.max(columnMax, Math.abs(sum));
         }
 
+        double epsilon = 1.0e-10 * (pivot ? Math.max(uberMax, columnMax) : columnMax);
+        if (pivot && akk < -epsilon) {
+          // can't have decidedly negative element on diagonal
+          throw new IllegalArgumentException("Matrix is not positive semi-definite");
+        } else if (akk <= epsilon) {
+          // degenerate column case.  Set all to zero; it contributes nothing to the remaining sub-matrix
+          for (int i = k; i < n; i++) {
+            a[i][k] = 0;
+          }
+          isPositiveDefinite = false;
+        } else {
+          // normalize column by diagonal element
+          akk = Math.sqrt(akk);
+          ak[k] = akk;
+          for (int i = k + 1; i < n; i++) {
+            double lik = a[i][k] / akk;
+            a[i][k] = lik;
+            diagonal[i] -= lik * lik;
+          }
+        }
       }
-    }
-  }
-
-  private void decompose(Matrix a) {
-    int n = a.rowSize();
-    L.assign(a);
 
-    // column-wise submatrix cholesky with simple pivoting
-    for (int k = 0; k < n; k++) {
-
-      double akk = L.get(k, k);
-
-      // set upper part of column to 0.
-      L.viewColumn(k).viewPart(0, k).assign(0);
+      if (end < n) {
+        updateTrailing(a, k0, end);
+        for (int i = end; i < n; i++) {
+          diagonal[i] = a[i][i];
+        }
+      }
+    }
 
-      double epsilon = 1.0e-10 * L.viewColumn(k).aggregate(Functions.MAX, Functions.ABS);
-      if (akk <= epsilon) {
-        // degenerate column case.  Set diagonal to 1, all others to zero
-        L.viewColumn(k).viewPart(k, n - k).assign(0);
+    for (int i = 0; i < n; i++) {
+      Arrays.fill(a[i], i + 1, n, 0);
+    }
+  }
 
-        isPositiveDefinite = false;
+  /**
+   * Swaps index {@code k} with the later index {@code p} in the symmetric matrix whose lower triangle is
+   * stored in {@code a}.
+   */
+  private static void swap(double[][] a, int[] permutation, double[] diagonal, int k, int p) {
+    if (k == p) {
+      return;
+    }
+    double[] ak = a[k];
+    double[] ap = a[p];
+    for (int j = 0; j < k; j++) {
+      double tmp = ak[j];
+      ak[j] = ap[j];
+      ap[j] = tmp;
+    }
+    double tmp = ak[k];
+    ak[k] = ap[p];
+    ap[p] = tmp;
+    for (int i = k + 1; i < p; i++) {
+      tmp = a[i][k];
+      a[i][k] = ap[i];
+      ap[i] = tmp;
+    }
+    for (int i = p + 1; i < a.length; i++) {
+      double[] ai = a[i];
+      tmp = ai[k];
+      ai[k] = ai[p];
+      ai[p] = tmp;
+    }
 
-        // no need to subtract from remaining sub-matrix
-      } else {
-        // normalize column by diagonal element
-        akk = Math.sqrt(Math.max(0, akk));
-        L.set(k, k, akk);
-        L.viewColumn(k).viewPart(k + 1, n - k - 1).assign(Functions.div(akk));
+    tmp = diagonal[k];
+    diagonal[k] = diagonal[p];
+    diagonal[p] = tmp;
+    int index = permutation[k];
+    permutation[k] = permutation[p];
+    permutation[p] = index;
+  }
 
-        // now subtract scaled version of column
-        for (int j = k + 1; j < n; j++) {
-          Vector columnJ = L.viewColumn(j).viewPart(j, n - j);
-          Vector columnK = L.viewColumn(k).viewPart(j, n - j);
-          columnJ.assign(columnK, Functions.minusMult(L.get(j, k)));
+  /**
+   * Subtracts the contribution of the panel columns {@code [k0, end)} from the lower triangle of the rows
+   * and columns from {@code end} on.
+   */
+  private static void updateTrailing(final double[][] a, final int k0, final int end) {
+    int m = a.length - end;
+    int[] bounds = DenseMatrixMultiply.rowBands(m, (long) m * m * (end - k0) / 2);
+    // row i touches i - end + 1 columns, so place the band edges to even out the area of the triangle
+    int numBands = bounds.length - 1;
+    for (int b = 1; b < numBands; b++) {
+      bounds[b] = (int) (m * Math.sqrt((double) b / numBands));
+    }
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        for (int i = end + from; i < end + to; i++) {
+          double[] ai = a[i];
+          for (int j = end; j <= i; j++) {
+            double[] aj = a[j];
+            double sum = 0;
+            for (int p = k0; p < end; p++) {
+              sum += ai[p] * aj[p];
+            }
+            ai[j] -= sum;
+          }
         }
       }
-    }
+    });
   }
 
   public boolean isPositiveDefinite() {
@@ -163,65 +254,111 @@ public class CholeskyDecomposition {
    * @param z
    */
   public Matrix solveLeft(Matrix z) {
-    int n = L.columnSize();
+    final int n = L.columnSize();
     int nx = z.columnSize();
 
-    Matrix X = new DenseMatrix(n, z.columnSize());
-    X.assign(z);
-
-    // Solve L*Y = Z using back-substitution
-    // note that k and i have to go in a funny order because L is pivoted
-    for (int internalK = 0; internalK < n; internalK++) {
-      int k = L.rowUnpivot(internalK);
-      for (int j = 0; j < nx; j++) {
-        for (int internalI = 0; internalI < internalK; internalI++) {
-          int i = L.rowUnpivot(internalI);
-          X.set(k, j, X.get(k, j) - X.get(i, j) * L.get(k, i));
-        }
-        if (L.get(k, k) != 0) {
-          X.set(k, j, X.get(k, j) / L.get(k, k));
-        } else {
-          X.set(k, j, 0);
-        }
-      }
-    }
-    return X;
+    final double[][] x = DenseMatrixMultiply.toArray(z);
+    final int[] pivot = L.getRowPivot();
+
+    // Solve L*Y = Z by forward substitution in pivoted order, where L is lower triangular: step k solves for
+    // row pivot[k] of Y, and L.getBase() is read at (pivot[k], pivot[i]). The columns of Z are independent
+    DenseMatrixMultiply.forEachBand(DenseMatrixMultiply.rowBands(nx, (long) n * n * nx / 2),
+        new DenseMatrixMultiply.RowBandTask() {
+          @Override
+          public void run(int band, int from, int to) {
+            for (int k = 0; k < n; k++) {
+              double[] xk = x[pivot[k]];
+              double[] lk = l[pivot[k]];
+              for (int i = 0; i < k; i++) {
+                double lki = lk[pivot[i]];
+                if (lki != 0) {
+                  double[] xi = x[pivot[i]];
+                  for (int j = from; j < to; j++) {
+                    xk[j] -= xi[j] * lki;
+                  }
+                }
+              }
+              double lkk = lk[pivot[k]];
+              for (int j = from; j < to; j++) {
+                xk[j] = lkk != 0 ? xk[j] / lkk : 0;
+              }
+            }
+          }
+        });
+    return new DenseMatrix(x, true);
   }
 
   /**
    * Compute z * inv(L') efficiently
    */
   public Matrix solveRight(Matrix z) {
-    int n = z.columnSize();
+    final int n = z.columnSize();
     int nx = z.rowSize();
 
-    Matrix x = new DenseMatrix(z.rowSize(), z.columnSize());
-    x.assign(z);
-
-    // Solve Y*L' = Z using back-substitution
-    for (int internalK = 0; internalK < n; internalK++) {
-      int k = L.rowUnpivot(internalK);
-      for (int j = 0; j < nx; j++) {
-        for (int internalI = 0; internalI < k; internalI++) {
-          int i = L.rowUnpivot(internalI);
-          x.set(j, k, x.get(j, k) - x.get(j, i) * L.get(k, i));
-          if (Double.isInfinite(x.get(j, k)) || Double.isNaN(x.get(j, k))) {
-            throw new IllegalStateException(
-                String.format("Invalid value found at %d,%d (should not be possible)", j, k));
+    final double[][] x = DenseMatrixMultiply.toArray(z);
+    final int[] pivot = L.getRowPivot();
+
+    // Solve Y*L' = Z by forward substitution in pivoted order, as in solveLeft; the rows of Z are independent
+    DenseMatrixMultiply.forEachBand(DenseMatrixMultiply.rowBands(nx, (long) n * n * nx / 2),
+        new DenseMatrixMultiply.RowBandTask() {
+          @Override
+          public void run(int band, int from, int to) {
+            for (int j = from; j < to; j++) {
+              double[] xj = x[j];
+              for (int k = 0; k < n; k++) {
+                int column = pivot[k];
+                double[] lk = l[column];
+                double sum = xj[column];
+                for (int i = 0; i < k; i++) {
+                  sum -= xj[pivot[i]] * lk[pivot[i]];
+                }
+                // an infinite or NaN partial sum cannot become finite again, so checking the total suffices
+                checkFinite(sum, j, column);
+                double lkk = lk[column];
+                xj[column] = lkk != 0 ? sum / lkk : 0;
+                checkFinite(xj[column], j, column);
+              }
+            }
           }
+        });
+    return new DenseMatrix(x, true);
+  }
+
+  private static void checkFinite(double value, int row, int column) {
+    if (Double.isInfinite(value) || Double.isNaN(value)) {
+      throw new IllegalStateException(
+          String.format("Invalid value found at %d,%d (should not be possible)", row, column));
+    }
+  }
+
+  /**
+   * Copies the lower triangle of {@code a}, diagonal included, into a new dense array.
+   */
+  private static double[][] lowerTriangle(Matrix a) {
+    int n = a.rowSize();
+    double[][] values = new double[n][n];
+    if (a instanceof DenseSymmetricMatrix) {
+      // packed row i of the upper triangle is column i of the lower one
+      DenseSymmetricMatrix symmetric = (DenseSymmetricMatrix) a;
+      double[] packed = symmetric.getData();
+      for (int i = 0; i < n; i++) {
+        int start = symmetric.rowStart(i) - i;
+        for (int j = i; j < n; j++) {
+          values[j][i] = packed[start + j];
         }
-        if (L.get(k, k) != 0) {
-          x.set(j, k, x.get(j, k) / L.get(k, k));
-        } else {
-          x.set(j, k, 0);
-        }
-        if (Double.isInfinite(x.get(j, k)) || Double.isNaN(x.get(j, k))) {
-          throw new IllegalStateException(String.format("Invalid value found at %d,%d (should not be possible)", j, k));
+      }
+      return values;
+    }
+    for (MatrixSlice row : a) {
+      int i = row.index();
+      double[] target = values[i];
+      for (Vector.Element element : row.vector().nonZeroes()) {
+        if (element.index() <= i) {
+          target[element.index()] = element.get();
         }
       }
     }
-    return x;
+    return values;
   }
 
 }
-
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Iterator;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * An immutable sparse matrix in compressed sparse column (CSC) form. The storage is that of a
+ * {@link CompressedSparseRowMatrix} holding the transpose, so {@link #transpose()} and the conversion from
+ * {@link CompressedSparseRowMatrix#transpose()} are free, and conversion to or from row form otherwise costs
+ * one counting sort over the non-zeros.
+ * <p/>
+ * Columns are cheap to read, and {@link #times(Vector)} scatters each column into the result. Likewise
+ * {@link #times(Matrix)} scatters each column, times the matching row of the other matrix, into a dense result,
+ * without converting this matrix to row form.
+ */
+public final class CompressedSparseColumnMatrix extends AbstractMatrix {
+
+  private final CompressedSparseRowMatrix transposed;
+
+  /**
+   * Wraps the given arrays, which are not copied and must not be modified afterwards.
+   *
+   * @param rows           number of rows
+   * @param columns        number of columns
+   * @param columnPointers {@code columns + 1} offsets into the other two arrays, starting at 0
+   * @param rowIndices     row of each non-zero, strictly increasing within each column
+   * @param values         value of each non-zero
+   */
+  public CompressedSparseColumnMatrix(int rows, int columns, int[] columnPointers, int[] rowIndices,
+                                      double[] values) {
+    this(new CompressedSparseRowMatrix(columns, rows, columnPointers, rowIndices, values));
+  }
+
+  CompressedSparseColumnMatrix(CompressedSparseRowMatrix transposed) {
+    super(transposed.columnSize(), transposed.rowSize());
+    this.transposed = transposed;
+  }
+
+  /**
+   * @return a compressed copy of {@code matrix}, or {@code matrix} itself if it already is one
+   */
+  public static CompressedSparseColumnMatrix copyOf(final Matrix matrix) {
+    if (matrix instanceof CompressedSparseColumnMatrix) {
+      return (CompressedSparseColumnMatrix) matrix;
+    }
+    if (matrix instanceof CompressedSparseRowMatrix) {
+      return new CompressedSparseColumnMatrix(((CompressedSparseRowMatrix) matrix).transposeCopy());
+    }
+    Iterable<MatrixSlice> columns = new Iterable<MatrixSlice>() {
+      @Override
+      public Iterator<MatrixSlice> iterator() {
+        return new AbstractIterator<MatrixSlice>() {
+          private int column;
+          @Override
+          protected MatrixSlice computeNext() {
+            if (column >= matrix.columnSize()) {
+              return endOfData();
+            }
+            MatrixSlice slice = new MatrixSlice(matrix.viewColumn(column), column);
+            column++;
+            return slice;
+          }
+        };
+      }
+    };
+    return new CompressedSparseColumnMatrix(
+        CompressedSparseRowMatrix.fromRows(columns, matrix.columnSize(), matrix.rowSize()));
+  }
+
+  public int getNumNonZeros() {
+    return transposed.getNumNonZeros();
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    int[] counts = transposed.getNumNondefaultElements();
+    int[] result = new int[2];
+    result[ROW] = counts[COL];
+    result[COL] = counts[ROW];
+    return result;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return transposed.getQuick(column, row);
+  }
+
+  /**
+   * @return a copy of the column; the matrix itself cannot be modified
+   */
+  @Override
+  public Vector viewColumn(int column) {
+    return transposed.viewRow(column);
+  }
+
+  @Override
+  public Matrix like() {
+    return new SparseColumnMatrix(rows, columns);
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new SparseColumnMatrix(rows, columns);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("CompressedSparseColumnMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseColumnMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseColumnMatrix is immutable");
+  }
+
+  /**
+   * @return the transpose in compressed sparse row form, sharing this matrix's arrays
+   */
+  @Override
+  public CompressedSparseRowMatrix transpose() {
+    return transposed;
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    return new DenseVector(transposed.transposeTimes(CompressedSparseRowMatrix.toArray(v)), true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    double[] y = transposed.transposeTimes(CompressedSparseRowMatrix.toArray(v));
+    return new DenseVector(transposed.times(y), true);
+  }
+
+  @Override
+  public Matrix times(Matrix other) {
+    if (columns != other.rowSize()) {
+      throw new CardinalityException(columns, other.rowSize());
+    }
+    return transposed.transposeTimes(other);
+  }
+
+}
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An immutable sparse matrix in compressed sparse row (CSR) form: the column indices and values of all
+ * non-zero elements are stored row after row in two flat arrays, and {@code rowPointers[i]} is the offset of
+ * the first element of row {@code i}, so row {@code i} occupies {@code [rowPointers[i], rowPointers[i + 1])}.
+ * Column indices are strictly increasing within each row.
+ * <p/>
+ * Compared to a {@link SparseRowMatrix} of {@link RandomAccessSparseVector}s this needs no per-row objects or
+ * hash tables, and the matrix-vector and matrix-matrix products stream through contiguous arrays. Products
+ * above {@link DenseMatrixMultiply#PARALLEL_THRESHOLD} multiply-adds are split into bands of rows holding
+ * roughly equal numbers of non-zeros, which run on the same pool as the dense kernel.
+ * <p/>
+ * Rows returned by {@link #viewRow(int)} are copies, and all mutators throw
+ * {@link UnsupportedOperationException}. Use {@link #copyOf(Matrix)} or
+ * {@link #fromRows(Iterable, int, int)} to build one from another matrix or a stream of rows, and
+ * {@link #transpose()} to get the same storage in compressed sparse column form.
+ */
+public final class CompressedSparseRowMatrix extends AbstractMatrix {
+
+  /** Minimum number of non-zeros handed to a single task */
+  private static final int MIN_NONZEROS_PER_TASK = 1 << 14;
+
+  private final int[] rowPointers;
+  private final int[] columnIndices;
+  private final double[] values;
+
+  /**
+   * Wraps the given arrays, which are not copied and must not be modified afterwards.
+   *
+   * @param rows          number of rows
+   * @param columns       number of columns
+   * @param rowPointers   {@code rows + 1} offsets into the other two arrays, starting at 0
+   * @param columnIndices column of each non-zero, strictly increasing within each row
+   * @param values        value of each non-zero
+   */
+  public CompressedSparseRowMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices,
+                                   double[] values) {
+    super(rows, columns);
+    Preconditions.checkArgument(rowPointers.length == rows + 1,
+        "Expected %s row pointers, got %s", rows + 1, rowPointers.length);
+    Preconditions.checkArgument(rowPointers[0] == 0, "First row pointer must be 0");
+    int numNonZeros = rowPointers[rows];
+    Preconditions.checkArgument(columnIndices.length >= numNonZeros && values.length >= numNonZeros,
+        "Row pointers address %s elements, but only %s indices and %s values are given",
+        numNonZeros, columnIndices.length, values.length);
+    for (int row = 0; row < rows; row++) {
+      int from = rowPointers[row];
+      int to = rowPointers[row + 1];
+      Preconditions.checkArgument(from <= to, "Row pointers decrease at row %s", row);
+      for (int p = from; p < to; p++) {
+        int column = columnIndices[p];
+        if (column < 0 || column >= columns) {
+          throw new IndexException(column, columns);
+        }
+        Preconditions.checkArgument(p == from || columnIndices[p - 1] < column,
+            "Column indices of row %s are not strictly increasing", row);
+      }
+    }
+    this.rowPointers = rowPointers;
+    this.columnIndices = columnIndices;
+    this.values = values;
+  }
+
+  /**
+   * @return a compressed copy of {@code matrix}, or {@code matrix} itself if it already is one
+   */
+  public static CompressedSparseRowMatrix copyOf(Matrix matrix) {
+    if (matrix instanceof CompressedSparseRowMatrix) {
+      return (CompressedSparseRowMatrix) matrix;
+    }
+    if (matrix instanceof CompressedSparseColumnMatrix) {
+      return ((CompressedSparseColumnMatrix) matrix).transpose().transposeCopy();
+    }
+    return fromRows(matrix, matrix.rowSize(), matrix.columnSize());
+  }
+
+  /**
+   * Builds a matrix from a single pass over its rows, which need not arrive in order; rows that never appear
+   * are empty. Each row is copied as soon as it is seen, so a reused or lazily read row vector is fine, and
+   * rows that are not {@linkplain Vector#isSequentialAccess() sequential access} are sorted first.
+   *
+   * @param rows       the rows, keyed by {@link MatrixSlice#index()}
+   * @param numRows    number of rows, or -1 to use one more than the largest row index seen
+   * @param numColumns number of columns, or -1 to use the size of the first row
+   * @throws IllegalArgumentException if a row appears twice
+   */
+  public static CompressedSparseRowMatrix fromRows(Iterable<MatrixSlice> rows, int numRows, int numColumns) {
+    int[] indices = new int[16];
+    double[] values = new double[16];
+    int numNonZeros = 0;
+    // row index, start and end offset of each slice, in the order they were read
+    int[] sliceRows = new int[16];
+    int[] sliceOffsets = new int[17];
+    int numSlices = 0;
+    int maxRow = -1;
+    boolean ordered = true;
+
+    for (MatrixSlice slice : rows) {
+      Vector row = slice.vector();
+      if (numColumns < 0) {
+        numColumns = row.size();
+      }
+      if (row.size() != numColumns) {
+        throw new CardinalityException(numColumns, row.size());
+      }
+      if (!row.isSequentialAccess()) {
+        row = new SequentialAccessSparseVector(row);
+      }
+      int needed = numNonZeros + row.getNumNondefaultElements();
+      if (needed > indices.length) {
+        int capacity = Math.max(needed, indices.length << 1);
+        indices = Arrays.copyOf(indices, capacity);
+        values = Arrays.copyOf(values, capacity);
+      }
+      for (Vector.Element element : row.nonZeroes()) {
+        double value = element.get();
+        if (value != 0.0) {
+          indices[numNonZeros] = element.index();
+          values[numNonZeros] = value;
+          numNonZeros++;
+        }
+      }
+
+      if (numSlices == sliceRows.length) {
+        sliceRows = Arrays.copyOf(sliceRows, numSlices << 1);
+        sliceOffsets = Arrays.copyOf(sliceOffsets, (numSlices << 1) + 1);
+      }
+      int index = slice.index();
+      ordered &= index > maxRow;
+      maxRow = Math.max(maxRow, index);
+      sliceRows[numSlices] = index;
+      sliceOffsets[++numSlices] = numNonZeros;
+    }
+
+    if (numRows < 0) {
+      numRows = maxRow + 1;
+    }
+    if (maxRow >= numRows) {
+      throw new IndexException(maxRow, numRows);
+    }
+    if (numColumns < 0) {
+      numColumns = 0;
+    }
+
+    int[] rowPointers = new int[numRows + 1];
+    boolean[] seen = new boolean[numRows];
+    for (int s = 0; s < numSlices; s++) {
+      int row = sliceRows[s];
+      Preconditions.checkArgument(!seen[row], "Row %s appears more than once", row);
+      seen[row] = true;
+      rowPointers[row + 1] = sliceOffsets[s + 1] - sliceOffsets[s];
+    }
+    for (int row = 0; row < numRows; row++) {
+      rowPointers[row + 1] += rowPointers[row];
+    }
+
+    if (ordered) {
+      // slices are already laid out by increasing row, so only the spare capacity has to go
+      return new CompressedSparseRowMatrix(numRows, numColumns, rowPointers,
+          Arrays.copyOf(indices, numNonZeros), Arrays.copyOf(values, numNonZeros));
+    }
+    int[] sortedIndices = new int[numNonZeros];
+    double[] sortedValues = new double[numNonZeros];
+    for (int s = 0; s < numSlices; s++) {
+      int length = sliceOffsets[s + 1] - sliceOffsets[s];
+      int destination = rowPointers[sliceRows[s]];
+      System.arraycopy(indices, sliceOffsets[s], sortedIndices, destination, length);
+      System.arraycopy(values, sliceOffsets[s], sortedValues, destination, length);
+    }
+    return new CompressedSparseRowMatrix(numRows, numColumns, rowPointers, sortedIndices, sortedValues);
+  }
+
+  public int getNumNonZeros() {
+    return rowPointers[rows];
+  }
+
+  @Override
+  public int[] getNumNondefaultElements() {
+    int[] result = new int[2];
+    result[ROW] = rows;
+    for (int row = 0; row < rows; row++) {
+      result[COL] = Math.max(result[COL], rowPointers[row + 1] - rowPointers[row]);
+    }
+    return result;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    int p = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+    return p >= 0 ? values[p] : 0.0;
+  }
+
+  /**
+   * @return a copy of the row; the matrix itself cannot be modified
+   */
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rows) {
+      throw new IndexException(row, rows);
+    }
+    int from = rowPointers[row];
+    int to = rowPointers[row + 1];
+    Vector result = new SequentialAccessSparseVector(columns, Math.max(1, to - from));
+    for (int p = from; p < to; p++) {
+      result.setQuick(columnIndices[p], values[p]);
+    }
+    return result;
+  }
+
+  @Override
+  public Matrix like() {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new SparseRowMatrix(rows, columns);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    throw new UnsupportedOperationException("CompressedSparseRowMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseRowMatrix is immutable");
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    throw new UnsupportedOperationException("CompressedSparseRowMatrix is immutable");
+  }
+
+  /**
+   * @return the transpose in compressed sparse column form, sharing this matrix's arrays
+   */
+  @Override
+  public CompressedSparseColumnMatrix transpose() {
+    return new CompressedSparseColumnMatrix(this);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    return new DenseVector(times(toArray(v)), true);
+  }
+
+  @Override
+  public Vector timesSquared(Vector v) {
+    if (columns != v.size()) {
+      throw new CardinalityException(columns, v.size());
+    }
+    return new DenseVector(transposeTimes(times(toArray(v))), true);
+  }
+
+  /**
+   * Multiplies by any matrix, whose rows are first gathered into a dense array. The result is dense.
+   */
+  @Override
+  public Matrix times(Matrix other) {
+    if (columns != other.rowSize()) {
+      throw new CardinalityException(columns, other.rowSize());
+    }
+    final int n = other.columnSize();
+    final double[][] b = new double[other.rowSize()][];
+    for (int k = 0; k < b.length; k++) {
+      b[k] = toArray(other.viewRow(k));
+    }
+    final double[][] c = new double[rows][n];
+    forEachBand((long) getNumNonZeros() * n, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        for (int i = from; i < to; i++) {
+          double[] ci = c[i];
+          for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+            double a = values[p];
+            double[] bk = b[columnIndices[p]];
+            for (int j = 0; j < n; j++) {
+              ci[j] += a * bk[j];
+            }
+          }
+        }
+      }
+    });
+    return new DenseMatrix(c, true);
+  }
+
+  /**
+   * Sparse matrix times dense vector.
+   */
+  double[] times(final double[] x) {
+    final double[] y = new double[rows];
+    forEachBand(getNumNonZeros(), new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        for (int i = from; i < to; i++) {
+          double sum = 0.0;
+          for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+            sum += values[p] * x[columnIndices[p]];
+          }
+          y[i] = sum;
+        }
+      }
+    });
+    return y;
+  }
+
+  /**
+   * Transpose of this matrix times dense vector, scattering each row into the result. In parallel each band
+   * scatters into its own buffer and the buffers are summed at the end.
+   */
+  double[] transposeTimes(final double[] y) {
+    int[] bounds = bands(getNumNonZeros());
+    int numBands = bounds.length - 1;
+    final double[][] partials = new double[numBands][];
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        double[] x = new double[columns];
+        for (int i = from; i < to; i++) {
+          double yi = y[i];
+          if (yi == 0.0) {
+            continue;
+          }
+          for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+            x[columnIndices[p]] += values[p] * yi;
+          }
+        }
+        partials[band] = x;
+      }
+    });
+    double[] x = partials[0];
+    for (int b = 1; b < numBands; b++) {
+      double[] partial = partials[b];
+      for (int j = 0; j < columns; j++) {
+        x[j] += partial[j];
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Transpose of this matrix times any matrix, scattering each non-zero of row {@code i} times row {@code i} of
+   * {@code other} into the result, so that no transposed copy of this matrix is needed. In parallel each band
+   * scatters into its own buffer and the buffers are summed at the end. The result is dense.
+   */
+  Matrix transposeTimes(Matrix other) {
+    if (rows != other.rowSize()) {
+      throw new CardinalityException(rows, other.rowSize());
+    }
+    final int n = other.columnSize();
+    final double[][] b = new double[rows][];
+    for (int i = 0; i < rows; i++) {
+      b[i] = toArray(other.viewRow(i));
+    }
+    int[] bounds = bands((long) getNumNonZeros() * n);
+    int numBands = bounds.length - 1;
+    final double[][][] partials = new double[numBands][][];
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        double[][] c = new double[columns][n];
+        for (int i = from; i < to; i++) {
+          double[] bi = b[i];
+          for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+            double a = values[p];
+            double[] cj = c[columnIndices[p]];
+            for (int j = 0; j < n; j++) {
+              cj[j] += a * bi[j];
+            }
+          }
+        }
+        partials[band] = c;
+      }
+    });
+    double[][] c = partials[0];
+    for (int band = 1; band < numBands; band++) {
+      double[][] partial = partials[band];
+      for (int row = 0; row < columns; row++) {
+        double[] cRow = c[row];
+        double[] partialRow = partial[row];
+        for (int j = 0; j < n; j++) {
+          cRow[j] += partialRow[j];
+        }
+      }
+    }
+    return new DenseMatrix(c, true);
+  }
+
+  /**
+   * @return a new matrix holding the transpose in compressed sparse row form, built by a counting sort over
+   *  the column indices
+   */
+  CompressedSparseRowMatrix transposeCopy() {
+    int numNonZeros = getNumNonZeros();
+    int[] pointers = new int[columns + 1];
+    for (int p = 0; p < numNonZeros; p++) {
+      pointers[columnIndices[p] + 1]++;
+    }
+    for (int column = 0; column < columns; column++) {
+      pointers[column + 1] += pointers[column];
+    }
+    int[] next = Arrays.copyOf(pointers, columns);
+    int[] rowIndices = new int[numNonZeros];
+    double[] transposedValues = new double[numNonZeros];
+    for (int row = 0; row < rows; row++) {
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        int q = next[columnIndices[p]]++;
+        rowIndices[q] = row;
+        transposedValues[q] = values[p];
+      }
+    }
+    return new CompressedSparseRowMatrix(columns, rows, pointers, rowIndices, transposedValues);
+  }
+
+  static double[] toArray(Vector v) {
+    double[] result = new double[v.size()];
+    for (Vector.Element element : v.nonZeroes()) {
+      result[element.index()] = element.get();
+    }
+    return result;
+  }
+
+  private void forEachBand(long work, DenseMatrixMultiply.RowBandTask task) {
+    DenseMatrixMultiply.forEachBand(bands(work), task);
+  }
+
+  /**
+   * Splits the rows into bands holding roughly equal numbers of non-zeros, or returns a single band if the
+   * product is too small to be worth splitting. Bounds are strictly increasing.
+   */
+  private int[] bands(long work) {
+    int numNonZeros = getNumNonZeros();
+    int numTasks = Math.min(DenseMatrixMultiply.NUM_THREADS, Math.max(1, numNonZeros / MIN_NONZEROS_PER_TASK));
+    if (work < DenseMatrixMultiply.PARALLEL_THRESHOLD || numTasks < 2 || rows < 2) {
+      return new int[] {0, rows};
+    }
+    int[] bounds = new int[numTasks + 1];
+    int numBounds = 1;
+    for (int t = 1; t < numTasks; t++) {
+      int target = (int) ((long) numNonZeros * t / numTasks);
+      // first row starting at or after the target offset
+      int low = 0;
+      int high = rows;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (rowPointers[mid] < target) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      if (low > bounds[numBounds - 1] && low < rows) {
+        bounds[numBounds++] = low;
+      }
+    }
+    bounds[numBounds++] = rows;
+    return Arrays.copyOf(bounds, numBounds);
+  }
+
+}
@@ -20,7 +20,7 @@ package org.apache.mahout.math;
 import java.util.Arrays;
 
 /** Matrix of doubles implemented using a 2-d array */
-public class DenseMatrix extends AbstractMatrix {
+public class DenseMatrix extends AbstractMatrix implements MatrixTimesOps {
 
   private double[][] values;
 
@@ -168,6 +168,44 @@ public class DenseMatrix extends AbstractMatrix {
     return this;
   }
   
+  /**
+   * @return the rows of this matrix, not a copy
+   */
+  double[][] getBackingStructure() {
+    return values;
+  }
+
+  @Override
+  public Matrix times(Matrix other) {
+    return timesRight(other);
+  }
+
+  /**
+   * Uses the blocked {@link DenseMatrixMultiply} kernel when the other operand is dense, and the
+   * generic element-wise product otherwise.
+   */
+  @Override
+  public Matrix timesRight(Matrix that) {
+    if (columnSize() != that.rowSize()) {
+      throw new CardinalityException(columnSize(), that.rowSize());
+    }
+    if (that instanceof DenseMatrix) {
+      DenseMatrix result = new DenseMatrix(rowSize(), that.columnSize());
+      DenseMatrixMultiply.multiplyAdd(values, ((DenseMatrix) that).values, result.values,
+          rowSize(), that.columnSize(), columnSize());
+      return result;
+    }
+    return super.times(that);
+  }
+
+  @Override
+  public Matrix timesLeft(Matrix that) {
+    if (that instanceof DenseMatrix) {
+      return ((DenseMatrix) that).timesRight(this);
+    }
+    return that.times(this);
+  }
+
   @Override
   public Vector viewRow(int row) {
     if (row < 0 || row >= rowSize()) {
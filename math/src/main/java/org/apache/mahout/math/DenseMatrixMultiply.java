@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Cache-blocked multiplication kernel for row-major {@code double[][]} storage.
+ * <p/>
+ * The product is tiled over the inner dimension and the result columns so that a panel of the right
+ * operand stays in cache while it is reused for every row of the left operand, and four rows of the
+ * result are updated together so that each loaded element of the right operand feeds four
+ * multiply-adds. The innermost loops run over contiguous arrays and are simple enough for the JIT to
+ * vectorize. Products above {@link #PARALLEL_THRESHOLD} multiply-adds are split into horizontal
+ * bands of the result which are computed on a shared pool of daemon threads; smaller ones run on
+ * the calling thread.
+ */
+public final class DenseMatrixMultiply {
+
+  /** Number of multiply-adds below which the product is computed on the calling thread */
+  public static final long PARALLEL_THRESHOLD = 1L << 21;
+
+  /** Tile size along the inner (shared) dimension */
+  private static final int K_BLOCK = 256;
+  /** Tile size along the columns of the result */
+  private static final int N_BLOCK = 1024;
+  /** Minimum number of result rows handed to a single task */
+  private static final int MIN_ROWS_PER_TASK = 16;
+
+  static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+  private DenseMatrixMultiply() {
+  }
+
+  private static final class PoolHolder {
+    static final ExecutorService POOL = Executors.newFixedThreadPool(NUM_THREADS,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("mahout-gemm-%d").build());
+  }
+
+  /**
+   * Computes {@code a * b}.
+   *
+   * @param a the left operand, {@code m x k}
+   * @param b the right operand, {@code k x n}
+   * @return a new {@code m x n} array holding the product
+   */
+  public static double[][] times(double[][] a, double[][] b) {
+    int m = a.length;
+    int k = b.length;
+    int n = k == 0 ? 0 : b[0].length;
+    if (m > 0 && a[0].length != k) {
+      throw new CardinalityException(a[0].length, k);
+    }
+    double[][] c = new double[m][n];
+    multiplyAdd(a, b, c, m, n, k);
+    return c;
+  }
+
+  /**
+   * Accumulates {@code a * b} into {@code c}.
+   *
+   * @param a the left operand, at least {@code m x k}
+   * @param b the right operand, at least {@code k x n}
+   * @param c the result, at least {@code m x n}; the product is added to its current contents
+   * @param m number of rows of the result
+   * @param n number of columns of the result
+   * @param k the shared dimension
+   */
+  public static void multiplyAdd(final double[][] a, final double[][] b, final double[][] c,
+                                 int m, final int n, final int k) {
+    if (m == 0 || n == 0 || k == 0) {
+      return;
+    }
+    long work = (long) m * n * k;
+    int numTasks = (int) Math.min(NUM_THREADS, Math.max(1, m / MIN_ROWS_PER_TASK));
+    if (work < PARALLEL_THRESHOLD || numTasks < 2) {
+      multiplyRows(a, b, c, 0, m, n, k);
+      return;
+    }
+
+    // round the band height up to a multiple of four so only the last band has a ragged edge
+    int rowsPerTask = ((m + numTasks - 1) / numTasks + 3) & ~3;
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int start = 0; start < m; start += rowsPerTask) {
+      final int from = start;
+      final int to = Math.min(m, start + rowsPerTask);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          multiplyRows(a, b, c, from, to, n, k);
+          return null;
+        }
+      });
+    }
+
+    invokeAll(tasks);
+  }
+
+  /**
+   * Work on the rows {@code [from, to)} of a matrix; {@code band} numbers the bands of one call from 0.
+   */
+  interface RowBandTask {
+    void run(int band, int from, int to);
+  }
+
+  /**
+   * Splits {@code [0, rows)} into equal bands, one per thread, or returns a single band if {@code work}
+   * multiply-adds are too few to be worth spreading.
+   */
+  static int[] rowBands(int rows, long work) {
+    int numTasks = Math.min(NUM_THREADS, Math.max(1, rows / MIN_ROWS_PER_TASK));
+    if (work < PARALLEL_THRESHOLD || numTasks < 2) {
+      return new int[] {0, rows};
+    }
+    int[] bounds = new int[numTasks + 1];
+    for (int t = 1; t <= numTasks; t++) {
+      bounds[t] = (int) ((long) rows * t / numTasks);
+    }
+    return bounds;
+  }
+
+  /**
+   * Runs {@code task} on each band between consecutive {@code bounds}, on the calling thread if there is only
+   * one band and on the shared pool otherwise. Used by the sparse and decomposition kernels too.
+   */
+  static void forEachBand(int[] bounds, final RowBandTask task) {
+    if (bounds.length == 2) {
+      task.run(0, bounds[0], bounds[1]);
+      return;
+    }
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int b = 0; b + 1 < bounds.length; b++) {
+      final int band = b;
+      final int from = bounds[b];
+      final int to = bounds[b + 1];
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.run(band, from, to);
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+
+  /**
+   * Copies {@code a} into a new row-major array, visiting only the non-zero elements of each row unless
+   * {@code a} is dense to begin with.
+   */
+  static double[][] toArray(Matrix a) {
+    if (a instanceof DenseMatrix) {
+      double[][] rows = ((DenseMatrix) a).getBackingStructure();
+      double[][] values = new double[rows.length][];
+      for (int i = 0; i < rows.length; i++) {
+        values[i] = rows[i].clone();
+      }
+      return values;
+    }
+    double[][] values = new double[a.rowSize()][a.columnSize()];
+    for (MatrixSlice row : a) {
+      double[] target = values[row.index()];
+      for (Vector.Element element : row.vector().nonZeroes()) {
+        target[element.index()] = element.get();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * {@code y += alpha * x}
+   */
+  static void axpy(double alpha, double[] x, double[] y) {
+    if (alpha != 0) {
+      for (int j = 0; j < y.length; j++) {
+        y[j] += alpha * x[j];
+      }
+    }
+  }
+
+  /**
+   * {@code x *= alpha}
+   */
+  static void scale(double alpha, double[] x) {
+    for (int j = 0; j < x.length; j++) {
+      x[j] *= alpha;
+    }
+  }
+
+  /**
+   * Runs the tasks on the shared pool and waits for all of them, rethrowing the first failure.
+   */
+  static void invokeAll(List<Callable<Void>> tasks) {
+    try {
+      for (Future<Void> future : PoolHolder.POOL.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during matrix multiplication", e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Serial kernel: accumulates rows {@code [rowFrom, rowTo)} of {@code a * b} into {@code c}.
+   */
+  static void multiplyRows(double[][] a, double[][] b, double[][] c, int rowFrom, int rowTo, int n, int k) {
+    for (int kk = 0; kk < k; kk += K_BLOCK) {
+      int kEnd = Math.min(k, kk + K_BLOCK);
+      for (int jj = 0; jj < n; jj += N_BLOCK) {
+        int jEnd = Math.min(n, jj + N_BLOCK);
+        int i = rowFrom;
+        for (; i + 3 < rowTo; i += 4) {
+          double[] a0 = a[i];
+          double[] a1 = a[i + 1];
+          double[] a2 = a[i + 2];
+          double[] a3 = a[i + 3];
+          double[] c0 = c[i];
+          double[] c1 = c[i + 1];
+          double[] c2 = c[i + 2];
+          double[] c3 = c[i + 3];
+          for (int p = kk; p < kEnd; p++) {
+            double x0 = a0[p];
+            double x1 = a1[p];
+            double x2 = a2[p];
+            double x3 = a3[p];
+            double[] bp = b[p];
+            for (int j = jj; j < jEnd; j++) {
+              double y = bp[j];
+              c0[j] += x0 * y;
+              c1[j] += x1 * y;
+              c2[j] += x2 * y;
+              c3[j] += x3 * y;
+            }
+          }
+        }
+        for (; i < rowTo; i++) {
+          double[] ai = a[i];
+          double[] ci = c[i];
+          for (int p = kk; p < kEnd; p++) {
+            double x = ai[p];
+            if (x == 0.0) {
+              continue;
+            }
+            double[] bp = b[p];
+            for (int j = jj; j < jEnd; j++) {
+              ci[j] += x * bp[j];
+            }
+          }
+        }
+      }
+    }
+  }
+}
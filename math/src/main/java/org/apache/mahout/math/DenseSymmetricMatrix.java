@@ -19,8 +19,16 @@ package org.apache.mahout.math;
 
 /**
  * Economy packaging for a dense symmetric in-core matrix.
+ * <p/>
+ * Only the upper triangle is stored, packed row by row, so the matrix takes half the memory of a
+ * {@link DenseMatrix}. Products, rank-k updates and solves work on the packed rows directly: each stored
+ * element above the diagonal stands for both of its mirror images, so it is read once and used twice.
  */
 public class DenseSymmetricMatrix extends UpperTriangular {
+
+  /** Number of elements of x that {@link #rankKUpdate(Matrix)} applies to a band of the triangle at once */
+  private static final int X_BLOCK = 1 << 16;
+
   public DenseSymmetricMatrix(int n) {
     super(n);
   }
@@ -37,6 +45,309 @@ public class DenseSymmetricMatrix extends UpperTriangular {
     super(mx);
   }
 
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    double[] a = getData();
+    double[] x = toArray(v);
+    double[] y = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      int start = rowStart(i) - i;
+      double xi = x[i];
+      double sum = a[start + i] * xi;
+      for (int j = i + 1; j < columns; j++) {
+        double aij = a[start + j];
+        sum += aij * x[j];
+        y[j] += aij * xi;
+      }
+      y[i] += sum;
+    }
+    return new DenseVector(y, true);
+  }
+
+  @Override
+  public Matrix times(Matrix other) {
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    final double[] a = getData();
+    final double[][] b = DenseMatrixMultiply.toArray(other);
+    final double[][] c = new double[rows][other.columnSize()];
+    // every stored element updates two rows of the result, so the work is split over its columns instead
+    int nb = other.columnSize();
+    DenseMatrixMultiply.forEachBand(DenseMatrixMultiply.rowBands(nb, (long) rows * rows * nb),
+        new DenseMatrixMultiply.RowBandTask() {
+          @Override
+          public void run(int band, int from, int to) {
+            for (int i = 0; i < rows; i++) {
+              int start = rowStart(i) - i;
+              double[] bi = b[i];
+              double[] ci = c[i];
+              double aii = a[start + i];
+              for (int k = from; k < to; k++) {
+                ci[k] += aii * bi[k];
+              }
+              for (int j = i + 1; j < columns; j++) {
+                double aij = a[start + j];
+                if (aij != 0) {
+                  double[] bj = b[j];
+                  double[] cj = c[j];
+                  for (int k = from; k < to; k++) {
+                    ci[k] += aij * bj[k];
+                    cj[k] += aij * bi[k];
+                  }
+                }
+              }
+            }
+          }
+        });
+    return new DenseMatrix(c, true);
+  }
+
+  /**
+   * Adds {@code x' * x} to this matrix. This is how Gram matrices such as {@code Y'Y} are accumulated one block
+   * of rows at a time; sparse rows of {@code x} only touch the pairs of their non-zero elements.
+   *
+   * @param x a matrix with as many columns as this one has rows
+   * @return this
+   */
+  public DenseSymmetricMatrix rankKUpdate(Matrix x) {
+    if (columnSize() != x.columnSize()) {
+      throw new CardinalityException(columnSize(), x.columnSize());
+    }
+    if (x instanceof DenseMatrix) {
+      rankKUpdateDense(((DenseMatrix) x).getBackingStructure());
+    } else if (x.rowSize() > 0 && x.viewRow(0).isDense()) {
+      rankKUpdateDense(DenseMatrixMultiply.toArray(x));
+    } else {
+      for (MatrixSlice row : x) {
+        addOuterProduct(1, row.vector());
+      }
+    }
+    return this;
+  }
+
+  private void rankKUpdateDense(final double[][] x) {
+    final double[] a = getData();
+    int[] bounds = DenseMatrixMultiply.rowBands(rows, (long) rows * rows * x.length / 2);
+    // packed row i holds columns - i elements, so place the band edges to even out the area of the triangle
+    int numBands = bounds.length - 1;
+    for (int b = 1; b < numBands; b++) {
+      bounds[b] = rows - (int) (rows * Math.sqrt(1 - (double) b / numBands));
+    }
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        // a block of rows of x stays in cache while it is applied to the whole band
+        double[][] scratch = new double[4][columns];
+        int kBlock = Math.max(16, X_BLOCK / Math.max(1, columns));
+        for (int k0 = 0; k0 < x.length; k0 += kBlock) {
+          updateRows(a, x, k0, Math.min(x.length, k0 + kBlock), from, to, scratch);
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds the outer products of rows {@code [k0, k1)} of {@code x} to the packed rows {@code [from, to)}.
+   */
+  private void updateRows(double[] a, double[][] x, int k0, int k1, int from, int to, double[][] scratch) {
+    double[] c0 = scratch[0];
+    double[] c1 = scratch[1];
+    double[] c2 = scratch[2];
+    double[] c3 = scratch[3];
+    int i = from;
+    // four packed rows at a time, so that each loaded element of x feeds four of them. They are updated in
+    // separate arrays, which unlike four stretches of the same array are known not to overlap; that lets the
+    // compiler vectorize the inner loop
+    for (; i + 3 < to; i += 4) {
+      int length = columns - i;
+      System.arraycopy(a, rowStart(i), c0, 0, length);
+      System.arraycopy(a, rowStart(i + 1), c1, 1, length - 1);
+      System.arraycopy(a, rowStart(i + 2), c2, 2, length - 2);
+      System.arraycopy(a, rowStart(i + 3), c3, 3, length - 3);
+      for (int k = k0; k < k1; k++) {
+        double[] r = x[k];
+        double r0 = r[i];
+        double r1 = r[i + 1];
+        double r2 = r[i + 2];
+        double r3 = r[i + 3];
+        // the corner of the four rows that lies below the diagonal is left alone
+        c0[0] += r0 * r0;
+        c0[1] += r0 * r1;
+        c0[2] += r0 * r2;
+        c1[1] += r1 * r1;
+        c1[2] += r1 * r2;
+        c2[2] += r2 * r2;
+        for (int j = 3; j < length; j++) {
+          double y = r[i + j];
+          c0[j] += r0 * y;
+          c1[j] += r1 * y;
+          c2[j] += r2 * y;
+          c3[j] += r3 * y;
+        }
+      }
+      System.arraycopy(c0, 0, a, rowStart(i), length);
+      System.arraycopy(c1, 1, a, rowStart(i + 1), length - 1);
+      System.arraycopy(c2, 2, a, rowStart(i + 2), length - 2);
+      System.arraycopy(c3, 3, a, rowStart(i + 3), length - 3);
+    }
+    for (; i < to; i++) {
+      int start = rowStart(i) - i;
+      for (int k = k0; k < k1; k++) {
+        double[] r = x[k];
+        double ri = r[i];
+        if (ri != 0) {
+          for (int j = i; j < columns; j++) {
+            a[start + j] += ri * r[j];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds {@code alpha * x * x'} to this matrix.
+   *
+   * @return this
+   */
+  public DenseSymmetricMatrix rankOneUpdate(double alpha, Vector x) {
+    if (columnSize() != x.size()) {
+      throw new CardinalityException(columnSize(), x.size());
+    }
+    addOuterProduct(alpha, x);
+    return this;
+  }
+
+  private void addOuterProduct(double alpha, Vector x) {
+    double[] a = getData();
+    if (x.isDense()) {
+      double[] v = toArray(x);
+      for (int i = 0; i < rows; i++) {
+        double vi = alpha * v[i];
+        if (vi != 0) {
+          int start = rowStart(i) - i;
+          for (int j = i; j < columns; j++) {
+            a[start + j] += vi * v[j];
+          }
+        }
+      }
+    } else {
+      int n = x.getNumNondefaultElements();
+      int[] indices = new int[n];
+      double[] v = new double[n];
+      n = 0;
+      for (Vector.Element element : x.nonZeroes()) {
+        indices[n] = element.index();
+        v[n++] = element.get();
+      }
+      if (!x.isSequentialAccess()) {
+        sortByIndex(indices, v, n);
+      }
+      for (int p = 0; p < n; p++) {
+        double vp = alpha * v[p];
+        int start = rowStart(indices[p]) - indices[p];
+        for (int q = p; q < n; q++) {
+          a[start + indices[q]] += vp * v[q];
+        }
+      }
+    }
+  }
+
+  private static void sortByIndex(int[] indices, double[] values, int n) {
+    // insertion sort; the rows this sees are short
+    for (int p = 1; p < n; p++) {
+      int index = indices[p];
+      double value = values[p];
+      int q = p - 1;
+      while (q >= 0 && indices[q] > index) {
+        indices[q + 1] = indices[q];
+        values[q + 1] = values[q];
+        q--;
+      }
+      indices[q + 1] = index;
+      values[q + 1] = value;
+    }
+  }
+
+  /**
+   * Computes the Cholesky factor of this matrix without pivoting, in packed storage.
+   *
+   * @return the upper triangular {@code R} with {@code R' * R = this}
+   * @throws IllegalArgumentException if the matrix is not numerically positive definite
+   */
+  public UpperTriangular choleskyFactor() {
+    double[] r = getData().clone();
+    double maxDiagonal = 0;
+    for (int i = 0; i < rows; i++) {
+      maxDiagonal = Math.max(maxDiagonal, Math.abs(r[rowStart(i)]));
+    }
+    double epsilon = 1.0e-12 * maxDiagonal;
+    for (int k = 0; k < rows; k++) {
+      int startK = rowStart(k) - k;
+      double rkk = r[startK + k];
+      if (!(rkk > epsilon)) {
+        throw new IllegalArgumentException("Matrix is not positive definite");
+      }
+      rkk = Math.sqrt(rkk);
+      r[startK + k] = rkk;
+      for (int j = k + 1; j < columns; j++) {
+        r[startK + j] /= rkk;
+      }
+      // right-looking update of the trailing rows, each of which is contiguous in the packed array
+      for (int i = k + 1; i < rows; i++) {
+        double rki = r[startK + i];
+        if (rki != 0) {
+          int startI = rowStart(i) - i;
+          for (int j = i; j < columns; j++) {
+            r[startI + j] -= rki * r[startK + j];
+          }
+        }
+      }
+    }
+    return new UpperTriangular(r, true);
+  }
+
+  /**
+   * Solves {@code this * x = b} through the Cholesky factor of this matrix.
+   *
+   * @throws IllegalArgumentException if the matrix is not numerically positive definite
+   */
+  @Override
+  public Vector solve(Vector b) {
+    UpperTriangular r = choleskyFactor();
+    return r.solve(r.transposeSolve(b));
+  }
+
+  /**
+   * Solves {@code this * X = B} through the Cholesky factor of this matrix.
+   *
+   * @throws IllegalArgumentException if the matrix is not numerically positive definite
+   */
+  @Override
+  public Matrix solve(Matrix b) {
+    UpperTriangular r = choleskyFactor();
+    return r.solve(r.transposeSolve(b));
+  }
+
+  /**
+   * Same as {@link #solve(Vector)}, the matrix being its own transpose.
+   */
+  @Override
+  public Vector transposeSolve(Vector b) {
+    return solve(b);
+  }
+
+  /**
+   * Same as {@link #solve(Matrix)}, the matrix being its own transpose.
+   */
+  @Override
+  public Matrix transposeSolve(Matrix b) {
+    return solve(b);
+  }
+
   @Override
   public double getQuick(int row, int column) {
     if (column < row) {
@@ -22,6 +22,9 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import com.google.common.base.Preconditions;
+import org.apache.mahout.math.function.DoubleDoubleFunction;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.PlusMult;
 
 /** Implements vector as an array of doubles */
 public class DenseVector extends AbstractVector {
@@ -80,6 +83,10 @@ public class DenseVector extends AbstractVector {
         throw new CardinalityException(values.length, size);
       }
 
+      double[] xValues = arrayOf(x);
+      if (xValues != null) {
+        return dot(values, xValues, size);
+      }
       double sum = 0;
       for (int n = 0; n < size; n++) {
         sum += values[n] * x.getQuick(n);
@@ -88,6 +95,108 @@ public class DenseVector extends AbstractVector {
     }
   }
 
+  /**
+   * Computed directly, in a single pass, if the other vector is backed by an array too.
+   */
+  @Override
+  public double getDistanceSquared(Vector that) {
+    double[] thatValues = arrayOf(that);
+    if (thatValues == null) {
+      return super.getDistanceSquared(that);
+    }
+    if (values.length != thatValues.length) {
+      throw new CardinalityException(values.length, thatValues.length);
+    }
+    return distanceSquared(values, thatValues, values.length);
+  }
+
+  /**
+   * Adds a multiple of the other vector in place, without a function call per element, if the other vector is
+   * backed by an array and the function is a {@link PlusMult} such as {@link Functions#PLUS} or
+   * {@link Functions#MINUS}.
+   */
+  @Override
+  public Vector assign(Vector other, DoubleDoubleFunction function) {
+    double[] otherValues = arrayOf(other);
+    if (otherValues == null || !(function instanceof PlusMult)) {
+      return super.assign(other, function);
+    }
+    if (values.length != otherValues.length) {
+      throw new CardinalityException(values.length, otherValues.length);
+    }
+    plusMult(values, otherValues, ((PlusMult) function).getMultiplicator(), values.length);
+    invalidateCachedLength();
+    return this;
+  }
+
+  /**
+   * @return the array behind a {@link DenseVector}, possibly wrapped in {@link DelegatingVector}s such as
+   *  {@link WeightedVector} or {@link Centroid}, or {@code null} for any other vector
+   */
+  private static double[] arrayOf(Vector v) {
+    while (v instanceof DelegatingVector) {
+      v = ((DelegatingVector) v).getVector();
+    }
+    return v instanceof DenseVector ? ((DenseVector) v).values : null;
+  }
+
+  // The kernels below keep four independent partial results, so that consecutive iterations do not wait on
+  // each other's floating point additions and the JIT can turn the loop bodies into vector instructions.
+
+  private static double dot(double[] x, double[] y, int length) {
+    double sum0 = 0;
+    double sum1 = 0;
+    double sum2 = 0;
+    double sum3 = 0;
+    int i = 0;
+    for (int end = length & ~3; i < end; i += 4) {
+      sum0 += x[i] * y[i];
+      sum1 += x[i + 1] * y[i + 1];
+      sum2 += x[i + 2] * y[i + 2];
+      sum3 += x[i + 3] * y[i + 3];
+    }
+    for (; i < length; i++) {
+      sum0 += x[i] * y[i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  private static double distanceSquared(double[] x, double[] y, int length) {
+    double sum0 = 0;
+    double sum1 = 0;
+    double sum2 = 0;
+    double sum3 = 0;
+    int i = 0;
+    for (int end = length & ~3; i < end; i += 4) {
+      double d0 = x[i] - y[i];
+      double d1 = x[i + 1] - y[i + 1];
+      double d2 = x[i + 2] - y[i + 2];
+      double d3 = x[i + 3] - y[i + 3];
+      sum0 += d0 * d0;
+      sum1 += d1 * d1;
+      sum2 += d2 * d2;
+      sum3 += d3 * d3;
+    }
+    for (; i < length; i++) {
+      double d = x[i] - y[i];
+      sum0 += d * d;
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  private static void plusMult(double[] x, double[] y, double multiplier, int length) {
+    int i = 0;
+    for (int end = length & ~3; i < end; i += 4) {
+      x[i] += multiplier * y[i];
+      x[i + 1] += multiplier * y[i + 1];
+      x[i + 2] += multiplier * y[i + 2];
+      x[i + 3] += multiplier * y[i + 3];
+    }
+    for (; i < length; i++) {
+      x[i] += multiplier * y[i];
+    }
+  }
+
   @Override
   protected Matrix matrixLike(int rows, int columns) {
     return new DenseMatrix(rows, columns);
@@ -117,12 +226,7 @@ public class DenseVector extends AbstractVector {
 
   @Override
   protected double dotSelf() {
-    double result = 0.0;
-    int max = size();
-    for (int i = 0; i < max; i++) {
-      result += values[i] * values[i];
-    }
-    return result;
+    return dot(values, values, values.length);
   }
 
   @Override
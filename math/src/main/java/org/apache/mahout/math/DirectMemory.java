@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Eagerly releases the native memory behind direct and memory-mapped {@link ByteBuffer}s.
+ * <p/>
+ * The JDK only frees such memory once the buffer object has been garbage collected, which for large
+ * long-lived buffers may never happen before the process runs out of native memory. There is no
+ * public API for releasing it sooner, so this goes through the buffer's cleaner reflectively. If that
+ * is not possible on the running JVM, release is left to the garbage collector as usual.
+ */
+public final class DirectMemory {
+
+  private DirectMemory() {
+  }
+
+  /**
+   * Releases the memory behind {@code buffer}. The buffer, and every view or slice of it, must not be
+   * used afterwards.
+   *
+   * @return whether the memory was released
+   */
+  public static boolean release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.isDirect()) {
+      return false;
+    }
+    try {
+      // Java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      return true;
+    } catch (NoSuchMethodException e) {
+      // fall through to the pre Java 9 cleaner
+    } catch (Exception e) {
+      return false;
+    }
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner == null) {
+        return false;
+      }
+      Method clean = cleaner.getClass().getMethod("clean");
+      clean.setAccessible(true);
+      clean.invoke(cleaner);
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
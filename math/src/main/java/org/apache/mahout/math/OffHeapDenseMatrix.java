@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writable dense matrix whose values live outside the Java heap, either in direct memory or in a
+ * file mapped read-write into memory. Values are stored row by row in blocks of whole rows, each of
+ * which is at most 2GB, so the total size is only limited by native memory or disk.
+ * <p/>
+ * A mapped file uses the same layout as {@link FileBasedMatrix#writeMatrix(File, Matrix)}: rows one
+ * after another, each value a big-endian double, with no header.
+ * <p/>
+ * Rows returned by {@link #viewRow(int)} are {@link OffHeapDenseVector}s sharing storage with the
+ * matrix. {@link #close()} releases the memory (flushing a mapped file first); neither the matrix nor
+ * any of its row views may be used afterwards.
+ */
+public final class OffHeapDenseMatrix extends AbstractMatrix implements Closeable {
+
+  private static final int BLOCK_BYTES = Integer.MAX_VALUE;
+
+  private final int rowsPerBlock;
+  private ByteBuffer[] blocks;
+  private DoubleBuffer[] content;
+
+  /**
+   * Allocates a zero-filled matrix of the given size in direct memory.
+   *
+   * @param rows    The number of rows in the result.
+   * @param columns The number of columns in the result.
+   */
+  public OffHeapDenseMatrix(int rows, int columns) {
+    super(rows, columns);
+    rowsPerBlock = rowsPerBlock(rows, columns);
+    int numBlocks = numBlocks(rows, rowsPerBlock);
+    blocks = new ByteBuffer[numBlocks];
+    content = new DoubleBuffer[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      int blockRows = Math.min(rowsPerBlock, rows - i * rowsPerBlock);
+      blocks[i] = ByteBuffer.allocateDirect(blockRows * columns * 8).order(ByteOrder.nativeOrder());
+      content[i] = blocks[i].asDoubleBuffer();
+    }
+  }
+
+  /**
+   * Maps the given file read-write as a matrix of the given size. The file is created or extended
+   * with zeros if it is shorter than needed, so existing matrices written by
+   * {@link FileBasedMatrix#writeMatrix(File, Matrix)} can be updated in place.
+   *
+   * @param file    The file holding the values.
+   * @param rows    The number of rows in the result.
+   * @param columns The number of columns in the result.
+   */
+  public OffHeapDenseMatrix(File file, int rows, int columns) throws IOException {
+    super(rows, columns);
+    rowsPerBlock = rowsPerBlock(rows, columns);
+    int numBlocks = numBlocks(rows, rowsPerBlock);
+    blocks = new ByteBuffer[numBlocks];
+    content = new DoubleBuffer[numBlocks];
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      long length = (long) rows * columns * 8L;
+      if (raf.length() < length) {
+        raf.setLength(length);
+      }
+      FileChannel channel = raf.getChannel();
+      for (int i = 0; i < numBlocks; i++) {
+        long start = (long) i * rowsPerBlock * columns * 8L;
+        long size = (long) Math.min(rowsPerBlock, rows - i * rowsPerBlock) * columns * 8L;
+        blocks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        content[i] = blocks[i].asDoubleBuffer();
+      }
+    } finally {
+      // the mappings stay valid after the channel is closed
+      raf.close();
+    }
+  }
+
+  private static int rowsPerBlock(int rows, int columns) {
+    Preconditions.checkArgument(columns > 0 && columns <= OffHeapDenseVector.MAX_SIZE,
+        "columns must be between 1 and %s", OffHeapDenseVector.MAX_SIZE);
+    return Math.max(1, Math.min(rows, BLOCK_BYTES / (columns * 8)));
+  }
+
+  private static int numBlocks(int rows, int rowsPerBlock) {
+    return (rows + rowsPerBlock - 1) / rowsPerBlock;
+  }
+
+  /**
+   * Flushes changes to a mapped file and releases the memory behind this matrix.
+   */
+  @Override
+  public void close() {
+    if (blocks == null) {
+      return;
+    }
+    for (ByteBuffer block : blocks) {
+      if (block instanceof MappedByteBuffer) {
+        ((MappedByteBuffer) block).force();
+      }
+      DirectMemory.release(block);
+    }
+    blocks = null;
+    content = new DoubleBuffer[content.length];
+  }
+
+  /**
+   * @return a copy of this matrix in newly allocated direct memory
+   */
+  @Override
+  public Matrix clone() {
+    OffHeapDenseMatrix clone = (OffHeapDenseMatrix) super.clone();
+    clone.blocks = new ByteBuffer[blocks.length];
+    clone.content = new DoubleBuffer[content.length];
+    for (int i = 0; i < blocks.length; i++) {
+      DoubleBuffer source = content[i].duplicate();
+      source.clear();
+      clone.blocks[i] = ByteBuffer.allocateDirect(source.capacity() * 8).order(ByteOrder.nativeOrder());
+      clone.content[i] = clone.blocks[i].asDoubleBuffer();
+      clone.content[i].put(source);
+      clone.content[i].clear();
+    }
+    return clone;
+  }
+
+  @Override
+  public double getQuick(int row, int column) {
+    return content[row / rowsPerBlock].get((row % rowsPerBlock) * columns + column);
+  }
+
+  @Override
+  public void setQuick(int row, int column, double value) {
+    content[row / rowsPerBlock].put((row % rowsPerBlock) * columns + column, value);
+  }
+
+  /**
+   * @return a new on-heap {@link DenseMatrix} of the same size
+   */
+  @Override
+  public Matrix like() {
+    return like(rowSize(), columnSize());
+  }
+
+  /**
+   * @return a new on-heap {@link DenseMatrix} of the given size
+   */
+  @Override
+  public Matrix like(int rows, int columns) {
+    return new DenseMatrix(rows, columns);
+  }
+
+  @Override
+  public Matrix assign(double value) {
+    for (DoubleBuffer block : content) {
+      int limit = block.limit();
+      for (int i = 0; i < limit; i++) {
+        block.put(i, value);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignColumn(int column, Vector other) {
+    if (rowSize() != other.size()) {
+      throw new CardinalityException(rowSize(), other.size());
+    }
+    if (column < 0 || column >= columnSize()) {
+      throw new IndexException(column, columnSize());
+    }
+    for (int row = 0; row < rowSize(); row++) {
+      setQuick(row, column, other.getQuick(row));
+    }
+    return this;
+  }
+
+  @Override
+  public Matrix assignRow(int row, Vector other) {
+    if (columnSize() != other.size()) {
+      throw new CardinalityException(columnSize(), other.size());
+    }
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    DoubleBuffer block = content[row / rowsPerBlock];
+    int offset = (row % rowsPerBlock) * columns;
+    for (int col = 0; col < columns; col++) {
+      block.put(offset + col, other.getQuick(col));
+    }
+    return this;
+  }
+
+  /**
+   * @return the row as an {@link OffHeapDenseVector} sharing storage with this matrix
+   */
+  @Override
+  public Vector viewRow(int row) {
+    if (row < 0 || row >= rowSize()) {
+      throw new IndexException(row, rowSize());
+    }
+    DoubleBuffer block = content[row / rowsPerBlock].duplicate();
+    int offset = (row % rowsPerBlock) * columns;
+    block.limit(offset + columns);
+    block.position(offset);
+    return new OffHeapDenseVector(block);
+  }
+}
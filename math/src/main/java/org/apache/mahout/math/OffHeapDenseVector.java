@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Dense vector whose values live outside the Java heap in a {@link DoubleBuffer}, either in direct
+ * memory allocated by this vector or in a buffer supplied by the caller, such as a slice of a
+ * memory-mapped file or a row of an {@link OffHeapDenseMatrix}.
+ * <p/>
+ * Memory allocated by the vector itself is freed by {@link #close()}; buffers supplied by the caller
+ * are left alone. Neither the vector nor any view of it may be used after it has been closed. Results
+ * of arithmetic such as {@link #plus(Vector)} and {@link #like()} are ordinary on-heap
+ * {@link DenseVector}s, while {@link #clone()} returns another off-heap vector.
+ */
+public class OffHeapDenseVector extends AbstractVector implements Closeable {
+
+  /** Largest number of values that fit into a single buffer */
+  public static final int MAX_SIZE = Integer.MAX_VALUE / 8;
+
+  private static final DoubleBuffer CLOSED = DoubleBuffer.allocate(0);
+
+  private DoubleBuffer values;
+  /** Backing memory owned by this vector, or null if the buffer was supplied by the caller */
+  private ByteBuffer owned;
+
+  /**
+   * Allocates a new zero-filled vector of the given cardinality in direct memory.
+   */
+  public OffHeapDenseVector(int cardinality) {
+    super(cardinality);
+    Preconditions.checkArgument(cardinality >= 0 && cardinality <= MAX_SIZE,
+        "cardinality must be between 0 and %s", MAX_SIZE);
+    owned = ByteBuffer.allocateDirect(cardinality * 8).order(ByteOrder.nativeOrder());
+    values = owned.asDoubleBuffer();
+  }
+
+  /**
+   * Copies the given vector into newly allocated direct memory.
+   */
+  public OffHeapDenseVector(Vector vector) {
+    this(vector.size());
+    for (Element e : vector.nonZeroes()) {
+      values.put(e.index(), e.get());
+    }
+  }
+
+  /**
+   * Uses the given buffer as storage, from its current position up to its limit. Changes to the
+   * vector write through to the buffer, and {@link #close()} does not release it.
+   */
+  public OffHeapDenseVector(DoubleBuffer values) {
+    super(values.remaining());
+    this.values = values.slice();
+  }
+
+  /**
+   * Releases the memory allocated by this vector. Vectors backed by a caller-supplied buffer are
+   * merely detached from it.
+   */
+  @Override
+  public void close() {
+    values = CLOSED;
+    if (owned != null) {
+      DirectMemory.release(owned);
+      owned = null;
+    }
+  }
+
+  /**
+   * @return the buffer backing this vector
+   */
+  public DoubleBuffer getBuffer() {
+    return values.duplicate();
+  }
+
+  @Override
+  public double dot(Vector x) {
+    if (!x.isDense()) {
+      return super.dot(x);
+    }
+    int size = size();
+    if (size != x.size()) {
+      throw new CardinalityException(size, x.size());
+    }
+    double sum = 0;
+    for (int n = 0; n < size; n++) {
+      sum += values.get(n) * x.getQuick(n);
+    }
+    return sum;
+  }
+
+  @Override
+  protected double dotSelf() {
+    double result = 0.0;
+    int max = size();
+    for (int i = 0; i < max; i++) {
+      double value = values.get(i);
+      result += value * value;
+    }
+    return result;
+  }
+
+  @Override
+  protected Matrix matrixLike(int rows, int columns) {
+    return new DenseMatrix(rows, columns);
+  }
+
+  @SuppressWarnings("CloneDoesntCallSuperClone")
+  @Override
+  public OffHeapDenseVector clone() {
+    OffHeapDenseVector clone = new OffHeapDenseVector(size());
+    DoubleBuffer source = values.duplicate();
+    source.clear();
+    clone.values.put(source);
+    clone.values.clear();
+    return clone;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isDense() {
+    return true;
+  }
+
+  /**
+   * @return true
+   */
+  @Override
+  public boolean isSequentialAccess() {
+    return true;
+  }
+
+  @Override
+  public double getQuick(int index) {
+    return values.get(index);
+  }
+
+  /**
+   * @return a new on-heap {@link DenseVector} of the same size
+   */
+  @Override
+  public Vector like() {
+    return new DenseVector(size());
+  }
+
+  @Override
+  public void setQuick(int index, double value) {
+    invalidateCachedLength();
+    values.put(index, value);
+  }
+
+  @Override
+  public void incrementQuick(int index, double increment) {
+    invalidateCachedLength();
+    values.put(index, values.get(index) + increment);
+  }
+
+  @Override
+  public Vector assign(double value) {
+    invalidateCachedLength();
+    int size = size();
+    for (int i = 0; i < size; i++) {
+      values.put(i, value);
+    }
+    return this;
+  }
+
+  @Override
+  public int getNumNondefaultElements() {
+    return size();
+  }
+
+  @Override
+  public void mergeUpdates(OrderedIntDoubleMapping updates) {
+    int numUpdates = updates.getNumMappings();
+    int[] indices = updates.getIndices();
+    double[] updateValues = updates.getValues();
+    for (int i = 0; i < numUpdates; ++i) {
+      values.put(indices[i], updateValues[i]);
+    }
+  }
+
+  @Override
+  public double getLookupCost() {
+    return 1;
+  }
+
+  @Override
+  public double getIteratorAdvanceCost() {
+    return 1;
+  }
+
+  @Override
+  public boolean isAddConstantTime() {
+    return true;
+  }
+
+  @Override
+  public Iterator<Element> iterateNonZero() {
+    return new NonDefaultIterator();
+  }
+
+  @Override
+  public Iterator<Element> iterator() {
+    return new AllIterator();
+  }
+
+  private final class NonDefaultIterator implements Iterator<Element> {
+    private final BufferElement element = new BufferElement();
+    private int next = -1;
+
+    private NonDefaultIterator() {
+      element.index = -1;
+      advance();
+    }
+
+    private void advance() {
+      next++;
+      while (next < size() && values.get(next) == 0.0) {
+        next++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < size();
+    }
+
+    @Override
+    public Element next() {
+      if (next >= size()) {
+        throw new NoSuchElementException();
+      }
+      element.index = next;
+      advance();
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class AllIterator implements Iterator<Element> {
+    private final BufferElement element = new BufferElement();
+
+    private AllIterator() {
+      element.index = -1;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return element.index + 1 < size();
+    }
+
+    @Override
+    public Element next() {
+      if (element.index + 1 >= size()) {
+        throw new NoSuchElementException();
+      }
+      element.index++;
+      return element;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private final class BufferElement implements Element {
+    int index;
+
+    @Override
+    public double get() {
+      return values.get(index);
+    }
+
+    @Override
+    public int index() {
+      return index;
+    }
+
+    @Override
+    public void set(double value) {
+      invalidateCachedLength();
+      values.put(index, value);
+    }
+  }
+}
@@ -23,8 +23,6 @@
  */
 package org.apache.mahout.math;
 
-import org.apache.mahout.math.function.Functions;
-
 import java.util.Locale;
 
 
@@ -38,11 +36,28 @@ import java.util.Locale;
  QR decomposition is in the least squares solution of non-square systems
  of simultaneous linear equations.  This will fail if <tt>isFullRank()</tt>
  returns <tt>false</tt>.
+ <P>
+ The factorization is computed by blocked Householder reflections on a dense copy of <tt>A</tt>: each panel
+ of a few dozen columns is factored on its own, and its reflections are then applied to the rest
+ of the matrix at once in the compact WY form <tt>I - V T V'</tt>. Those updates are split into bands of rows
+ that run on the {@link DenseMatrixMultiply} pool when they are large enough, which is where nearly all the
+ time goes for tall, skinny matrices. <tt>Q</tt> is only formed when {@link #getQ()} is called;
+ {@link #solve(Matrix)} applies the reflections directly. The diagonal of <tt>R</tt> is non-negative.
  */
 
 public class QRDecomposition implements QR {
-  private final Matrix q;
+
+  /** Number of columns factored together before the rest of the matrix is updated */
+  private static final int PANEL_WIDTH = 32;
+
+  /** Householder vectors below the diagonal, with an implicit 1 on it, and R on and above the diagonal */
+  private final double[][] qr;
+  /** Scale factor of each Householder reflection */
+  private final double[] tau;
+  /** Triangular factor T of the block reflector of each panel */
+  private final double[][][] blockFactors;
   private final Matrix r;
+  private volatile Matrix q;
   private final boolean fullRank;
   private final int rows;
   private final int columns;
@@ -53,7 +68,7 @@ public class QRDecomposition implements QR {
    * object.
    *
    * @param a A rectangular matrix.
-   * @throws IllegalArgumentException if <tt>A.rows() < A.columns()</tt>.
+   * @throws ArithmeticException if <tt>A</tt> holds infinite or NaN values.
    */
   public QRDecomposition(Matrix a) {
 
@@ -61,46 +76,35 @@ public class QRDecomposition implements QR {
     int min = Math.min(a.rowSize(), a.columnSize());
     columns = a.columnSize();
 
-    Matrix qTmp = a.clone();
-
-    boolean fullRank = true;
+    qr = DenseMatrixMultiply.toArray(a);
+    tau = new double[min];
+    blockFactors = new double[(min + PANEL_WIDTH - 1) / PANEL_WIDTH][][];
+    for (int block = 0; block < blockFactors.length; block++) {
+      int k0 = block * PANEL_WIDTH;
+      int nb = Math.min(PANEL_WIDTH, min - k0);
+      factorPanel(k0, nb);
+      blockFactors[block] = blockReflectorFactor(k0, nb);
+      if (k0 + nb < columns) {
+        applyBlockReflector(k0, nb, blockFactors[block], qr, k0 + nb, columns, true);
+      }
+    }
 
-    r = new DenseMatrix(min, columns);
+    double maxDiagonal = 0;
+    for (int i = 0; i < min; i++) {
+      maxDiagonal = Math.max(maxDiagonal, Math.abs(qr[i][i]));
+    }
+    double tolerance = Math.max(rows, columns) * maxDiagonal * Math.ulp(1.0);
 
+    boolean fullRank = true;
+    double[][] rValues = new double[min][columns];
     for (int i = 0; i < min; i++) {
-      Vector qi = qTmp.viewColumn(i);
-      double alpha = qi.norm(2);
-      if (Math.abs(alpha) > Double.MIN_VALUE) {
-        qi.assign(Functions.div(alpha));
-      } else {
-        if (Double.isInfinite(alpha) || Double.isNaN(alpha)) {
-          throw new ArithmeticException("Invalid intermediate result");
-        }
-        fullRank = false;
-      }
-      r.set(i, i, alpha);
-
-      for (int j = i + 1; j < columns; j++) {
-        Vector qj = qTmp.viewColumn(j);
-        double norm = qj.norm(2);
-        if (Math.abs(norm) > Double.MIN_VALUE) {
-          double beta = qi.dot(qj);
-          r.set(i, j, beta);
-          if (j < min) {
-            qj.assign(qi, Functions.plusMult(-beta));
-          }
-        } else {
-          if (Double.isInfinite(norm) || Double.isNaN(norm)) {
-            throw new ArithmeticException("Invalid intermediate result");
-          }
-        }
+      fullRank &= Math.abs(qr[i][i]) > tolerance;
+      double sign = qr[i][i] < 0 ? -1 : 1;
+      for (int j = i; j < columns; j++) {
+        rValues[i][j] = sign * qr[i][j];
       }
     }
-    if (columns > min) {
-      q = qTmp.viewPart(0, rows, 0, min).clone();
-    } else {
-      q = qTmp;
-    }
+    r = new DenseMatrix(rValues, true);
     this.fullRank = fullRank;
   }
 
@@ -111,7 +115,13 @@ public class QRDecomposition implements QR {
    */
   @Override
   public Matrix getQ() {
-    return q;
+    Matrix result = q;
+    if (result == null) {
+      // racing threads compute the same matrix, so it does not matter which one wins
+      result = formQ();
+      q = result;
+    }
+    return result;
   }
 
   /**
@@ -148,26 +158,36 @@ public class QRDecomposition implements QR {
     }
 
     int cols = B.numCols();
-    Matrix x = B.like(columns, cols);
 
-    // this can all be done a bit more efficiently if we don't actually
-    // form explicit versions of Q^T and R but this code isn't so bad
-    // and it is much easier to understand
-    Matrix qt = getQ().transpose();
-    Matrix y = qt.times(B);
+    // Y = Q' B, computed by applying the reflections rather than forming Q
+    double[][] y = DenseMatrixMultiply.toArray(B);
+    for (int block = 0; block < blockFactors.length; block++) {
+      int k0 = block * PANEL_WIDTH;
+      applyBlockReflector(k0, Math.min(PANEL_WIDTH, tau.length - k0), blockFactors[block], y, 0, cols, true);
+    }
 
-    Matrix r = getR();
+    // back-substitution; the signs that make the diagonal of R positive cancel out here
+    double[][] x = new double[columns][cols];
     for (int k = Math.min(columns, rows) - 1; k >= 0; k--) {
-      // X[k,] = Y[k,] / R[k,k], note that X[k,] starts with 0 so += is same as =
-      x.viewRow(k).assign(y.viewRow(k), Functions.plusMult(1 / r.get(k, k)));
-
-      // Y[0:(k-1),] -= R[0:(k-1),k] * X[k,]
-      Vector rColumn = r.viewColumn(k).viewPart(0, k);
+      // X[k,] = Y[k,] / R[k,k]
+      double[] xk = x[k];
+      double[] yk = y[k];
+      double rkk = qr[k][k];
       for (int c = 0; c < cols; c++) {
-        y.viewColumn(c).viewPart(0, k).assign(rColumn, Functions.plusMult(-x.get(k, c)));
+        xk[c] = yk[c] / rkk;
+      }
+      // Y[0:(k-1),] -= R[0:(k-1),k] * X[k,]
+      for (int i = 0; i < k; i++) {
+        double rik = qr[i][k];
+        if (rik != 0) {
+          double[] yi = y[i];
+          for (int c = 0; c < cols; c++) {
+            yi[c] -= rik * xk[c];
+          }
+        }
       }
     }
-    return x;
+    return B.like(columns, cols).assign(x);
   }
 
   /**
@@ -177,4 +197,238 @@ public class QRDecomposition implements QR {
   public String toString() {
     return String.format(Locale.ENGLISH, "QR(%d x %d,fullRank=%s)", rows, columns, hasFullRank());
   }
+
+  /**
+   * Accumulates the reflections backwards into the first columns of the identity.
+   */
+  private Matrix formQ() {
+    int min = tau.length;
+    double[][] values = new double[rows][min];
+    for (int i = 0; i < min; i++) {
+      values[i][i] = 1;
+    }
+    for (int block = blockFactors.length - 1; block >= 0; block--) {
+      int k0 = block * PANEL_WIDTH;
+      applyBlockReflector(k0, Math.min(PANEL_WIDTH, min - k0), blockFactors[block], values, k0, min, false);
+    }
+    for (int j = 0; j < min; j++) {
+      if (qr[j][j] < 0) {
+        for (int i = 0; i < rows; i++) {
+          values[i][j] = -values[i][j];
+        }
+      }
+    }
+    return new DenseMatrix(values, true);
+  }
+
+  /**
+   * Unblocked Householder factorization of columns {@code [k0, k0 + nb)}, applying each reflection only to the
+   * remaining columns of the panel.
+   */
+  private void factorPanel(int k0, int nb) {
+    int end = k0 + nb;
+    for (int k = k0; k < end; k++) {
+      double alpha = qr[k][k];
+      double sigma = 0;
+      for (int i = k + 1; i < rows; i++) {
+        sigma += qr[i][k] * qr[i][k];
+      }
+      double norm = Math.sqrt(alpha * alpha + sigma);
+      if (Double.isInfinite(norm) || Double.isNaN(norm)) {
+        throw new ArithmeticException("Invalid intermediate result");
+      }
+      if (sigma == 0) {
+        // already upper triangular in this column, so the reflection is the identity
+        tau[k] = 0;
+        continue;
+      }
+
+      double beta = alpha <= 0 ? norm : -norm;
+      tau[k] = (beta - alpha) / beta;
+      double scale = 1 / (alpha - beta);
+      for (int i = k + 1; i < rows; i++) {
+        qr[i][k] *= scale;
+      }
+      qr[k][k] = beta;
+
+      int width = end - k - 1;
+      if (width > 0) {
+        // s = tau * v' A[k:, k+1:end], then A[k:, k+1:end] -= v s
+        double[] s = new double[width];
+        System.arraycopy(qr[k], k + 1, s, 0, width);
+        for (int i = k + 1; i < rows; i++) {
+          double v = qr[i][k];
+          if (v != 0) {
+            double[] ai = qr[i];
+            for (int j = 0; j < width; j++) {
+              s[j] += v * ai[k + 1 + j];
+            }
+          }
+        }
+        for (int j = 0; j < width; j++) {
+          s[j] *= tau[k];
+          qr[k][k + 1 + j] -= s[j];
+        }
+        for (int i = k + 1; i < rows; i++) {
+          double v = qr[i][k];
+          if (v != 0) {
+            double[] ai = qr[i];
+            for (int j = 0; j < width; j++) {
+              ai[k + 1 + j] -= v * s[j];
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Computes the upper triangular T for which the product of the reflections of columns {@code [k0, k0 + nb)}
+   * is <tt>I - V T V'</tt>, using <tt>T[0:j, j] = -tau[j] T[0:j, 0:j] V[:, 0:j]' v[j]</tt>.
+   */
+  private double[][] blockReflectorFactor(final int k0, final int nb) {
+    // G = V' V, summed over bands of rows
+    int[] bounds = DenseMatrixMultiply.rowBands(rows - k0, (long) (rows - k0) * nb * nb / 2);
+    final double[][][] partials = new double[bounds.length - 1][][];
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        double[][] g = new double[nb][nb];
+        double[] v = new double[nb];
+        for (int i = k0 + from; i < k0 + to; i++) {
+          int last = loadReflectorRow(k0, nb, i, v);
+          for (int a = 0; a < last; a++) {
+            double va = v[a];
+            if (va != 0) {
+              double[] ga = g[a];
+              for (int b = a + 1; b < last; b++) {
+                ga[b] += va * v[b];
+              }
+            }
+          }
+        }
+        partials[band] = g;
+      }
+    });
+    double[][] g = sum(partials);
+
+    double[][] t = new double[nb][nb];
+    for (int b = 0; b < nb; b++) {
+      double tauB = tau[k0 + b];
+      t[b][b] = tauB;
+      for (int a = 0; a < b; a++) {
+        double z = 0;
+        for (int c = a; c < b; c++) {
+          z += t[a][c] * g[c][b];
+        }
+        t[a][b] = -tauB * z;
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Applies the block reflector <tt>I - V T V'</tt> of columns {@code [k0, k0 + nb)}, or its transpose, to
+   * rows {@code [k0, m)} and columns {@code [j0, j1)} of {@code c}. {@code c} may be {@link #qr} itself as long
+   * as the columns do not overlap the reflector's.
+   */
+  private void applyBlockReflector(final int k0, final int nb, double[][] t, final double[][] c,
+                                   final int j0, int j1, boolean transpose) {
+    final int n = j1 - j0;
+    if (n <= 0 || nb <= 0) {
+      return;
+    }
+    int[] bounds = DenseMatrixMultiply.rowBands(rows - k0, (long) (rows - k0) * nb * n);
+
+    // W = V' C
+    final double[][][] partials = new double[bounds.length - 1][][];
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        double[][] w = new double[nb][n];
+        double[] v = new double[nb];
+        for (int i = k0 + from; i < k0 + to; i++) {
+          int last = loadReflectorRow(k0, nb, i, v);
+          double[] ci = c[i];
+          for (int a = 0; a < last; a++) {
+            double va = v[a];
+            if (va != 0) {
+              double[] wa = w[a];
+              for (int j = 0; j < n; j++) {
+                wa[j] += va * ci[j0 + j];
+              }
+            }
+          }
+        }
+        partials[band] = w;
+      }
+    });
+    double[][] w = sum(partials);
+
+    // W = T' W or T W
+    final double[][] tw = new double[nb][n];
+    for (int a = 0; a < nb; a++) {
+      double[] twa = tw[a];
+      int from = transpose ? 0 : a;
+      int to = transpose ? a + 1 : nb;
+      for (int b = from; b < to; b++) {
+        double tab = transpose ? t[b][a] : t[a][b];
+        if (tab != 0) {
+          double[] wb = w[b];
+          for (int j = 0; j < n; j++) {
+            twa[j] += tab * wb[j];
+          }
+        }
+      }
+    }
+
+    // C -= V W
+    DenseMatrixMultiply.forEachBand(bounds, new DenseMatrixMultiply.RowBandTask() {
+      @Override
+      public void run(int band, int from, int to) {
+        double[] v = new double[nb];
+        for (int i = k0 + from; i < k0 + to; i++) {
+          int last = loadReflectorRow(k0, nb, i, v);
+          double[] ci = c[i];
+          for (int a = 0; a < last; a++) {
+            double va = v[a];
+            if (va != 0) {
+              double[] twa = tw[a];
+              for (int j = 0; j < n; j++) {
+                ci[j0 + j] -= va * twa[j];
+              }
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Copies row {@code i} of the Householder vectors of columns {@code [k0, k0 + nb)} into {@code v}.
+   *
+   * @return the number of leading entries that may be non-zero
+   */
+  private int loadReflectorRow(int k0, int nb, int i, double[] v) {
+    int last = Math.min(nb, i - k0 + 1);
+    System.arraycopy(qr[i], k0, v, 0, last);
+    if (i - k0 < nb) {
+      v[i - k0] = 1;
+    }
+    return last;
+  }
+
+  private static double[][] sum(double[][][] partials) {
+    double[][] result = partials[0];
+    for (int p = 1; p < partials.length; p++) {
+      for (int a = 0; a < result.length; a++) {
+        double[] ra = result[a];
+        double[] pa = partials[p][a];
+        for (int j = 0; j < ra.length; j++) {
+          ra[j] += pa[j];
+        }
+      }
+    }
+    return result;
+  }
 }
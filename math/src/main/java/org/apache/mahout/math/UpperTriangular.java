@@ -21,6 +21,8 @@ package org.apache.mahout.math;
  * 
  * Quick and dirty implementation of some {@link org.apache.mahout.math.Matrix} methods
  * over packed upper triangular matrix.
+ * <p/>
+ * Products and triangular solves run directly over the packed rows, which are contiguous.
  *
  */
 public class UpperTriangular extends AbstractMatrix {
@@ -119,6 +121,144 @@ public class UpperTriangular extends AbstractMatrix {
     return col + row * numCols() - (row + 1) * row / 2;
   }
 
+  /**
+   * @return the index in {@link #getData()} of the diagonal element of the row; the rest of the row follows it
+   */
+  int rowStart(int row) {
+    return getL(row, row);
+  }
+
+  @Override
+  public Vector times(Vector v) {
+    if (columnSize() != v.size()) {
+      throw new CardinalityException(columnSize(), v.size());
+    }
+    double[] x = toArray(v);
+    double[] y = new double[rows];
+    for (int i = 0; i < rows; i++) {
+      int start = rowStart(i) - i;
+      double sum = 0;
+      for (int j = i; j < columns; j++) {
+        sum += values[start + j] * x[j];
+      }
+      y[i] = sum;
+    }
+    return new DenseVector(y, true);
+  }
+
+  @Override
+  public Matrix times(Matrix other) {
+    if (columnSize() != other.rowSize()) {
+      throw new CardinalityException(columnSize(), other.rowSize());
+    }
+    double[][] b = DenseMatrixMultiply.toArray(other);
+    double[][] c = new double[rows][other.columnSize()];
+    for (int i = 0; i < rows; i++) {
+      int start = rowStart(i) - i;
+      double[] ci = c[i];
+      for (int j = i; j < columns; j++) {
+        DenseMatrixMultiply.axpy(values[start + j], b[j], ci);
+      }
+    }
+    return new DenseMatrix(c, true);
+  }
+
+  /**
+   * Solves {@code this * x = b} by back-substitution.
+   */
+  public Vector solve(Vector b) {
+    if (rows != b.size()) {
+      throw new CardinalityException(rows, b.size());
+    }
+    double[] x = toArray(b);
+    for (int i = rows - 1; i >= 0; i--) {
+      int start = rowStart(i) - i;
+      double sum = x[i];
+      for (int j = i + 1; j < columns; j++) {
+        sum -= values[start + j] * x[j];
+      }
+      x[i] = sum / values[start + i];
+    }
+    return new DenseVector(x, true);
+  }
+
+  /**
+   * Solves {@code this * X = B} by back-substitution, all columns of {@code B} at once.
+   */
+  public Matrix solve(Matrix b) {
+    if (rows != b.rowSize()) {
+      throw new CardinalityException(rows, b.rowSize());
+    }
+    double[][] x = DenseMatrixMultiply.toArray(b);
+    backSubstitute(x);
+    return new DenseMatrix(x, true);
+  }
+
+  /**
+   * Solves {@code this' * x = b} by forward substitution.
+   */
+  public Vector transposeSolve(Vector b) {
+    if (rows != b.size()) {
+      throw new CardinalityException(rows, b.size());
+    }
+    double[] x = toArray(b);
+    for (int i = 0; i < rows; i++) {
+      int start = rowStart(i) - i;
+      double xi = x[i] / values[start + i];
+      x[i] = xi;
+      for (int j = i + 1; j < columns; j++) {
+        x[j] -= values[start + j] * xi;
+      }
+    }
+    return new DenseVector(x, true);
+  }
+
+  /**
+   * Solves {@code this' * X = B} by forward substitution, all columns of {@code B} at once.
+   */
+  public Matrix transposeSolve(Matrix b) {
+    if (rows != b.rowSize()) {
+      throw new CardinalityException(rows, b.rowSize());
+    }
+    double[][] x = DenseMatrixMultiply.toArray(b);
+    forwardSubstituteTransposed(x);
+    return new DenseMatrix(x, true);
+  }
+
+  private void backSubstitute(double[][] x) {
+    for (int i = rows - 1; i >= 0; i--) {
+      int start = rowStart(i) - i;
+      double[] xi = x[i];
+      for (int j = i + 1; j < columns; j++) {
+        DenseMatrixMultiply.axpy(-values[start + j], x[j], xi);
+      }
+      DenseMatrixMultiply.scale(1 / values[start + i], xi);
+    }
+  }
+
+  private void forwardSubstituteTransposed(double[][] x) {
+    // row i of this is column i of the transpose, so each solved row is subtracted from the rows after it
+    for (int i = 0; i < rows; i++) {
+      int start = rowStart(i) - i;
+      double[] xi = x[i];
+      DenseMatrixMultiply.scale(1 / values[start + i], xi);
+      for (int j = i + 1; j < columns; j++) {
+        DenseMatrixMultiply.axpy(-values[start + j], xi, x[j]);
+      }
+    }
+  }
+
+  /**
+   * Copies {@code v} into a new array, visiting only its non-zero elements.
+   */
+  static double[] toArray(Vector v) {
+    double[] values = new double[v.size()];
+    for (Vector.Element element : v.nonZeroes()) {
+      values[element.index()] = element.get();
+    }
+    return values;
+  }
+
   @Override
   public Matrix like() {
     return like(rowSize(), columnSize());
@@ -17,11 +17,16 @@
 
 package org.apache.mahout.math.als;
 
+import java.util.Iterator;
+
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import org.apache.mahout.math.DenseMatrix;
+import org.apache.mahout.math.DenseSymmetricMatrix;
+import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.QRDecomposition;
+import org.apache.mahout.math.UpperTriangular;
 import org.apache.mahout.math.Vector;
 
 /**
@@ -43,20 +48,33 @@ public final class AlternatingLeastSquaresSolver {
     Preconditions.checkArgument(Iterables.size(featureVectors) == ratingVector.getNumNondefaultElements());
 
     int nui = ratingVector.getNumNondefaultElements();
+    Preconditions.checkArgument(ratingVector.isSequentialAccess(), "Ratings should be iterable in Index or Sequential Order");
 
-    Matrix MiIi = createMiIi(featureVectors, numFeatures);
-    Matrix RiIiMaybeTransposed = createRiIiMaybeTransposed(ratingVector);
-
-    /* compute Ai = MiIi * t(MiIi) + lambda * nui * E */
-    Matrix Ai = miTimesMiTransposePlusLambdaTimesNuiTimesE(MiIi, lambda, nui);
-    /* compute Vi = MiIi * t(R(i,Ii)) */
-    Matrix Vi = MiIi.times(RiIiMaybeTransposed);
+    /* compute Ai = MiIi * t(MiIi) + lambda * nui * E and Vi = MiIi * t(R(i,Ii)) one feature vector at a time */
+    DenseSymmetricMatrix Ai = new DenseSymmetricMatrix(numFeatures);
+    double[] Vi = new double[numFeatures];
+    Iterator<Vector.Element> ratings = ratingVector.nonZeroes().iterator();
+    for (Vector featureVector : featureVectors) {
+      double rating = ratings.next().get();
+      Ai.rankOneUpdate(1, featureVector);
+      for (Vector.Element feature : featureVector.nonZeroes()) {
+        Vi[feature.index()] += rating * feature.get();
+      }
+    }
+    addLambdaTimesNuiTimesE(Ai, lambda, nui);
     /* compute Ai * ui = Vi */
-    return solve(Ai, Vi);
+    return solve(Ai, new DenseVector(Vi, true));
   }
 
-  private static Vector solve(Matrix Ai, Matrix Vi) {
-    return new QRDecomposition(Ai).solve(Vi).viewColumn(0);
+  private static Vector solve(DenseSymmetricMatrix Ai, Vector Vi) {
+    UpperTriangular r;
+    try {
+      r = Ai.choleskyFactor();
+    } catch (IllegalArgumentException notPositiveDefinite) {
+      // Ai is only positive semi-definite when lambda is zero; QR copes with that
+      return new QRDecomposition(Ai).solve(new DenseMatrix(Vi.size(), 1).assignColumn(0, Vi)).viewColumn(0);
+    }
+    return r.solve(r.transposeSolve(Vi));
   }
 
   static Matrix addLambdaTimesNuiTimesE(Matrix matrix, double lambda, int nui) {
@@ -68,49 +86,4 @@ public final class AlternatingLeastSquaresSolver {
     }
     return matrix;
   }
-
-  private static Matrix miTimesMiTransposePlusLambdaTimesNuiTimesE(Matrix MiIi, double lambda, int nui) {
-
-    double lambdaTimesNui = lambda * nui;
-    int rows = MiIi.numRows();
-
-    double[][] result = new double[rows][rows];
-
-    for (int i = 0; i < rows; i++) {
-      for (int j = i; j < rows; j++) {
-        double dot = MiIi.viewRow(i).dot(MiIi.viewRow(j));
-        if (i != j) {
-          result[i][j] = dot;
-          result[j][i] = dot;
-        } else {
-          result[i][i] = dot + lambdaTimesNui;
-        }
-      }
-    }
-    return new DenseMatrix(result, true);
-  }
-
-
-  static Matrix createMiIi(Iterable<Vector> featureVectors, int numFeatures) {
-    double[][] MiIi =  new double[numFeatures][Iterables.size(featureVectors)];
-    int n = 0;
-    for (Vector featureVector : featureVectors) {
-      for (int m = 0; m < numFeatures; m++) {
-        MiIi[m][n] = featureVector.getQuick(m);
-      }
-      n++;
-    }
-    return new DenseMatrix(MiIi, true);
-  }
-
-  static Matrix createRiIiMaybeTransposed(Vector ratingVector) {
-    Preconditions.checkArgument(ratingVector.isSequentialAccess(), "Ratings should be iterable in Index or Sequential Order");
-
-    double[][] RiIiMaybeTransposed = new double[ratingVector.getNumNondefaultElements()][1];
-    int index = 0;
-    for (Vector.Element elem : ratingVector.nonZeroes()) {
-      RiIiMaybeTransposed[index++][0] = elem.get();
-    }
-    return new DenseMatrix(RiIiMaybeTransposed, true);
-  }
 }
@@ -58,6 +58,22 @@ public class ImplicitFeedbackAlternatingLeastSquaresSolver {
     YtransposeY = getYtransposeY(Y);
   }
 
+  /**
+   * Uses a precomputed Y' Y, so that {@code Y} only needs to hold the rows referenced by the ratings that will be
+   * solved for. Useful when solving for a few vectors against a large, fixed Y.
+   */
+  public ImplicitFeedbackAlternatingLeastSquaresSolver(int numFeatures, double lambda, double alpha,
+      OpenIntObjectHashMap<Vector> Y, Matrix YtransposeY) {
+    Preconditions.checkArgument(YtransposeY.numRows() == numFeatures && YtransposeY.numCols() == numFeatures,
+        "Y'Y must be numFeatures x numFeatures");
+    this.numFeatures = numFeatures;
+    this.lambda = lambda;
+    this.alpha = alpha;
+    this.Y = Y;
+    this.numTrainingThreads = 1;
+    this.YtransposeY = YtransposeY;
+  }
+
   public Vector solve(Vector ratings) {
     return solve(YtransposeY.plus(getYtransponseCuMinusIYPlusLambdaI(ratings)), getYtransponseCuPu(ratings));
   }
@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.decomposer.lanczos;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixSlice;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorIterable;
+import org.apache.mahout.math.function.Functions;
+import org.apache.mahout.math.function.PlusMult;
+import org.apache.mahout.math.solver.EigenDecomposition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Block variant of {@link LanczosSolver}. Instead of one vector, each step multiplies a block of
+ * {@code blockSize} orthonormal vectors by the matrix, all of them in a single pass over the rows of the corpus
+ * through {@link VectorIterable#iterateAll()}. Finding {@code desiredRank} eigenpairs therefore takes
+ * {@code desiredRank / blockSize} passes rather than {@code desiredRank}.</p>
+ *
+ * <p>Only an in-memory {@link Matrix} corpus is read that way. Any other {@link VectorIterable}, in particular a
+ * {@code DistributedRowMatrix}, is never streamed through this JVM: each vector of a block is multiplied on its
+ * own through {@link VectorIterable#timesSquared(Vector)} or {@link VectorIterable#times(Vector)}, which for a
+ * {@code DistributedRowMatrix} is one MapReduce job per vector, exactly as in {@link LanczosSolver}. Such a corpus
+ * gets the block solver's parallel reorthogonalization, but still takes one pass per basis vector.</p>
+ *
+ * <p>The projected matrix is block tridiagonal; it is stored, like the tridiagonal matrix of
+ * {@link LanczosSolver}, in {@link LanczosState#getDiagonalMatrix()} and diagonalized with
+ * {@link EigenDecomposition}. Every new block is reorthogonalized against all basis vectors, twice, with the dot
+ * products and the updates split over a pool of threads. The basis lives in the {@link LanczosState}, so a
+ * {@link MappedLanczosState} keeps it in a memory-mapped file instead of on the heap.</p>
+ *
+ * <p>The scaling and the meaning of the results are the same as for {@link LanczosSolver}. Unlike it, this solver
+ * always starts from the initial vector of the state and cannot resume a partially solved one.</p>
+ */
+public class BlockLanczosSolver {
+
+  private static final Logger log = LoggerFactory.getLogger(BlockLanczosSolver.class);
+
+  public static final int DEFAULT_BLOCK_SIZE = 8;
+
+  /** Norm of the scaled residual below which a block is taken to have no component outside the basis */
+  private static final double BREAKDOWN_TOLERANCE = 1.0e-10;
+
+  private final int blockSize;
+  private final int numThreads;
+
+  public BlockLanczosSolver() {
+    this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param blockSize number of vectors multiplied by the corpus in each pass
+   * @param numThreads number of threads used to reorthogonalize and to form the eigenvectors
+   */
+  public BlockLanczosSolver(int blockSize, int numThreads) {
+    Preconditions.checkArgument(blockSize > 0, "blockSize must be positive");
+    Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+    this.blockSize = blockSize;
+    this.numThreads = numThreads;
+  }
+
+  public void solve(LanczosState state,
+                    int desiredRank) {
+    solve(state, desiredRank, false);
+  }
+
+  public void solve(LanczosState state,
+                    int desiredRank,
+                    boolean isSymmetric) {
+    Preconditions.checkArgument(state.getIterationNumber() == 1,
+        "Block Lanczos cannot resume a state at iteration %s", state.getIterationNumber());
+    VectorIterable corpus = state.getCorpus();
+    log.info("Finding {} singular vectors of matrix with {} rows, via block Lanczos with blocks of {}",
+        new Object[] {desiredRank, corpus.numRows(), blockSize});
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      int basisSize = iterate(state, desiredRank, isSymmetric, executor);
+      extractEigenvectors(state, basisSize, isSymmetric, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+    log.info("BlockLanczosSolver finished.");
+  }
+
+  /**
+   * Builds the basis and the block tridiagonal matrix.
+   *
+   * @return the number of basis vectors found
+   */
+  private int iterate(LanczosState state, int desiredRank, boolean isSymmetric, ExecutorService executor) {
+    VectorIterable corpus = state.getCorpus();
+    Matrix triDiag = state.getDiagonalMatrix();
+    List<Vector> block = initialBlock(state.getBasisVector(0), Math.min(blockSize, desiredRank));
+    int basisSize = 0;
+    int passes = 0;
+    while (basisSize < desiredRank) {
+      int start = basisSize;
+      int width = Math.min(block.size(), desiredRank - start);
+      List<Vector> current = block.subList(0, width);
+      for (int k = 0; k < width; k++) {
+        state.setBasisVector(start + k, current.get(k));
+      }
+      int end = start + width;
+
+      List<Vector> next = times(corpus, current, isSymmetric);
+      log.info("{} passes through the corpus so far...", ++passes);
+      if (state.getScaleFactor() <= 0) {
+        state.setScaleFactor(LanczosSolver.calculateScaleFactor(next.get(0)));
+      }
+      for (Vector v : next) {
+        v.assign(Functions.mult(1.0 / state.getScaleFactor()));
+      }
+
+      // the projections onto the current block form its diagonal block; a second pass cleans up what the first
+      // one left behind through cancellation
+      double[][] projections = orthogonalize(next, state, end, executor);
+      orthogonalize(next, state, end, executor);
+      if (!inRange(projections)) {
+        log.warn("Block Lanczos projections out of range. Bailing out early!");
+        break;
+      }
+      for (int a = 0; a < width; a++) {
+        for (int c = 0; c < width; c++) {
+          triDiag.set(start + a, start + c, (projections[start + a][c] + projections[start + c][a]) / 2);
+        }
+      }
+      basisSize = end;
+      state.setIterationNumber(basisSize);
+
+      if (end < desiredRank) {
+        double[][] r = orthonormalize(next, state, end, executor);
+        if (!inRange(r)) {
+          log.warn("Block Lanczos norms out of range. Bailing out early!");
+          break;
+        }
+        // the new block times r is the part of the matrix times the current block outside the basis
+        for (int a = 0; a < width && end + a < desiredRank; a++) {
+          for (int c = 0; c < width; c++) {
+            triDiag.set(end + a, start + c, r[a][c]);
+            triDiag.set(start + c, end + a, r[a][c]);
+          }
+        }
+        block = next;
+      }
+    }
+    return basisSize;
+  }
+
+  /**
+   * Starts with the normalized initial vector followed by random vectors orthonormal to it.
+   */
+  private static List<Vector> initialBlock(Vector initialVector, int width) {
+    List<Vector> block = Lists.newArrayList();
+    Vector first = new DenseVector(initialVector);
+    block.add(first.assign(Functions.mult(1.0 / first.norm(2))));
+    Random random = RandomUtils.getRandom();
+    while (block.size() < width) {
+      Vector v = randomVector(first.size(), random);
+      for (int pass = 0; pass < 2; pass++) {
+        for (Vector q : block) {
+          v.assign(q, new PlusMult(-q.dot(v)));
+        }
+      }
+      block.add(v.assign(Functions.mult(1.0 / v.norm(2))));
+    }
+    return block;
+  }
+
+  /**
+   * Multiplies every vector of the block by the matrix, or by its square if it is not symmetric, in one pass over
+   * the rows if the corpus is a {@link Matrix}, and one vector at a time otherwise.
+   */
+  private static List<Vector> times(VectorIterable corpus, List<Vector> block, boolean isSymmetric) {
+    if (!(corpus instanceof Matrix)) {
+      // leave the rows where they are, and let the corpus compute each product
+      List<Vector> products = Lists.newArrayList();
+      for (Vector v : block) {
+        products.add(isSymmetric ? corpus.times(v) : corpus.timesSquared(v));
+      }
+      return products;
+    }
+    int width = block.size();
+    double[][] result = new double[width][isSymmetric ? corpus.numRows() : corpus.numCols()];
+    double[] dots = new double[width];
+    Iterator<MatrixSlice> rows = corpus.iterateAll();
+    while (rows.hasNext()) {
+      MatrixSlice slice = rows.next();
+      Vector row = slice.vector();
+      for (int k = 0; k < width; k++) {
+        dots[k] = row.dot(block.get(k));
+      }
+      if (isSymmetric) {
+        for (int k = 0; k < width; k++) {
+          result[k][slice.index()] = dots[k];
+        }
+      } else {
+        for (Vector.Element element : row.nonZeroes()) {
+          int index = element.index();
+          double value = element.get();
+          for (int k = 0; k < width; k++) {
+            result[k][index] += dots[k] * value;
+          }
+        }
+      }
+    }
+    List<Vector> products = Lists.newArrayList();
+    for (double[] values : result) {
+      products.add(new DenseVector(values, true));
+    }
+    return products;
+  }
+
+  /**
+   * Subtracts from each vector its projection onto the first {@code basisSize} basis vectors, by classical
+   * Gram-Schmidt: the dot products are computed for bands of basis vectors in parallel, then each vector is
+   * updated on its own thread.
+   *
+   * @return the projections, indexed by basis vector and then by vector
+   */
+  private double[][] orthogonalize(final List<Vector> vectors, final LanczosState state, final int basisSize,
+                                   ExecutorService executor) {
+    final int width = vectors.size();
+    final double[][] projections = new double[basisSize][width];
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    int numBands = Math.min(numThreads, basisSize);
+    for (int band = 0; band < numBands; band++) {
+      final int from = basisSize * band / numBands;
+      final int to = basisSize * (band + 1) / numBands;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int j = from; j < to; j++) {
+            Vector basisVector = state.getBasisVector(j);
+            for (int k = 0; k < width; k++) {
+              projections[j][k] = basisVector.dot(vectors.get(k));
+            }
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(executor, tasks);
+
+    tasks.clear();
+    for (int k = 0; k < width; k++) {
+      final int column = k;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Vector v = vectors.get(column);
+          for (int j = 0; j < basisSize; j++) {
+            double projection = projections[j][column];
+            if (projection != 0.0) {
+              v.assign(state.getBasisVector(j), new PlusMult(-projection));
+            }
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(executor, tasks);
+    return projections;
+  }
+
+  /**
+   * Turns the vectors, already orthogonal to the basis, into an orthonormal block by modified Gram-Schmidt. A vector
+   * with nothing left outside the span of the basis and of the vectors before it is replaced by a random one, so
+   * that the iteration can continue in a fresh direction.
+   *
+   * @return the upper triangular r for which the original vectors are the new block times r
+   */
+  private double[][] orthonormalize(List<Vector> vectors, LanczosState state, int basisSize,
+                                    ExecutorService executor) {
+    int width = vectors.size();
+    double[][] r = new double[width][width];
+    Random random = null;
+    for (int k = 0; k < width; k++) {
+      Vector v = vectors.get(k);
+      for (int pass = 0; pass < 2; pass++) {
+        for (int a = 0; a < k; a++) {
+          double projection = vectors.get(a).dot(v);
+          r[a][k] += projection;
+          v.assign(vectors.get(a), new PlusMult(-projection));
+        }
+      }
+      double norm = v.norm(2);
+      if (norm > BREAKDOWN_TOLERANCE) {
+        r[k][k] = norm;
+      } else {
+        log.info("Block Lanczos found an invariant subspace; restarting vector {} at random", basisSize + k);
+        if (random == null) {
+          random = RandomUtils.getRandom();
+        }
+        v.assign(randomVector(v.size(), random));
+        List<Vector> single = vectors.subList(k, k + 1);
+        for (int pass = 0; pass < 2; pass++) {
+          orthogonalize(single, state, basisSize, executor);
+          for (int a = 0; a < k; a++) {
+            v.assign(vectors.get(a), new PlusMult(-vectors.get(a).dot(v)));
+          }
+        }
+        norm = v.norm(2);
+      }
+      v.assign(Functions.mult(1.0 / norm));
+    }
+    return r;
+  }
+
+  /**
+   * Diagonalizes the leading {@code basisSize} rows and columns of the block tridiagonal matrix and forms the
+   * eigenvectors from the basis in parallel.
+   */
+  private void extractEigenvectors(final LanczosState state, final int basisSize, boolean isSymmetric,
+                                   ExecutorService executor) {
+    log.info("Block Lanczos iteration complete - now to diagonalize the block tri-diagonal auxiliary matrix.");
+    EigenDecomposition decomp =
+        new EigenDecomposition(state.getDiagonalMatrix().viewPart(0, basisSize, 0, basisSize));
+    final Matrix eigenVects = decomp.getV();
+    final Vector eigenVals = decomp.getRealEigenvalues();
+
+    final Vector[] eigenvectors = new Vector[basisSize];
+    List<Callable<Void>> tasks = Lists.newArrayList();
+    for (int row = 0; row < basisSize; row++) {
+      final int index = row;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Vector ejCol = eigenVects.viewColumn(index);
+          Vector realEigen = new DenseVector(state.getBasisVector(0).size());
+          for (int j = 0; j < basisSize; j++) {
+            realEigen.assign(state.getBasisVector(j), new PlusMult(ejCol.get(j)));
+          }
+          eigenvectors[index] = realEigen.normalize();
+          return null;
+        }
+      });
+    }
+    invokeAll(executor, tasks);
+
+    for (int row = 0; row < basisSize; row++) {
+      state.setRightSingularVector(row, eigenvectors[row]);
+      double e = eigenVals.get(row) * state.getScaleFactor();
+      if (!isSymmetric) {
+        e = Math.sqrt(e);
+      }
+      log.info("Eigenvector {} found with eigenvalue {}", row, e);
+      state.setSingularValue(row, e);
+    }
+  }
+
+  private static Vector randomVector(int size, Random random) {
+    Vector v = new DenseVector(size);
+    for (int i = 0; i < size; i++) {
+      v.setQuick(i, random.nextGaussian());
+    }
+    return v;
+  }
+
+  private static boolean inRange(double[][] values) {
+    for (double[] row : values) {
+      for (double d : row) {
+        if (Double.isNaN(d) || d > LanczosSolver.SAFE_MAX || -d > LanczosSolver.SAFE_MAX) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) {
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+}
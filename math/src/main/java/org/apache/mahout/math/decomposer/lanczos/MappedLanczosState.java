@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.decomposer.lanczos;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.mahout.math.OffHeapDenseMatrix;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorIterable;
+
+/**
+ * {@link LanczosState} that keeps the Lanczos basis in a memory-mapped file rather than on the heap, one row of an
+ * {@link OffHeapDenseMatrix} per basis vector. Basis vectors returned by {@link #getBasisVector(int)} are views of
+ * the file and may be read from several threads at once. {@link #close()} unmaps the file; the basis may not be
+ * used afterwards, but the singular vectors and values stay available.
+ */
+public class MappedLanczosState extends LanczosState implements Closeable {
+
+  private final OffHeapDenseMatrix mappedBasis;
+  private final boolean[] present;
+  private int basisSize;
+
+  /**
+   * @param basisFile file holding the basis, created or extended as needed; it has room for {@code desiredRank}
+   *                  vectors of {@code corpus.numCols()} values
+   */
+  public MappedLanczosState(VectorIterable corpus, int desiredRank, Vector initialVector, File basisFile)
+    throws IOException {
+    super(corpus, desiredRank, initialVector);
+    mappedBasis = new OffHeapDenseMatrix(basisFile, desiredRank, corpus.numCols());
+    present = new boolean[desiredRank];
+    // the superclass stored the initial vector on the heap before the mapping existed
+    setBasisVector(0, basis.remove(0));
+  }
+
+  @Override
+  public Vector getBasisVector(int i) {
+    if (mappedBasis == null) {
+      return super.getBasisVector(i);
+    }
+    return i >= 0 && i < present.length && present[i] ? mappedBasis.viewRow(i) : null;
+  }
+
+  @Override
+  public int getBasisSize() {
+    return mappedBasis == null ? super.getBasisSize() : basisSize;
+  }
+
+  @Override
+  public void setBasisVector(int i, Vector basisVector) {
+    if (mappedBasis == null) {
+      super.setBasisVector(i, basisVector);
+      return;
+    }
+    mappedBasis.assignRow(i, basisVector);
+    if (!present[i]) {
+      present[i] = true;
+      basisSize++;
+    }
+  }
+
+  @Override
+  public void close() {
+    mappedBasis.close();
+  }
+}
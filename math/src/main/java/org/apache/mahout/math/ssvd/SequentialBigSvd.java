@@ -18,6 +18,7 @@
 package org.apache.mahout.math.ssvd;
 
 import org.apache.mahout.math.CholeskyDecomposition;
+import org.apache.mahout.math.DenseSymmetricMatrix;
 import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomTrinaryMatrix;
@@ -41,13 +42,13 @@ public class SequentialBigSvd {
     y = A.times(new RandomTrinaryMatrix(A.columnSize(), p));
 
     // R'R = Y' Y
-    cd1 = new CholeskyDecomposition(y.transpose().times(y));
+    cd1 = new CholeskyDecomposition(new DenseSymmetricMatrix(p).rankKUpdate(y));
 
     // B = Q" A = (Y R^{-1} )' A
     b = cd1.solveRight(y).transpose().times(A);
 
     // L L' = B B'
-    cd2 = new CholeskyDecomposition(b.times(b.transpose()));
+    cd2 = new CholeskyDecomposition(new DenseSymmetricMatrix(p).rankKUpdate(b.transpose()));
 
     // U_0 D V_0' = L
     svd = new SingularValueDecomposition(cd2.getL());
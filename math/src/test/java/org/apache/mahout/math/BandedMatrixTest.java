@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class BandedMatrixTest extends MahoutTestCase {
+
+  @Test
+  public void testMatchesDenseMatrix() {
+    int[][] bandwidths = {{0, 0}, {1, 1}, {2, 3}, {3, 0}, {0, 2}};
+    for (int[] bandwidth : bandwidths) {
+      BandedMatrix banded = new BandedMatrix(31, 31, bandwidth[0], bandwidth[1]);
+      Matrix dense = randomBand(banded);
+      String message = bandwidth[0] + "," + bandwidth[1];
+
+      assertEquals(message, 0, banded.minus(dense).aggregate(Functions.MAX, Functions.ABS), 0.0);
+      Matrix b = new DenseMatrix(31, 5).assign(Functions.random());
+      Vector v = b.viewColumn(2);
+      assertEquals(message, 0, banded.times(b).minus(dense.times(b)).aggregate(Functions.MAX, Functions.ABS),
+          EPSILON);
+      assertEquals(message, 0, banded.times(v).minus(dense.times(v)).norm(1), EPSILON);
+
+      assertEquals(message, 0, dense.times(banded.solve(b)).minus(b).aggregate(Functions.MAX, Functions.ABS),
+          1.0e-9);
+      assertEquals(message, 0, dense.times(banded.solve(v)).minus(v).norm(1), 1.0e-9);
+    }
+  }
+
+  @Test
+  public void testSolveNeedsPivoting() {
+    // a zero on the diagonal forces a row exchange, which fills in above the band
+    BandedMatrix banded = new BandedMatrix(4, 4, 1, 1);
+    banded.set(0, 0, 0);
+    banded.set(0, 1, 1);
+    banded.set(1, 0, 2);
+    banded.set(1, 1, 1);
+    banded.set(1, 2, 3);
+    banded.set(2, 1, 1);
+    banded.set(2, 2, 0);
+    banded.set(2, 3, 1);
+    banded.set(3, 2, 4);
+    banded.set(3, 3, 1);
+    Vector b = new DenseVector(new double[] {1, 2, 3, 4});
+    Matrix dense = new DenseMatrix(4, 4).assign(banded);
+    assertEquals(0, dense.times(banded.solve(b)).minus(b).norm(1), EPSILON);
+  }
+
+  @Test
+  public void testRectangular() {
+    BandedMatrix banded = new BandedMatrix(6, 9, 1, 2);
+    Matrix dense = randomBand(banded);
+    Vector v = new DenseVector(9).assign(Functions.random());
+    assertEquals(0, banded.times(v).minus(dense.times(v)).norm(1), EPSILON);
+    assertEquals(0, banded.get(0, 5), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSetOutsideBand() {
+    new BandedMatrix(5, 5, 1, 1).set(0, 2, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSingular() {
+    new BandedMatrix(5, 5, 1, 1).solve(new DenseVector(5).assign(1));
+  }
+
+  /**
+   * Fills the band of {@code banded} with random values and returns a dense copy.
+   */
+  private static Matrix randomBand(BandedMatrix banded) {
+    Random random = RandomUtils.getRandom();
+    Matrix dense = new DenseMatrix(banded.rowSize(), banded.columnSize());
+    for (int i = 0; i < banded.rowSize(); i++) {
+      int from = Math.max(0, i - banded.getLowerBandwidth());
+      int to = Math.min(banded.columnSize() - 1, i + banded.getUpperBandwidth());
+      for (int j = from; j <= to; j++) {
+        // diagonally dominant, so that the solves are well conditioned
+        double value = random.nextGaussian() + (i == j ? 10 : 0);
+        banded.set(i, j, value);
+        dense.set(i, j, value);
+      }
+    }
+    return dense;
+  }
+}
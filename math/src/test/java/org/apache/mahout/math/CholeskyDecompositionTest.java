@@ -60,7 +60,7 @@ public class CholeskyDecompositionTest extends MahoutTestCase {
 
     Matrix A = z.times(z.transpose());
 
-    for (boolean type = false; !type; type=true) {
+    for (boolean type : new boolean[] {false, true}) {
       CholeskyDecomposition cd = new CholeskyDecomposition(A, type);
       Matrix L = cd.getL();
 //      Assert.assertTrue("Positive definite", cd.isPositiveDefinite());
@@ -127,6 +127,51 @@ public class CholeskyDecompositionTest extends MahoutTestCase {
     Assert.assertEquals(0, error, 1.0e-10);
   }
 
+  @Test
+  public void testBlockedRankDeficient() {
+    // more than two panels of columns, of rank less than one panel
+    final Random rand = RandomUtils.getRandom();
+    Matrix z = new DenseMatrix(150, 60).assign(new DoubleFunction() {
+      @Override
+      public double apply(double arg1) {
+        return rand.nextGaussian();
+      }
+    });
+    Matrix a = z.times(z.transpose());
+
+    for (boolean pivot : new boolean[] {false, true}) {
+      String message = "pivot = " + pivot;
+      CholeskyDecomposition cd = new CholeskyDecomposition(a, pivot);
+      Assert.assertFalse(message, cd.isPositiveDefinite());
+
+      Matrix l = cd.getL();
+      Assert.assertEquals(message, 0, l.times(l.transpose()).minus(a).aggregate(Functions.MAX, Functions.ABS),
+          1.0e-9);
+
+      // in pivoted order L is lower triangular and reconstructs A with rows and columns permuted alike
+      int[] p = cd.getPivot();
+      int[] inverse = cd.getInversePivot();
+      Matrix permutedL = cd.getPermutedL();
+      Matrix permutedA = new DenseMatrix(150, 150);
+      for (int i = 0; i < 150; i++) {
+        Assert.assertEquals(message, i, inverse[p[i]]);
+        for (int j = 0; j < 150; j++) {
+          permutedA.set(i, j, a.get(p[i], p[j]));
+          if (j > i) {
+            Assert.assertEquals(message, 0, permutedL.get(i, j), 0.0);
+          }
+        }
+      }
+      Assert.assertEquals(message, 0,
+          permutedL.times(permutedL.transpose()).minus(permutedA).aggregate(Functions.MAX, Functions.ABS), 1.0e-9);
+      if (!pivot) {
+        for (int i = 0; i < 150; i++) {
+          Assert.assertEquals(message, i, p[i]);
+        }
+      }
+    }
+  }
+
   private static Matrix rank4Matrix() {
     final Random rand = RandomUtils.getRandom();
 
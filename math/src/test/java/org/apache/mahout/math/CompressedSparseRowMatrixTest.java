@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class CompressedSparseRowMatrixTest extends MahoutTestCase {
+
+  @Test
+  public void testMatchesSparseRowMatrix() {
+    Random random = RandomUtils.getRandom();
+    Matrix sparse = randomSparseMatrix(random, 57, 43, 0.1);
+    CompressedSparseRowMatrix csr = CompressedSparseRowMatrix.copyOf(sparse);
+    CompressedSparseColumnMatrix csc = CompressedSparseColumnMatrix.copyOf(sparse);
+
+    assertEquals(0, csr.minus(sparse).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    assertEquals(0, csc.minus(sparse).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    assertEquals(0, csr.transpose().minus(sparse.transpose()).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    Matrix roundTrip = CompressedSparseRowMatrix.copyOf(csc);
+    assertEquals(0, roundTrip.minus(csr).aggregate(Functions.MAX, Functions.ABS), 0.0);
+    assertEquals(0, csr.viewRow(3).minus(sparse.viewRow(3)).norm(1), 0.0);
+    assertEquals(0, csc.viewColumn(5).minus(sparse.viewColumn(5)).norm(1), 0.0);
+
+    Vector v = new DenseVector(43).assign(Functions.random());
+    assertEquals(0, csr.times(v).minus(sparse.times(v)).norm(1), EPSILON);
+    assertEquals(0, csc.times(v).minus(sparse.times(v)).norm(1), EPSILON);
+    assertEquals(0, csr.timesSquared(v).minus(sparse.timesSquared(v)).norm(1), EPSILON);
+    assertEquals(0, csc.timesSquared(v).minus(sparse.timesSquared(v)).norm(1), EPSILON);
+
+    Matrix dense = new DenseMatrix(43, 7).assign(Functions.random());
+    Matrix expected = sparse.times(dense);
+    assertEquals(0, csr.times(dense).minus(expected).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+    assertEquals(0, csc.times(dense).minus(expected).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+  }
+
+  @Test
+  public void testParallelProducts() {
+    // enough non-zeros for the matrix-vector products to be split across threads
+    Random random = RandomUtils.getRandom();
+    int rows = 20000;
+    int columns = 3000;
+    int[] rowPointers = new int[rows + 1];
+    for (int row = 0; row < rows; row++) {
+      // skewed rows so that bands have to be balanced by non-zeros rather than rows
+      rowPointers[row + 1] = rowPointers[row] + (row % 10 == 0 ? 1000 : row % 7);
+    }
+    int[] columnIndices = new int[rowPointers[rows]];
+    double[] values = new double[rowPointers[rows]];
+    for (int row = 0; row < rows; row++) {
+      int length = rowPointers[row + 1] - rowPointers[row];
+      int start = random.nextInt(columns - length);
+      for (int p = 0; p < length; p++) {
+        columnIndices[rowPointers[row] + p] = start + p;
+        values[rowPointers[row] + p] = random.nextGaussian();
+      }
+    }
+    CompressedSparseRowMatrix csr =
+        new CompressedSparseRowMatrix(rows, columns, rowPointers, columnIndices, values);
+
+    double[] x = new double[columns];
+    for (int j = 0; j < columns; j++) {
+      x[j] = random.nextGaussian();
+    }
+    double[] expectedY = new double[rows];
+    double[] expectedZ = new double[columns];
+    for (int row = 0; row < rows; row++) {
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        expectedY[row] += values[p] * x[columnIndices[p]];
+      }
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        expectedZ[columnIndices[p]] += values[p] * expectedY[row];
+      }
+    }
+    Vector y = csr.times(new DenseVector(x, true));
+    Vector z = csr.timesSquared(new DenseVector(x, true));
+    assertEquals(0, y.minus(new DenseVector(expectedY, true)).norm(Double.POSITIVE_INFINITY), 1.0e-9);
+    assertEquals(0, z.minus(new DenseVector(expectedZ, true)).norm(Double.POSITIVE_INFINITY), 1.0e-6);
+
+    Matrix b = new DenseMatrix(columns, 4).assign(Functions.random());
+    Matrix product = csr.times(b);
+    for (int row = 0; row < rows; row += 97) {
+      for (int col = 0; col < 4; col++) {
+        assertEquals(csr.viewRow(row).dot(b.viewColumn(col)), product.get(row, col), 1.0e-9);
+      }
+    }
+
+    // the transpose is in column form, whose product with a matrix scatters in bands too
+    Matrix c = new DenseMatrix(rows, 4).assign(Functions.random());
+    Matrix transposedProduct = csr.transpose().times(c);
+    assertEquals(columns, transposedProduct.rowSize());
+    for (int column = 0; column < columns; column += 31) {
+      for (int col = 0; col < 4; col++) {
+        assertEquals(csr.viewColumn(column).dot(c.viewColumn(col)), transposedProduct.get(column, col), 1.0e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testFromRowsOutOfOrder() {
+    List<MatrixSlice> slices = Lists.newArrayList();
+    slices.add(new MatrixSlice(new DenseVector(new double[] {0, 2, 0}), 3));
+    RandomAccessSparseVector randomAccess = new RandomAccessSparseVector(3);
+    randomAccess.setQuick(2, 5);
+    randomAccess.setQuick(0, 4);
+    slices.add(new MatrixSlice(randomAccess, 1));
+    slices.add(new MatrixSlice(new SequentialAccessSparseVector(3), 0));
+
+    CompressedSparseRowMatrix csr = CompressedSparseRowMatrix.fromRows(slices, -1, -1);
+    assertEquals(4, csr.rowSize());
+    assertEquals(3, csr.columnSize());
+    assertEquals(3, csr.getNumNonZeros());
+    assertEquals(4, csr.get(1, 0), 0.0);
+    assertEquals(5, csr.get(1, 2), 0.0);
+    assertEquals(2, csr.get(3, 1), 0.0);
+    assertEquals(0, csr.viewRow(2).norm(1), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromRowsDuplicateRow() {
+    List<MatrixSlice> slices = Lists.newArrayList();
+    slices.add(new MatrixSlice(new DenseVector(new double[] {1, 0}), 1));
+    slices.add(new MatrixSlice(new DenseVector(new double[] {0, 0}), 0));
+    slices.add(new MatrixSlice(new DenseVector(new double[] {0, 1}), 1));
+    CompressedSparseRowMatrix.fromRows(slices, -1, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsortedColumns() {
+    new CompressedSparseRowMatrix(1, 3, new int[] {0, 2}, new int[] {2, 1}, new double[] {1, 1});
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    CompressedSparseRowMatrix.copyOf(new DenseMatrix(2, 2)).set(0, 0, 1);
+  }
+
+  private static Matrix randomSparseMatrix(Random random, int rows, int columns, double density) {
+    Matrix matrix = new SparseRowMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < columns; col++) {
+        if (random.nextDouble() < density) {
+          matrix.setQuick(row, col, random.nextGaussian());
+        }
+      }
+    }
+    return matrix;
+  }
+
+}
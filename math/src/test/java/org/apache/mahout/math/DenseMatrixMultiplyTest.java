@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class DenseMatrixMultiplyTest extends MahoutTestCase {
+
+  @Test
+  public void testSmallRaggedShapes() {
+    Random random = RandomUtils.getRandom();
+    for (int m = 1; m <= 9; m++) {
+      for (int k = 1; k <= 5; k++) {
+        checkProduct(random, m, k, 7);
+      }
+    }
+  }
+
+  @Test
+  public void testParallelBlockedProduct() {
+    // large enough to be split across threads and to span several tiles in both blocked dimensions
+    checkProduct(RandomUtils.getRandom(), 301, 523, 1101);
+  }
+
+  @Test
+  public void testTimesLeftAndRight() {
+    Random random = RandomUtils.getRandom();
+    DenseMatrix a = randomMatrix(random, 13, 6);
+    DenseMatrix b = randomMatrix(random, 6, 9);
+    Matrix expected = naiveTimes(a, b);
+
+    assertEquals(0, a.timesRight(b).minus(expected).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+    assertEquals(0, b.timesLeft(a).minus(expected).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+    // a sparse operand falls back to the generic product
+    Matrix sparse = new SparseRowMatrix(6, 9);
+    sparse.assign(b);
+    assertEquals(0, a.times(sparse).minus(expected).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+  }
+
+  @Test(expected = CardinalityException.class)
+  public void testCardinality() {
+    new DenseMatrix(3, 4).times(new DenseMatrix(3, 4));
+  }
+
+  private static void checkProduct(Random random, int m, int k, int n) {
+    DenseMatrix a = randomMatrix(random, m, k);
+    DenseMatrix b = randomMatrix(random, k, n);
+    Matrix actual = a.times(b);
+    assertTrue(actual instanceof DenseMatrix);
+    assertEquals(m, actual.rowSize());
+    assertEquals(n, actual.columnSize());
+    assertEquals(0, actual.minus(naiveTimes(a, b)).aggregate(Functions.MAX, Functions.ABS), 1.0e-9);
+  }
+
+  private static DenseMatrix randomMatrix(Random random, int rows, int columns) {
+    DenseMatrix matrix = new DenseMatrix(rows, columns);
+    for (int row = 0; row < rows; row++) {
+      for (int col = 0; col < columns; col++) {
+        matrix.setQuick(row, col, random.nextGaussian());
+      }
+    }
+    return matrix;
+  }
+
+  private static Matrix naiveTimes(Matrix a, Matrix b) {
+    Matrix result = new DenseMatrix(a.rowSize(), b.columnSize());
+    for (int row = 0; row < a.rowSize(); row++) {
+      for (int col = 0; col < b.columnSize(); col++) {
+        double sum = 0;
+        for (int i = 0; i < a.columnSize(); i++) {
+          sum += a.getQuick(row, i) * b.getQuick(i, col);
+        }
+        result.setQuick(row, col, sum);
+      }
+    }
+    return result;
+  }
+}
@@ -17,6 +17,9 @@
 
 package org.apache.mahout.math;
 
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.function.Functions;
 import org.apache.mahout.math.solver.EigenDecomposition;
 import org.junit.Test;
@@ -62,4 +65,57 @@ public class DenseSymmetricTest extends MahoutTestCase {
 
   }
 
+  @Test
+  public void testRankKUpdate() {
+    Random random = RandomUtils.getRandom();
+    Matrix x = new DenseMatrix(300, 21).assign(Functions.random());
+    DenseSymmetricMatrix a = new DenseSymmetricMatrix(21).rankKUpdate(x);
+    Matrix expected = x.transpose().times(x);
+    assertEquals(0, a.minus(expected).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+
+    Matrix sparse = new SparseRowMatrix(40, 21);
+    for (int row = 0; row < 40; row++) {
+      for (int k = 0; k < 3; k++) {
+        sparse.setQuick(row, random.nextInt(21), random.nextGaussian());
+      }
+    }
+    a.rankKUpdate(sparse);
+    expected = expected.plus(sparse.transpose().times(sparse));
+    assertEquals(0, a.minus(expected).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+
+    Vector v = new RandomAccessSparseVector(21);
+    v.setQuick(17, 2);
+    v.setQuick(3, -1);
+    v.setQuick(9, 0.5);
+    a.rankOneUpdate(0.5, v);
+    expected = expected.plus(v.cross(v).times(0.5));
+    assertEquals(0, a.minus(expected).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+  }
+
+  @Test
+  public void testTimesAndSolve() {
+    Matrix x = new DenseMatrix(50, 17).assign(Functions.random());
+    DenseSymmetricMatrix a = new DenseSymmetricMatrix(17).rankKUpdate(x);
+    Matrix m = new DenseMatrix(17, 17).assign(a);
+    Matrix b = new DenseMatrix(17, 3).assign(Functions.random());
+    Vector v = b.viewColumn(0);
+
+    assertEquals(0, a.times(b).minus(m.times(b)).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+    assertEquals(0, a.times(v).minus(m.times(v)).norm(1), 1.0e-10);
+
+    UpperTriangular r = a.choleskyFactor();
+    assertEquals(0, r.transpose().times(r).minus(m).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+    assertEquals(0, m.times(a.solve(b)).minus(b).aggregate(Functions.MAX, Functions.ABS), 1.0e-8);
+    assertEquals(0, m.times(a.solve(v)).minus(v).norm(1), 1.0e-8);
+
+    CholeskyDecomposition packed = new CholeskyDecomposition(a);
+    CholeskyDecomposition dense = new CholeskyDecomposition(m);
+    assertEquals(0, packed.getL().minus(dense.getL()).aggregate(Functions.MAX, Functions.ABS), 1.0e-12);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCholeskyOfSingularMatrix() {
+    new DenseSymmetricMatrix(10).rankKUpdate(new DenseMatrix(4, 10).assign(Functions.random())).choleskyFactor();
+  }
+
 }
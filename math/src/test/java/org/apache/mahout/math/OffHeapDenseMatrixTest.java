@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.mahout.math.function.Functions;
+import org.junit.Test;
+
+public final class OffHeapDenseMatrixTest extends MahoutTestCase {
+
+  @Test
+  public void testAssignAndTimes() {
+    Matrix onHeap = new DenseMatrix(new double[][] {{1, 2, 3}, {4, 5, 6}, {7, 8, 10}, {-1, 0, 2}});
+    OffHeapDenseMatrix offHeap = new OffHeapDenseMatrix(4, 3);
+    try {
+      offHeap.assign(onHeap);
+      assertEquals(0, offHeap.minus(onHeap).aggregate(Functions.MAX, Functions.ABS), EPSILON);
+
+      Matrix product = offHeap.times(onHeap.transpose());
+      assertEquals(0, product.minus(onHeap.times(onHeap.transpose())).aggregate(Functions.MAX, Functions.ABS),
+          EPSILON);
+
+      Vector v = new DenseVector(new double[] {1, -1, 2});
+      assertEquals(0, offHeap.times(v).minus(onHeap.times(v)).norm(1), EPSILON);
+
+      offHeap.assign(Functions.mult(2));
+      assertEquals(20, offHeap.get(2, 2), EPSILON);
+    } finally {
+      offHeap.close();
+    }
+  }
+
+  @Test
+  public void testViewRowSharesStorage() {
+    OffHeapDenseMatrix m = new OffHeapDenseMatrix(3, 4);
+    try {
+      Vector row = m.viewRow(1);
+      assertTrue(row instanceof OffHeapDenseVector);
+      assertEquals(4, row.size());
+      row.assign(new double[] {1, 2, 3, 4});
+      assertEquals(3, m.get(1, 2), EPSILON);
+      assertEquals(0, m.get(0, 3), EPSILON);
+      assertEquals(0, m.get(2, 0), EPSILON);
+
+      m.set(1, 0, 5);
+      assertEquals(5, row.get(0), EPSILON);
+      assertEquals(25 + 4 + 9 + 16, row.getLengthSquared(), EPSILON);
+      assertEquals(row.dot(new DenseVector(new double[] {1, 1, 1, 1})), 14, EPSILON);
+
+      m.assignRow(2, new DenseVector(new double[] {1, 1, 1, 1}));
+      assertEquals(4, m.viewRow(2).zSum(), EPSILON);
+    } finally {
+      m.close();
+    }
+  }
+
+  @Test
+  public void testCloneIsIndependent() {
+    OffHeapDenseMatrix m = new OffHeapDenseMatrix(2, 2);
+    m.assign(1);
+    Matrix clone = m.clone();
+    try {
+      assertTrue(clone instanceof OffHeapDenseMatrix);
+      clone.set(0, 0, 7);
+      assertEquals(1, m.get(0, 0), EPSILON);
+      assertEquals(7, clone.get(0, 0), EPSILON);
+      assertEquals(1, clone.get(1, 1), EPSILON);
+    } finally {
+      m.close();
+      ((OffHeapDenseMatrix) clone).close();
+    }
+  }
+
+  @Test
+  public void testMappedFile() throws IOException {
+    Matrix values = new DenseMatrix(new double[][] {{1, 2}, {3, 4}, {5, 6}});
+    File f = new File(getTestTempDir(), "matrix");
+    OffHeapDenseMatrix mapped = new OffHeapDenseMatrix(f, 3, 2);
+    mapped.assign(values);
+    mapped.set(2, 1, 60);
+    mapped.close();
+    assertEquals(3 * 2 * 8, f.length());
+
+    // the layout is the one FileBasedMatrix reads
+    FileBasedMatrix readBack = new FileBasedMatrix(3, 2);
+    readBack.setData(f, true);
+    assertEquals(1, readBack.get(0, 0), EPSILON);
+    assertEquals(4, readBack.get(1, 1), EPSILON);
+    assertEquals(60, readBack.get(2, 1), EPSILON);
+
+    OffHeapDenseMatrix reopened = new OffHeapDenseMatrix(f, 3, 2);
+    try {
+      assertEquals(60, reopened.get(2, 1), EPSILON);
+      assertEquals(5, reopened.viewRow(2).get(0), EPSILON);
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  public void testVector() {
+    OffHeapDenseVector v = new OffHeapDenseVector(new DenseVector(new double[] {0, 1, 0, 3}));
+    try {
+      assertEquals(10, v.getLengthSquared(), EPSILON);
+      int nonZeros = 0;
+      for (Vector.Element e : v.nonZeroes()) {
+        assertTrue(e.get() != 0);
+        nonZeros++;
+      }
+      assertEquals(2, nonZeros);
+
+      Vector sum = v.plus(new DenseVector(new double[] {1, 1, 1, 1}));
+      assertEquals(new DenseVector(new double[] {1, 2, 1, 4}), sum);
+
+      OffHeapDenseVector copy = v.clone();
+      copy.set(0, 9);
+      assertEquals(0, v.get(0), EPSILON);
+      copy.close();
+
+      v.assign(new DenseVector(new double[] {2, 2, 2, 2}), Functions.PLUS);
+      assertEquals(2 + 3 + 2 + 5, v.zSum(), EPSILON);
+    } finally {
+      v.close();
+    }
+  }
+}
@@ -193,6 +193,38 @@ public final class QRDecompositionTest extends MahoutTestCase {
     QR decompose(Matrix a);
   }
 
+  @Test
+  public void blocked() {
+    // several panels of columns; the tall matrix is large enough for the updates to run in parallel
+    Matrix[] matrices = {
+        new DenseMatrix(5000, 70).assign(Functions.random()),
+        new DenseMatrix(40, 100).assign(Functions.random()),
+        new DenseMatrix(100, 100).assign(Functions.random())
+    };
+    for (Matrix a : matrices) {
+      String message = a.rowSize() + " x " + a.columnSize();
+      QRDecomposition qr = new QRDecomposition(a);
+      Matrix q = qr.getQ();
+      Matrix identity = new DiagonalMatrix(1, q.columnSize());
+      assertEquals(message, 0, q.transpose().times(q).minus(identity).aggregate(Functions.MAX, Functions.ABS),
+          1.0e-12);
+      assertEquals(message, 0, q.times(qr.getR()).minus(a).aggregate(Functions.MAX, Functions.ABS), 1.0e-12);
+      assertTrue(message, qr.hasFullRank());
+    }
+  }
+
+  @Test
+  public void nearlySingular() {
+    Matrix a = new DenseMatrix(80, 40).assign(Functions.random());
+    // the last column a multiple of the first, up to rounding
+    a.viewColumn(39).assign(a.viewColumn(0).times(3.0));
+    assertFalse(new QRDecomposition(a).hasFullRank());
+
+    // but a small difference is rank
+    a.set(0, 39, a.get(0, 39) + 1.0e-8);
+    assertTrue(new QRDecomposition(a).hasFullRank());
+  }
+
   private static void decompositionSpeedCheck(Decomposer qrf, OnlineSummarizer s1, Matrix a, String label) {
     int n = 0;
     List<Integer> counts = Lists.newArrayList(10, 20, 50, 100, 200, 500);
@@ -44,4 +44,36 @@ public final class TestDenseVector extends AbstractVectorTest<DenseVector> {
   public void testToString() {
     super.testToString();
   }
+
+  @Test
+  public void testDenseKernelsMatchGenericPath() {
+    // odd sizes exercise the tail of the unrolled loops
+    for (int size : new int[] {0, 1, 3, 4, 7, 101}) {
+      DenseVector x = vectorToTest(size);
+      DenseVector y = vectorToTest(size);
+      // the same values behind a vector that is dense, but not a DenseVector, take the generic path
+      Vector yGeneric = new RandomAccessSparseVector(y);
+      Vector yWeighted = new WeightedVector(y, 2, 0);
+      Matrix matrix = new DenseMatrix(2, size);
+      matrix.assignRow(1, y);
+      Vector yRow = matrix.viewRow(1);
+
+      double dot = x.aggregate(yGeneric, Functions.PLUS, Functions.MULT);
+      double distance = x.aggregate(yGeneric, Functions.PLUS, Functions.MINUS_SQUARED);
+      for (Vector other : new Vector[] {y, yWeighted, yRow}) {
+        assertEquals(dot, x.dot(other), EPSILON);
+        assertEquals(dot, other.dot(x), EPSILON);
+        assertEquals(distance, x.getDistanceSquared(other), EPSILON);
+        assertEquals(distance, other.getDistanceSquared(x), EPSILON);
+      }
+      assertEquals(x.aggregate(Functions.PLUS, Functions.SQUARE), x.getLengthSquared(), EPSILON);
+
+      Vector expected = x.clone().assign(yGeneric, Functions.plusMult(-0.5));
+      Centroid centroid = new Centroid(0, x.clone(), 1);
+      centroid.assign(yWeighted, Functions.plusMult(-0.5));
+      assertEquals(0, expected.getDistanceSquared(centroid), EPSILON);
+      // the cached length must be invalidated
+      assertEquals(expected.getLengthSquared(), centroid.getLengthSquared(), EPSILON);
+    }
+  }
 }
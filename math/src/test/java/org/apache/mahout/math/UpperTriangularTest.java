@@ -17,6 +17,9 @@
 
 package org.apache.mahout.math;
 
+import java.util.Random;
+
+import org.apache.mahout.common.RandomUtils;
 import org.apache.mahout.math.function.Functions;
 import org.junit.Test;
 
@@ -38,6 +41,33 @@ public class UpperTriangularTest extends MahoutTestCase {
     assertEquals(0, m.plus(m).minus(a.plus(a)).aggregate(Functions.PLUS, Functions.ABS), 1.0e-10);
   }
 
+  @Test
+  public void testTimesAndSolve() {
+    int n = 23;
+    UpperTriangular u = new UpperTriangular(n);
+    Matrix m = new DenseMatrix(n, n);
+    Random random = RandomUtils.getRandom();
+    for (int i = 0; i < n; i++) {
+      for (int j = i; j < n; j++) {
+        // a heavy diagonal keeps the solves well conditioned
+        double value = random.nextGaussian() + (i == j ? n : 0);
+        u.setQuick(i, j, value);
+        m.setQuick(i, j, value);
+      }
+    }
+    Matrix b = new DenseMatrix(n, 4).assign(Functions.random());
+    Vector v = b.viewColumn(1);
+
+    assertEquals(0, u.times(b).minus(m.times(b)).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+    assertEquals(0, u.times(v).minus(m.times(v)).norm(1), 1.0e-10);
+
+    assertEquals(0, m.times(u.solve(b)).minus(b).aggregate(Functions.MAX, Functions.ABS), 1.0e-10);
+    assertEquals(0, m.times(u.solve(v)).minus(v).norm(1), 1.0e-10);
+    assertEquals(0, m.transpose().times(u.transposeSolve(b)).minus(b).aggregate(Functions.MAX, Functions.ABS),
+        1.0e-10);
+    assertEquals(0, m.transpose().times(u.transposeSolve(v)).minus(v).norm(1), 1.0e-10);
+  }
+
   private static void print(Matrix m) {
     for (int i = 0; i < m.rowSize(); i++) {
       for (int j = 0; j < m.columnSize(); j++) {
@@ -24,7 +24,6 @@ import org.apache.mahout.math.DenseVector;
 import org.apache.mahout.math.MahoutTestCase;
 import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.RandomAccessSparseVector;
-import org.apache.mahout.math.SequentialAccessSparseVector;
 import org.apache.mahout.math.SparseMatrix;
 import org.apache.mahout.math.Vector;
 import org.apache.mahout.math.map.OpenIntObjectHashMap;
@@ -105,45 +104,17 @@ public class AlternatingLeastSquaresSolverTest extends MahoutTestCase {
   }
 
   @Test
-  public void createMiIi() {
+  public void solveExceptionOnNonSequentialRatings() {
     Vector f1 = new DenseVector(new double[] { 1, 2, 3 });
     Vector f2 = new DenseVector(new double[] { 4, 5, 6 });
-
-    Matrix miIi = AlternatingLeastSquaresSolver.createMiIi(Arrays.asList(f1, f2), 3);
-
-    assertEquals(1.0, miIi.getQuick(0, 0), EPSILON);
-    assertEquals(2.0, miIi.getQuick(1, 0), EPSILON);
-    assertEquals(3.0, miIi.getQuick(2, 0), EPSILON);
-    assertEquals(4.0, miIi.getQuick(0, 1), EPSILON);
-    assertEquals(5.0, miIi.getQuick(1, 1), EPSILON);
-    assertEquals(6.0, miIi.getQuick(2, 1), EPSILON);
-  }
-
-  @Test
-  public void createRiIiMaybeTransposed() {
-    Vector ratings = new SequentialAccessSparseVector(3);
-    ratings.setQuick(1, 1.0);
-    ratings.setQuick(3, 3.0);
-    ratings.setQuick(5, 5.0);
-
-    Matrix riIiMaybeTransposed = AlternatingLeastSquaresSolver.createRiIiMaybeTransposed(ratings);
-    assertEquals(1, riIiMaybeTransposed.numCols(), 1);
-    assertEquals(3, riIiMaybeTransposed.numRows(), 3);
-
-    assertEquals(1.0, riIiMaybeTransposed.getQuick(0, 0), EPSILON);
-    assertEquals(3.0, riIiMaybeTransposed.getQuick(1, 0), EPSILON);
-    assertEquals(5.0, riIiMaybeTransposed.getQuick(2, 0), EPSILON);
-  }
-
-  @Test
-  public void createRiIiMaybeTransposedExceptionOnNonSequentialVector() {
-    Vector ratings = new RandomAccessSparseVector(3);
+    Vector f3 = new DenseVector(new double[] { 7, 8, 9 });
+    Vector ratings = new RandomAccessSparseVector(6);
     ratings.setQuick(1, 1.0);
     ratings.setQuick(3, 3.0);
     ratings.setQuick(5, 5.0);
 
     try {
-      AlternatingLeastSquaresSolver.createRiIiMaybeTransposed(ratings);
+      AlternatingLeastSquaresSolver.solve(Arrays.asList(f1, f2, f3), ratings, 0.1, 3);
       fail();
     } catch (IllegalArgumentException e) {}
   }
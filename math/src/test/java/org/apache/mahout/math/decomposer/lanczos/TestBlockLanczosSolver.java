@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.mahout.math.decomposer.lanczos;
+
+import java.io.File;
+import java.util.Iterator;
+
+import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
+import org.apache.mahout.math.MatrixSlice;
+import org.apache.mahout.math.Vector;
+import org.apache.mahout.math.VectorIterable;
+import org.apache.mahout.math.decomposer.SolverTest;
+import org.apache.mahout.math.solver.EigenDecomposition;
+import org.junit.Test;
+
+public final class TestBlockLanczosSolver extends SolverTest {
+
+  private static final double ERROR_TOLERANCE = 0.05;
+
+  @Test
+  public void testEigenvalueCheck() throws Exception {
+    int size = 100;
+    Matrix m = randomHierarchicalSymmetricMatrix(size);
+
+    Vector initialVector = new DenseVector(size);
+    initialVector.assign(1.0 / Math.sqrt(size));
+    int desiredRank = 80;
+    LanczosState state = new LanczosState(m, desiredRank, initialVector);
+    new BlockLanczosSolver(6, 3).solve(state, desiredRank, true);
+    assertEquals(desiredRank, state.getIterationNumber());
+
+    EigenDecomposition decomposition = new EigenDecomposition(m);
+    Vector eigenvalues = decomposition.getRealEigenvalues();
+
+    for (int i = 0; i < 0.6 * desiredRank; i++) {
+      double s = state.getSingularValue(i);
+      double e = eigenvalues.get(i);
+      assertTrue("Singular value differs from eigenvalue", Math.abs((s - e) / e) < ERROR_TOLERANCE);
+      Vector v = state.getRightSingularVector(i);
+      Vector v2 = decomposition.getV().viewColumn(i);
+      double error = 1 - Math.abs(v.dot(v2) / (v.norm(2) * v2.norm(2)));
+      assertTrue(i + ": 1 - cosAngle = " + error, error < ERROR_TOLERANCE);
+    }
+  }
+
+  @Test
+  public void testBlockLanczosSolver() throws Exception {
+    int numRows = 800;
+    int numColumns = 500;
+    Matrix corpus = randomHierarchicalMatrix(numRows, numColumns, false);
+    Vector initialVector = new DenseVector(numColumns);
+    initialVector.assign(1.0 / Math.sqrt(numColumns));
+    int rank = 50;
+    LanczosState state = new LanczosState(corpus, rank, initialVector);
+    new BlockLanczosSolver().solve(state, rank, false);
+    assertOrthonormal(state);
+    for (int i = 0; i < rank / 2; i++) {
+      assertEigen(i, state.getRightSingularVector(i), corpus, ERROR_TOLERANCE, false);
+    }
+  }
+
+  @Test
+  public void testMappedBasisMatchesHeapBasis() throws Exception {
+    int numRows = 300;
+    int numColumns = 200;
+    Matrix corpus = randomHierarchicalMatrix(numRows, numColumns, false);
+    Vector initialVector = new DenseVector(numColumns);
+    initialVector.assign(1.0 / Math.sqrt(numColumns));
+    int rank = 30;
+
+    LanczosState heapState = new LanczosState(corpus, rank, initialVector);
+    new BlockLanczosSolver(4, 2).solve(heapState, rank, false);
+
+    File basisFile = new File(getTestTempDir("lanczos"), "basis");
+    MappedLanczosState mappedState = new MappedLanczosState(corpus, rank, initialVector, basisFile);
+    try {
+      new BlockLanczosSolver(4, 2).solve(mappedState, rank, false);
+      assertEquals(rank, mappedState.getBasisSize());
+      for (int i = 0; i < rank; i++) {
+        assertEquals(0, heapState.getBasisVector(i).minus(mappedState.getBasisVector(i)).norm(1), 1.0e-8);
+      }
+    } finally {
+      mappedState.close();
+    }
+    for (int i = 0; i < rank / 2; i++) {
+      assertEquals(heapState.getSingularValue(i), mappedState.getSingularValue(i), 1.0e-8);
+    }
+  }
+
+  @Test
+  public void testCorpusNotReadThroughClient() throws Exception {
+    int numRows = 300;
+    int numColumns = 200;
+    Matrix corpus = randomHierarchicalMatrix(numRows, numColumns, false);
+    Vector initialVector = new DenseVector(numColumns);
+    initialVector.assign(1.0 / Math.sqrt(numColumns));
+    int rank = 30;
+    LanczosState state = new LanczosState(new ProductsOnly(corpus), rank, initialVector);
+    new BlockLanczosSolver(4, 2).solve(state, rank, false);
+    assertOrthonormal(state);
+    for (int i = 0; i < rank / 2; i++) {
+      assertEigen(i, state.getRightSingularVector(i), corpus, ERROR_TOLERANCE, false);
+    }
+  }
+
+  /** Like a distributed matrix, computes products but fails if its rows are read. */
+  private static final class ProductsOnly implements VectorIterable {
+
+    private final Matrix matrix;
+
+    private ProductsOnly(Matrix matrix) {
+      this.matrix = matrix;
+    }
+
+    @Override
+    public Iterator<MatrixSlice> iterateAll() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterator<MatrixSlice> iterator() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int numSlices() {
+      return matrix.numSlices();
+    }
+
+    @Override
+    public int numRows() {
+      return matrix.numRows();
+    }
+
+    @Override
+    public int numCols() {
+      return matrix.numCols();
+    }
+
+    @Override
+    public Vector times(Vector v) {
+      return matrix.times(v);
+    }
+
+    @Override
+    public Vector timesSquared(Vector v) {
+      return matrix.timesSquared(v);
+    }
+  }
+
+}